@@ -29,8 +29,11 @@ import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 import picard.util.IlluminaUtil;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -46,9 +49,16 @@ public class AdapterUtility {
     // The maximum number of mismatches a read can have and still be considered as matching an adapter
     private static final int MAX_ADAPTER_ERRORS = 1;
 
+    // The number of bases in each half of a kmer; a read within MAX_ADAPTER_ERRORS of a kmer matches one half exactly
+    private static final int HALF_LENGTH = ADAPTER_MATCH_LENGTH / 2;
+
     // byte arrays in both fwd and rc for the adapter sequences
     final byte [][] adapterKmers;
 
+    // the kmers above, keyed by the bases of their first and second halves packed into a long
+    private final Map<Long, List<byte[]>> kmersByFirstHalf = new HashMap<>();
+    private final Map<Long, List<byte[]>> kmersBySecondHalf = new HashMap<>();
+
     public static List<String> DEFAULT_ADAPTER_SEQUENCE = CollectionUtil.makeList(
             IlluminaUtil.IlluminaAdapterPair.SINGLE_END.get5PrimeAdapter(),
             IlluminaUtil.IlluminaAdapterPair.SINGLE_END.get3PrimeAdapter(),
@@ -61,6 +71,17 @@ public class AdapterUtility {
 
     public AdapterUtility(final List<String> adapterSequence) {
         adapterKmers = prepareAdapterSequences(adapterSequence);
+        for (final byte[] kmer : adapterKmers) {
+            kmersByFirstHalf.computeIfAbsent(packHalf(kmer, 0), k -> new ArrayList<>()).add(kmer);
+            kmersBySecondHalf.computeIfAbsent(packHalf(kmer, HALF_LENGTH), k -> new ArrayList<>()).add(kmer);
+        }
+    }
+
+    /** Packs the HALF_LENGTH bases starting at the given offset into a long, one byte per base. */
+    private static long packHalf(final byte[] bases, final int offset) {
+        long key = 0;
+        for (int i = offset; i < offset + HALF_LENGTH; ++i) key = (key << 8) | (bases[i] & 0xFF);
+        return key;
     }
 
     /** Converts the supplied adapter sequences to byte arrays in both fwd and rc */
@@ -100,7 +121,16 @@ public class AdapterUtility {
     public boolean isAdapterSequence(final byte[] read) {
         if (read.length < ADAPTER_MATCH_LENGTH) return false;
 
-        for (final byte[] adapter : adapterKmers) {
+        // With at most one mismatch in ADAPTER_MATCH_LENGTH bases, one half of the read must match the same half of
+        // the kmer exactly, so only the kmers sharing a half with the read need to be compared base by base.
+        return matchesAny(read, kmersByFirstHalf.get(packHalf(read, 0))) ||
+                matchesAny(read, kmersBySecondHalf.get(packHalf(read, HALF_LENGTH)));
+    }
+
+    private static boolean matchesAny(final byte[] read, final List<byte[]> candidates) {
+        if (candidates == null) return false;
+
+        for (final byte[] adapter : candidates) {
             int errors = 0;
 
             for (int i=0; i<adapter.length; ++i) {
@@ -38,6 +38,7 @@ import htsjdk.samtools.util.Histogram;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.samtools.SamPairUtil.PairOrientation;
+import picard.metrics.MergeablePerUnitMetricCollector;
 import picard.metrics.PerUnitMetricCollector;
 import picard.metrics.SAMRecordAndReference;
 import picard.metrics.SAMRecordAndReferenceMultiLevelCollector;
@@ -67,6 +68,29 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
     //the adapter utility class
     private final AdapterUtility adapterUtility;
 
+    // Read and reference bases mapped to the same value exactly when SequenceUtil.basesEqual() considers them equal;
+    // values it does not accept are mapped to values of their own, so that they are passed on to it and rejected there
+    private static final int[] BASE_CLASSES = new int[256];
+
+    // Read bases that need the base-by-base comparison even where they match the reference: no-calls, which count
+    // towards bad cycles, and lower-case t, which the bisulfite check below treats as converted wherever it occurs
+    private static final int[] SPECIAL_READ_BASES = new int[256];
+
+    static {
+        for (int b = 0; b < 256; ++b) {
+            BASE_CLASSES[b] = b + 256;
+            if (b < Byte.MAX_VALUE) {
+                for (int c = 0; c <= b; ++c) {
+                    if (SequenceUtil.basesEqual((byte) b, (byte) c)) {
+                        BASE_CLASSES[b] = c;
+                        break;
+                    }
+                }
+            }
+            if (SequenceUtil.isNoCall((byte) b) || b == 't') SPECIAL_READ_BASES[b] = 1;
+        }
+    }
+
     public AlignmentSummaryMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final List<SAMReadGroupRecord> samRgRecords,
                                             final boolean doRefMetrics, final List<String> adapterSequence, final int maxInsertSize,
                                             final Set<PairOrientation> expectedOrientations, final boolean isBisulfiteSequenced) {
@@ -83,6 +107,11 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
         return new GroupAlignmentSummaryMetricsPerUnitMetricCollector(sample, library, readGroup);
     }
 
+    @Override
+    protected boolean mergesChildCollectors() {
+        return true;
+    }
+
     @Override
     public void acceptRecord(final SAMRecord rec, final ReferenceSequence ref) {
         if (!rec.isSecondaryOrSupplementary()) {
@@ -90,7 +119,7 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
         }
     }
 
-    private class GroupAlignmentSummaryMetricsPerUnitMetricCollector implements PerUnitMetricCollector<AlignmentSummaryMetrics, Comparable<?>, SAMRecordAndReference> {
+    private class GroupAlignmentSummaryMetricsPerUnitMetricCollector implements MergeablePerUnitMetricCollector<AlignmentSummaryMetrics, Comparable<?>, SAMRecordAndReference> {
         final IndividualAlignmentSummaryMetricsCollector unpairedCollector;
         final IndividualAlignmentSummaryMetricsCollector firstOfPairCollector;
         final IndividualAlignmentSummaryMetricsCollector secondOfPairCollector;
@@ -128,6 +157,15 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
             }
         }
 
+        @Override
+        public void merge(final PerUnitMetricCollector<AlignmentSummaryMetrics, Comparable<?>, SAMRecordAndReference> other) {
+            final GroupAlignmentSummaryMetricsPerUnitMetricCollector that = (GroupAlignmentSummaryMetricsPerUnitMetricCollector) other;
+            unpairedCollector.merge(that.unpairedCollector);
+            firstOfPairCollector.merge(that.firstOfPairCollector);
+            secondOfPairCollector.merge(that.secondOfPairCollector);
+            pairCollector.merge(that.pairCollector);
+        }
+
         @Override
         public void finish() {
             // Let the collectors do any summary computations etc.
@@ -226,6 +264,31 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
                 }
             }
 
+            /** Adds the counts accumulated by another collector to this one's, before either is completed */
+            public void merge(final IndividualAlignmentSummaryMetricsCollector other) {
+                numPositiveStrand += other.numPositiveStrand;
+                readLengthHistogram.addHistogram(other.readLengthHistogram);
+                chimeras += other.chimeras;
+                chimerasDenominator += other.chimerasDenominator;
+                adapterReads += other.adapterReads;
+                indels += other.indels;
+                nonBisulfiteAlignedBases += other.nonBisulfiteAlignedBases;
+                hqNonBisulfiteAlignedBases += other.hqNonBisulfiteAlignedBases;
+                mismatchHistogram.addHistogram(other.mismatchHistogram);
+                hqMismatchHistogram.addHistogram(other.hqMismatchHistogram);
+                badCycleHistogram.addHistogram(other.badCycleHistogram);
+
+                metrics.TOTAL_READS += other.metrics.TOTAL_READS;
+                metrics.PF_READS += other.metrics.PF_READS;
+                metrics.PF_NOISE_READS += other.metrics.PF_NOISE_READS;
+                metrics.PF_READS_ALIGNED += other.metrics.PF_READS_ALIGNED;
+                metrics.READS_ALIGNED_IN_PAIRS += other.metrics.READS_ALIGNED_IN_PAIRS;
+                metrics.PF_HQ_ALIGNED_READS += other.metrics.PF_HQ_ALIGNED_READS;
+                metrics.PF_ALIGNED_BASES += other.metrics.PF_ALIGNED_BASES;
+                metrics.PF_HQ_ALIGNED_BASES += other.metrics.PF_HQ_ALIGNED_BASES;
+                metrics.PF_HQ_ALIGNED_Q20_BASES += other.metrics.PF_HQ_ALIGNED_Q20_BASES;
+            }
+
             private void collectReadData(final SAMRecord record) {
                 // NB: for read count metrics, do not include supplementary records, but for base count metrics, do include supplementary records.
                 if (record.getSupplementaryAlignmentFlag()) return;
@@ -300,9 +363,22 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
                     for (final AlignmentBlock alignmentBlock : record.getAlignmentBlocks()) {
                         final int readIndex = alignmentBlock.getReadStart() - 1;
                         final int refIndex  = alignmentBlock.getReferenceStart() - 1;
-                        final int length    = alignmentBlock.getLength();
+                        final int length    = Math.min(alignmentBlock.getLength(), refLength - refIndex);
+                        if (length <= 0) continue;
+
+                        // Most blocks match the reference throughout, and can be counted without looking at each base
+                        if (matchesExactly(readBases, readIndex, refBases, refIndex, length)) {
+                            metrics.PF_ALIGNED_BASES += length;
+                            nonBisulfiteAlignedBases += length;
+                            if (highQualityMapping) {
+                                metrics.PF_HQ_ALIGNED_BASES += length;
+                                hqNonBisulfiteAlignedBases += length;
+                                metrics.PF_HQ_ALIGNED_Q20_BASES += countAtLeast(qualities, readIndex, length, BASE_QUALITY_THRESHOLD);
+                            }
+                            continue;
+                        }
 
-                        for (int i=0; i<length && refIndex+i<refLength; ++i) {
+                        for (int i=0; i<length; ++i) {
                             final int readBaseIndex = readIndex + i;
                             boolean mismatch = !SequenceUtil.basesEqual(readBases[readBaseIndex], refBases[refIndex+i]);
                             boolean bisulfiteBase = false;
@@ -347,6 +423,28 @@ public class AlignmentSummaryMetricsCollector extends SAMRecordAndReferenceMulti
                 }
             }
 
+            /**
+             * Returns true if the given ranges of read and reference bases are equal base for base, and none of the read
+             * bases need looking at individually regardless.  Accumulates over the whole range without branching.
+             */
+            private boolean matchesExactly(final byte[] readBases, final int readIndex, final byte[] refBases, final int refIndex, final int length) {
+                int differences = 0;
+                for (int i = 0; i < length; ++i) {
+                    final int readBase = readBases[readIndex + i] & 0xFF;
+                    differences |= (BASE_CLASSES[readBase] ^ BASE_CLASSES[refBases[refIndex + i] & 0xFF]) | SPECIAL_READ_BASES[readBase];
+                }
+                return differences == 0;
+            }
+
+            /** Counts the qualities in the given range that are at least the given threshold. */
+            private int countAtLeast(final byte[] qualities, final int start, final int length, final int threshold) {
+                int count = 0;
+                for (int i = start; i < start + length; ++i) {
+                    count += (threshold - 1 - qualities[i]) >>> 31;
+                }
+                return count;
+            }
+
             private boolean isNoiseRead(final SAMRecord record) {
                 final Object noiseAttribute = record.getAttribute(ReservedTagConstants.XN);
                 return (noiseAttribute != null && noiseAttribute.equals(1));
@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.SequenceUtil;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts the bases of reads by cycle and the qualities of those bases, from which CollectBaseDistributionByCycle,
+ * MeanQualityByCycle and QualityScoreDistribution derive their outputs.  When several of those programs are run together over
+ * the same reads with the same read filters, as by CollectMultipleMetrics, they share one instance so that every base is only
+ * counted once.
+ *
+ * Only the tables used by the programs sharing an instance are kept.  Cycles are numbered from one, in the direction of
+ * sequencing, and start again at one for the second end of a pair.  Tables of original qualities (from the OQ tag) are only
+ * allocated once a read with original qualities has been counted.
+ */
+final class BaseCountsByCycle {
+    /** The tables of counts that a program can derive its output from. */
+    enum Table {
+        /** The number of each base (A, C, G, T, or anything else) by end and cycle. */
+        BASES_BY_CYCLE,
+        /** The number and sum of quality scores by end and cycle, and likewise for original qualities. */
+        QUALITIES_BY_CYCLE,
+        /** The number of bases with each quality score, for no-calls and other bases apart, and likewise for original qualities. */
+        QUALITY_DISTRIBUTION
+    }
+
+    /** A program that derives its output from these counts, and that can share them with other such programs. */
+    interface Program {
+        boolean pfReadsOnly();
+
+        boolean alignedReadsOnly();
+
+        /** Returns the tables the program's output is derived from. */
+        Set<Table> tablesUsed();
+
+        void setBaseCountsByCycle(BaseCountsByCycle counts);
+    }
+
+    /** Bases are counted as A, C, G and T, and anything else is counted as an N. */
+    static final int NUM_BASE_CLASSES = 5;
+    private static final int[] BASE_CLASSES = new int[256];
+
+    static {
+        Arrays.fill(BASE_CLASSES, NUM_BASE_CLASSES - 1);
+        final String bases = "ACGT";
+        for (int i = 0; i < bases.length(); ++i) {
+            BASE_CLASSES[bases.charAt(i)] = i;
+            BASE_CLASSES[Character.toLowerCase(bases.charAt(i))] = i;
+        }
+    }
+
+    /** Quality scores are between 0 and 127. */
+    static final int NUM_QUALITIES = 128;
+
+    private final boolean pfReadsOnly;
+    private final boolean alignedReadsOnly;
+
+    /** Indexed by cycle, then end, then base class. */
+    private long[] baseCounts = null;
+    /** Indexed by cycle, then end, then the number of quality scores and their sum. */
+    private long[] qualityTotals = null;
+    private long[] originalQualityTotals = null;
+    /** Indexed by whether the base is a no-call, then quality score. */
+    private long[] qualityDistribution = null;
+    private long[] originalQualityDistribution = null;
+
+    /** One more than the longest read whose bases, or whose qualities, have been counted; zero if there have been none. */
+    private int numBaseCycles = 0;
+    private int numQualityCycles = 0;
+
+    /** The last record passed to addRecord(), so that programs sharing these counts can all pass every record. */
+    private SAMRecord lastRecord = null;
+
+    BaseCountsByCycle(final boolean pfReadsOnly, final boolean alignedReadsOnly, final Set<Table> tables) {
+        this.pfReadsOnly = pfReadsOnly;
+        this.alignedReadsOnly = alignedReadsOnly;
+        if (tables.contains(Table.BASES_BY_CYCLE)) baseCounts = new long[0];
+        if (tables.contains(Table.QUALITIES_BY_CYCLE)) qualityTotals = new long[0];
+        if (tables.contains(Table.QUALITY_DISTRIBUTION)) qualityDistribution = new long[2 * NUM_QUALITIES];
+    }
+
+    /** Creates counts for the given program, to use if it has not been given counts to share. */
+    static BaseCountsByCycle forProgram(final Program program) {
+        return new BaseCountsByCycle(program.pfReadsOnly(), program.alignedReadsOnly(), program.tablesUsed());
+    }
+
+    /** Gives the programs among those given that derive their outputs from these counts shared counts, where their read filters match. */
+    static void share(final List<? extends SinglePassSamProgram> programs) {
+        final Map<String, BaseCountsByCycle> countsByFilters = new HashMap<String, BaseCountsByCycle>();
+        final Map<String, Set<Table>> tablesByFilters = new HashMap<String, Set<Table>>();
+        for (final SinglePassSamProgram program : programs) {
+            if (program instanceof Program) {
+                final Program p = (Program) program;
+                tablesByFilters.computeIfAbsent(filtersOf(p), f -> EnumSet.noneOf(Table.class)).addAll(p.tablesUsed());
+            }
+        }
+        for (final SinglePassSamProgram program : programs) {
+            if (program instanceof Program) {
+                final Program p = (Program) program;
+                final String filters = filtersOf(p);
+                p.setBaseCountsByCycle(countsByFilters.computeIfAbsent(filters, f ->
+                        new BaseCountsByCycle(p.pfReadsOnly(), p.alignedReadsOnly(), tablesByFilters.get(f))));
+            }
+        }
+    }
+
+    private static String filtersOf(final Program program) {
+        return program.pfReadsOnly() + ":" + program.alignedReadsOnly();
+    }
+
+    /** Counts the bases of the record, unless it is filtered out or is the same record as was last counted. */
+    void addRecord(final SAMRecord rec) {
+        if (rec == lastRecord) return;
+        lastRecord = rec;
+
+        if (pfReadsOnly && rec.getReadFailsVendorQualityCheckFlag()) return;
+        if (alignedReadsOnly && rec.getReadUnmappedFlag()) return;
+        if (rec.isSecondaryOrSupplementary()) return;
+
+        final int end = (rec.getReadPairedFlag() && rec.getSecondOfPairFlag()) ? 1 : 0;
+        final boolean rc = rec.getReadNegativeStrandFlag();
+        final byte[] bases = rec.getReadBases();
+        final byte[] quals = rec.getBaseQualities();
+        final byte[] originalQuals = (qualityTotals != null || qualityDistribution != null) ? rec.getOriginalBaseQualities() : null;
+
+        if (baseCounts != null && bases != null) countBases(bases, end, rc);
+
+        // Qualities are counted even for reads without bases
+        if (qualityTotals != null) {
+            if (originalQuals != null && originalQualityTotals == null) originalQualityTotals = new long[qualityTotals.length];
+            if (quals != null) ensureQualityCycles(quals.length + 1);
+            if (originalQuals != null) ensureQualityCycles(originalQuals.length + 1);
+            if (quals != null) countQualities(qualityTotals, quals, end, rc);
+            if (originalQuals != null) countQualities(originalQualityTotals, originalQuals, end, rc);
+        }
+        if (qualityDistribution != null) {
+            if (quals != null) countDistribution(qualityDistribution, bases, quals);
+            if (originalQuals != null) {
+                if (originalQualityDistribution == null) originalQualityDistribution = new long[2 * NUM_QUALITIES];
+                countDistribution(originalQualityDistribution, bases, originalQuals);
+            }
+        }
+    }
+
+    private void countBases(final byte[] bases, final int end, final boolean rc) {
+        final int length = bases.length;
+        if (length + 1 > numBaseCycles) {
+            numBaseCycles = length + 1;
+            baseCounts = Arrays.copyOf(baseCounts, numBaseCycles * 2 * NUM_BASE_CLASSES);
+        }
+        final int step = rc ? -2 * NUM_BASE_CLASSES : 2 * NUM_BASE_CLASSES;
+        int offset = ((rc ? length : 1) * 2 + end) * NUM_BASE_CLASSES;
+        for (int i = 0; i < length; ++i) {
+            baseCounts[offset + BASE_CLASSES[bases[i] & 0xFF]]++;
+            offset += step;
+        }
+    }
+
+    private void ensureQualityCycles(final int numCycles) {
+        if (numCycles > numQualityCycles) {
+            numQualityCycles = numCycles;
+            qualityTotals = Arrays.copyOf(qualityTotals, numQualityCycles * 4);
+            if (originalQualityTotals != null) originalQualityTotals = Arrays.copyOf(originalQualityTotals, numQualityCycles * 4);
+        }
+    }
+
+    private static void countQualities(final long[] totals, final byte[] quals, final int end, final boolean rc) {
+        final int length = quals.length;
+        final int step = rc ? -4 : 4;
+        int offset = ((rc ? length : 1) * 2 + end) * 2;
+        for (int i = 0; i < length; ++i) {
+            totals[offset]++;
+            totals[offset + 1] += quals[i];
+            offset += step;
+        }
+    }
+
+    private static void countDistribution(final long[] distribution, final byte[] bases, final byte[] quals) {
+        for (int i = 0; i < quals.length; ++i) {
+            final boolean noCall = bases != null && i < bases.length && SequenceUtil.isNoCall(bases[i]);
+            distribution[(noCall ? NUM_QUALITIES : 0) + quals[i]]++;
+        }
+    }
+
+    /** Returns one more than the length of the longest read whose bases have been counted, or zero if there have been none. */
+    int getNumBaseCycles() { return numBaseCycles; }
+
+    /** Returns one more than the length of the longest read whose qualities have been counted, or zero if there have been none. */
+    int getNumQualityCycles() { return numQualityCycles; }
+
+    /** Returns true if any read counted had original qualities. */
+    boolean hasOriginalQualities() { return originalQualityTotals != null || originalQualityDistribution != null; }
+
+    /** Returns the number of bases of the given class at the given cycle of the given end (0 or 1). */
+    long getBaseCount(final int end, final int cycle, final int baseClass) {
+        return baseCounts[(cycle * 2 + end) * NUM_BASE_CLASSES + baseClass];
+    }
+
+    /**
+     * Returns the number of bases with quality scores at the given cycle of the given end (0 or 1) in [0], and the sum of their
+     * quality scores in [1].
+     */
+    long[] getQualityTotals(final boolean originalQualities, final int end, final int cycle) {
+        final long[] table = originalQualities ? originalQualityTotals : qualityTotals;
+        final int offset = (cycle * 2 + end) * 2;
+        if (table == null || offset >= table.length) return new long[2];
+        return new long[]{table[offset], table[offset + 1]};
+    }
+
+    /** Returns the number of bases with each quality score, optionally excluding no-calls. */
+    long[] getQualityDistribution(final boolean originalQualities, final boolean includeNoCalls) {
+        final long[] table = originalQualities ? originalQualityDistribution : qualityDistribution;
+        final long[] distribution = new long[NUM_QUALITIES];
+        if (table == null) return distribution;
+        for (int q = 0; q < NUM_QUALITIES; ++q) {
+            distribution[q] = table[q] + (includeNoCalls ? table[NUM_QUALITIES + q] : 0);
+        }
+        return distribution;
+    }
+}
@@ -33,8 +33,9 @@ import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 
 import java.io.File;
-import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import htsjdk.samtools.util.StringUtil;
 import picard.PicardException;
@@ -50,7 +51,7 @@ import picard.util.RExecutor;
         usageShort = CollectBaseDistributionByCycle.USAGE_SUMMARY,
         programGroup = Metrics.class
 )
-public class CollectBaseDistributionByCycle extends SinglePassSamProgram {
+public class CollectBaseDistributionByCycle extends SinglePassSamProgram implements BaseCountsByCycle.Program {
         static final String USAGE_SUMMARY = "Chart the nucleotide distribution per cycle in a SAM or BAM file";
         static final String USAGE_DETAILS = "This tool produces a chart of the nucleotide distribution per cycle in a SAM or BAM file " +
                 "in order to enable assessment of systematic errors at specific positions in the reads.<br /><br />" +
@@ -92,7 +93,7 @@ public class CollectBaseDistributionByCycle extends SinglePassSamProgram {
     @Option(doc = "If set to true, calculate the base distribution over PF reads only (Illumina specific). PF reads are reads that passed the internal quality filters applied by Illumina sequencers.")
     public boolean PF_READS_ONLY = false;
 
-    private HistogramGenerator hist;
+    private BaseCountsByCycle counts = null;
     private String plotSubtitle = "";
     private final Log log = Log.getInstance(CollectBaseDistributionByCycle.class);
 
@@ -107,29 +108,20 @@ public class CollectBaseDistributionByCycle extends SinglePassSamProgram {
         if (readGroups.size() == 1) {
             plotSubtitle = StringUtil.asEmptyIfNull(readGroups.get(0).getLibrary());
         }
-        hist = new HistogramGenerator();
+        if (counts == null) counts = BaseCountsByCycle.forProgram(this);
     }
 
     @Override
     protected void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
-        if ((PF_READS_ONLY) && (rec.getReadFailsVendorQualityCheckFlag())) {
-            return;
-        }
-        if ((ALIGNED_READS_ONLY) && (rec.getReadUnmappedFlag())) {
-            return;
-        }
-        if (rec.isSecondaryOrSupplementary()) {
-            return;
-        }
-        hist.addRecord(rec);
+        counts.addRecord(rec);
     }
 
     @Override
     protected void finish() {
         final MetricsFile<BaseDistributionByCycleMetrics, ?> metrics = getMetricsFile();
-        hist.addToMetricsFile(metrics);
+        addToMetricsFile(metrics);
         metrics.write(OUTPUT);
-        if (hist.isEmpty()) {
+        if (counts.getNumBaseCycles() == 0) {
             log.warn("No valid bases found in input file. No plot will be produced.");
         } else {
             final int rResult = RExecutor.executeFromClasspath("picard/analysis/baseDistributionByCycle.R",
@@ -143,101 +135,38 @@ public class CollectBaseDistributionByCycle extends SinglePassSamProgram {
         }
     }
 
-    private class HistogramGenerator {
-        private int maxLengthSoFar = 0;
-        final private long[][] firstReadTotalsByCycle = new long[5][maxLengthSoFar];
-        private long[] firstReadCountsByCycle = new long[maxLengthSoFar];
-        final private long[][] secondReadTotalsByCycle = new long[5][maxLengthSoFar];
-        private long[] secondReadCountsByCycle = new long[maxLengthSoFar];
-        private boolean seenSecondEnd = false;
-
-        private int baseToInt(final byte base) {
-            switch (base) {
-                case 'A':
-                case 'a':
-                    return 0;
-                case 'C':
-                case 'c':
-                    return 1;
-                case 'G':
-                case 'g':
-                    return 2;
-                case 'T':
-                case 't':
-                    return 3;
-            }
-            return 4;
-        }
-
-        void addRecord(final SAMRecord rec) {
-            final byte[] bases = rec.getReadBases();
-            if (bases == null) {
-                return;
-            }
-            final int length = bases.length;
-            final boolean rc = rec.getReadNegativeStrandFlag();
-            ensureArraysBigEnough(length + 1);
-            if ((rec.getReadPairedFlag()) && (rec.getSecondOfPairFlag())) {
-                seenSecondEnd = true;
-                for (int i = 0; i < length; i++) {
-                    final int cycle = rc ? length - i : i + 1;
-                    secondReadTotalsByCycle[baseToInt(bases[i])][cycle] += 1;
-                    secondReadCountsByCycle[cycle] += 1;
-                }
-            } else {
-                for (int i = 0; i < length; i++) {
-                    final int cycle = rc ? length - i : i + 1;
-                    firstReadTotalsByCycle[baseToInt(bases[i])][cycle] += 1;
-                    firstReadCountsByCycle[cycle] += 1;
-                }
-            }
-        }
+    @Override
+    public boolean pfReadsOnly() { return PF_READS_ONLY; }
 
-        private void ensureArraysBigEnough(final int length) {
-            if (length > maxLengthSoFar) {
-                for (int i = 0; i < 5; i++) {
-                    firstReadTotalsByCycle[i] = Arrays.copyOf(firstReadTotalsByCycle[i], length);
-                    secondReadTotalsByCycle[i] = Arrays.copyOf(secondReadTotalsByCycle[i], length);
-                }
-                firstReadCountsByCycle = Arrays.copyOf(firstReadCountsByCycle, length);
-                secondReadCountsByCycle = Arrays.copyOf(secondReadCountsByCycle, length);
-                maxLengthSoFar = length;
-            }
-        }
+    @Override
+    public boolean alignedReadsOnly() { return ALIGNED_READS_ONLY; }
 
-        boolean isEmpty() {
-            return maxLengthSoFar == 0;
-        }
+    @Override
+    public Set<BaseCountsByCycle.Table> tablesUsed() { return EnumSet.of(BaseCountsByCycle.Table.BASES_BY_CYCLE); }
 
-        public void addToMetricsFile(final MetricsFile<BaseDistributionByCycleMetrics, ?> metrics) {
-            int firstReadLength = 0;
-            for (int i = 0; i < maxLengthSoFar; i++) {
-                if (0 != firstReadCountsByCycle[i]) {
+    @Override
+    public void setBaseCountsByCycle(final BaseCountsByCycle counts) { this.counts = counts; }
+
+    private void addToMetricsFile(final MetricsFile<BaseDistributionByCycleMetrics, ?> metrics) {
+        int firstReadLength = 0;
+        for (int end = 0; end < 2; end++) {
+            for (int i = 0; i < counts.getNumBaseCycles(); i++) {
+                final long[] baseCounts = new long[BaseCountsByCycle.NUM_BASE_CLASSES];
+                for (int baseClass = 0; baseClass < BaseCountsByCycle.NUM_BASE_CLASSES; baseClass++) {
+                    baseCounts[baseClass] = counts.getBaseCount(end, i, baseClass);
+                }
+                final long total = baseCounts[0] + baseCounts[1] + baseCounts[2] + baseCounts[3] + baseCounts[4];
+                if (0 != total) {
                     final BaseDistributionByCycleMetrics metric = new BaseDistributionByCycleMetrics();
-                    metric.READ_END = 1;
-                    metric.CYCLE = i;
-                    metric.PCT_A = (100.0 * firstReadTotalsByCycle[0][i] / firstReadCountsByCycle[i]);
-                    metric.PCT_C = (100.0 * firstReadTotalsByCycle[1][i] / firstReadCountsByCycle[i]);
-                    metric.PCT_G = (100.0 * firstReadTotalsByCycle[2][i] / firstReadCountsByCycle[i]);
-                    metric.PCT_T = (100.0 * firstReadTotalsByCycle[3][i] / firstReadCountsByCycle[i]);
-                    metric.PCT_N = (100.0 * firstReadTotalsByCycle[4][i] / firstReadCountsByCycle[i]);
+                    metric.READ_END = end + 1;
+                    metric.CYCLE = end == 0 ? i : i + firstReadLength;
+                    metric.PCT_A = (100.0 * baseCounts[0] / total);
+                    metric.PCT_C = (100.0 * baseCounts[1] / total);
+                    metric.PCT_G = (100.0 * baseCounts[2] / total);
+                    metric.PCT_T = (100.0 * baseCounts[3] / total);
+                    metric.PCT_N = (100.0 * baseCounts[4] / total);
                     metrics.addMetric(metric);
-                    firstReadLength = i;
-                }
-            }
-            if (seenSecondEnd) {
-                for (int i = 0; i < maxLengthSoFar; i++) {
-                    if (0 != secondReadCountsByCycle[i]) {
-                        final BaseDistributionByCycleMetrics metric = new BaseDistributionByCycleMetrics();
-                        metric.READ_END = 2;
-                        metric.CYCLE = (i + firstReadLength);
-                        metric.PCT_A = (100.0 * secondReadTotalsByCycle[0][i] / secondReadCountsByCycle[i]);
-                        metric.PCT_C = (100.0 * secondReadTotalsByCycle[1][i] / secondReadCountsByCycle[i]);
-                        metric.PCT_G = (100.0 * secondReadTotalsByCycle[2][i] / secondReadCountsByCycle[i]);
-                        metric.PCT_T = (100.0 * secondReadTotalsByCycle[3][i] / secondReadCountsByCycle[i]);
-                        metric.PCT_N = (100.0 * secondReadTotalsByCycle[4][i] / secondReadCountsByCycle[i]);
-                        metrics.addMetric(metric);
-                    }
+                    if (end == 0) firstReadLength = i;
                 }
             }
         }
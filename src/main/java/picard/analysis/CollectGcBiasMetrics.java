@@ -133,6 +133,13 @@ public class CollectGcBiasMetrics extends SinglePassSamProgram {
     @Option(shortName = "LEVEL", doc = "The level(s) at which to accumulate metrics.")
     public Set<MetricAccumulationLevel> METRIC_ACCUMULATION_LEVEL = CollectionUtil.makeSet(MetricAccumulationLevel.ALL_READS);
 
+    @Option(doc = "A file holding the GC of every scanning window of the reference, so that it need not be calculated on every run. " +
+            "If the file does not exist it is calculated and written, for use by later runs with the same reference and WINDOW_SIZE.  " +
+            "A track calculated with another WINDOW_SIZE or BINS, or for other sequences, is refused; sequences are compared by " +
+            "name and length, and by MD5 where the reference's sequence dictionary or the input's header gives M5 tags.",
+            optional = true)
+    public File GC_TRACK;
+
     // Calculates GcBiasMetrics for all METRIC_ACCUMULATION_LEVELs provided
     private GcBiasMetricsCollector multiCollector;
 
@@ -158,11 +165,21 @@ public class CollectGcBiasMetrics extends SinglePassSamProgram {
         IOUtil.assertFileIsWritable(SUMMARY_OUTPUT);
         IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
 
-        //Calculate windowsByGc for the reference sequence
-        final int[] windowsByGc = GcBiasUtils.calculateRefWindowsByGc(BINS, REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE);
+        //Calculate windowsByGc for the reference sequence, or load it with the gc of every window if there is a track
+        final int[] windowsByGc;
+        final GcBiasTrack gcBiasTrack;
+        if (GC_TRACK != null) {
+            gcBiasTrack = GcBiasTrack.openOrCreate(GC_TRACK, REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE, BINS);
+            gcBiasTrack.assertMatches(SCAN_WINDOW_SIZE, BINS, REFERENCE_SEQUENCE, header.getSequenceDictionary());
+            windowsByGc = gcBiasTrack.getWindowsByGc();
+        } else {
+            gcBiasTrack = null;
+            windowsByGc = GcBiasUtils.calculateRefWindowsByGc(BINS, REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE);
+        }
 
         //Delegate actual collection to GcBiasMetricCollector
-        multiCollector = new GcBiasMetricsCollector(METRIC_ACCUMULATION_LEVEL, windowsByGc, header.getReadGroups(), SCAN_WINDOW_SIZE, IS_BISULFITE_SEQUENCED);
+        multiCollector = new GcBiasMetricsCollector(METRIC_ACCUMULATION_LEVEL, windowsByGc, header.getReadGroups(), SCAN_WINDOW_SIZE,
+                IS_BISULFITE_SEQUENCED, gcBiasTrack);
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -406,6 +406,8 @@ public class CollectMultipleMetrics extends CommandLineProgram {
 
             programs.add(instance);
         }
+        // Programs that count bases by cycle and quality count each base once between them
+        BaseCountsByCycle.share(programs);
         SinglePassSamProgram.makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, programs);
 
         return 0;
@@ -50,9 +50,11 @@ import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.Metrics;
 import picard.util.DbSnpBitSetUtil;
+import picard.util.VariantType;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -113,6 +115,11 @@ public class CollectOxoGMetrics extends CommandLineProgram {
             optional = true)
     public File DB_SNP;
 
+    @Option(doc = "A directory in which to cache the dbSNP sites in a compact form the first time a dbSNP file is read, " +
+            "so that later runs, with the same DB_SNP and sequence dictionary, load them in moments.",
+            optional = true)
+    public File DB_SNP_CACHE_DIR;
+
     @Option(shortName = "Q",
             doc = "The minimum base quality score for a base to be included in analysis.")
     public int MINIMUM_QUALITY_SCORE = 20;
@@ -242,6 +249,7 @@ public class CollectOxoGMetrics extends CommandLineProgram {
         IOUtil.assertFileIsWritable(OUTPUT);
         if (INTERVALS != null) IOUtil.assertFileIsReadable(INTERVALS);
         IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
+        if (DB_SNP_CACHE_DIR != null) IOUtil.assertDirectoryIsWritable(DB_SNP_CACHE_DIR);
 
         final ReferenceSequenceFileWalker refWalker = new ReferenceSequenceFileWalker(REFERENCE_SEQUENCE);
         final SamReader in = SamReaderFactory.makeDefault().open(INPUT);
@@ -270,7 +278,8 @@ public class CollectOxoGMetrics extends CommandLineProgram {
         // Load up dbSNP if available
         log.info("Loading dbSNP File: " + DB_SNP);
         final DbSnpBitSetUtil dbSnp;
-        if (DB_SNP != null) dbSnp = new DbSnpBitSetUtil(DB_SNP, in.getFileHeader().getSequenceDictionary());
+        if (DB_SNP != null) dbSnp = new DbSnpBitSetUtil(DB_SNP, in.getFileHeader().getSequenceDictionary(),
+                EnumSet.noneOf(VariantType.class), null, DB_SNP_CACHE_DIR);
         else dbSnp = null;
 
         // Make an iterator that will filter out funny looking things
@@ -32,9 +32,11 @@ import htsjdk.samtools.util.QualityUtil;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 import picard.metrics.GcBiasMetrics;
+import picard.metrics.MergeablePerUnitMetricCollector;
 import picard.metrics.MultiLevelCollector;
 import picard.metrics.PerUnitMetricCollector;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -52,13 +54,23 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     private int[] windowsByGc = new int[BINS];
     private static final int BINS = 101;
 
+    //the precalculated gc of each window of the reference, or null if it is to be calculated here
+    private final GcBiasTrack gcBiasTrack;
+
     //will hold the relevant gc information per contig
-    private byte [] gc = null;
+    private ByteBuffer gc = null;
     private int referenceIndex = -1;
     private byte [] refBases = null;
 
     public GcBiasMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final int[] windowsByGc,
                                   final List<SAMReadGroupRecord> samRgRecords, final int scanWindowSize, final boolean bisulfite) {
+        this(accumulationLevels, windowsByGc, samRgRecords, scanWindowSize, bisulfite, null);
+    }
+
+    GcBiasMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final int[] windowsByGc,
+                           final List<SAMReadGroupRecord> samRgRecords, final int scanWindowSize, final boolean bisulfite,
+                           final GcBiasTrack gcBiasTrack) {
+        this.gcBiasTrack = gcBiasTrack;
         this.scanWindowSize = scanWindowSize;
         this.bisulfite = bisulfite;
         this.windowsByGc = windowsByGc;
@@ -80,6 +92,11 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
         return new PerUnitGcBiasMetricsCollector(sample, library, readGroup);
     }
 
+    @Override
+    protected boolean mergesChildCollectors() {
+        return true;
+    }
+
     @Override
     public void acceptRecord(final SAMRecord rec, final ReferenceSequence ref) {super.acceptRecord(rec, ref);}
 
@@ -87,7 +104,7 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     //A collector for individual GcBiasMetrics for a given SAMPLE or SAMPLE/LIBRARY
     //or SAMPLE/LIBRARY/READ_GROUP (depending on aggregation levels)
     /////////////////////////////////////////////////////////////////////////////
-    public class PerUnitGcBiasMetricsCollector implements PerUnitMetricCollector<GcBiasMetrics, Integer, GcBiasCollectorArgs> {
+    public class PerUnitGcBiasMetricsCollector implements MergeablePerUnitMetricCollector<GcBiasMetrics, Integer, GcBiasCollectorArgs> {
         Map<String, GcObject> gcData = new HashMap<String, GcObject>();
         private final String sample;
         private final String library;
@@ -130,9 +147,13 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
                     final ReferenceSequence ref = args.getRef();
                     refBases = ref.getBases();
                     StringUtil.toUpperCase(refBases);
-                    final int refLength = refBases.length;
-                    final int lastWindowStart = refLength - scanWindowSize;
-                    gc = GcBiasUtils.calculateAllGcs(refBases, lastWindowStart, scanWindowSize);
+                    if (gcBiasTrack != null) {
+                        gc = gcBiasTrack.getGcs(rec.getReferenceIndex());
+                    } else {
+                        final int refLength = refBases.length;
+                        final int lastWindowStart = refLength - scanWindowSize;
+                        gc = ByteBuffer.wrap(GcBiasUtils.calculateAllGcs(refBases, lastWindowStart, scanWindowSize));
+                    }
                     referenceIndex=rec.getReferenceIndex();
                 }
 
@@ -163,6 +184,31 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
             }
         }
 
+        /////////////////////////////////////////////////////////////////////////////
+        //Adds the counts of another collector to the GcObject of this one, labelling
+        // it with this collector's accumulation level if the other had aligned reads
+        /////////////////////////////////////////////////////////////////////////////
+        public void merge(final PerUnitMetricCollector<GcBiasMetrics, Integer, GcBiasCollectorArgs> other) {
+            final String group;
+            if (this.readGroup != null) group = "Read Group";
+            else if (this.library != null) group = "Library";
+            else if (this.sample != null) group = "Sample";
+            else group = "All Reads";
+
+            for (final GcObject from : ((PerUnitGcBiasMetricsCollector) other).gcData.values()) {
+                for (final GcObject to : gcData.values()) {
+                    to.totalClusters += from.totalClusters;
+                    to.totalAlignedReads += from.totalAlignedReads;
+                    for (int i = 0; i < BINS; ++i) {
+                        to.readsByGc[i] += from.readsByGc[i];
+                        to.basesByGc[i] += from.basesByGc[i];
+                        to.errorsByGc[i] += from.errorsByGc[i];
+                    }
+                    if (to.group == null && from.group != null) to.group = group;
+                }
+            }
+        }
+
         public void finish() {}
 
         /////////////////////////////////////////////////////////////////////////////
@@ -320,12 +366,12 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     //Adds each read to the appropriate gcObj which is determined in acceptRecord above
     //Also calculates values for calculating GC Bias at each level
     /////////////////////////////////////////////////////////////////////////////
-     private void addRead(final GcObject gcObj, final SAMRecord rec, final String group, final byte[] gc, final byte[] refBases) {
+     private void addRead(final GcObject gcObj, final SAMRecord rec, final String group, final ByteBuffer gc, final byte[] refBases) {
         if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++gcObj.totalClusters;
         final int pos = rec.getReadNegativeStrandFlag() ? rec.getAlignmentEnd() - scanWindowSize : rec.getAlignmentStart();
         ++gcObj.totalAlignedReads;
         if (pos > 0) {
-            final int windowGc = gc[pos];
+            final int windowGc = gc.get(pos);
             if (windowGc >= 0) {
                 ++gcObj.readsByGc[windowGc];
                 gcObj.basesByGc[windowGc] += rec.getReadLength();
@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.samtools.util.StringUtil;
+import picard.PicardException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The GC of every scanning window of a reference, as calculated by GcBiasUtils.calculateAllGcs(), together with the
+ * number of windows of each GC as calculated by GcBiasUtils.calculateRefWindowsByGc(), stored in a file so that they need
+ * only be calculated once for many runs of CollectGcBiasMetrics against the same reference and window size.
+ *
+ * The file holds a header giving the window size, the windows by GC (and so the number of GC bins) and the name, length
+ * and MD5 of the bases of each contig, followed by one byte per window start for each contig in turn.  Contigs are memory-mapped from the file as they are needed.
+ */
+class GcBiasTrack {
+    private static final String MAGIC = "GCBIASTRACK2";
+
+    private final File file;
+    private final int windowSize;
+    private final int[] windowsByGc;
+    private final List<String> names = new ArrayList<String>();
+    private final List<Integer> lengths = new ArrayList<Integer>();
+    private final List<String> md5s = new ArrayList<String>();
+    private final List<Long> offsets = new ArrayList<Long>();
+
+    private GcBiasTrack(final File file, final int windowSize, final int[] windowsByGc) {
+        this.file = file;
+        this.windowSize = windowSize;
+        this.windowsByGc = windowsByGc;
+    }
+
+    /** Opens the given track, first calculating it from the given reference and writing it if it does not exist. */
+    static GcBiasTrack openOrCreate(final File track, final File reference, final int windowSize, final int bins) {
+        if (!track.exists()) write(track, reference, windowSize, bins);
+        return open(track);
+    }
+
+    /** Reads the header of the given track. */
+    static GcBiasTrack open(final File track) {
+        IOUtil.assertFileIsReadable(track);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(track)));
+            if (!MAGIC.equals(in.readUTF())) throw new PicardException(track.getAbsolutePath() + " is not a GC bias track.");
+            final int windowSize = in.readInt();
+            final int[] windowsByGc = new int[in.readInt()];
+            for (int i = 0; i < windowsByGc.length; ++i) windowsByGc[i] = in.readInt();
+
+            final GcBiasTrack gcBiasTrack = new GcBiasTrack(track, windowSize, windowsByGc);
+            final int numContigs = in.readInt();
+            long offset = in.readLong();
+            for (int i = 0; i < numContigs; ++i) {
+                gcBiasTrack.names.add(in.readUTF());
+                final int length = in.readInt();
+                gcBiasTrack.lengths.add(length);
+                gcBiasTrack.md5s.add(in.readUTF());
+                gcBiasTrack.offsets.add(offset);
+                offset += length + 1;
+            }
+            return gcBiasTrack;
+        } catch (final IOException ioe) {
+            throw new PicardException("Error reading GC bias track " + track.getAbsolutePath(), ioe);
+        } finally {
+            CloserUtil.close(in);
+        }
+    }
+
+    /**
+     * Calculates the track for the given reference and writes it to the given file.  The track is written to a temporary
+     * file alongside and then renamed, so that concurrent runs never see a partial track.
+     */
+    static void write(final File track, final File reference, final int windowSize, final int bins) {
+        IOUtil.assertFileIsReadable(reference);
+        final File dir = track.getAbsoluteFile().getParentFile();
+        final int[] windowsByGc = new int[bins];
+        final List<String> names = new ArrayList<String>();
+        final List<Integer> lengths = new ArrayList<Integer>();
+        final List<String> md5s = new ArrayList<String>();
+        final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(reference);
+        DataOutputStream out = null;
+        FileInputStream in = null;
+        File data = null;
+        File tmp = null;
+        try {
+            // The windows by GC must precede the GCs, so write the GCs to a file of their own first
+            data = File.createTempFile(track.getName(), ".data", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data)));
+            ReferenceSequence ref;
+            while ((ref = refFile.nextSequence()) != null) {
+                final byte[] refBases = ref.getBases();
+                StringUtil.toUpperCase(refBases);
+                final int lastWindowStart = refBases.length - windowSize;
+                final byte[] gc = GcBiasUtils.calculateAllGcs(refBases, lastWindowStart, windowSize);
+                for (int i = 1; i < lastWindowStart; ++i) {
+                    if (gc[i] != -1) windowsByGc[gc[i]]++;
+                }
+                out.write(gc);
+                names.add(ref.getName());
+                lengths.add(refBases.length);
+                md5s.add(SequenceUtil.calculateMD5String(refBases));
+            }
+            out.close();
+
+            final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            final DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeUTF(MAGIC);
+            header.writeInt(windowSize);
+            header.writeInt(windowsByGc.length);
+            for (final int windows : windowsByGc) header.writeInt(windows);
+            header.writeInt(names.size());
+            final ByteArrayOutputStream contigBytes = new ByteArrayOutputStream();
+            final DataOutputStream contigs = new DataOutputStream(contigBytes);
+            for (int i = 0; i < names.size(); ++i) {
+                contigs.writeUTF(names.get(i));
+                contigs.writeInt(lengths.get(i));
+                contigs.writeUTF(md5s.get(i));
+            }
+            // the offset of the first contig's GCs, which follows this and the contig names and lengths
+            header.writeLong(headerBytes.size() + 8 + contigBytes.size());
+            contigBytes.writeTo(header);
+
+            tmp = File.createTempFile(track.getName(), ".tmp", dir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            headerBytes.writeTo(out);
+            in = new FileInputStream(data);
+            IOUtil.copyStream(in, out);
+            out.close();
+            if (!tmp.renameTo(track)) {
+                throw new PicardException("Could not rename " + tmp.getAbsolutePath() + " to " + track.getAbsolutePath());
+            }
+        } catch (final IOException ioe) {
+            throw new PicardException("Error writing GC bias track " + track.getAbsolutePath(), ioe);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new PicardException("MD5 algorithm not found", e);
+        } finally {
+            CloserUtil.close(out);
+            CloserUtil.close(in);
+            CloserUtil.close(refFile);
+            if (data != null) data.delete();
+            if (tmp != null && tmp.exists()) tmp.delete();
+        }
+    }
+
+    int getWindowSize() { return windowSize; }
+
+    /** Returns the number of windows of each GC over the whole reference. */
+    int[] getWindowsByGc() { return windowsByGc.clone(); }
+
+    /**
+     * Checks that this track was calculated with the given window size and number of bins for a reference with the given
+     * sequences, throwing a PicardException if not.  The sequences are checked against both the sequence dictionary of the
+     * given reference, if it has one, and the given dictionary; an empty or null dictionary is not checked.  Sequences are
+     * matched by name and length, and also by MD5 where the dictionary gives an M5 tag.
+     */
+    void assertMatches(final int windowSize, final int bins, final File reference, final SAMSequenceDictionary dictionary) {
+        if (windowSize != this.windowSize) {
+            throw new PicardException("GC bias track " + file.getAbsolutePath() + " has window size " + this.windowSize +
+                    " but a window size of " + windowSize + " was requested.");
+        }
+        if (bins != windowsByGc.length) {
+            throw new PicardException("GC bias track " + file.getAbsolutePath() + " has " + windowsByGc.length +
+                    " bins but " + bins + " bins were requested.");
+        }
+        if (reference != null) {
+            final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(reference);
+            final SAMSequenceDictionary referenceDictionary = refFile.getSequenceDictionary();
+            CloserUtil.close(refFile);
+            if (!matches(referenceDictionary)) {
+                throw new PicardException("GC bias track " + file.getAbsolutePath() + " was not calculated from the reference " +
+                        reference.getAbsolutePath() + ".");
+            }
+        }
+        if (!matches(dictionary)) {
+            throw new PicardException("GC bias track " + file.getAbsolutePath() + " does not match the sequence dictionary of the input.");
+        }
+    }
+
+    /** Returns true if the given dictionary is empty or null, or has the sequences this track was calculated for. */
+    private boolean matches(final SAMSequenceDictionary dictionary) {
+        if (dictionary == null || dictionary.isEmpty()) return true;
+        if (dictionary.size() != names.size()) return false;
+        for (int i = 0; i < names.size(); ++i) {
+            final SAMSequenceRecord sequence = dictionary.getSequence(i);
+            final String md5 = sequence.getAttribute(SAMSequenceRecord.MD5_TAG);
+            if (!sequence.getSequenceName().equals(names.get(i)) || sequence.getSequenceLength() != lengths.get(i) ||
+                    (md5 != null && !md5.equalsIgnoreCase(md5s.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Memory-maps the GCs for the contig with the given index, indexed as the array returned by GcBiasUtils.calculateAllGcs()
+     * is: the byte at each 1-based window start is the GC of that window, or -1 if it has too many no-calls.
+     */
+    ByteBuffer getGcs(final int contigIndex) {
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, offsets.get(contigIndex), lengths.get(contigIndex) + 1);
+        } catch (final IOException ioe) {
+            throw new PicardException("Error reading GC bias track " + file.getAbsolutePath(), ioe);
+        } finally {
+            CloserUtil.close(in);
+        }
+    }
+}
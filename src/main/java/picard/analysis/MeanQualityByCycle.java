@@ -40,8 +40,9 @@ import picard.cmdline.programgroups.Metrics;
 import picard.util.RExecutor;
 
 import java.io.File;
-import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -56,7 +57,7 @@ import java.util.List;
         usageShort = MeanQualityByCycle.USAGE_SUMMARY,
         programGroup = Metrics.class
 )
-public class MeanQualityByCycle extends SinglePassSamProgram {
+public class MeanQualityByCycle extends SinglePassSamProgram implements BaseCountsByCycle.Program {
     static final String USAGE_SUMMARY = "Collect mean quality by cycle.";
     static final String USAGE_DETAILS = "This tool generates a data table and chart of mean quality by cycle from a BAM file. It is " +
             "intended to be used on a single lane or a read group's worth of data, but can be applied to merged BAMs if needed. " +
@@ -83,8 +84,7 @@ public class MeanQualityByCycle extends SinglePassSamProgram {
     @Option(doc="If set to true calculate mean quality over PF reads only.")
     public boolean PF_READS_ONLY = false;
 
-    private final HistogramGenerator q  = new HistogramGenerator(false);
-    private final HistogramGenerator oq = new HistogramGenerator(true);
+    private BaseCountsByCycle counts = null;
 
     /**
      * A subtitle for the plot, usually corresponding to a library.
@@ -98,77 +98,43 @@ public class MeanQualityByCycle extends SinglePassSamProgram {
         System.exit(new MeanQualityByCycle().instanceMain(args));
     }
 
-    private static final class HistogramGenerator {
-        final boolean useOriginalQualities;
-        int maxLengthSoFar = 0;
-        double[] firstReadTotalsByCycle  = new double[maxLengthSoFar];
-        long[]   firstReadCountsByCycle  = new long[maxLengthSoFar];
-        double[] secondReadTotalsByCycle = new double[maxLengthSoFar];
-        long[]   secondReadCountsByCycle = new long[maxLengthSoFar];
+    /** Builds a "Histogram" of the mean quality, or mean original quality, at each cycle. */
+    private Histogram<Integer> getMeanQualityHistogram(final boolean useOriginalQualities) {
+        final String label = useOriginalQualities ? "MEAN_ORIGINAL_QUALITY" : "MEAN_QUALITY";
+        final Histogram<Integer> meanQualities = new Histogram<Integer>("CYCLE", label);
 
-        private HistogramGenerator(final boolean useOriginalQualities) {
-            this.useOriginalQualities = useOriginalQualities;
-        }
+        int firstReadLength = 0;
 
-        void addRecord(final SAMRecord rec) {
-            final byte[] quals = (useOriginalQualities ? rec.getOriginalBaseQualities() : rec.getBaseQualities());
-            if (quals == null) return;
-
-            final int length = quals.length;
-            final boolean rc = rec.getReadNegativeStrandFlag();
-            ensureArraysBigEnough(length+1);
-
-            for (int i=0; i<length; ++i) {
-                final int cycle = rc ? length-i : i+1;
-
-                if (rec.getReadPairedFlag() && rec.getSecondOfPairFlag()) {
-                    secondReadTotalsByCycle[cycle] += quals[i];
-                    secondReadCountsByCycle[cycle] += 1;
-                }
-                else {
-                    firstReadTotalsByCycle[cycle] += quals[i];
-                    firstReadCountsByCycle[cycle] += 1;
-                }
+        for (int cycle=0; cycle < counts.getNumQualityCycles(); ++cycle) {
+            final long[] totals = counts.getQualityTotals(useOriginalQualities, 0, cycle);
+            if (totals[1] > 0) {
+                meanQualities.increment(cycle, (double) totals[1] / totals[0]);
+                firstReadLength = cycle;
             }
         }
 
-        private void ensureArraysBigEnough(final int length) {
-            if (length > maxLengthSoFar) {
-                firstReadTotalsByCycle  = Arrays.copyOf(firstReadTotalsByCycle, length);
-                firstReadCountsByCycle  = Arrays.copyOf(firstReadCountsByCycle, length);
-                secondReadTotalsByCycle = Arrays.copyOf(secondReadTotalsByCycle , length);
-                secondReadCountsByCycle = Arrays.copyOf(secondReadCountsByCycle, length);
-                maxLengthSoFar = length;
+        for (int i=0; i < counts.getNumQualityCycles(); ++i) {
+            final long[] totals = counts.getQualityTotals(useOriginalQualities, 1, i);
+            if (totals[0] > 0) {
+                final int cycle = firstReadLength + i;
+                meanQualities.increment(cycle, (double) totals[1] / totals[0]);
             }
         }
 
-        Histogram<Integer> getMeanQualityHistogram() {
-            final String label = useOriginalQualities ? "MEAN_ORIGINAL_QUALITY" : "MEAN_QUALITY";
-            final Histogram<Integer> meanQualities = new Histogram<Integer>("CYCLE", label);
-
-            int firstReadLength = 0;
+        return meanQualities;
+    }
 
-            for (int cycle=0; cycle < firstReadTotalsByCycle.length; ++cycle) {
-                if (firstReadTotalsByCycle[cycle] > 0) {
-                    meanQualities.increment(cycle, firstReadTotalsByCycle[cycle] / firstReadCountsByCycle[cycle]);
-                    firstReadLength = cycle;
-                }
-            }
+    @Override
+    public boolean pfReadsOnly() { return PF_READS_ONLY; }
 
-            for (int i=0; i< secondReadTotalsByCycle.length; ++i) {
-                if (secondReadCountsByCycle[i] > 0) {
-                    final int cycle = firstReadLength + i;
-                    meanQualities.increment(cycle, secondReadTotalsByCycle[i] / secondReadCountsByCycle[i]);
-                }
-            }
+    @Override
+    public boolean alignedReadsOnly() { return ALIGNED_READS_ONLY; }
 
-            return meanQualities;
-        }
+    @Override
+    public Set<BaseCountsByCycle.Table> tablesUsed() { return EnumSet.of(BaseCountsByCycle.Table.QUALITIES_BY_CYCLE); }
 
-        boolean isEmpty() {
-            return maxLengthSoFar == 0;
-        }
-    }
+    @Override
+    public void setBaseCountsByCycle(final BaseCountsByCycle counts) { this.counts = counts; }
 
     @Override
     protected void setup(final SAMFileHeader header, final File samFile) {
@@ -179,28 +145,24 @@ public class MeanQualityByCycle extends SinglePassSamProgram {
         if (readGroups.size() == 1) {
             plotSubtitle = StringUtil.asEmptyIfNull(readGroups.get(0).getLibrary());
         }
+        if (counts == null) counts = BaseCountsByCycle.forProgram(this);
     }
 
     @Override
     protected void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
-        // Skip unwanted records
-        if (PF_READS_ONLY && rec.getReadFailsVendorQualityCheckFlag()) return;
-        if (ALIGNED_READS_ONLY && rec.getReadUnmappedFlag()) return;
-        if (rec.isSecondaryOrSupplementary()) return;
-
-        q.addRecord(rec);
-        oq.addRecord(rec);
+        // Unwanted records are skipped by the counts
+        counts.addRecord(rec);
     }
 
     @Override
     protected void finish() {
         // Generate a "Histogram" of mean quality and write it to the file
         final MetricsFile<?,Integer> metrics = getMetricsFile();
-        metrics.addHistogram(q.getMeanQualityHistogram());
-        if (!oq.isEmpty()) metrics.addHistogram(oq.getMeanQualityHistogram());
+        metrics.addHistogram(getMeanQualityHistogram(false));
+        if (counts.hasOriginalQualities()) metrics.addHistogram(getMeanQualityHistogram(true));
         metrics.write(OUTPUT);
 
-        if (q.isEmpty() && oq.isEmpty()) {
+        if (counts.getNumQualityCycles() == 0) {
             log.warn("No valid bases found in input file. No plot will be produced.");
         }
         else {
@@ -32,7 +32,6 @@ import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.util.Histogram;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
-import htsjdk.samtools.util.SequenceUtil;
 import picard.PicardException;
 import picard.cmdline.CommandLineProgramProperties;
 import picard.cmdline.Option;
@@ -40,7 +39,9 @@ import picard.cmdline.programgroups.Metrics;
 import picard.util.RExecutor;
 
 import java.io.File;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Charts quality score distribution within a BAM file.
@@ -52,7 +53,7 @@ import java.util.List;
         usageShort = QualityScoreDistribution.USAGE_SUMMARY,
         programGroup = Metrics.class
 )
-public class QualityScoreDistribution extends SinglePassSamProgram {
+public class QualityScoreDistribution extends SinglePassSamProgram implements BaseCountsByCycle.Program {
     static final String USAGE_SUMMARY = "Chart the distribution of quality scores.  ";
     static final String USAGE_DETAILS = "<p>This tool is used for determining the overall 'quality' for a library in a given run. To " +
             "that effect, it outputs a chart and tables indicating the range of quality scores and the total numbers of bases " +
@@ -86,8 +87,7 @@ public class QualityScoreDistribution extends SinglePassSamProgram {
     @Option(doc="If set to true, include quality for no-call bases in the distribution.")
     public boolean INCLUDE_NO_CALLS = false;
 
-    private final long[] qCounts  = new long[128];
-    private final long[] oqCounts = new long[128];
+    private BaseCountsByCycle counts = null;
 
     /**
      * A subtitle for the plot, usually corresponding to a library.
@@ -113,32 +113,32 @@ public class QualityScoreDistribution extends SinglePassSamProgram {
             this.plotSubtitle = readGroups.get(0).getLibrary();
             if (null == this.plotSubtitle) this.plotSubtitle = "";
         }
+        if (counts == null) counts = BaseCountsByCycle.forProgram(this);
     }
 
     @Override
     protected void acceptRead(final SAMRecord rec, final ReferenceSequence ref) {
-        // Skip unwanted records
-        if (PF_READS_ONLY && rec.getReadFailsVendorQualityCheckFlag()) return;
-        if (ALIGNED_READS_ONLY && rec.getReadUnmappedFlag()) return;
-        if (rec.isSecondaryOrSupplementary()) return;
+        // Unwanted records are skipped by the counts
+        counts.addRecord(rec);
+    }
 
-        final byte[] bases = rec.getReadBases();
-        final byte[] quals = rec.getBaseQualities();
-        final byte[] oq    = rec.getOriginalBaseQualities();
+    @Override
+    public boolean pfReadsOnly() { return PF_READS_ONLY; }
 
-        final int length = quals.length;
+    @Override
+    public boolean alignedReadsOnly() { return ALIGNED_READS_ONLY; }
 
-        for (int i=0; i<length; ++i) {
-            if (INCLUDE_NO_CALLS || !SequenceUtil.isNoCall(bases[i])) {
-                qCounts[quals[i]]++;
-                if (oq != null) oqCounts[oq[i]]++;
-            }
-        }
-    }
+    @Override
+    public Set<BaseCountsByCycle.Table> tablesUsed() { return EnumSet.of(BaseCountsByCycle.Table.QUALITY_DISTRIBUTION); }
+
+    @Override
+    public void setBaseCountsByCycle(final BaseCountsByCycle counts) { this.counts = counts; }
 
     @Override
     protected void finish() {
         // Built the Histograms out of the long[]s
+        final long[] qCounts  = counts.getQualityDistribution(false, INCLUDE_NO_CALLS);
+        final long[] oqCounts = counts.getQualityDistribution(true, INCLUDE_NO_CALLS);
         final Histogram<Byte> qHisto  = new Histogram<Byte>("QUALITY", "COUNT_OF_Q");
         final Histogram<Byte> oqHisto = new Histogram<Byte>("QUALITY", "COUNT_OF_OQ");
 
@@ -30,7 +30,6 @@ import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.reference.ReferenceSequence;
-import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
@@ -40,6 +39,7 @@ import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
+import picard.util.AsyncReferenceSequenceFileWalker;
 
 import java.io.File;
 import java.util.Arrays;
@@ -88,13 +88,14 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
         IOUtil.assertFileIsReadable(input);
         final SamReader in = SamReaderFactory.makeDefault().referenceSequence(referenceSequence).open(input);
 
-        // Optionally load up the reference sequence and double check sequence dictionaries
-        final ReferenceSequenceFileWalker walker;
+        // Optionally load up the reference sequence and double check sequence dictionaries.  The next contig is loaded in the
+        // background while the current one is in use, so up to two contigs are held at a time.
+        final AsyncReferenceSequenceFileWalker walker;
         if (referenceSequence == null) {
             walker = null;
         } else {
             IOUtil.assertFileIsReadable(referenceSequence);
-            walker = new ReferenceSequenceFileWalker(referenceSequence);
+            walker = new AsyncReferenceSequenceFileWalker(referenceSequence);
 
             if (!in.getFileHeader().getSequenceDictionary().isEmpty()) {
                 SequenceUtil.assertSequenceDictionariesEqual(in.getFileHeader().getSequenceDictionary(),
@@ -152,6 +153,7 @@ public abstract class SinglePassSamProgram extends CommandLineProgram {
         }
 
         CloserUtil.close(in);
+        CloserUtil.close(walker);
 
         for (final SinglePassSamProgram program : programs) {
             program.finish();
@@ -22,7 +22,11 @@ class ArtifactCounter {
     private final String sampleAlias;
     private final String library;
 
-    private final Map<String, RefContext> contextMap = new HashMap<>();
+    // for each full context, packed as by packContext(), its index in each of the accumulators
+    private final int[] fullContextIndices;
+    private final int[] leadingContextIndices;
+    private final int[] trailingContextIndices;
+    private final int[] zeroContextIndices;
 
     private final ContextAccumulator fullContextAccumulator;
     private final ContextAccumulator halfContextAccumulator;
@@ -36,18 +40,6 @@ class ArtifactCounter {
     private final Set<String> leadingContexts = new HashSet<>();
     private final Set<String> trailingContexts = new HashSet<>();
 
-    // tuple to keep track of the different types of sub-contexts from a given reference context
-    protected final class RefContext {
-        final String ref, leading, trailing, zero;
-
-        public RefContext(final String ref, final String leading, final String trailing, final String zero) {
-            this.ref = ref;
-            this.leading = leading;
-            this.trailing = trailing;
-            this.zero = zero;
-        }
-    }
-
     public ArtifactCounter(final String sampleAlias, final String library, final int contextSize, final boolean expectedTandemReads) {
         this.sampleAlias = sampleAlias;
         this.library = library;
@@ -59,6 +51,7 @@ class ArtifactCounter {
         }
 
         final Set<String> zeroContexts = new HashSet<>();
+        final Map<String, String[]> subContexts = new HashMap<>();
 
         // the half contexts specify either leading or trailing bases. the zero context is just the center.
         // NB: we use N to represent a wildcard base, rather than an ambiguous base. It's assumed that all of the input
@@ -69,7 +62,7 @@ class ArtifactCounter {
             final String leading = context.substring(0, contextSize) + centralBase + padding;
             final String trailing = padding + centralBase + context.substring(contextSize + 1, context.length());
             final String zero = padding + centralBase + padding;
-            contextMap.put(context, new RefContext(context, leading, trailing, zero));
+            subContexts.put(context, new String[]{leading, trailing, zero});
 
             leadingContexts.add(leading);
             trailingContexts.add(trailing);
@@ -83,6 +76,21 @@ class ArtifactCounter {
         this.halfContextAccumulator = new ContextAccumulator(halfContexts, expectedTandemReads);
         this.zeroContextAccumulator = new ContextAccumulator(zeroContexts, expectedTandemReads);
 
+        // resolve each full context's sub-contexts to accumulator indices up front, so counting needs no lookups
+        final int numContexts = 1 << (2 * (2 * contextSize + 1));
+        this.fullContextIndices = new int[numContexts];
+        this.leadingContextIndices = new int[numContexts];
+        this.trailingContextIndices = new int[numContexts];
+        this.zeroContextIndices = new int[numContexts];
+        for (final String context : fullContexts) {
+            final int packedContext = packContext(StringUtil.stringToBytes(context), 0, context.length());
+            final String[] subContextsOfContext = subContexts.get(context);
+            this.fullContextIndices[packedContext] = this.fullContextAccumulator.indexOf(context);
+            this.leadingContextIndices[packedContext] = this.halfContextAccumulator.indexOf(subContextsOfContext[0]);
+            this.trailingContextIndices[packedContext] = this.halfContextAccumulator.indexOf(subContextsOfContext[1]);
+            this.zeroContextIndices[packedContext] = this.zeroContextAccumulator.indexOf(subContextsOfContext[2]);
+        }
+
         // these will get populated in the final step
         preAdapterSummaryMetricsList = new ArrayList<PreAdapterSummaryMetrics>();
         preAdapterDetailMetricsList = new ArrayList<PreAdapterDetailMetrics>();
@@ -91,16 +99,31 @@ class ArtifactCounter {
     }
 
     /**
-     * Add a record to all the accumulators.
+     * Packs the given upper-case reference bases into an int with two bits per base, the first base being the most
+     * significant and the bases coded as in {@link Transition#baseIndexMap}. Returns -1 if any base is not A, C, G or T.
      */
-    public void countRecord(final String refContext, final char calledBase, final SAMRecord rec) {
-        if (this.contextMap.containsKey(refContext)) {
-            final RefContext contexts = contextMap.get(refContext);
-            this.fullContextAccumulator.countRecord(contexts.ref, calledBase, rec);
-            this.halfContextAccumulator.countRecord(contexts.leading, calledBase, rec);
-            this.halfContextAccumulator.countRecord(contexts.trailing, calledBase, rec);
-            this.zeroContextAccumulator.countRecord(contexts.zero, calledBase, rec);
+    public static int packContext(final byte[] bases, final int start, final int length) {
+        int packedContext = 0;
+        for (int i = start; i < start + length; i++) {
+            final int baseIndex = Transition.baseIndexMap[bases[i] & 0xFF];
+            if (baseIndex < 0) return -1;
+            packedContext = (packedContext << 2) | baseIndex;
         }
+        return packedContext;
+    }
+
+    /**
+     * Add a base to all the accumulators.
+     *
+     * @param packedRefContext the reference context of the base, as packed by {@link #packContext(byte[], int, int)}
+     * @param calledBaseIndex the index of the called base in {@link Transition#baseIndexMap}
+     * @param category the category of the read, as given by {@link ContextAccumulator#categoryOf(SAMRecord)}
+     */
+    public void countRecord(final int packedRefContext, final int calledBaseIndex, final int category) {
+        this.fullContextAccumulator.countRecord(fullContextIndices[packedRefContext], calledBaseIndex, category);
+        this.halfContextAccumulator.countRecord(leadingContextIndices[packedRefContext], calledBaseIndex, category);
+        this.halfContextAccumulator.countRecord(trailingContextIndices[packedRefContext], calledBaseIndex, category);
+        this.zeroContextAccumulator.countRecord(zeroContextIndices[packedRefContext], calledBaseIndex, category);
     }
 
     /**
@@ -24,10 +24,12 @@ import picard.cmdline.CommandLineProgramProperties;
 import picard.cmdline.Option;
 import picard.cmdline.programgroups.Metrics;
 import picard.util.DbSnpBitSetUtil;
+import picard.util.VariantType;
 import picard.analysis.artifacts.SequencingArtifactMetrics.*;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -102,6 +104,10 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
     @Option(doc = "VCF format dbSNP file, used to exclude regions around known polymorphisms from analysis.", optional = true)
     public File DB_SNP;
 
+    @Option(doc = "A directory in which to cache the dbSNP sites in a compact form the first time a dbSNP file is read, " +
+            "so that later runs, with the same DB_SNP and sequence dictionary, load them in moments.", optional = true)
+    public File DB_SNP_CACHE_DIR;
+
     @Option(shortName = "Q", doc = "The minimum base quality score for a base to be included in analysis.")
     public int MINIMUM_QUALITY_SCORE = 20;
 
@@ -147,7 +153,7 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
     private DbSnpBitSetUtil dbSnpMask;
     private SamRecordFilter recordFilter;
 
-    private String currentRefString = null;
+    private byte[] currentRefBases = null;
     private int currentRefIndex = -1;
 
     private final Set<String> samples = new HashSet<String>();
@@ -204,7 +210,9 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
 
         if (DB_SNP != null) {
             IOUtil.assertFileIsReadable(DB_SNP);
-            dbSnpMask = new DbSnpBitSetUtil(DB_SNP, header.getSequenceDictionary());
+            if (DB_SNP_CACHE_DIR != null) IOUtil.assertDirectoryIsWritable(DB_SNP_CACHE_DIR);
+            dbSnpMask = new DbSnpBitSetUtil(DB_SNP, header.getSequenceDictionary(),
+                    EnumSet.noneOf(VariantType.class), null, DB_SNP_CACHE_DIR);
         }
 
         // set record-level filters
@@ -242,6 +250,8 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
         // set up some constants that don't change in the loop below
         final int contextFullLength = 2 * CONTEXT_SIZE + 1;
         final ArtifactCounter counter = artifactCounters.get(library);
+        final int category = ContextAccumulator.categoryOf(rec);
+        final byte[] refBases = getUpperCaseRefBases(ref);
         final byte[] readBases = rec.getReadBases();
         final byte[] readQuals;
         if (USE_OQ) {
@@ -262,9 +272,9 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
                 final byte qual = readQuals[readPos - 1];
                 if (qual < MINIMUM_QUALITY_SCORE) continue;
 
-                // skip N bases in read
-                final char readBase = Character.toUpperCase((char)readBases[readPos - 1]);
-                if (readBase == 'N') continue;
+                // skip N (and any other non-ACGT) bases in read
+                final int readBaseIndex = Transition.baseIndexMap[Character.toUpperCase((char)readBases[readPos - 1]) & 0xFF];
+                if (readBaseIndex < 0) continue;
 
                 /**
                  * Skip regions outside of intervals.
@@ -283,23 +293,24 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
                 final int contextStartIndex = refPos - CONTEXT_SIZE - 1;
                 if (contextStartIndex < 0 || contextStartIndex + contextFullLength > ref.length()) continue;
 
-                // skip contexts with N bases
-                final String context = getRefContext(ref, contextStartIndex, contextFullLength);
-                if (context.contains("N")) continue;
+                // skip contexts with N (or other ambiguous) bases
+                final int packedContext = ArtifactCounter.packContext(refBases, contextStartIndex, contextFullLength);
+                if (packedContext < 0) continue;
 
                 // count the base!
-                counter.countRecord(context, readBase, rec);
+                counter.countRecord(packedContext, readBaseIndex, category);
             }
         }
     }
 
-    private String getRefContext(final ReferenceSequence ref, final int contextStartIndex, final int contextFullLength) {
-        // cache the upper-cased string version of this reference so we don't need to create a string for every base in every read
+    private byte[] getUpperCaseRefBases(final ReferenceSequence ref) {
+        // cache an upper-cased copy of this reference so we don't need to upper-case every base in every read
         if (currentRefIndex != ref.getContigIndex()) {
-            currentRefString = new String(ref.getBases()).toUpperCase();
+            currentRefBases = ref.getBases().clone();
+            StringUtil.toUpperCase(currentRefBases);
             currentRefIndex = ref.getContigIndex();
         }
-        return currentRefString.substring(contextStartIndex, contextStartIndex + contextFullLength);
+        return currentRefBases;
     }
 
     @Override
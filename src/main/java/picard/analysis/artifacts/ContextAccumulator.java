@@ -14,34 +14,61 @@ import java.util.Set;
 import java.util.TreeSet;
 
 /**
- * Keeps track of the AlignmentAccumulators for each artifact / context of interest.
+ * Keeps track of the read1/read2 and positive/negative strand counts of each called base for each context of interest.
+ * Contexts are addressed by their index (see {@link #indexOf(String)}) and the counts are kept in a single flat array,
+ * so that counting a base requires neither a String nor a hash lookup.
  */
 class ContextAccumulator {
 
+    /** The read categories counted for each context and called base; see {@link #categoryOf(SAMRecord)}. */
+    static final int R1_POS = 0, R1_NEG = 1, R2_POS = 2, R2_NEG = 3;
+    private static final int NUM_CATEGORIES = 4;
+    private static final int NUM_BASES = Transition.Base.values().length;
+
     // are the PE reads expected to face the same direction?
     private final boolean expectedTandemReads;
 
-    // mapping from contexts to the accumulators
-    private final Map<String, AlignmentAccumulator[]> artifactMap;
+    // the contexts in sorted order, and their indices in that order
+    private final String[] contexts;
+    private final Map<String, Integer> contextIndices = new HashMap<>();
+
+    // counts indexed by context index, called base index and read category
+    private final long[] counts;
 
     public ContextAccumulator(final Set<String> contexts, final boolean expectedTandemReads) {
         this.expectedTandemReads = expectedTandemReads;
-        this.artifactMap = new HashMap<>();
-        for (final String context : contexts) {
+        this.contexts = new TreeSet<>(contexts).toArray(new String[contexts.size()]);
+        for (int i = 0; i < this.contexts.length; i++) {
+            final String context = this.contexts[i];
 
             // sanity check that the context length is odd
             if ((context.length() & 1) == 0) throw new PicardException("Contexts cannot have an even number of bases: " + context);
 
-            final AlignmentAccumulator[] accumulators = new AlignmentAccumulator[Transition.Base.values().length];
-            for (int i = 0; i < Transition.Base.values().length; i++) {
-                accumulators[i] = new AlignmentAccumulator();
-            }
-            this.artifactMap.put(context, accumulators);
+            this.contextIndices.put(context, i);
         }
+        this.counts = new long[this.contexts.length * NUM_BASES * NUM_CATEGORIES];
+    }
+
+    /**
+     * Returns the index by which the given context is counted, or -1 if it is not one of the contexts of interest.
+     */
+    public int indexOf(final String context) {
+        final Integer index = contextIndices.get(context);
+        return index == null ? -1 : index;
     }
 
-    public void countRecord(final String refContext, final char calledBase, final SAMRecord rec) {
-        artifactMap.get(refContext)[Transition.baseIndexMap[calledBase]].countRecord(rec);
+    /**
+     * Returns the category in which the bases of the given read are counted.
+     */
+    public static int categoryOf(final SAMRecord rec) {
+        final boolean isNegativeStrand = rec.getReadNegativeStrandFlag();
+        final boolean isReadTwo = rec.getReadPairedFlag() && rec.getSecondOfPairFlag();
+        if (isReadTwo) return isNegativeStrand ? R2_NEG : R2_POS;
+        else return isNegativeStrand ? R1_NEG : R1_POS;
+    }
+
+    public void countRecord(final int contextIndex, final int calledBaseIndex, final int category) {
+        counts[(contextIndex * NUM_BASES + calledBaseIndex) * NUM_CATEGORIES + category]++;
     }
 
     /**
@@ -49,7 +76,7 @@ class ContextAccumulator {
      */
     public ListMap<Transition, DetailPair> calculateMetrics(final String sampleAlias, final String library) {
         final ListMap<Transition, DetailPair> detailMetricsMap = new ListMap<>();
-        for (final String context : new TreeSet<>(artifactMap.keySet())) {
+        for (final String context : contexts) {
 
             // sanity check that the context length is odd
             if ((context.length() & 1) == 0) throw new PicardException("Contexts cannot have an even number of bases: " + context + ".  This should never happen here!");
@@ -76,13 +103,13 @@ class ContextAccumulator {
                 baitBiasDetailMetrics.ALT_BASE = transition.call();
 
                 // retrieve all the necessary alignment counters.
-                final AlignmentAccumulator[] accumulators = artifactMap.get(context);
-                final AlignmentAccumulator[] reverseCompAccumulators = artifactMap.get(SequenceUtil.reverseComplement(context));
+                final int contextIndex = contextIndices.get(context);
+                final int reverseCompContextIndex = contextIndices.get(SequenceUtil.reverseComplement(context));
 
-                final AlignmentAccumulator fwdRefAlignments = accumulators[Transition.baseIndexMap[transition.ref()]];
-                final AlignmentAccumulator fwdAltAlignments = accumulators[Transition.baseIndexMap[transition.call()]];
-                final AlignmentAccumulator revRefAlignments = reverseCompAccumulators[Transition.baseIndexMap[transition.complement().ref()]];
-                final AlignmentAccumulator revAltAlignments = reverseCompAccumulators[Transition.baseIndexMap[transition.complement().call()]];
+                final AlignmentAccumulator fwdRefAlignments = getAlignments(contextIndex, transition.ref());
+                final AlignmentAccumulator fwdAltAlignments = getAlignments(contextIndex, transition.call());
+                final AlignmentAccumulator revRefAlignments = getAlignments(reverseCompContextIndex, transition.complement().ref());
+                final AlignmentAccumulator revAltAlignments = getAlignments(reverseCompContextIndex, transition.complement().call());
 
                 // categorize observations of pre-adapter artifacts
                 if (expectedTandemReads) {
@@ -116,25 +143,25 @@ class ContextAccumulator {
         return detailMetricsMap;
     }
 
+    private AlignmentAccumulator getAlignments(final int contextIndex, final char base) {
+        final int offset = (contextIndex * NUM_BASES + Transition.baseIndexMap[base]) * NUM_CATEGORIES;
+        return new AlignmentAccumulator(counts[offset + R1_POS], counts[offset + R1_NEG], counts[offset + R2_POS], counts[offset + R2_NEG]);
+    }
+
     /**
      * Little class for breaking down alignments by read1/read2 and positive/negative strand.
      */
     private static class AlignmentAccumulator {
-        private long R1_POS = 0;
-        private long R1_NEG = 0;
-        private long R2_POS = 0;
-        private long R2_NEG = 0;
-
-        private void countRecord(final SAMRecord rec) {
-            final boolean isNegativeStrand = rec.getReadNegativeStrandFlag();
-            final boolean isReadTwo = rec.getReadPairedFlag() && rec.getSecondOfPairFlag();
-            if (isReadTwo) {
-                if (isNegativeStrand) this.R2_NEG++;
-                else this.R2_POS++;
-            } else {
-                if (isNegativeStrand) this.R1_NEG++;
-                else this.R1_POS++;
-            }
+        private final long R1_POS;
+        private final long R1_NEG;
+        private final long R2_POS;
+        private final long R2_NEG;
+
+        private AlignmentAccumulator(final long r1Pos, final long r1Neg, final long r2Pos, final long r2Neg) {
+            this.R1_POS = r1Pos;
+            this.R1_NEG = r1Neg;
+            this.R2_POS = r2Pos;
+            this.R2_NEG = r2Neg;
         }
     }
 }
@@ -35,12 +35,22 @@ import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.util.Histogram;
 import picard.util.TabbedTextFileWithHeaderParser;
+import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.StringUtil;
 
 import java.io.File;
 import java.lang.Comparable;import java.lang.Double;import java.lang.Exception;import java.lang.Integer;import java.lang.Math;import java.lang.Override;import java.lang.String;import java.lang.StringBuilder;import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /***
         - *  A Command line tool to collect Illumina Basecalling metrics for a sequencing run
@@ -107,6 +117,13 @@ public class CollectIlluminaBasecallingMetrics extends CommandLineProgram {
     @Option(doc="The file to which the collected metrics are written", shortName= StandardOptionDefinitions.OUTPUT_SHORT_NAME, optional = true)
     public File OUTPUT;
 
+    @Option(doc = "Count the clusters of this many tiles in parallel.  If NUM_PROCESSORS = 0, number of cores is automatically set to " +
+            "the number of cores available on the machine. If NUM_PROCESSORS < 0 then the number of cores used will be " +
+            "the number available on the machine less NUM_PROCESSORS.")
+    public int NUM_PROCESSORS = 1;
+
+    private static final Log LOG = Log.getInstance(CollectIlluminaBasecallingMetrics.class);
+
     private int barcodeLength = 0;
     private String unmatched_barcode;
     private final SortedMap<String, IlluminaMetricCounts> barcodeToMetricCounts;
@@ -172,34 +189,80 @@ public class CollectIlluminaBasecallingMetrics extends CommandLineProgram {
 
         unmatched_barcode = StringUtil.repeatCharNTimes('N', barcodeLength);
 
-        //Initialize data provider, iterate over clusters, and collect statistics
-        final IlluminaDataProvider provider = factory.makeDataProvider();
+        //Count the clusters of each tile on a pool of threads, and merge the counts of all tiles
+        final int numProcessors;
+        if (NUM_PROCESSORS == 0) {
+            numProcessors = Runtime.getRuntime().availableProcessors();
+        } else if (NUM_PROCESSORS < 0) {
+            numProcessors = Runtime.getRuntime().availableProcessors() + NUM_PROCESSORS;
+        } else {
+            numProcessors = NUM_PROCESSORS;
+        }
+        final List<Integer> tiles = factory.getAvailableTiles();
+        LOG.info("Counting clusters of " + tiles.size() + " tiles with " + numProcessors + " thread(s).");
 
-        while (provider.hasNext()) {
-            final ClusterData cluster = provider.next();
-            addCluster(cluster);
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numProcessors));
+        try {
+            final List<Future<Map<String, IlluminaMetricCounts>>> tileCounts = new ArrayList<Future<Map<String, IlluminaMetricCounts>>>(tiles.size());
+            for (final int tile : tiles) {
+                tileCounts.add(pool.submit(() -> countClusters(factory, tile)));
+            }
+            for (final Future<Map<String, IlluminaMetricCounts>> counts : tileCounts) {
+                for (final Map.Entry<String, IlluminaMetricCounts> entry : counts.get().entrySet()) {
+                    getCounters(barcodeToMetricCounts, entry.getKey()).addIlluminaMetricCounts(entry.getValue());
+                }
+            }
+        } catch (final InterruptedException e) {
+            throw new PicardException("Interrupted while counting clusters.", e);
+        } catch (final ExecutionException e) {
+            throw new PicardException("Error counting clusters: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
         }
 
         onComplete();
         return 0;
     }
 
+    /***
+     * Counts the clusters of one tile, returning the counts by barcode
+     */
+    private Map<String, IlluminaMetricCounts> countClusters(final IlluminaDataProviderFactory factory, final int tile) {
+        final Map<String, IlluminaMetricCounts> counts = new HashMap<String, IlluminaMetricCounts>();
+        final IlluminaDataProvider provider = factory.makeDataProvider(Collections.singletonList(tile));
+        try {
+            while (provider.hasNext()) {
+                addCluster(provider.next(), counts);
+            }
+        } finally {
+            provider.close();
+        }
+        return counts;
+    }
+
     /***
      * Process new cluster of Illumina data - increment a running counter of data
      */
-    private void addCluster(final ClusterData cluster) {
+    private void addCluster(final ClusterData cluster, final Map<String, IlluminaMetricCounts> counts) {
         //compute hash of Barcode and Lane for key
         String barcode = cluster.getMatchedBarcode();
         if (barcode == null) barcode = unmatched_barcode;
 
         //increment counts
-        IlluminaMetricCounts counters =  barcodeToMetricCounts.get(barcode);
+        final int tileNumber = cluster.getTile();
+        getCounters(counts, barcode).incrementClusterCount(tileNumber,cluster.isPf());
+    }
+
+    /***
+     * Returns the counts of the given barcode, adding them if there are none
+     */
+    private IlluminaMetricCounts getCounters(final Map<String, IlluminaMetricCounts> counts, final String barcode) {
+        IlluminaMetricCounts counters = counts.get(barcode);
         if (counters == null) {
              counters = new IlluminaMetricCounts(barcode,null,LANE);
-             barcodeToMetricCounts.put(barcode, counters);
+             counts.put(barcode, counters);
         }
-        final int tileNumber = cluster.getTile();
-        counters.incrementClusterCount(tileNumber,cluster.isPf());
+        return counters;
     }
 
     /**
@@ -52,7 +52,10 @@ import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -64,6 +67,9 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
  * sorting and writing efficiently.  Output is written in queryname output.  Optionally demultiplexes indexed reads
  * into separate outputs by barcode.
  *
+ * If sorting within tiles is turned off, the records of each tile are instead written in the order in which they are
+ * read, straight to the writers once all earlier tiles have been written, and without any temporary files.
+ *
  * @param <CLUSTER_OUTPUT_RECORD> The class to which a ClusterData is converted in preparation for writing.
  */
 public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
@@ -132,6 +138,7 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
     private List<Integer> tiles;
     private final boolean includeNonPfReads;
     private final boolean ignoreUnexpectedBarcodes;
+    private boolean sortWithinTiles = true;
 
     private final SortingCollection.Codec<CLUSTER_OUTPUT_RECORD> codecPrototype;
     // Annoying that we need this.
@@ -290,6 +297,17 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
         this.converter = converter;
     }
 
+    /**
+     * Sets whether the records of each tile are sorted with outputRecordComparator before they are written, which is
+     * the default.  If not, they are written in the order in which the tile's clusters are read, as soon as the earlier
+     * tiles have been written, and only records read while waiting for those are held, in memory.  Consecutive records
+     * that the comparator finds equal are discarded in either case, so unsorted records with the same read name are only
+     * discarded if their clusters are adjacent.
+     */
+    public void setSortWithinTiles(final boolean sortWithinTiles) {
+        this.sortWithinTiles = sortWithinTiles;
+    }
+
     /**
      * In case caller needs to get some info from factory.
      */
@@ -312,15 +330,19 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
                 tiles.add(new Tile(tileNumber));
             }
 
-            final TileReadAggregator tileReadAggregator = new TileReadAggregator(tiles);
-            tileReadAggregator.submit();
-            try {
-                tileReadAggregator.awaitWorkComplete();
-            } catch (final InterruptedException e) {
-                log.error(e, "Failure encountered in worker thread; attempting to shut down remaining worker threads and terminate ...");
-                throw new PicardException("Failure encountered in worker thread; see log for details.");
-            } finally {
-                tileReadAggregator.shutdown();
+            if (sortWithinTiles) {
+                final TileReadAggregator tileReadAggregator = new TileReadAggregator(tiles);
+                tileReadAggregator.submit();
+                try {
+                    tileReadAggregator.awaitWorkComplete();
+                } catch (final InterruptedException e) {
+                    log.error(e, "Failure encountered in worker thread; attempting to shut down remaining worker threads and terminate ...");
+                    throw new PicardException("Failure encountered in worker thread; see log for details.");
+                } finally {
+                    tileReadAggregator.shutdown();
+                }
+            } else {
+                new InOrderTileWriter(tiles).process();
             }
 
             for (final Map.Entry<Byte, Integer> entry : bclQualityEvaluationStrategy.getPoorQualityFrequencies().entrySet()) {
@@ -887,6 +909,146 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> {
         }
     }
 
+    /**
+     * Reads tiles on several threads and writes the records of each, unsorted, in tile order.  The thread reading the
+     * earliest tile not yet written writes its records straight to the writers as it reads them; the threads reading
+     * later tiles hold their records in memory until either they have read maxReadsInRamPerTile records or theirs
+     * becomes the earliest tile, and in the former case wait for that.  Only one thread writes at a time, so the
+     * writers need not be thread safe.
+     */
+    private class InOrderTileWriter {
+        private final List<Tile> tiles;
+        private final Object turnMonitor = new Object();
+        /** The index in tiles of the tile now being written; all earlier tiles have been written. */
+        private volatile int tileBeingWritten = 0;
+
+        InOrderTileWriter(final List<Tile> tiles) {
+            this.tiles = tiles;
+        }
+
+        /** Reads and writes all the tiles, rethrowing anything thrown while doing so. */
+        void process() {
+            final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                final List<Future<?>> futures = new ArrayList<Future<?>>(tiles.size());
+                for (int i = 0; i < tiles.size(); ++i) {
+                    final int tileIndex = i;
+                    futures.add(executor.submit(() -> {
+                        processTile(tileIndex);
+                        return null;
+                    }));
+                }
+                for (final Future<?> future : futures) future.get();
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while processing tiles.", e);
+            } catch (final ExecutionException e) {
+                log.error(e.getCause(), "Failure encountered in worker thread; attempting to shut down remaining worker threads and terminate ...");
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new PicardException("Failure encountered in worker thread; see log for details.", e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        private void processTile(final int tileIndex) throws InterruptedException {
+            final Tile tile = tiles.get(tileIndex);
+            final Map<String, TileBarcodeRecords> barcodeToRecords = new HashMap<String, TileBarcodeRecords>();
+            final IlluminaDataProvider dataProvider = factory.makeDataProvider(Arrays.asList(tile.getNumber()));
+            log.debug(String.format("Reading data from tile %s ...", tile.getNumber()));
+            try {
+                boolean writing = false;
+                long recordsHeld = 0;
+                while (dataProvider.hasNext()) {
+                    final ClusterData cluster = dataProvider.next();
+                    readProgressLogger.record(null, 0);
+                    if (!cluster.isPf() && !includeNonPfReads) continue;
+
+                    final String barcode = (demultiplex ? cluster.getMatchedBarcode() : null);
+                    TileBarcodeRecords records = barcodeToRecords.get(barcode);
+                    if (records == null) {
+                        if (!barcodeRecordWriterMap.containsKey(barcode)) {
+                            if (ignoreUnexpectedBarcodes) continue;
+                            throw new PicardException(String.format("Read records with barcode %s, but this barcode was not expected.  (Is it referenced in the parameters file?)", barcode));
+                        }
+                        records = new TileBarcodeRecords(barcodeRecordWriterMap.get(barcode));
+                        barcodeToRecords.put(barcode, records);
+                    }
+
+                    if (!writing && (tileBeingWritten == tileIndex || ++recordsHeld >= maxReadsInRamPerTile)) {
+                        awaitTurn(tileIndex);
+                        for (final TileBarcodeRecords held : barcodeToRecords.values()) held.writeHeld();
+                        writing = true;
+                    }
+                    records.add(converter.convertClusterToOutputRecord(cluster), writing);
+                }
+
+                if (!writing) awaitTurn(tileIndex);
+                for (final TileBarcodeRecords records : barcodeToRecords.values()) records.finish();
+                log.debug(String.format("Completed writing tile %s spanning %s barcodes.", tile.getNumber(), barcodeToRecords.size()));
+            } finally {
+                dataProvider.close();
+            }
+
+            synchronized (turnMonitor) {
+                tileBeingWritten = tileIndex + 1;
+                turnMonitor.notifyAll();
+            }
+        }
+
+        private void awaitTurn(final int tileIndex) throws InterruptedException {
+            synchronized (turnMonitor) {
+                while (tileBeingWritten != tileIndex) turnMonitor.wait();
+            }
+        }
+    }
+
+    /**
+     * The records of one tile for one barcode, held until they may be written.  The latest record is always held back
+     * so that it and the next may be discarded if they have the same name, as in the sorted case.
+     */
+    private class TileBarcodeRecords {
+        private final ConvertedClusterDataWriter<CLUSTER_OUTPUT_RECORD> writer;
+        private final List<CLUSTER_OUTPUT_RECORD> held = new ArrayList<CLUSTER_OUTPUT_RECORD>();
+        private CLUSTER_OUTPUT_RECORD latest = null;
+
+        TileBarcodeRecords(final ConvertedClusterDataWriter<CLUSTER_OUTPUT_RECORD> writer) {
+            this.writer = writer;
+        }
+
+        /** Adds a record, writing the one before it if writing, and else holding it. */
+        void add(final CLUSTER_OUTPUT_RECORD record, final boolean writing) {
+            if (latest != null) {
+                if (outputRecordComparator.compare(latest, record) == 0) {
+                    log.info("Skipping reads with identical read names: " + latest.toString());
+                    latest = null;
+                    return;
+                }
+                if (writing) write(latest);
+                else held.add(latest);
+            }
+            latest = record;
+        }
+
+        /** Writes the records held. */
+        void writeHeld() {
+            for (final CLUSTER_OUTPUT_RECORD record : held) write(record);
+            held.clear();
+        }
+
+        /** Writes all the records not yet written. */
+        void finish() {
+            writeHeld();
+            if (latest != null) write(latest);
+            latest = null;
+        }
+
+        private void write(final CLUSTER_OUTPUT_RECORD record) {
+            writer.write(record);
+            writeProgressLogger.record(null, 0);
+        }
+    }
+
     /**
      * Given a read structure return the data types that need to be parsed for this run
      */
@@ -200,6 +200,14 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
     @Option(shortName = "GZIP", doc = "Compress output FASTQ files using gzip and append a .gz extension to the file names.")
     public boolean COMPRESS_OUTPUTS = false;
 
+    @Option(doc = "If true, sort the reads of each tile by read name before writing them, spilling them to temporary files " +
+            "as needed.  If false, write the reads of each tile in the order of their clusters, straight to the output FASTQs " +
+            "as soon as the earlier tiles have been written, which needs no temporary files; each output FASTQ is then " +
+            "formatted and compressed on a thread of its own.  Tiles are written in the same order either way.  Reads with " +
+            "identical read names are discarded only when they are adjacent, so if false they are discarded only if their " +
+            "clusters are adjacent in the tile, whereas sorting makes all reads with the same name adjacent.")
+    public boolean SORT_WITHIN_TILES = true;
+
     /** Simple switch to control the read name format to emit. */
     public enum ReadNameFormat {
         CASAVA_1_8, ILLUMINA
@@ -246,6 +254,8 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
      */
     private void initialize() {
         fastqWriterFactory.setCreateMd5(CREATE_MD5_FILE);
+        // Without sorting, records are written by one thread at a time, so hand each output's formatting and compression to a thread of its own
+        if (!SORT_WITHIN_TILES) fastqWriterFactory.setUseAsyncIo(true);
         switch (READ_NAME_FORMAT) {
             case CASAVA_1_8:
                 readNameEncoder = new Casava18ReadNameEncoder(MACHINE_NAME, RUN_BARCODE, FLOWCELL_BARCODE);        
@@ -281,6 +291,7 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
         basecallsConverter.setConverter(
                 new ClusterToFastqRecordsForClusterConverter(
                         basecallsConverter.getFactory().getOutputReadStructure()));
+        basecallsConverter.setSortWithinTiles(SORT_WITHIN_TILES);
     }
 
     /**
@@ -0,0 +1,43 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.metrics;
+
+import htsjdk.samtools.metrics.MetricBase;
+
+/**
+ * A PerUnitMetricCollector that can take on the records accepted by another collector of the same kind, so that a
+ * MultiLevelCollector can accept each record once, into a collector for its read group, and produce the metrics for the
+ * other accumulation levels by merging read group collectors (see MultiLevelCollector).
+ *
+ * Merging must leave this collector exactly as it would have been had it accepted the other collector's records itself.
+ */
+public interface MergeablePerUnitMetricCollector<BEAN extends MetricBase, HKEY extends Comparable, ARGTYPE>
+        extends PerUnitMetricCollector<BEAN, HKEY, ARGTYPE> {
+    /**
+     * Adds the records accepted by the given collector, which was made by the same MultiLevelCollector and has not been
+     * finished, to those accepted by this one.
+     */
+    public void merge(final PerUnitMetricCollector<BEAN, HKEY, ARGTYPE> other);
+}
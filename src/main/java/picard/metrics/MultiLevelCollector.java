@@ -33,6 +33,7 @@ import picard.PicardException;
 import picard.analysis.MetricAccumulationLevel;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +56,11 @@ import java.util.Set;
  * track of values for one specific "accumulation unit" (e.g. for one library, or for one read group depending on what levels
  * you are accumulating at).
  *
+ * If the collectors made by makeChildCollector implement MergeablePerUnitMetricCollector, override mergesChildCollectors to
+ * return true.  When accumulating at more than one level, each record is then accepted only by a collector for its read
+ * group, found by the read group's position in the header, and at finish the read group collectors are merged into the
+ * collectors for every level requested.
+ *
  * If a record has any expensive calculations to be done (that don't need to be done differently depending
  * on what sample/library/read group the read is for) then create a container class for the results of these calculations and pass
  * this class as the ARGTYPE of both the PerUnitMetricCollector and MultiLevelCollector.  You can then do these calculations in the makeArg
@@ -74,6 +80,13 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
     //these will be listed in the order in which their children would be added to a metric file
     private List<Distributor> outputOrderedDistributors;
 
+    //When merging, one collector for each read group in the header, in header order, followed by one for records with no
+    //read group; null when each record is passed to the collectors for every level instead
+    private List<PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>> readGroupCollectors;
+    private List<SAMReadGroupRecord> readGroups;
+    private Map<String, Integer> readGroupIndices;
+    private boolean[] readGroupSeen;
+
     //Convert the current SAMRecord and the ReferenceSequence for that record into an ARGTYPE object
     //see accept record for use
     protected abstract ARGTYPE makeArg(final SAMRecord samRec, final ReferenceSequence refSeq);
@@ -90,6 +103,14 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
      */
     protected abstract PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> makeChildCollector(final String sample, final String library, final String readGroup);
 
+    /**
+     * Returns true if the collectors made by makeChildCollector implement MergeablePerUnitMetricCollector, so that
+     * records can be accepted once per read group and merged into each accumulation level at finish.
+     */
+    protected boolean mergesChildCollectors() {
+        return false;
+    }
+
     //These are exposed here (rather than being encapsulated in the Distributor subclasses below in order
     //to provide subclasses with an explicit point to add initialization (specific to accumulation level) for
     //a PerUnitMetricCollector it is creating
@@ -145,7 +166,17 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
 
         /** Call acceptRecord(args) on the record collector identified by getKey */
         public void acceptRecord(final ARGTYPE args, final SAMReadGroupRecord rg) {
+            getCollector(rg).acceptRecord(args);
+        }
+
+        /** Merge the given read group collector into the collector identified by getKey */
+        @SuppressWarnings("unchecked")
+        public void merge(final PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> readGroupCollector, final SAMReadGroupRecord rg) {
+            ((MergeablePerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>) getCollector(rg)).merge(readGroupCollector);
+        }
 
+        /** Returns the collector for records with the given read group, making the collector for unknown records if needed */
+        protected PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> getCollector(final SAMReadGroupRecord rg) {
             String key = UNKNOWN;
             if(rg != null) {
                 final String computedKey = getKey(rg);
@@ -161,7 +192,7 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
                 collector = makeUnknownCollector();
                 collectors.put(key, collector);
             }
-            collector.acceptRecord(args);
+            return collector;
         }
 
         /** Add all records to the MetricsFile passed in, this will happen in the order they were
@@ -188,8 +219,9 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
             return null;
         }
 
-        public void acceptRecord(final ARGTYPE args, final SAMReadGroupRecord rg) {
-            allReadCollector.acceptRecord(args);
+        @Override
+        protected PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE> getCollector(final SAMReadGroupRecord rg) {
+            return allReadCollector;
         }
 
         @Override
@@ -302,6 +334,19 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
         if(accumulationLevels.contains(MetricAccumulationLevel.READ_GROUP)) {
             outputOrderedDistributors.add(new ReadGroupCollector(samRgRecords));
         }
+
+        // With a single level there is nothing to be saved by merging
+        if (mergesChildCollectors() && outputOrderedDistributors.size() > 1) {
+            readGroups = new ArrayList<SAMReadGroupRecord>(samRgRecords);
+            readGroupIndices = new HashMap<String, Integer>();
+            readGroupCollectors = new ArrayList<PerUnitMetricCollector<METRIC_TYPE, Histogram_KEY, ARGTYPE>>(readGroups.size() + 1);
+            for (final SAMReadGroupRecord rg : readGroups) {
+                readGroupIndices.put(rg.getReadGroupId(), readGroupCollectors.size());
+                readGroupCollectors.add(makeReadGroupCollector(rg));
+            }
+            readGroupCollectors.add(makeChildCollector(UNKNOWN, UNKNOWN, UNKNOWN));
+            readGroupSeen = new boolean[readGroupCollectors.size()];
+        }
     }
 
     /**
@@ -310,16 +355,38 @@ public abstract class MultiLevelCollector<METRIC_TYPE extends MetricBase, Histog
      */
     public void acceptRecord(final SAMRecord record, final ReferenceSequence refSeq) {
         final ARGTYPE arg = makeArg(record, refSeq);
+        final SAMReadGroupRecord rg = record.getReadGroup();
+
+        if (readGroupCollectors != null) {
+            final Integer index = (rg == null) ? Integer.valueOf(readGroupCollectors.size() - 1) : readGroupIndices.get(rg.getReadGroupId());
+            // a read group missing from those given to setup is passed to each level as usual
+            if (index != null) {
+                readGroupCollectors.get(index).acceptRecord(arg);
+                readGroupSeen[index] = true;
+                return;
+            }
+        }
 
         for(final Distributor collector : outputOrderedDistributors) {
-            collector.acceptRecord(arg, record.getReadGroup());
+            collector.acceptRecord(arg, rg);
         }
     }
 
     /**
-     * Call finish on all PerUnitMetricCollectors
+     * Call finish on all PerUnitMetricCollectors, first merging the read group collectors into every level if merging
      */
     public void finish() {
+        if (readGroupCollectors != null) {
+            for (int i = 0; i < readGroupCollectors.size(); ++i) {
+                if (!readGroupSeen[i]) continue;
+                final SAMReadGroupRecord rg = (i < readGroups.size()) ? readGroups.get(i) : null;
+                for (final Distributor collector : outputOrderedDistributors) {
+                    collector.merge(readGroupCollectors.get(i), rg);
+                }
+            }
+            readGroupCollectors = null;
+        }
+
         for(final Distributor collector : outputOrderedDistributors) {
             collector.finish();
         }
@@ -32,16 +32,33 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.SecondaryOrSupplementarySkippingIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.CommandLineProgramProperties;
+import picard.cmdline.Option;
 import picard.cmdline.PositionalArguments;
 import picard.cmdline.programgroups.SamOrBam;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Rudimentary SAM comparer.  Compares headers, and if headers are compatible enough, compares SAMRecords,
@@ -71,6 +88,12 @@ public class CompareSAMs extends CommandLineProgram {
     @PositionalArguments(minElements = 2, maxElements = 2)
     public List<File> samFiles;
 
+    @Option(doc = "The number of threads used to match up the reads of coordinate sorted inputs that were not found at the " +
+            "same coordinate in both files.  Such reads are partitioned by read name, spilling to disk once more than " +
+            "MAX_RECORDS_IN_RAM are held, and the partitions are compared in parallel.  A partition with more reads than " +
+            "MAX_RECORDS_IN_RAM / NUM_THREADS is partitioned again before being compared.")
+    public int NUM_THREADS = 1;
+
     private final SamReader[] samReaders = new SamReader[2];
     private boolean sequenceDictionariesDiffer;
     private int mappingsMatch = 0;
@@ -149,24 +172,19 @@ public class CompareSAMs extends CommandLineProgram {
         final SecondaryOrSupplementarySkippingIterator itRight =
                 new SecondaryOrSupplementarySkippingIterator(samReaders[1].iterator());
 
-        // Save any reads which haven't been matched during in-order scan.
-        final Map<String, SAMRecord> leftUnmatched = new HashMap<String, SAMRecord>();
-        final Map<String, SAMRecord> rightUnmatched = new HashMap<String, SAMRecord>();
+        // Save any reads which haven't been matched during in-order scan, partitioned by read name and spilled
+        // to disk if there are too many to hold in memory.
+        // TMP_DIR is empty when doWork() is called directly rather than through instanceMain().
+        final File tmpDir = TMP_DIR.isEmpty() ? IOUtil.getDefaultTmpDir() : TMP_DIR.get(0);
+        final UnmatchedAlignments unmatched = new UnmatchedAlignments(0, MAX_RECORDS_IN_RAM, tmpDir);
 
         boolean ret = true;
 
         while (itLeft.hasCurrent()) {
             if (!itRight.hasCurrent()) {
-                // Exhausted right side.  See if any of the remaining left reads match
-                // any of the saved right reads.
+                // Exhausted right side.  The remaining left reads may match saved right reads.
                 for (; itLeft.hasCurrent(); itLeft.advance()) {
-                    final SAMRecord left = itLeft.getCurrent();
-                    final SAMRecord right = rightUnmatched.remove(getKeyForRecord(left));
-                    if (right == null) {
-                        ++missingRight;
-                    } else {
-                        tallyAlignmentRecords(left, right);
-                    }
+                    unmatched.add(itLeft.getCurrent(), true);
                 }
                 break;
             }
@@ -185,8 +203,7 @@ public class CompareSAMs extends CommandLineProgram {
             }
             // Advance the right iterator until it is >= the left reads that have just been grabbed
             while (itRight.hasCurrent() && compareAlignmentCoordinates(left, itRight.getCurrent()) > 0) {
-                final SAMRecord right = itRight.getCurrent();
-                rightUnmatched.put(getKeyForRecord(right), right);
+                unmatched.add(itRight.getCurrent(), false);
                 itRight.advance();
             }
             // For each right read that has the same coordinate as the current left reads,
@@ -198,42 +215,23 @@ public class CompareSAMs extends CommandLineProgram {
                 if (matchingLeft != null) {
                     ret = tallyAlignmentRecords(matchingLeft, right) && ret;
                 } else {
-                    rightUnmatched.put(getKeyForRecord(right), right);
+                    unmatched.add(right, false);
                 }
             }
 
             // Anything left in leftCurrentCoordinate has not been matched
             for (final SAMRecord samRecord : leftCurrentCoordinate.values()) {
-                leftUnmatched.put(getKeyForRecord(samRecord), samRecord);
+                unmatched.add(samRecord, true);
             }
         }
-        // The left iterator has been exhausted.  See if any of the remaining right reads
-        // match any of the saved left reads.
+        // The left iterator has been exhausted.  The remaining right reads may match saved left reads.
         for (; itRight.hasCurrent(); itRight.advance()) {
-            final SAMRecord right = itRight.getCurrent();
-            final SAMRecord left = leftUnmatched.remove(getKeyForRecord(right));
-            if (left != null) {
-                tallyAlignmentRecords(left, right);
-            } else {
-                ++missingLeft;
-            }
+            unmatched.add(itRight.getCurrent(), false);
         }
 
-        // Look up reads that were unmatched from left, and see if they are in rightUnmatched.
-        // If found, remove from rightUnmatched and tally.
-        for (final Map.Entry<String, SAMRecord> leftEntry : leftUnmatched.entrySet()) {
-            final String key = leftEntry.getKey();
-            final SAMRecord left = leftEntry.getValue();
-            final SAMRecord right = rightUnmatched.remove(key);
-            if (right == null) {
-                ++missingRight;
-                continue;
-            }
-            tallyAlignmentRecords(left, right);
-        }
-
-        // Any elements remaining in rightUnmatched are guaranteed not to be in leftUnmatched.
-        missingLeft += rightUnmatched.size();
+        // Match up the saved reads of each partition, tallying them as above and counting those
+        // found on one side only as missing from the other.
+        unmatched.compare(NUM_THREADS);
 
         if (ret && (missingLeft > 0 || missingRight > 0 || mappingsDiffer > 0 || unmappedLeft > 0 || unmappedRight > 0)) {
             ret = false;
@@ -326,7 +324,8 @@ public class CompareSAMs extends CommandLineProgram {
         return i;
     }
 
-    private boolean tallyAlignmentRecords(final SAMRecord s1, final SAMRecord s2) {
+    /** Synchronized as the unmatched reads of coordinate sorted inputs are tallied on several threads. */
+    private synchronized boolean tallyAlignmentRecords(final SAMRecord s1, final SAMRecord s2) {
         if (!s1.getReadName().equals(s2.getReadName())) {
             throw new PicardException("Read names do not match: " + s1.getReadName() + " : " + s2.getReadName());
         }
@@ -499,7 +498,7 @@ public class CompareSAMs extends CommandLineProgram {
         reportDifference(o1.toString(), o2.toString(), label);
     }
 
-    private String getKeyForRecord(final SAMRecord record) {
+    private static String getKeyForRecord(final SAMRecord record) {
         final boolean isSecondOfPair = record.getReadPairedFlag() && record.getSecondOfPairFlag();
         return record.getReadName() + "-" + (isSecondOfPair ? "second" : "first");
     }
@@ -536,4 +535,228 @@ public class CompareSAMs extends CommandLineProgram {
         return areEqual;
     }
 
+    private synchronized void countMissing(final int left, final int right) {
+        missingLeft += left;
+        missingRight += right;
+    }
+
+    /**
+     * Holds the reads of a coordinate sorted comparison that were not matched during the in-order scan.  Only the
+     * fields needed to tally a pair of alignments are kept.  Reads are hash-partitioned by read name and end; once more
+     * than maxRecordsInRam are held, every partition's buffered reads are appended to its temporary files.  Each
+     * partition is then compared independently.  A partition with more left-side reads than one thread's share of
+     * MAX_RECORDS_IN_RAM is first split again, with a different hash, so memory stays bounded however large the inputs.
+     */
+    private class UnmatchedAlignments {
+        private static final int NUM_PARTITIONS = 64;
+        /** Reads with equal keys can never be split apart, so stop re-partitioning after this many levels. */
+        private static final int MAX_DEPTH = 4;
+
+        private final int depth;
+        private final int maxRecordsInRam;
+        private final File tmpDir;
+        private final Partition[] partitions = new Partition[NUM_PARTITIONS];
+        private int recordsInRam = 0;
+
+        UnmatchedAlignments(final int depth, final int maxRecordsInRam, final File tmpDir) {
+            this.depth = depth;
+            this.maxRecordsInRam = maxRecordsInRam;
+            this.tmpDir = tmpDir;
+            for (int i = 0; i < NUM_PARTITIONS; ++i) partitions[i] = new Partition(depth);
+        }
+
+        void add(final SAMRecord record, final boolean left) {
+            add(new UnmatchedAlignment(record), left);
+        }
+
+        void add(final UnmatchedAlignment alignment, final boolean left) {
+            partitions[partitionOf(alignment.key, depth)].add(alignment, left);
+            if (++recordsInRam > maxRecordsInRam) {
+                for (final Partition p : partitions) p.spill(tmpDir);
+                recordsInRam = 0;
+            }
+        }
+
+        /** Compares the partitions on the given number of threads, adding to the tallies as tallyAlignmentRecords does. */
+        void compare(final int numThreads) {
+            final int maxRecordsPerPartition = Math.max(1, maxRecordsInRam / Math.max(1, numThreads));
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+            try {
+                final List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (final Partition partition : partitions) {
+                    futures.add(executor.submit(() -> {
+                        partition.compare(maxRecordsPerPartition, tmpDir);
+                        return null;
+                    }));
+                }
+                for (final Future<?> future : futures) future.get();
+            } catch (final InterruptedException e) {
+                throw new PicardException("Interrupted while comparing unmatched reads", e);
+            } catch (final ExecutionException e) {
+                throw new PicardException("Exception while comparing unmatched reads", e.getCause());
+            } finally {
+                executor.shutdownNow();
+                for (final Partition partition : partitions) partition.deleteSpillFiles();
+            }
+        }
+    }
+
+    /** Spreads keys over the partitions with a hash that differs at each level of re-partitioning. */
+    private static int partitionOf(final String key, final int depth) {
+        int h = key.hashCode() + depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % UnmatchedAlignments.NUM_PARTITIONS;
+    }
+
+    /** The unmatched reads of one partition, in memory and in files to which they have been spilled. */
+    private class Partition {
+        final int depth;
+        final List<UnmatchedAlignment> left = new ArrayList<UnmatchedAlignment>();
+        final List<UnmatchedAlignment> right = new ArrayList<UnmatchedAlignment>();
+        File leftSpillFile = null;
+        File rightSpillFile = null;
+        long leftCount = 0;
+
+        Partition(final int depth) {
+            this.depth = depth;
+        }
+
+        void add(final UnmatchedAlignment alignment, final boolean isLeft) {
+            if (isLeft) {
+                left.add(alignment);
+                ++leftCount;
+            } else {
+                right.add(alignment);
+            }
+        }
+
+        void spill(final File tmpDir) {
+            if (!left.isEmpty()) leftSpillFile = spill(left, leftSpillFile, tmpDir);
+            if (!right.isEmpty()) rightSpillFile = spill(right, rightSpillFile, tmpDir);
+        }
+
+        private File spill(final List<UnmatchedAlignment> alignments, File spillFile, final File tmpDir) {
+            try {
+                if (spillFile == null) {
+                    spillFile = File.createTempFile("CompareSAMs.", ".tmp", tmpDir);
+                    spillFile.deleteOnExit();
+                }
+                try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile, true)))) {
+                    for (final UnmatchedAlignment alignment : alignments) alignment.write(out);
+                }
+            } catch (final IOException e) {
+                throw new RuntimeIOException("Exception spilling unmatched reads to " + spillFile, e);
+            }
+            alignments.clear();
+            return spillFile;
+        }
+
+        private void read(final File spillFile, final List<UnmatchedAlignment> inMemory, final Consumer<UnmatchedAlignment> consumer) throws IOException {
+            if (spillFile != null) {
+                try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)))) {
+                    while (true) {
+                        final UnmatchedAlignment alignment;
+                        try {
+                            alignment = UnmatchedAlignment.read(in);
+                        } catch (final EOFException e) {
+                            break;
+                        }
+                        consumer.accept(alignment);
+                    }
+                }
+            }
+            for (final UnmatchedAlignment alignment : inMemory) consumer.accept(alignment);
+        }
+
+        /**
+         * Matches up the left and right reads of this partition by key, holding the left reads in memory.  If there are
+         * more of them than maxRecordsInRam, the partition is split and each of the resulting partitions compared in turn.
+         */
+        void compare(final int maxRecordsInRam, final File tmpDir) throws IOException {
+            if (leftCount > maxRecordsInRam && depth < UnmatchedAlignments.MAX_DEPTH) {
+                final UnmatchedAlignments split = new UnmatchedAlignments(depth + 1, maxRecordsInRam, tmpDir);
+                try {
+                    read(leftSpillFile, left, alignment -> split.add(alignment, true));
+                    read(rightSpillFile, right, alignment -> split.add(alignment, false));
+                    deleteSpillFiles();
+                    left.clear();
+                    right.clear();
+                    for (final Partition partition : split.partitions) partition.compare(maxRecordsInRam, tmpDir);
+                } finally {
+                    for (final Partition partition : split.partitions) partition.deleteSpillFiles();
+                }
+                return;
+            }
+
+            final SAMFileHeader header = samReaders[0].getFileHeader();
+            final Map<String, UnmatchedAlignment> leftByKey = new HashMap<String, UnmatchedAlignment>();
+            read(leftSpillFile, left, alignment -> leftByKey.put(alignment.key, alignment));
+            final int[] missingLeftCount = {0};
+            read(rightSpillFile, right, alignment -> {
+                final UnmatchedAlignment matchingLeft = leftByKey.remove(alignment.key);
+                if (matchingLeft == null) {
+                    ++missingLeftCount[0];
+                } else {
+                    tallyAlignmentRecords(matchingLeft.toRecord(header), alignment.toRecord(header));
+                }
+            });
+            countMissing(missingLeftCount[0], leftByKey.size());
+        }
+
+        void deleteSpillFiles() {
+            if (leftSpillFile != null) leftSpillFile.delete();
+            if (rightSpillFile != null) rightSpillFile.delete();
+            leftSpillFile = null;
+            rightSpillFile = null;
+        }
+    }
+
+    /** The fields of a read that tallyAlignmentRecords and getKeyForRecord look at. */
+    private static class UnmatchedAlignment {
+        final String key;
+        final String readName;
+        final int flags;
+        final int referenceIndex;
+        final int alignmentStart;
+
+        UnmatchedAlignment(final SAMRecord record) {
+            this(record.getReadName(), record.getFlags(), record.getReferenceIndex(), record.getAlignmentStart(), getKeyForRecord(record));
+        }
+
+        private UnmatchedAlignment(final String readName, final int flags, final int referenceIndex, final int alignmentStart, final String key) {
+            this.readName = readName;
+            this.flags = flags;
+            this.referenceIndex = referenceIndex;
+            this.alignmentStart = alignmentStart;
+            this.key = key;
+        }
+
+        /** Rebuilds a record holding just these fields, so that it can be passed to tallyAlignmentRecords. */
+        SAMRecord toRecord(final SAMFileHeader header) {
+            final SAMRecord record = new SAMRecord(header);
+            record.setReadName(readName);
+            record.setFlags(flags);
+            record.setReferenceIndex(referenceIndex);
+            record.setAlignmentStart(alignmentStart);
+            return record;
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            out.writeUTF(readName);
+            out.writeInt(flags);
+            out.writeInt(referenceIndex);
+            out.writeInt(alignmentStart);
+        }
+
+        static UnmatchedAlignment read(final DataInputStream in) throws IOException {
+            final String readName = in.readUTF();
+            final int flags = in.readInt();
+            final SAMRecord keyRecord = new SAMRecord(null);
+            keyRecord.setReadName(readName);
+            keyRecord.setFlags(flags);
+            return new UnmatchedAlignment(readName, flags, in.readInt(), in.readInt(), getKeyForRecord(keyRecord));
+        }
+    }
 }
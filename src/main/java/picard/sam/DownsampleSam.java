@@ -34,6 +34,7 @@ import htsjdk.samtools.DownsamplingIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.Murmur3;
 import htsjdk.samtools.util.ProgressLogger;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.CommandLineProgramProperties;
@@ -44,6 +45,8 @@ import picard.cmdline.programgroups.SamOrBam;
 import java.io.File;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -72,6 +75,10 @@ public class DownsampleSam extends CommandLineProgram {
             "ConstantMemory: " + DownsamplingIteratorFactory.CONSTANT_MEMORY_DESCRPTION + "\n\n" +
             "HighAccuracy: " + DownsamplingIteratorFactory.HIGH_ACCURACY_DESCRIPTION + "\n\n" +
             "Chained: " + DownsamplingIteratorFactory.CHAINED_DESCRIPTION + "\n\n" +
+            "To build a titration series in a single pass over the input, give further probabilities with ADDITIONAL_PROBABILITY " +
+            "and a matching ADDITIONAL_OUTPUT for each.  This requires the ConstantMemory strategy; since it keeps a template " +
+            "based on a hash of its read name, every output is a subset of each output with a higher probability, and the " +
+            "output for each probability is the same as that of a separate run.\n\n" +
             "<h4>Usage example:</h4>" +
             "<pre>" +
             "java -jar picard.jar DownsampleSam \\<br />" +
@@ -100,20 +107,48 @@ public class DownsampleSam extends CommandLineProgram {
             "Higher accuracy will generally require more memory.")
     public double ACCURACY = 0.0001;
 
+    @Option(doc = "Additional probabilities of keeping any individual read, each written to the corresponding ADDITIONAL_OUTPUT " +
+            "in the same pass over the input.  Requires STRATEGY=ConstantMemory.", optional = true)
+    public List<Double> ADDITIONAL_PROBABILITY = new ArrayList<Double>();
+
+    @Option(doc = "The output SAM or BAM file for each ADDITIONAL_PROBABILITY, in the same order.", optional = true)
+    public List<File> ADDITIONAL_OUTPUT = new ArrayList<File>();
+
     private final Log log = Log.getInstance(DownsampleSam.class);
 
     public static void main(final String[] args) {
         new DownsampleSam().instanceMainWithExit(args);
     }
 
+    @Override
+    protected String[] customCommandLineValidation() {
+        final List<String> errors = new ArrayList<String>();
+        if (PROBABILITY < 0 || PROBABILITY > 1) {
+            errors.add("PROBABILITY must be between 0 and 1: " + PROBABILITY);
+        } else if (PROBABILITY == 1) {
+            // Warn the user if they are running with P=1
+            log.warn("Running DownsampleSam with PROBABILITY=1! This will likely just recreate the input file.");
+        }
+        if (ADDITIONAL_PROBABILITY.size() != ADDITIONAL_OUTPUT.size()) {
+            errors.add("ADDITIONAL_PROBABILITY and ADDITIONAL_OUTPUT must be given the same number of times.");
+        }
+        if (!ADDITIONAL_PROBABILITY.isEmpty() && STRATEGY != Strategy.ConstantMemory) {
+            errors.add("ADDITIONAL_PROBABILITY may only be used with STRATEGY=" + Strategy.ConstantMemory + ".");
+        }
+        for (final double probability : ADDITIONAL_PROBABILITY) {
+            if (probability < 0 || probability > 1) errors.add("ADDITIONAL_PROBABILITY must be between 0 and 1: " + probability);
+        }
+        if (!errors.isEmpty()) return errors.toArray(new String[errors.size()]);
+        return super.customCommandLineValidation();
+    }
+
     @Override
     protected int doWork() {
         IOUtil.assertFileIsReadable(INPUT);
         IOUtil.assertFileIsWritable(OUTPUT);
-
-        // Warn the user if they are running with P=1; 0 <= P <= 1 is checked by the DownsamplingIteratorFactory
-        if (PROBABILITY == 1) {
-            log.warn("Running DownsampleSam with PROBABILITY=1! This will likely just recreate the input file.");
+        if (!ADDITIONAL_PROBABILITY.isEmpty()) {
+            IOUtil.assertFilesAreWritable(ADDITIONAL_OUTPUT);
+            return downsampleToMultipleProbabilities();
         }
 
         final Random r = RANDOM_SEED == null ? new Random() : new Random(RANDOM_SEED);
@@ -136,4 +171,57 @@ public class DownsampleSam extends CommandLineProgram {
 
         return 0;
     }
+
+    /**
+     * Writes the output for PROBABILITY and for each ADDITIONAL_PROBABILITY in a single pass over INPUT.  A template is
+     * kept for a given probability in exactly the same way as by the ConstantMemory strategy, i.e. if the Murmur3 hash of
+     * its read name is no more than a threshold that increases with the probability, so the read name is hashed just
+     * once for all of the outputs.  The same record is handed to every output that keeps it, so the outputs are written
+     * synchronously rather than each encoding the record on its own thread.
+     */
+    private int downsampleToMultipleProbabilities() {
+        final List<Double> probabilities = new ArrayList<Double>();
+        final List<File> outputs = new ArrayList<File>();
+        probabilities.add(PROBABILITY);
+        probabilities.addAll(ADDITIONAL_PROBABILITY);
+        outputs.add(OUTPUT);
+        outputs.addAll(ADDITIONAL_OUTPUT);
+
+        final Murmur3 hasher = new Murmur3(RANDOM_SEED == null ? new Random().nextInt() : RANDOM_SEED);
+        final SamReader in = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE).open(INPUT);
+        final SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+        final int[] maxHashValues = new int[probabilities.size()];
+        final SAMFileWriter[] writers = new SAMFileWriter[probabilities.size()];
+        final long[] acceptedCounts = new long[probabilities.size()];
+        for (int i = 0; i < probabilities.size(); ++i) {
+            // Same threshold as the ConstantMemoryDownsamplingIterator uses for this probability
+            maxHashValues[i] = Integer.MIN_VALUE + (int) Math.round(4294967295d * probabilities.get(i));
+            writers[i] = writerFactory.makeSAMOrBAMWriter(in.getFileHeader(), true, outputs.get(i));
+        }
+
+        final ProgressLogger progress = new ProgressLogger(log, (int) 1e7, "Read");
+        long seenCount = 0;
+        for (final SAMRecord rec : in) {
+            final int hash = hasher.hashUnencodedChars(rec.getReadName());
+            for (int i = 0; i < writers.length; ++i) {
+                if (hash <= maxHashValues[i]) {
+                    writers[i].addAlignment(rec);
+                    ++acceptedCounts[i];
+                }
+            }
+            ++seenCount;
+            progress.record(rec);
+        }
+
+        for (final SAMFileWriter writer : writers) writer.close();
+        CloserUtil.close(in);
+        final NumberFormat fmt = new DecimalFormat("0.00%");
+        log.info("Finished downsampling.");
+        for (int i = 0; i < writers.length; ++i) {
+            log.info("Kept ", acceptedCounts[i], " out of ", seenCount, " reads (",
+                    fmt.format(seenCount == 0 ? 0 : acceptedCounts[i] / (double) seenCount), ") in ", outputs.get(i), ".");
+        }
+
+        return 0;
+    }
 }
@@ -1,23 +1,56 @@
 package picard.sam;
 
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.BAMRecord;
 import htsjdk.samtools.BamFileIoUtils;
+import htsjdk.samtools.Chunk;
 import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileSource;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMUtils;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.Md5CalculatingOutputStream;
+import htsjdk.samtools.util.RuntimeIOException;
+import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.CommandLineProgramProperties;
 import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.SamOrBam;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Program to perform a rapid "gather" operation on BAM files after a scatter operations where
@@ -41,6 +74,11 @@ public class GatherBamFiles extends CommandLineProgram {
             " simply concatenates the bodies of the BAM files while retaining the header from the first file.  " +
             "Operates via copying of the gzip blocks directly for speed but also supports generation of an MD5 on the" +
             " output and indexing of the output BAM file. Only supports BAM files, does not support SAM files." +
+            "<br /><br />" +
+            "With STREAMING_BLOCK_COPY=true the terminator blocks of all inputs are verified up front (in parallel when " +
+            "NUM_THREADS > 1) and block bodies are copied with channel-to-channel transfers. If an index or an MD5 is requested " +
+            "the blocks are streamed through instead, and the index is built from the records in the blocks as they are copied, " +
+            "instead of by a second pass over the inputs or the output." +
             "<h4>Usage example:</h4>" +
             "<pre>" +
             "java -jar picard.jar GatherBamFiles \\<br /> " +
@@ -56,6 +94,16 @@ public class GatherBamFiles extends CommandLineProgram {
     @Option(shortName = StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc = "The output BAM file to write.")
     public File OUTPUT;
 
+    @Option(doc = "If true, and all inputs are BAM files, verify the inputs up front and copy their BGZF blocks with " +
+            "channel-to-channel transfers. Note that the channel transfers are not used if CREATE_INDEX or CREATE_MD5_FILE is " +
+            "true: the blocks are then streamed through this program instead, and the output index is built from the records " +
+            "in each block as it is copied.")
+    public boolean STREAMING_BLOCK_COPY = false;
+
+    @Option(doc = "The number of threads to use to verify the terminator blocks and locate the first record of each input " +
+            "when STREAMING_BLOCK_COPY is true.")
+    public int NUM_THREADS = 1;
+
     private static final Log log = Log.getInstance(GatherBamFiles.class);
 
     // Stock main method.
@@ -71,7 +119,10 @@ public class GatherBamFiles extends CommandLineProgram {
         for (final File f : inputs) IOUtil.assertFileIsReadable(f);
         IOUtil.assertFileIsWritable(OUTPUT);
 
-        if (determineBlockCopyingStatus(inputs)) {
+        final boolean useBlockCopying = determineBlockCopyingStatus(inputs);
+        if (useBlockCopying && STREAMING_BLOCK_COPY) {
+            gatherWithStreamingBlockCopying(inputs, OUTPUT, CREATE_INDEX, CREATE_MD5_FILE, NUM_THREADS);
+        } else if (useBlockCopying) {
             BamFileIoUtils.gatherWithBlockCopying(inputs, OUTPUT, CREATE_INDEX, CREATE_MD5_FILE);
         } else {
             gatherNormally(inputs, OUTPUT, CREATE_INDEX, CREATE_MD5_FILE, REFERENCE_SEQUENCE);
@@ -113,4 +164,374 @@ public class GatherBamFiles extends CommandLineProgram {
         out.close();
     }
 
+    /**
+     * Gathers BAM files by copying their BGZF blocks directly. The terminator block of every input is checked (as
+     * CheckTerminatorBlock does) and the virtual offset of its first record located on a pool of threads before any
+     * data is written. The header of the first input is retained; for all other inputs the remainder of the block
+     * holding the end of the header is re-compressed into a new block and all subsequent blocks (excluding the
+     * terminator block) are copied verbatim. If requested, the output index is built as the blocks are copied by
+     * inflating each block and reading the fixed fields of the records it holds, so neither the inputs nor the output
+     * are read a second time.
+     */
+    private static void gatherWithStreamingBlockCopying(final List<File> inputs, final File output, final boolean createIndex,
+                                                        final boolean createMd5, final int threads) {
+        final List<InputBlockLayout> layouts = locateBlocks(inputs, threads);
+        final SAMFileHeader header = SamReaderFactory.makeDefault().getFileHeader(inputs.get(0));
+
+        final boolean indexing = createIndex && header.getSortOrder() == SAMFileHeader.SortOrder.coordinate;
+        if (createIndex && !indexing) log.warn("Not creating an index as the inputs are not coordinate sorted.");
+        final CopiedRecordIndexer indexer = indexing ?
+                new CopiedRecordIndexer(header, new File(output.getParentFile(), IOUtil.basename(output) + BAMIndex.BAMIndexSuffix)) : null;
+
+        if (createIndex || createMd5) log.info("Streaming blocks rather than transferring them, as an index or MD5 is being created.");
+
+        try (final FileOutputStream fileOut = new FileOutputStream(output)) {
+            final FileChannel outChannel = fileOut.getChannel();
+            // Channel transfers bypass the stream, so fall back to streaming the bytes when an MD5 is being calculated or
+            // the blocks are being indexed
+            final OutputStream out = createMd5 ? new Md5CalculatingOutputStream(fileOut, new File(output.getAbsolutePath() + ".md5")) : fileOut;
+            long outputPosition = 0;
+
+            for (final InputBlockLayout layout : layouts) {
+                log.info("Block copying " + layout.file.getAbsolutePath() + " ...");
+                if (indexing && layout.firstRecord != -1) indexer.skipTo(layout.firstRecord);
+
+                try (final FileInputStream in = new FileInputStream(layout.file)) {
+                    final FileChannel inChannel = in.getChannel();
+
+                    if (layout.headerRemainder != null) {
+                        // The remainder can be more than fits in one output block, so write it a block at a time so that
+                        // each block can be indexed at its own address
+                        final BlockCompressedOutputStream blockOut = new BlockCompressedOutputStream(out, null);
+                        final byte[] remainder = layout.headerRemainder;
+                        for (int from = 0; from < remainder.length; from += BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE) {
+                            final int to = Math.min(remainder.length, from + BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE);
+                            final long blockAddress = outputPosition;
+                            blockOut.write(remainder, from, to - from);
+                            blockOut.flush();
+                            outputPosition = outChannel.position();
+                            if (indexing) indexer.addBlock(Arrays.copyOfRange(remainder, from, to), blockAddress, outputPosition);
+                        }
+                        // Don't close blockOut because closing underlying stream would break everything
+                    }
+
+                    final long bytesToCopy = layout.bodyEnd - layout.bodyStart;
+                    if (indexing) {
+                        inChannel.position(layout.bodyStart);
+                        copyAndIndexBlocks(in, out, bytesToCopy, outputPosition, indexer);
+                    } else if (createMd5) {
+                        inChannel.position(layout.bodyStart);
+                        IOUtil.transferByStream(in, out, bytesToCopy);
+                    } else {
+                        long copied = 0;
+                        while (copied < bytesToCopy) {
+                            copied += inChannel.transferTo(layout.bodyStart + copied, bytesToCopy - copied, outChannel);
+                        }
+                    }
+                    outputPosition += bytesToCopy;
+                }
+            }
+
+            // And lastly add the Terminator block and close up
+            out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            out.close();
+
+            if (indexing) indexer.finish();
+        } catch (final IOException ioe) {
+            throw new RuntimeIOException(ioe);
+        } finally {
+            if (indexing) indexer.close();
+        }
+    }
+
+    /**
+     * Copies whole BGZF blocks from the input to the output, handing each one to the indexer along with the address
+     * it is written at in the output.
+     */
+    private static void copyAndIndexBlocks(final InputStream in, final OutputStream out, final long bytesToCopy,
+                                           final long outputAddress, final CopiedRecordIndexer indexer) throws IOException {
+        final DataInputStream blockIn = new DataInputStream(new BufferedInputStream(in, IOUtil.STANDARD_BUFFER_SIZE));
+        final byte[] block = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+        final ByteBuffer blockHeader = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+        long copied = 0;
+        while (copied < bytesToCopy) {
+            blockIn.readFully(block, 0, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            final int blockLength = (blockHeader.getShort(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) & 0xFFFF) + 1;
+            blockIn.readFully(block, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, blockLength - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            out.write(block, 0, blockLength);
+            indexer.addCompressedBlock(block, blockLength, outputAddress + copied);
+            copied += blockLength;
+        }
+    }
+
+    /** Checks the terminator block of each input and locates the first record within it, using the given number of threads. */
+    private static List<InputBlockLayout> locateBlocks(final List<File> inputs, final int threads) {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            final List<Future<InputBlockLayout>> futures = new ArrayList<Future<InputBlockLayout>>(inputs.size());
+            for (int i = 0; i < inputs.size(); ++i) {
+                final File f = inputs.get(i);
+                final boolean keepHeader = (i == 0);
+                futures.add(executor.submit(() -> new InputBlockLayout(f, keepHeader)));
+            }
+
+            final List<InputBlockLayout> layouts = new ArrayList<InputBlockLayout>(inputs.size());
+            for (final Future<InputBlockLayout> future : futures) layouts.add(future.get());
+            return layouts;
+        } catch (final InterruptedException ie) {
+            throw new PicardException("Interrupted while checking input BAM files.", ie);
+        } catch (final ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+            throw new PicardException("Exception while checking input BAM files.", ee.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Builds a BAM index from the BGZF blocks of the output as they are written. Each block is inflated and the fixed
+     * fields of the records it holds are read into BAMRecords, whose remaining fields are only decoded if the indexer
+     * asks for them (the CIGAR, to find the alignment end). Records may span blocks, so the uncompressed bytes of every
+     * block that still holds part of an unfinished record are kept along with the block's address in the output.
+     */
+    private static class CopiedRecordIndexer {
+        private static final int FIXED_RECORD_LENGTH = 32;
+
+        private final SAMFileHeader header;
+        private final BAMIndexer indexer;
+        private final Inflater inflater = new Inflater(true);
+
+        /** Uncompressed bytes that have not yet been indexed, starting at a record boundary. */
+        private byte[] pending = new byte[2 * BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+        private int pendingLength = 0;
+        /** The blocks holding the pending bytes, in output order. */
+        private final List<PendingBlock> blocks = new ArrayList<PendingBlock>();
+
+        /** Bytes before this virtual offset (i.e. the header of the first input) are not records and are skipped. */
+        private long skipUntil = -1;
+
+        CopiedRecordIndexer(final SAMFileHeader header, final File indexFile) {
+            this.header = header;
+            this.indexer = new BAMIndexer(indexFile, header);
+        }
+
+        /** Skips the bytes of the next blocks up to the given virtual offset within the output. */
+        void skipTo(final long virtualOffset) {
+            this.skipUntil = virtualOffset;
+        }
+
+        /** Inflates the BGZF block held in the first blockLength bytes of the given array and indexes its records. */
+        void addCompressedBlock(final byte[] block, final int blockLength, final long address) {
+            final int uncompressedLength = ByteBuffer.wrap(block, blockLength - 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            final byte[] uncompressed = new byte[uncompressedLength];
+            inflater.reset();
+            inflater.setInput(block, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH,
+                    blockLength - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - 8);
+            try {
+                int inflated = 0;
+                while (inflated < uncompressedLength) {
+                    final int count = inflater.inflate(uncompressed, inflated, uncompressedLength - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new PicardException("Truncated BGZF block at output address " + address);
+                    }
+                    inflated += count;
+                }
+            } catch (final DataFormatException e) {
+                throw new PicardException("Invalid BGZF block at output address " + address, e);
+            }
+            addBlock(uncompressed, address, address + blockLength);
+        }
+
+        /** Indexes the records in the given uncompressed contents of the block written between the given addresses. */
+        void addBlock(final byte[] uncompressed, final long address, final long nextAddress) {
+            int from = 0;
+            if (skipUntil != -1) {
+                final long skipAddress = BlockCompressedFilePointerUtil.getBlockAddress(skipUntil);
+                if (address < skipAddress) return;
+                if (address == skipAddress) from = BlockCompressedFilePointerUtil.getBlockOffset(skipUntil);
+                skipUntil = -1;
+            }
+
+            final int length = uncompressed.length - from;
+            if (pendingLength + length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(2 * pending.length, pendingLength + length));
+            }
+            System.arraycopy(uncompressed, from, pending, pendingLength, length);
+            blocks.add(new PendingBlock(address, nextAddress, pendingLength - from, uncompressed.length));
+            pendingLength += length;
+
+            indexPendingRecords();
+        }
+
+        void finish() {
+            if (pendingLength != 0) {
+                throw new PicardException("Gathered BAM file ends with a partial record of " + pendingLength + " bytes.");
+            }
+            indexer.finish();
+        }
+
+        /** Releases the inflater. */
+        void close() {
+            inflater.end();
+        }
+
+        private void indexPendingRecords() {
+            final ByteBuffer buffer = ByteBuffer.wrap(pending, 0, pendingLength).order(ByteOrder.LITTLE_ENDIAN);
+            int position = 0;
+            while (pendingLength - position >= 4) {
+                final int recordLength = buffer.getInt(position);
+                final int recordEnd = position + 4 + recordLength;
+                if (recordEnd > pendingLength) break;
+
+                final int fields = position + 4;
+                final SAMRecord rec = new CopiedBamRecord(header,
+                        buffer.getInt(fields),
+                        buffer.getInt(fields + 4) + 1,
+                        (short) (buffer.get(fields + 8) & 0xFF),
+                        (short) (buffer.get(fields + 9) & 0xFF),
+                        buffer.getShort(fields + 10) & 0xFFFF,
+                        buffer.getShort(fields + 12) & 0xFFFF,
+                        buffer.getShort(fields + 14) & 0xFFFF,
+                        buffer.getInt(fields + 16),
+                        buffer.getInt(fields + 20),
+                        buffer.getInt(fields + 24) + 1,
+                        buffer.getInt(fields + 28),
+                        Arrays.copyOfRange(pending, fields + FIXED_RECORD_LENGTH, recordEnd),
+                        new Chunk(virtualOffsetOf(position), virtualOffsetOf(recordEnd)));
+                indexer.processAlignment(rec);
+                position = recordEnd;
+            }
+            discard(position);
+        }
+
+        /**
+         * The virtual offset within the output of the given position in the pending bytes. As with
+         * BlockCompressedInputStream.getFilePointer(), the end of a block is given as the start of the next one.
+         */
+        private long virtualOffsetOf(final int position) {
+            for (final PendingBlock block : blocks) {
+                if (position < block.start + block.length) {
+                    return makeFilePointer(block.address, position - block.start);
+                }
+            }
+            return makeFilePointer(blocks.get(blocks.size() - 1).nextAddress, 0);
+        }
+
+        /** As BlockCompressedFilePointerUtil.makeFilePointer(), which is not public. */
+        private static long makeFilePointer(final long blockAddress, final int blockOffset) {
+            return blockAddress << 16 | blockOffset;
+        }
+
+        /** Drops the given number of indexed bytes from the front of the pending bytes, along with any exhausted blocks. */
+        private void discard(final int count) {
+            if (count == 0) return;
+            System.arraycopy(pending, count, pending, 0, pendingLength - count);
+            pendingLength -= count;
+
+            final Iterator<PendingBlock> iterator = blocks.iterator();
+            while (iterator.hasNext()) {
+                final PendingBlock block = iterator.next();
+                block.start -= count;
+                if (block.start + block.length <= 0) iterator.remove();
+            }
+        }
+
+        /** A block holding pending bytes; start is its first byte's position in the pending bytes, negative once partly indexed. */
+        private static class PendingBlock {
+            final long address;
+            final long nextAddress;
+            int start;
+            final int length;
+
+            PendingBlock(final long address, final long nextAddress, final int start, final int length) {
+                this.address = address;
+                this.nextAddress = nextAddress;
+                this.start = start;
+                this.length = length;
+            }
+        }
+    }
+
+    /** A BAMRecord read from copied blocks, whose file source is its location within the gathered output. */
+    private static class CopiedBamRecord extends BAMRecord {
+        CopiedBamRecord(final SAMFileHeader header, final int referenceSequenceIndex, final int alignmentStart,
+                        final short readNameLength, final short mappingQuality, final int indexingBin, final int cigarLen,
+                        final int flags, final int readLen, final int mateReferenceSequenceIndex, final int mateAlignmentStart,
+                        final int insertSize, final byte[] variableLengthBlock, final Chunk outputChunk) {
+            super(header, referenceSequenceIndex, alignmentStart, readNameLength, mappingQuality, indexingBin, cigarLen, flags,
+                    readLen, mateReferenceSequenceIndex, mateAlignmentStart, insertSize, variableLengthBlock);
+            setFileSource(new SAMFileSource(null, new BAMFileSpan(outputChunk)));
+        }
+    }
+
+    /**
+     * Describes which bytes of an input BAM file are copied into the output, and where they end up, so that virtual
+     * offsets within the input can be translated into virtual offsets within the output.
+     */
+    private static class InputBlockLayout {
+        final File file;
+        /** Virtual offset of the first record when the header is being kept, or -1 if the header is dropped. */
+        final long firstRecord;
+        /** Uncompressed bytes following the header in the block containing the end of the header, or null if none. */
+        final byte[] headerRemainder;
+        /** Range of input bytes copied verbatim, excluding any terminator block. */
+        final long bodyStart;
+        final long bodyEnd;
+
+        InputBlockLayout(final File file, final boolean keepHeader) throws IOException {
+            this.file = file;
+            final BlockCompressedInputStream.FileTermination term = BlockCompressedInputStream.checkTermination(file);
+            if (term == BlockCompressedInputStream.FileTermination.DEFECTIVE) {
+                throw new PicardException(file.getAbsolutePath() + " does not have a valid GZIP block at the end of the file.");
+            }
+            this.bodyEnd = file.length() - (term == BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK ?
+                    BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length : 0);
+
+            final long firstRecord = SAMUtils.findVirtualOffsetOfFirstRecordInBam(file);
+            if (keepHeader) {
+                this.firstRecord = firstRecord;
+                this.headerRemainder = null;
+                this.bodyStart = 0;
+                return;
+            }
+
+            this.firstRecord = -1;
+            final long firstRecordBlockAddress = BlockCompressedFilePointerUtil.getBlockAddress(firstRecord);
+            final int firstRecordBlockOffset = BlockCompressedFilePointerUtil.getBlockOffset(firstRecord);
+
+            if (firstRecordBlockAddress >= bodyEnd) {
+                // Header only, nothing to copy
+                this.headerRemainder = null;
+                this.bodyStart = bodyEnd;
+            } else if (firstRecordBlockOffset == 0) {
+                this.headerRemainder = null;
+                this.bodyStart = firstRecordBlockAddress;
+            } else {
+                final byte[] remainder;
+                try (final BlockCompressedInputStream blockIn = new BlockCompressedInputStream(file)) {
+                    blockIn.seek(firstRecord);
+                    remainder = new byte[blockIn.available()];
+                    int read = 0;
+                    while (read < remainder.length) read += blockIn.read(remainder, read, remainder.length - read);
+                }
+
+                this.headerRemainder = remainder.length > 0 ? remainder : null;
+                this.bodyStart = firstRecordBlockAddress + readBlockLength(file, firstRecordBlockAddress);
+            }
+        }
+
+        /** Reads the BSIZE field of the BGZF block starting at the given address and returns the total block length. */
+        private static int readBlockLength(final File file, final long blockAddress) throws IOException {
+            try (final FileInputStream in = new FileInputStream(file)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+                final FileChannel channel = in.getChannel();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, blockAddress + buffer.position()) < 0) {
+                        throw new PicardException("Unexpected end of file reading BGZF block header in " + file.getAbsolutePath());
+                    }
+                }
+                return (buffer.getShort(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) & 0xFFFF) + 1;
+            }
+        }
+    }
 }
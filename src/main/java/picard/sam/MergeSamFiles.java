@@ -46,10 +46,11 @@ import picard.cmdline.CommandLineProgramProperties;
 import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.SamOrBam;
+import picard.util.AsyncIterator;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -104,6 +105,11 @@ public class MergeSamFiles extends CommandLineProgram {
             "runtime by ~20% when writing out a compressed BAM file.")
     public boolean USE_THREADING = false;
 
+    @Option(doc = "Option to read, decompress and decode each input file on its own background thread, leaving only the " +
+            "merging of records on the main thread. Uses one extra thread per input, each with a buffer of up to " +
+            AsyncIterator.DEFAULT_QUEUE_SIZE + " records.")
+    public boolean USE_READ_THREADING = false;
+
     @Option(doc = "Comment(s) to include in the merged output file's header.", optional = true, shortName = "CO")
     public List<String> COMMENT = new ArrayList<String>();
 
@@ -128,8 +134,8 @@ public class MergeSamFiles extends CommandLineProgram {
         
         // read interval list if it is defined
         final List<Interval> intervalList = (INTERVALS == null ? null : IntervalList.fromFile(INTERVALS).uniqued().getIntervals() );
-        // map reader->iterator used if INTERVALS is defined
-        final Map<SamReader, CloseableIterator<SAMRecord> > samReaderToIterator = new HashMap<SamReader, CloseableIterator<SAMRecord> >(INPUT.size());
+        // map reader->iterator used if INTERVALS is defined or the inputs are read on background threads
+        final Map<SamReader, CloseableIterator<SAMRecord> > samReaderToIterator = new LinkedHashMap<SamReader, CloseableIterator<SAMRecord> >(INPUT.size());
         
         // Open the files for reading and writing
         final List<SamReader> readers = new ArrayList<SamReader>();
@@ -137,13 +143,19 @@ public class MergeSamFiles extends CommandLineProgram {
         {
             SAMSequenceDictionary dict = null; // Used to try and reduce redundant SDs in memory
 
+            // When reading in the background, decode records fully on the reader threads rather than lazily on the main thread
+            final SamReaderFactory readerFactory = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE)
+                    .setOption(SamReaderFactory.Option.EAGERLY_DECODE, USE_READ_THREADING);
+
             for (final File inFile : INPUT) {
                 IOUtil.assertFileIsReadable(inFile);
-                final SamReader in = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE).open(inFile);
+                final SamReader in = readerFactory.open(inFile);
                  if ( INTERVALS != null ) {
                      if( ! in.hasIndex() ) throw new PicardException("Merging with interval but Bam file is not indexed "+ inFile);
                      final CloseableIterator<SAMRecord> samIterator = new SamRecordIntervalIteratorFactory().makeSamRecordIntervalIterator(in, intervalList, true);
-                     samReaderToIterator.put(in, samIterator);
+                     samReaderToIterator.put(in, USE_READ_THREADING ? new AsyncIterator<SAMRecord>(samIterator, AsyncIterator.DEFAULT_QUEUE_SIZE, "MergeSamFilesReader") : samIterator);
+                 } else if (USE_READ_THREADING) {
+                     samReaderToIterator.put(in, new AsyncIterator<SAMRecord>(in.iterator(), AsyncIterator.DEFAULT_QUEUE_SIZE, "MergeSamFilesReader"));
                  }
 
                 readers.add(in);
@@ -183,9 +195,13 @@ public class MergeSamFiles extends CommandLineProgram {
         final SamFileHeaderMerger headerMerger = new SamFileHeaderMerger(headerMergerSortOrder, headers, MERGE_SEQUENCE_DICTIONARIES);
         final MergingSamRecordIterator iterator;
         // no interval defined, get an iterator for the whole bam
-        if( intervalList == null) {
+        if( intervalList == null && !USE_READ_THREADING) {
             iterator = new MergingSamRecordIterator(headerMerger, readers, mergingSamRecordIteratorAssumeSorted);
         }
+        else if (intervalList == null) {
+            // one background iterator per input over the whole bam
+            iterator = new MergingSamRecordIterator(headerMerger, samReaderToIterator, mergingSamRecordIteratorAssumeSorted);
+        }
         else {
             // show warning related to https://github.com/broadinstitute/picard/pull/314/files
             log.info("Warning: merged bams from different interval lists may contain the same read in both files");
@@ -211,6 +227,7 @@ public class MergeSamFiles extends CommandLineProgram {
         }
 
         log.info("Finished reading inputs.");
+        // the merging iterator may already have closed some of these as they were exhausted, which is harmless
         for(final CloseableIterator<SAMRecord> iter : samReaderToIterator.values())  CloserUtil.close(iter);
         CloserUtil.close(readers);
         out.close();
@@ -0,0 +1,722 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.sam;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BamFileIoUtils;
+import htsjdk.samtools.BamIndexValidator;
+import htsjdk.samtools.BamIndexValidator.IndexValidationStringency;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMValidationError;
+import htsjdk.samtools.SAMValidationError.Type;
+import htsjdk.samtools.SamFileValidator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.metrics.MetricBase;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Histogram;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import picard.PicardException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Validates an indexed, coordinate sorted BAM file by running htsjdk's SamFileValidator over windows of each reference
+ * sequence (and over the unplaced unmapped reads) on a pool of threads, and combining the errors they find.
+ *
+ * Reads whose mate starts outside their window are set aside in a temporary BAM file per shard. Once all shards are
+ * done they are validated in file order by one more SamFileValidator, so every read is checked once and mates are
+ * paired by name just as in a serial run. The header and terminator block are validated once. Because shards are read
+ * through the index, sort order across shards is checked by confirming that each shard's records directly follow the
+ * previous shard's in the file.
+ *
+ * The bases of a reference sequence are read once and shared by the shards of that sequence, and at most two reference
+ * sequences are held at a time.
+ *
+ * Record numbers in verbose output count from the start of each shard.
+ */
+public class ShardedSamFileValidator {
+    private static final Log log = Log.getInstance(ShardedSamFileValidator.class);
+
+    /** The narrowest window a reference sequence is split into, so that short sequences are validated by a single shard. */
+    static final int DEFAULT_MIN_WINDOW_WIDTH = 1000000;
+
+    /**
+     * Shards are queued in file order, so every shard of a sequence is taken from the queue before any shard of a later
+     * sequence. A shard waiting to load its sequence therefore waits on at most one sequence whose shards are not all
+     * running or done, and the other loaded sequence is released once its running shards finish.
+     */
+    private static final int MAX_LOADED_SEQUENCES = 2;
+
+    private final File input;
+    private final File referenceFasta;
+    private final PrintWriter out;
+    private final int numThreads;
+    private final File tmpDir;
+    private final int maxTempFiles;
+
+    private final Set<Type> errorsToIgnore = EnumSet.noneOf(Type.class);
+    private boolean ignoreWarnings = false;
+    private boolean bisulfiteSequenced = false;
+    private boolean verbose = false;
+    private int maxVerboseOutput = 100;
+    private IndexValidationStringency indexValidationStringency = IndexValidationStringency.NONE;
+    private int minWindowWidth = DEFAULT_MIN_WINDOW_WIDTH;
+
+    private final Semaphore loadedSequences = new Semaphore(MAX_LOADED_SEQUENCES);
+    /** The number of errors found in the header, which every shard's validator finds again. */
+    private long headerErrorCount = 0;
+
+    public ShardedSamFileValidator(final File input, final File referenceFasta, final PrintWriter out, final int numThreads,
+                                   final File tmpDir, final int maxTempFiles) {
+        this.input = input;
+        this.referenceFasta = referenceFasta;
+        this.out = out;
+        this.numThreads = Math.max(1, numThreads);
+        this.tmpDir = tmpDir;
+        this.maxTempFiles = maxTempFiles;
+    }
+
+    /** Returns true if the given file can be validated by shards, i.e. it is a coordinate sorted BAM with an index. */
+    public static boolean canValidate(final File input, final File referenceFasta) {
+        final SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(input);
+        final boolean result = reader.type() == SamReader.Type.BAM_TYPE && reader.hasIndex() &&
+                reader.getFileHeader().getSortOrder() == SAMFileHeader.SortOrder.coordinate &&
+                (referenceFasta == null || ReferenceSequenceFileFactory.getReferenceSequenceFile(referenceFasta).isIndexed());
+        CloserUtil.close(reader);
+        return result;
+    }
+
+    public void setErrorsToIgnore(final Collection<Type> types) {
+        errorsToIgnore.clear();
+        errorsToIgnore.addAll(types);
+    }
+
+    public void setIgnoreWarnings(final boolean ignoreWarnings) { this.ignoreWarnings = ignoreWarnings; }
+
+    public void setBisulfiteSequenced(final boolean bisulfiteSequenced) { this.bisulfiteSequenced = bisulfiteSequenced; }
+
+    public void setVerbose(final boolean verbose, final int maxVerboseOutput) {
+        this.verbose = verbose;
+        this.maxVerboseOutput = maxVerboseOutput;
+    }
+
+    public void setIndexValidationStringency(final IndexValidationStringency stringency) { this.indexValidationStringency = stringency; }
+
+    /** Sets the narrowest window a reference sequence is split into; each sequence is otherwise split into one window per thread. */
+    void setMinWindowWidth(final int minWindowWidth) { this.minWindowWidth = minWindowWidth; }
+
+    /** Validates the file, writes the errors (verbose) or a histogram of error types (summary) and returns true if none were found. */
+    public boolean validate() {
+        final SamReader headerReader = openReader();
+        final SAMFileHeader header = headerReader.getFileHeader();
+
+        // The header and terminator block are validated once, by a validator that is given no records
+        final ErrorCollector headerErrors = runValidator(headerReader, new ShardIterator(Collections.<SAMRecord>emptyIterator(), null),
+                null, true);
+        headerErrorCount = headerErrors.getCount();
+        final CombinedErrors errors = new CombinedErrors();
+        errors.add(headerErrors);
+        if (verbose && errors.getCount() >= maxVerboseOutput) {
+            errors.write();
+            return false;
+        }
+
+        final List<Shard> shards = makeShards(header);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<ErrorCollector>> shardErrors = new ArrayList<Future<ErrorCollector>>();
+            for (final Shard shard : shards) shardErrors.add(executor.submit(shard));
+
+            final Future<List<SAMValidationError>> indexErrors = indexValidationStringency == IndexValidationStringency.NONE ? null :
+                    executor.submit(new Callable<List<SAMValidationError>>() {
+                        @Override
+                        public List<SAMValidationError> call() { return validateIndex(); }
+                    });
+
+            for (final Future<ErrorCollector> shardError : shardErrors) errors.add(shardError.get());
+
+            long crossShardMateCount = 0;
+            for (final Shard shard : shards) crossShardMateCount += shard.crossShardMateCount;
+            log.info("Validating " + crossShardMateCount + " reads with mates in other shards.");
+            errors.add(validateCrossShardMates(shards));
+
+            errors.addAll(validateOrderAcrossShards(header, shards));
+            if (indexErrors != null) errors.addAll(indexErrors.get());
+        } catch (final InterruptedException ie) {
+            throw new PicardException("Interrupted while validating " + input.getAbsolutePath(), ie);
+        } catch (final ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+            throw new PicardException("Exception while validating " + input.getAbsolutePath(), ee.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (final Shard shard : shards) shard.deleteCrossShardMates();
+        }
+
+        errors.write();
+        return errors.getCount() == 0;
+    }
+
+    private SamReader openReader() {
+        return SamReaderFactory.makeDefault()
+                .referenceSequence(referenceFasta)
+                .validationStringency(ValidationStringency.SILENT)
+                .enable(SamReaderFactory.Option.VALIDATE_CRC_CHECKSUMS, SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS)
+                .open(input);
+    }
+
+    /** Splits each reference sequence into about one window per thread, followed by a shard for the unplaced unmapped reads. */
+    private List<Shard> makeShards(final SAMFileHeader header) {
+        final List<Shard> shards = new ArrayList<Shard>();
+        for (final SAMSequenceRecord sequence : header.getSequenceDictionary().getSequences()) {
+            final int length = sequence.getSequenceLength();
+            final int width = (int) Math.max(minWindowWidth, ((long) length + numThreads - 1) / numThreads);
+            final int windowCount = (int) Math.max(1, ((long) length + width - 1) / width);
+            final SharedSequence bases = referenceFasta == null ? null : new SharedSequence(sequence, windowCount);
+            for (int i = 0; i < windowCount; ++i) {
+                shards.add(new Shard(sequence.getSequenceIndex(), i * width + 1, (i + 1) * width, i == 0, i == windowCount - 1, bases));
+            }
+        }
+        shards.add(new Shard(Shard.UNMAPPED, 0, 0, true, true, null));
+        return shards;
+    }
+
+    /**
+     * Runs a SamFileValidator, configured as this validator is, over the given records of the open reader and collects
+     * the errors it finds. Unless this is the validator of the header, the errors it finds in the header are dropped.
+     */
+    private ErrorCollector runValidator(final SamReader reader, final SAMRecordIterator records, final ReferenceSequenceFile reference,
+                                        final boolean validateHeader) {
+        final ErrorCollector errors = new ErrorCollector(!validateHeader);
+        final SamFileValidator validator = new SamFileValidator(errors, maxTempFiles);
+        validator.setErrorsToIgnore(errorsToIgnore);
+        validator.setIgnoreWarnings(ignoreWarnings);
+        validator.setBisulfiteSequenced(bisulfiteSequenced);
+        validator.setValidateIndex(false);
+        // Always verbose, since that is when the validator hands over each error it finds. It stops once it has found as
+        // many errors as could be written, counting the header errors it finds again.
+        final long maxErrors = verbose ? maxVerboseOutput + (validateHeader ? 0 : headerErrorCount) : Integer.MAX_VALUE;
+        validator.setVerbose(true, (int) Math.min(Integer.MAX_VALUE, maxErrors));
+        if (validateHeader) validator.validateBamFileTermination(input);
+
+        try {
+            validator.validateSamFileVerbose(new ShardReader(reader, records, errors), reference);
+        } finally {
+            CloserUtil.close(records);
+            CloserUtil.close(reader);
+            CloserUtil.close(reference);
+        }
+        return errors;
+    }
+
+    /**
+     * Validates the reads with mates in other shards, which the shards set aside, in file order. These may be on any
+     * reference sequence, so their bases are read straight from the FASTA one sequence at a time.
+     */
+    private ErrorCollector validateCrossShardMates(final List<Shard> shards) {
+        final List<File> files = new ArrayList<File>();
+        for (final Shard shard : shards) {
+            if (shard.crossShardMates != null) files.add(shard.crossShardMates);
+        }
+        final ReferenceSequenceFile reference = referenceFasta == null ? null :
+                ReferenceSequenceFileFactory.getReferenceSequenceFile(referenceFasta);
+        return runValidator(openReader(), new ShardIterator(new ConcatenatedRecords(files), null), reference, false);
+    }
+
+    /**
+     * Since each shard is read through the index, records placed in the file between shards would not be seen as out of
+     * order by any shard's validator. In a sorted file each shard's records directly follow the previous shard's, so an
+     * error is reported for the first record of any shard that does not start where the previous non-empty shard ended.
+     */
+    private List<SAMValidationError> validateOrderAcrossShards(final SAMFileHeader header, final List<Shard> shards) {
+        final List<SAMValidationError> errors = new ArrayList<SAMValidationError>();
+        Shard previous = null;
+        for (final Shard shard : shards) {
+            if (shard.firstRecord == null) continue;
+            if (previous != null && chunkOf(previous.lastRecord).getChunkEnd() != chunkOf(shard.firstRecord).getChunkStart()) {
+                errors.add(new SAMValidationError(Type.RECORD_OUT_OF_ORDER, String.format(
+                        "The record is out of [%s] order, prior read name [%s], prior coodinates [%s:%d]",
+                        header.getSortOrder().name(), previous.lastRecord.getReadName(),
+                        previous.lastRecord.getReferenceName(), previous.lastRecord.getAlignmentStart()), shard.firstRecord.getReadName()));
+            }
+            previous = shard;
+        }
+        return errors;
+    }
+
+    private static Chunk chunkOf(final SAMRecord record) {
+        return ((BAMFileSpan) record.getFileSource().getFilePointer()).getChunks().get(0);
+    }
+
+    private List<SAMValidationError> validateIndex() {
+        final List<SAMValidationError> errors = new ArrayList<SAMValidationError>();
+        final SamReader reader = openReader();
+        try {
+            if (indexValidationStringency == IndexValidationStringency.LESS_EXHAUSTIVE) {
+                BamIndexValidator.lessExhaustivelyTestIndex(reader);
+            } else {
+                BamIndexValidator.exhaustivelyTestIndex(reader);
+            }
+        } catch (final Exception e) {
+            errors.add(new SAMValidationError(Type.INVALID_INDEX_FILE_POINTER, e.getMessage(), null));
+        } finally {
+            CloserUtil.close(reader);
+        }
+        return errors;
+    }
+
+    /**
+     * Validates the records that start in a window of a reference sequence, or the unplaced unmapped reads. Reads whose
+     * mate starts outside the window are set aside in a temporary BAM file rather than being validated here.
+     */
+    private class Shard implements Callable<ErrorCollector> {
+        static final int UNMAPPED = -1;
+
+        final int referenceIndex;
+        /** The 1-based, inclusive bounds of the window; the first window has no lower bound and the last no upper bound. */
+        final int start;
+        final int end;
+        final boolean first;
+        final boolean last;
+        final SharedSequence bases;
+
+        /** The first and last records of the shard, as read from the file. */
+        SAMRecord firstRecord = null;
+        SAMRecord lastRecord = null;
+
+        File crossShardMates = null;
+        long crossShardMateCount = 0;
+        private SAMFileWriter crossShardMateWriter = null;
+
+        Shard(final int referenceIndex, final int start, final int end, final boolean first, final boolean last, final SharedSequence bases) {
+            this.referenceIndex = referenceIndex;
+            this.start = start;
+            this.end = end;
+            this.first = first;
+            this.last = last;
+            this.bases = bases;
+        }
+
+        @Override
+        public ErrorCollector call() {
+            try {
+                final SamReader reader = openReader();
+                // Queried from one base early, so that records aligned to no reference bases at the window's start are returned too
+                final SAMRecordIterator records = referenceIndex == UNMAPPED ? reader.queryUnmapped() :
+                        reader.query(new QueryInterval[]{new QueryInterval(referenceIndex, first ? 0 : start - 1, last ? 0 : end)}, false);
+                final ReferenceSequenceFile reference = bases == null ? null :
+                        new ShardReference(ReferenceSequenceFileFactory.getReferenceSequenceFile(referenceFasta),
+                                reader.getFileHeader().getSequenceDictionary(), bases);
+                return runValidator(reader, new ShardIterator(records, this), reference, false);
+            } finally {
+                if (crossShardMateWriter != null) crossShardMateWriter.close();
+                if (bases != null) bases.shardDone();
+            }
+        }
+
+        private boolean contains(final int position) {
+            return (first || position >= start) && (last || position <= end);
+        }
+
+        /**
+         * Returns true if the record is to be validated by this shard. Records that start outside the window are left to
+         * the shard whose window they start in; records whose mate is in another shard are noted and set aside.
+         */
+        boolean accept(final SAMRecord record) {
+            if (referenceIndex != UNMAPPED && !contains(record.getAlignmentStart())) return false;
+            if (firstRecord == null) firstRecord = record;
+            lastRecord = record;
+
+            if (!record.getReadPairedFlag() || (record.getMateReferenceIndex().equals(record.getReferenceIndex()) &&
+                    (referenceIndex == UNMAPPED || contains(record.getMateAlignmentStart())))) {
+                return true;
+            }
+
+            if (crossShardMateWriter == null) {
+                try {
+                    crossShardMates = File.createTempFile("ValidateSamFile.", BamFileIoUtils.BAM_FILE_EXTENSION, tmpDir);
+                } catch (final IOException e) {
+                    throw new PicardException("Could not create temporary file in " + tmpDir, e);
+                }
+                crossShardMates.deleteOnExit();
+                // Written as unsorted so that the writer neither sorts nor rejects records that are out of order
+                final SAMFileHeader unsortedHeader = record.getHeader().clone();
+                unsortedHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+                crossShardMateWriter = new SAMFileWriterFactory().makeBAMWriter(unsortedHeader, false, crossShardMates);
+            }
+            crossShardMateWriter.addAlignment(record);
+            ++crossShardMateCount;
+            return false;
+        }
+
+        void deleteCrossShardMates() {
+            if (crossShardMates != null) IOUtil.deleteFiles(crossShardMates);
+        }
+    }
+
+    /**
+     * The bases of a reference sequence, read from the FASTA by the first of the sequence's shards to need them and
+     * dropped once the last of its shards is done.
+     */
+    private class SharedSequence {
+        private final SAMSequenceRecord sequence;
+        private int remainingShards;
+        private ReferenceSequence bases = null;
+
+        SharedSequence(final SAMSequenceRecord sequence, final int shardCount) {
+            this.sequence = sequence;
+            this.remainingShards = shardCount;
+        }
+
+        synchronized ReferenceSequence get(final ReferenceSequenceFile fasta) {
+            if (bases == null) {
+                try {
+                    loadedSequences.acquire();
+                } catch (final InterruptedException ie) {
+                    throw new PicardException("Interrupted while waiting to read reference sequence " + sequence.getSequenceName(), ie);
+                }
+                try {
+                    // Numbered as in the input's dictionary, which is how the validator asks for it
+                    bases = new ReferenceSequence(sequence.getSequenceName(), sequence.getSequenceIndex(),
+                            fasta.getSequence(sequence.getSequenceName()).getBases());
+                } finally {
+                    if (bases == null) loadedSequences.release();
+                }
+            }
+            return bases;
+        }
+
+        synchronized void shardDone() {
+            if (--remainingShards == 0 && bases != null) {
+                bases = null;
+                loadedSequences.release();
+            }
+        }
+    }
+
+    /**
+     * The reference a shard's SamFileValidator reads from: the shard's own sequence is the one shared by all shards of
+     * that sequence, and anything else comes from the FASTA. The dictionary is the input's, so that the validator asks
+     * for sequences by name rather than reading through the FASTA.
+     */
+    private static class ShardReference implements ReferenceSequenceFile {
+        private final ReferenceSequenceFile fasta;
+        private final SAMSequenceDictionary dictionary;
+        private final SharedSequence bases;
+
+        ShardReference(final ReferenceSequenceFile fasta, final SAMSequenceDictionary dictionary, final SharedSequence bases) {
+            this.fasta = fasta;
+            this.dictionary = dictionary;
+            this.bases = bases;
+        }
+
+        @Override
+        public SAMSequenceDictionary getSequenceDictionary() { return dictionary; }
+
+        @Override
+        public ReferenceSequence nextSequence() { return fasta.nextSequence(); }
+
+        @Override
+        public void reset() { fasta.reset(); }
+
+        @Override
+        public boolean isIndexed() { return fasta.isIndexed(); }
+
+        @Override
+        public ReferenceSequence getSequence(final String contig) {
+            return contig.equals(bases.sequence.getSequenceName()) ? bases.get(fasta) : fasta.getSequence(contig);
+        }
+
+        @Override
+        public ReferenceSequence getSubsequenceAt(final String contig, final long start, final long stop) {
+            return fasta.getSubsequenceAt(contig, start, stop);
+        }
+
+        @Override
+        public String toString() { return fasta.toString(); }
+
+        @Override
+        public void close() throws IOException { fasta.close(); }
+    }
+
+    /** Hands the records a shard accepts to a SamFileValidator. */
+    private static class ShardIterator implements SAMRecordIterator {
+        private final Iterator<SAMRecord> records;
+        private final Shard shard;
+        private SAMRecord next = null;
+
+        ShardIterator(final Iterator<SAMRecord> records, final Shard shard) {
+            this.records = records;
+            this.shard = shard;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && records.hasNext()) {
+                final SAMRecord record = records.next();
+                if (shard == null || shard.accept(record)) next = record;
+            }
+            return next != null;
+        }
+
+        @Override
+        public SAMRecord next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            final SAMRecord record = next;
+            next = null;
+            return record;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            CloserUtil.close(records);
+        }
+
+        @Override
+        public SAMRecordIterator assertSorted(final SAMFileHeader.SortOrder sortOrder) {
+            // SamFileValidator checks the sort order itself
+            return this;
+        }
+    }
+
+    /** Iterates over the records of the given BAM files in turn, holding only one of them open at a time. */
+    private static class ConcatenatedRecords implements CloseableIterator<SAMRecord> {
+        private final Iterator<File> files;
+        private SamReader reader = null;
+        private SAMRecordIterator records = null;
+
+        ConcatenatedRecords(final List<File> files) {
+            this.files = files.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while ((records == null || !records.hasNext()) && files.hasNext()) {
+                close();
+                reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(files.next());
+                records = reader.iterator();
+            }
+            return records != null && records.hasNext();
+        }
+
+        @Override
+        public SAMRecord next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return records.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            CloserUtil.close(records);
+            CloserUtil.close(reader);
+            records = null;
+            reader = null;
+        }
+    }
+
+    /**
+     * The input file, as seen by a SamFileValidator validating a shard: iterating over it gives the shard's records, and
+     * everything else is answered by an open reader of the file. SamFileValidator validates the header before it asks
+     * for records, so the collector is told when the header is done.
+     */
+    private static class ShardReader implements SamReader {
+        private final SamReader reader;
+        private final SAMRecordIterator records;
+        private final ErrorCollector errors;
+
+        ShardReader(final SamReader reader, final SAMRecordIterator records, final ErrorCollector errors) {
+            this.reader = reader;
+            this.records = records;
+            this.errors = errors;
+        }
+
+        @Override
+        public SAMRecordIterator iterator() {
+            errors.headerDone();
+            return records;
+        }
+
+        @Override
+        public SAMFileHeader getFileHeader() { return reader.getFileHeader(); }
+
+        @Override
+        public SamReader.Type type() { return reader.type(); }
+
+        @Override
+        public String getResourceDescription() { return reader.getResourceDescription(); }
+
+        @Override
+        public boolean hasIndex() { return reader.hasIndex(); }
+
+        @Override
+        public SamReader.Indexing indexing() { return reader.indexing(); }
+
+        @Override
+        public SAMRecordIterator query(final String sequence, final int start, final int end, final boolean contained) { return reader.query(sequence, start, end, contained); }
+
+        @Override
+        public SAMRecordIterator queryOverlapping(final String sequence, final int start, final int end) { return reader.queryOverlapping(sequence, start, end); }
+
+        @Override
+        public SAMRecordIterator queryContained(final String sequence, final int start, final int end) { return reader.queryContained(sequence, start, end); }
+
+        @Override
+        public SAMRecordIterator query(final QueryInterval[] intervals, final boolean contained) { return reader.query(intervals, contained); }
+
+        @Override
+        public SAMRecordIterator queryOverlapping(final QueryInterval[] intervals) { return reader.queryOverlapping(intervals); }
+
+        @Override
+        public SAMRecordIterator queryContained(final QueryInterval[] intervals) { return reader.queryContained(intervals); }
+
+        @Override
+        public SAMRecordIterator queryUnmapped() { return reader.queryUnmapped(); }
+
+        @Override
+        public SAMRecordIterator queryAlignmentStart(final String sequence, final int start) { return reader.queryAlignmentStart(sequence, start); }
+
+        @Override
+        public SAMRecord queryMate(final SAMRecord rec) { return reader.queryMate(rec); }
+
+        @Override
+        public void close() throws IOException { reader.close(); }
+    }
+
+    /**
+     * Collects the errors a SamFileValidator finds. In verbose mode the validator prints each SAMValidationError object as
+     * it finds it; those are kept, up to the number that could be written, and the validator's other output is dropped.
+     */
+    private class ErrorCollector extends PrintWriter {
+        final List<SAMValidationError> errors = new ArrayList<SAMValidationError>();
+        final Histogram<Type> counts = new Histogram<Type>();
+        private final boolean dropHeaderErrors;
+        private boolean headerDone = false;
+
+        ErrorCollector(final boolean dropHeaderErrors) {
+            super(new StringWriter());
+            this.dropHeaderErrors = dropHeaderErrors;
+        }
+
+        void headerDone() { headerDone = true; }
+
+        long getCount() { return (long) counts.getCount(); }
+
+        @Override
+        public void println(final Object x) {
+            if (!(x instanceof SAMValidationError)) {
+                super.println(x);
+            } else if (headerDone || !dropHeaderErrors) {
+                final SAMValidationError error = (SAMValidationError) x;
+                counts.increment(error.getType());
+                if (verbose && errors.size() < maxVerboseOutput) errors.add(error);
+            }
+        }
+    }
+
+    /** The errors found by all the validators and across shards, in file order, written as a serial SamFileValidator would. */
+    private class CombinedErrors {
+        private final List<SAMValidationError> errors = new ArrayList<SAMValidationError>();
+        private final Histogram<Type> counts = new Histogram<Type>();
+
+        void add(final ErrorCollector collector) {
+            for (final SAMValidationError error : collector.errors) {
+                if (errors.size() < maxVerboseOutput) errors.add(error);
+            }
+            for (final Type type : collector.counts.keySet()) counts.increment(type, collector.counts.get(type).getValue());
+        }
+
+        /** Adds errors found outside any SamFileValidator, unless they are of a type being ignored. */
+        void addAll(final List<SAMValidationError> found) {
+            for (final SAMValidationError error : found) {
+                if (errorsToIgnore.contains(error.getType())) continue;
+                if (ignoreWarnings && error.getType().severity == SAMValidationError.Severity.WARNING) continue;
+                counts.increment(error.getType());
+                if (verbose && errors.size() < maxVerboseOutput) errors.add(error);
+            }
+        }
+
+        long getCount() { return (long) counts.getCount(); }
+
+        void write() {
+            if (verbose) {
+                for (final SAMValidationError error : errors) out.println(error);
+                if (getCount() >= maxVerboseOutput) {
+                    out.println("Maximum output of [" + maxVerboseOutput + "] errors reached.");
+                    return;
+                }
+            } else if (!counts.isEmpty()) {
+                final Histogram<String> errorsAndWarningsByType = new Histogram<String>("Error Type", "Count");
+                for (final Type type : counts.keySet()) {
+                    errorsAndWarningsByType.increment(type.getHistogramString(), counts.get(type).getValue());
+                }
+                final MetricsFile<MetricBase, String> metricsFile = new MetricsFile<MetricBase, String>();
+                metricsFile.setHistogram(errorsAndWarningsByType);
+                metricsFile.write(out);
+            }
+            if (counts.isEmpty()) out.println("No errors found");
+        }
+    }
+}
@@ -32,7 +32,9 @@ import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.BamIndexValidator.IndexValidationStringency;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
 import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.CommandLineProgramProperties;
@@ -129,6 +131,14 @@ public class ValidateSamFile extends CommandLineProgram {
             "This number can be found by executing the 'ulimit -n' command on a Unix system.")
     public int MAX_OPEN_TEMP_FILES = 8000;
 
+    @Option(doc = "The number of threads to use when validating an indexed, coordinate sorted BAM file.  If greater than one, " +
+            "stretches of each reference sequence are validated in parallel and reads whose mates are in different stretches " +
+            "are validated together once all have been read.  In VERBOSE mode record numbers then count from the start " +
+            "of each stretch.  Other inputs are always validated on a single thread.")
+    public int NUM_THREADS = 1;
+
+    private static final Log log = Log.getInstance(ValidateSamFile.class);
+
     public static void main(final String[] args) {
         System.exit(new ValidateSamFile().instanceMain(args));
     }
@@ -155,6 +165,17 @@ public class ValidateSamFile extends CommandLineProgram {
             out = new PrintWriter(System.out);
         }
 
+        if (NUM_THREADS > 1) {
+            if (IOUtil.isRegularPath(INPUT) && ShardedSamFileValidator.canValidate(INPUT, REFERENCE_SEQUENCE)) {
+                CloserUtil.close(reference);
+                final boolean result = validateSharded(out);
+                out.flush();
+                return result ? 0 : 1;
+            }
+            log.warn("NUM_THREADS > 1 requires an indexed, coordinate sorted BAM file (and an indexed reference, if given); " +
+                    "validating on a single thread.");
+        }
+
         boolean result;
 
         final SamReaderFactory factory = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE)
@@ -204,6 +225,17 @@ public class ValidateSamFile extends CommandLineProgram {
         return result ? 0 : 1;
     }
 
+    private boolean validateSharded(final PrintWriter out) {
+        final ShardedSamFileValidator validator = new ShardedSamFileValidator(INPUT, REFERENCE_SEQUENCE, out, NUM_THREADS,
+                TMP_DIR.isEmpty() ? IOUtil.getDefaultTmpDir() : TMP_DIR.get(0), MAX_OPEN_TEMP_FILES);
+        validator.setErrorsToIgnore(IGNORE);
+        validator.setIgnoreWarnings(IGNORE_WARNINGS);
+        validator.setVerbose(MODE == Mode.VERBOSE, MODE == Mode.VERBOSE ? MAX_OUTPUT : 0);
+        validator.setBisulfiteSequenced(IS_BISULFITE_SEQUENCED);
+        validator.setIndexValidationStringency(VALIDATE_INDEX ? INDEX_VALIDATION_STRINGENCY : IndexValidationStringency.NONE);
+        return validator.validate();
+    }
+
     @Override
     protected String[] customCommandLineValidation() {
         if ((!VALIDATE_INDEX && INDEX_VALIDATION_STRINGENCY != IndexValidationStringency.NONE) ||
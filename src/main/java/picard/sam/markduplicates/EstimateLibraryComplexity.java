@@ -37,7 +37,6 @@ import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.util.ProgressLogger;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.SortingCollection;
-import htsjdk.samtools.util.StringUtil;
 import picard.PicardException;
 import picard.cmdline.CommandLineProgramProperties;
 import picard.cmdline.Option;
@@ -46,6 +45,7 @@ import picard.cmdline.programgroups.Metrics;
 import picard.sam.DuplicationMetrics;
 import picard.sam.markduplicates.util.AbstractOpticalDuplicateFinderCommandLineProgram;
 import picard.sam.markduplicates.util.OpticalDuplicateFinder;
+import picard.sam.markduplicates.util.PackedSequence;
 import picard.sam.util.PhysicalLocation;
 import picard.sam.util.PhysicalLocationShort;
 
@@ -56,11 +56,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.Math.pow;
 
@@ -164,6 +171,12 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
             "size calculation, for example, adapter dimers.", optional = true)
     public int MIN_GROUP_COUNT = 2;
 
+    @Option(doc = "The number of threads used to find duplicates within groups of read pairs.")
+    public int NUM_THREADS = 1;
+
+    /** Groups (per library) of at least this many read pairs are searched for duplicates via a DuplicateCandidateIndex. */
+    private static final int MIN_SEQUENCES_TO_INDEX = 32;
+
     private final Log log = Log.getInstance(EstimateLibraryComplexity.class);
 
     @Override
@@ -184,12 +197,12 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
     static class PairedReadSequence extends PhysicalLocationShort {
         short readGroup = -1;
         boolean qualityOk = true;
-        byte[] read1;
-        byte[] read2;
+        PackedSequence read1;
+        PackedSequence read2;
         short libraryId;
 
         public static int getSizeInBytes() {
-            return 2 + 1 + 4 + 1 + 300; // rough guess at memory footprint
+            return 2 + 1 + 4 + 1 + 160; // rough guess at memory footprint, with the bases packed four to a byte
         }
 
         public short getReadGroup() { return this.readGroup; }
@@ -221,8 +234,8 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
             this.x = val.getX();
             this.y = val.getY();
             this.qualityOk = val.qualityOk;
-            this.read1 = val.read1.clone();
-            this.read2 = val.read2.clone();
+            this.read1 = val.read1;
+            this.read2 = val.read2;
             this.libraryId = val.getLibraryId();
         }
 
@@ -252,10 +265,8 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
                 this.out.writeShort(val.tile);
                 this.out.writeShort(val.x);
                 this.out.writeShort(val.y);
-                this.out.writeInt(val.read1.length);
-                this.out.write(val.read1);
-                this.out.writeInt(val.read2.length);
-                this.out.write(val.read2);
+                val.read1.write(this.out);
+                val.read2.write(this.out);
             } catch (final IOException ioe) {
                 throw new PicardException("Error write out read pair.", ioe);
             }
@@ -274,17 +285,8 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
                 val.x = this.in.readShort();
                 val.y = this.in.readShort();
 
-                int length = this.in.readInt();
-                val.read1 = new byte[length];
-                if (this.in.read(val.read1) != length) {
-                    throw new PicardException("Could not read " + length + " bytes from temporary file.");
-                }
-
-                length = this.in.readInt();
-                val.read2 = new byte[length];
-                if (this.in.read(val.read2) != length) {
-                    throw new PicardException("Could not read " + length + " bytes from temporary file.");
-                }
+                val.read1 = PackedSequence.read(this.in);
+                val.read2 = PackedSequence.read(this.in);
 
                 return val;
             } catch (final IOException ioe) {
@@ -347,19 +349,10 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
         final int BASES = EstimateLibraryComplexity.this.MIN_IDENTICAL_BASES;
 
         public int compare(final PairedReadSequence lhs, final PairedReadSequence rhs) {
-            // First compare the first N bases of the first read
-            for (int i = 0; i < BASES; ++i) {
-                final int retval = lhs.read1[i] - rhs.read1[i];
-                if (retval != 0) return retval;
-            }
-
-            // Then compare the first N bases of the second read
-            for (int i = 0; i < BASES; ++i) {
-                final int retval = lhs.read2[i] - rhs.read2[i];
-                if (retval != 0) return retval;
-            }
-
-            return 0;
+            // First compare the first N bases of the first read, then the first N bases of the second read
+            final int retval = lhs.read1.comparePrefix(rhs.read1, BASES);
+            if (retval != 0) return retval;
+            return lhs.read2.comparePrefix(rhs.read2, BASES);
         }
     }
 
@@ -444,7 +437,7 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
                 if (prs == null) {
                     // Make a new paired read object and add RG and physical location information to it
                     prs = useBarcodes ? new PairedReadSequenceWithBarcodes() : new PairedReadSequence();
-                    if (opticalDuplicateFinder.addLocationInformation(rec.getReadName(), prs)) {
+                    if (opticalDuplicateFinder.addLocationInformation(rec, prs)) {
                         final SAMReadGroupRecord rg = rec.getReadGroup();
                         if (rg != null) prs.setReadGroup((short) readGroups.indexOf(rg));
                     }
@@ -466,13 +459,13 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
                 final PairedReadSequenceWithBarcodes prsWithBarcodes = (useBarcodes) ? (PairedReadSequenceWithBarcodes) prs : null;
 
                 if (rec.getFirstOfPairFlag()) {
-                    prs.read1 = bases;
+                    prs.read1 = PackedSequence.pack(bases);
                     if (useBarcodes) {
                         prsWithBarcodes.barcode = getBarcodeValue(rec);
                         prsWithBarcodes.readOneBarcode = getReadOneBarcodeValue(rec);
                     }
                 } else {
-                    prs.read2 = bases;
+                    prs.read2 = PackedSequence.pack(bases);
                     if (useBarcodes) {
                         prsWithBarcodes.readTwoBarcode = getReadTwoBarcodeValue(rec);
                     }
@@ -499,71 +492,51 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
         long lastLogTime = System.currentTimeMillis();
         final int meanGroupSize = (int) (Math.max(1, (progress.getCount() / 2) / (int) pow(4, MIN_IDENTICAL_BASES * 2)));
 
-        while (iterator.hasNext()) {
-            // Get the next group and split it apart by library
-            final List<PairedReadSequence> group = getNextGroup(iterator);
-
-            if (group.size() > meanGroupSize * MAX_GROUP_RATIO) {
-                final PairedReadSequence prs = group.get(0);
-                log.warn("Omitting group with over " + MAX_GROUP_RATIO + " times the expected mean number of read pairs. " +
-                        "Mean=" + meanGroupSize + ", Actual=" + group.size() + ". Prefixes: " +
-                        StringUtil.bytesToString(prs.read1, 0, MIN_IDENTICAL_BASES) +
-                        " / " +
-                        StringUtil.bytesToString(prs.read2, 0, MIN_IDENTICAL_BASES));
-            } else {
-                final Map<String, List<PairedReadSequence>> sequencesByLibrary = splitByLibrary(group, readGroups);
-
-                // Now process the reads by library
-                for (final Map.Entry<String, List<PairedReadSequence>> entry : sequencesByLibrary.entrySet()) {
-                    final String library = entry.getKey();
-                    final List<PairedReadSequence> seqs = entry.getValue();
-
-                    Histogram<Integer> duplicationHisto = duplicationHistosByLibrary.get(library);
-                    Histogram<Integer> opticalHisto = opticalHistosByLibrary.get(library);
-                    if (duplicationHisto == null) {
-                        duplicationHisto = new Histogram<Integer>("duplication_group_count", library);
-                        opticalHisto = new Histogram<Integer>("duplication_group_count", "optical_duplicates");
-                        duplicationHistosByLibrary.put(library, duplicationHisto);
-                        opticalHistosByLibrary.put(library, opticalHisto);
-                    }
-
-                    // Figure out if any reads within this group are duplicates of one another
-                    for (int i = 0; i < seqs.size(); ++i) {
-                        final PairedReadSequence lhs = seqs.get(i);
-                        if (lhs == null) continue;
-                        final List<PairedReadSequence> dupes = new ArrayList<PairedReadSequence>();
-
-                        for (int j = i + 1; j < seqs.size(); ++j) {
-                            final PairedReadSequence rhs = seqs.get(j);
-                            if (rhs == null) continue;
-
-                            if (matches(lhs, rhs, MAX_DIFF_RATE, useBarcodes)) {
-                                dupes.add(rhs);
-                                seqs.set(j, null);
-                            }
+        final ExecutorService executor = NUM_THREADS > 1 ? Executors.newFixedThreadPool(NUM_THREADS) : null;
+        final Deque<Future<GroupHistograms>> pending = new ArrayDeque<Future<GroupHistograms>>();
+
+        try {
+            while (iterator.hasNext()) {
+                // Get the next group and split it apart by library
+                final List<PairedReadSequence> group = getNextGroup(iterator);
+
+                if (group.size() > meanGroupSize * MAX_GROUP_RATIO) {
+                    final PairedReadSequence prs = group.get(0);
+                    log.warn("Omitting group with over " + MAX_GROUP_RATIO + " times the expected mean number of read pairs. " +
+                            "Mean=" + meanGroupSize + ", Actual=" + group.size() + ". Prefixes: " +
+                            prs.read1.toString(0, MIN_IDENTICAL_BASES) +
+                            " / " +
+                            prs.read2.toString(0, MIN_IDENTICAL_BASES));
+                } else {
+                    final Map<String, List<PairedReadSequence>> sequencesByLibrary = splitByLibrary(group, readGroups);
+                    if (executor == null) {
+                        addHistograms(findDuplicates(sequencesByLibrary, useBarcodes), duplicationHistosByLibrary, opticalHistosByLibrary);
+                    } else {
+                        // Keep a bounded number of groups in flight, merging their histograms in the order they were read
+                        pending.add(executor.submit(() -> findDuplicates(sequencesByLibrary, useBarcodes)));
+                        while (pending.size() > 4 * NUM_THREADS) {
+                            addHistograms(getResult(pending.poll()), duplicationHistosByLibrary, opticalHistosByLibrary);
                         }
+                    }
 
-                        if (!dupes.isEmpty()) {
-                            dupes.add(lhs);
-                            final int duplicateCount = dupes.size();
-                            duplicationHisto.increment(duplicateCount);
-
-                            final boolean[] flags = opticalDuplicateFinder.findOpticalDuplicates(dupes, lhs);
-                            for (final boolean b : flags) {
-                                if (b) opticalHisto.increment(duplicateCount);
-                            }
-                        } else {
-                            duplicationHisto.increment(1);
-                        }
+                    ++groupsProcessed;
+                    if (lastLogTime < System.currentTimeMillis() - 60000) {
+                        log.info("Processed " + groupsProcessed + " groups.");
+                        lastLogTime = System.currentTimeMillis();
                     }
                 }
+            }
 
-                ++groupsProcessed;
-                if (lastLogTime < System.currentTimeMillis() - 60000) {
-                    log.info("Processed " + groupsProcessed + " groups.");
-                    lastLogTime = System.currentTimeMillis();
+            if (executor != null) {
+                while (!pending.isEmpty()) {
+                    addHistograms(getResult(pending.poll()), duplicationHistosByLibrary, opticalHistosByLibrary);
                 }
             }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                for (final Future<GroupHistograms> group : pending) group.cancel(true);
+            }
         }
 
         iterator.close();
@@ -599,14 +572,225 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
         return 0;
     }
 
+    /**
+     * The duplication and optical duplication histograms, by library, of the read pairs in one group.
+     */
+    private static class GroupHistograms {
+        final Map<String, Histogram<Integer>> duplicationHistosByLibrary = new HashMap<String, Histogram<Integer>>();
+        final Map<String, Histogram<Integer>> opticalHistosByLibrary = new HashMap<String, Histogram<Integer>>();
+    }
+
+    private static GroupHistograms getResult(final Future<GroupHistograms> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException ie) {
+            throw new PicardException("Interrupted while finding duplicates", ie);
+        } catch (final ExecutionException ee) {
+            throw new PicardException("Exception while finding duplicates", ee.getCause());
+        }
+    }
+
+    /** Adds the histograms of one group into the running per-library histograms. */
+    private static void addHistograms(final GroupHistograms group,
+                                      final Map<String, Histogram<Integer>> duplicationHistosByLibrary,
+                                      final Map<String, Histogram<Integer>> opticalHistosByLibrary) {
+        for (final Map.Entry<String, Histogram<Integer>> entry : group.duplicationHistosByLibrary.entrySet()) {
+            final String library = entry.getKey();
+            Histogram<Integer> duplicationHisto = duplicationHistosByLibrary.get(library);
+            Histogram<Integer> opticalHisto = opticalHistosByLibrary.get(library);
+            if (duplicationHisto == null) {
+                duplicationHisto = new Histogram<Integer>("duplication_group_count", library);
+                opticalHisto = new Histogram<Integer>("duplication_group_count", "optical_duplicates");
+                duplicationHistosByLibrary.put(library, duplicationHisto);
+                opticalHistosByLibrary.put(library, opticalHisto);
+            }
+            duplicationHisto.addHistogram(entry.getValue());
+            opticalHisto.addHistogram(group.opticalHistosByLibrary.get(library));
+        }
+    }
+
+    /**
+     * Figures out which read pairs of one group, split by library, are duplicates of one another.  Each read pair in
+     * turn gathers all later read pairs not yet claimed that match it.  Large groups with reads of uniform length use a
+     * DuplicateCandidateIndex so that only read pairs that could match are compared; the duplicate sets found, and the
+     * order of the read pairs within them, are the same either way.
+     */
+    private GroupHistograms findDuplicates(final Map<String, List<PairedReadSequence>> sequencesByLibrary, final boolean useBarcodes) {
+        final GroupHistograms histograms = new GroupHistograms();
+        for (final Map.Entry<String, List<PairedReadSequence>> entry : sequencesByLibrary.entrySet()) {
+            final String library = entry.getKey();
+            final List<PairedReadSequence> seqs = entry.getValue();
+            final Histogram<Integer> duplicationHisto = new Histogram<Integer>();
+            final Histogram<Integer> opticalHisto = new Histogram<Integer>();
+            histograms.duplicationHistosByLibrary.put(library, duplicationHisto);
+            histograms.opticalHistosByLibrary.put(library, opticalHisto);
+
+            final DuplicateCandidateIndex index = seqs.size() >= MIN_SEQUENCES_TO_INDEX ? createDuplicateCandidateIndex(seqs) : null;
+
+            for (int i = 0; i < seqs.size(); ++i) {
+                final PairedReadSequence lhs = seqs.get(i);
+                if (lhs == null) continue;
+                final List<PairedReadSequence> dupes = new ArrayList<PairedReadSequence>();
+
+                if (index == null) {
+                    for (int j = i + 1; j < seqs.size(); ++j) {
+                        final PairedReadSequence rhs = seqs.get(j);
+                        if (rhs == null) continue;
+
+                        if (matches(lhs, rhs, MAX_DIFF_RATE, useBarcodes)) {
+                            dupes.add(rhs);
+                            seqs.set(j, null);
+                        }
+                    }
+                } else {
+                    for (final int j : index.getCandidates(i, seqs)) {
+                        final PairedReadSequence rhs = seqs.get(j);
+                        if (matches(lhs, rhs, MAX_DIFF_RATE, useBarcodes)) {
+                            dupes.add(rhs);
+                            seqs.set(j, null);
+                        }
+                    }
+                }
+
+                if (!dupes.isEmpty()) {
+                    dupes.add(lhs);
+                    final int duplicateCount = dupes.size();
+                    duplicationHisto.increment(duplicateCount);
+
+                    final boolean[] flags = opticalDuplicateFinder.findOpticalDuplicates(dupes, lhs);
+                    for (final boolean b : flags) {
+                        if (b) opticalHisto.increment(duplicateCount);
+                    }
+                } else {
+                    duplicationHisto.increment(1);
+                }
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Finds, for a group of read pairs whose reads all have the same lengths, the read pairs that might match a given
+     * one.  Two read pairs match if the bases compared by matches() (those after the first MIN_IDENTICAL_BASES of each
+     * read, up to MAX_READ_LENGTH) differ in at most maxErrors places.  Those bases are divided into maxErrors + 1
+     * segments, so by the pigeonhole principle two read pairs that match must have at least one segment in common.
+     * Read pairs are therefore bucketed by a hash of each of their segments, and only those sharing a bucket with a read
+     * pair are candidates to match it.
+     */
+    private static class DuplicateCandidateIndex {
+        /** Segments shorter than this would make for buckets too large to be worthwhile. */
+        private static final int MIN_SEGMENT_LENGTH = 4;
+
+        private final List<Map<Long, IntList>> bucketsBySegment = new ArrayList<Map<Long, IntList>>();
+        /** For each read pair, its bucket in each segment. */
+        private final IntList[][] bucketsOfSequence;
+        private final int[] lastSeenBy;
+
+        private DuplicateCandidateIndex(final List<PairedReadSequence> seqs, final int[] segmentStarts, final SegmentHasher hasher) {
+            final int numSegments = segmentStarts.length - 1;
+            this.bucketsOfSequence = new IntList[seqs.size()][numSegments];
+            this.lastSeenBy = new int[seqs.size()];
+            Arrays.fill(this.lastSeenBy, -1);
+            for (int segment = 0; segment < numSegments; ++segment) {
+                final Map<Long, IntList> buckets = new HashMap<Long, IntList>();
+                bucketsBySegment.add(buckets);
+                for (int i = 0; i < seqs.size(); ++i) {
+                    final long signature = hasher.hash(seqs.get(i), segmentStarts[segment], segmentStarts[segment + 1]);
+                    IntList bucket = buckets.get(signature);
+                    if (bucket == null) {
+                        bucket = new IntList();
+                        buckets.put(signature, bucket);
+                    }
+                    bucket.add(i);
+                    bucketsOfSequence[i][segment] = bucket;
+                }
+            }
+        }
+
+        /**
+         * Returns, in increasing order, the indices after i of the read pairs not yet claimed (i.e. not null in seqs)
+         * that share a segment with read pair i.  Indices that will never be needed again are dropped from the buckets.
+         */
+        int[] getCandidates(final int i, final List<PairedReadSequence> seqs) {
+            final IntList candidates = new IntList();
+            for (final IntList bucket : bucketsOfSequence[i]) {
+                int kept = 0;
+                for (int k = 0; k < bucket.size; ++k) {
+                    final int j = bucket.values[k];
+                    if (j <= i || seqs.get(j) == null) continue;
+                    bucket.values[kept++] = j;
+                    if (lastSeenBy[j] != i) {
+                        lastSeenBy[j] = i;
+                        candidates.add(j);
+                    }
+                }
+                bucket.size = kept;
+            }
+            final int[] result = Arrays.copyOf(candidates.values, candidates.size);
+            Arrays.sort(result);
+            return result;
+        }
+
+        /** Hashes the bases of a read pair between two positions of the bases compared by matches(). */
+        private interface SegmentHasher {
+            long hash(PairedReadSequence seq, int start, int end);
+        }
+
+        private static class IntList {
+            int[] values = new int[4];
+            int size = 0;
+
+            void add(final int value) {
+                if (size == values.length) values = Arrays.copyOf(values, size * 2);
+                values[size++] = value;
+            }
+        }
+    }
+
+    /**
+     * Creates a DuplicateCandidateIndex of the given read pairs, or returns null if their reads are not all of the same
+     * lengths (in which case the number of errors allowed differs between pairs of read pairs) or the segments would be
+     * too short to be worthwhile.
+     */
+    private DuplicateCandidateIndex createDuplicateCandidateIndex(final List<PairedReadSequence> seqs) {
+        final int maxReadLength = (MAX_READ_LENGTH <= 0) ? Integer.MAX_VALUE : MAX_READ_LENGTH;
+        final int read1Length = Math.min(seqs.get(0).read1.length(), maxReadLength);
+        final int read2Length = Math.min(seqs.get(0).read2.length(), maxReadLength);
+        for (final PairedReadSequence seq : seqs) {
+            if (Math.min(seq.read1.length(), maxReadLength) != read1Length || Math.min(seq.read2.length(), maxReadLength) != read2Length) {
+                return null;
+            }
+        }
+
+        final int maxErrors = (int) Math.floor((read1Length + read2Length) * MAX_DIFF_RATE);
+        final int read1Compared = read1Length - MIN_IDENTICAL_BASES;
+        final int comparedLength = read1Compared + read2Length - MIN_IDENTICAL_BASES;
+        final int numSegments = maxErrors + 1;
+        if (comparedLength / numSegments < DuplicateCandidateIndex.MIN_SEGMENT_LENGTH) return null;
+
+        final int[] segmentStarts = new int[numSegments + 1];
+        for (int segment = 0; segment <= numSegments; ++segment) {
+            segmentStarts[segment] = (int) ((long) comparedLength * segment / numSegments);
+        }
+
+        return new DuplicateCandidateIndex(seqs, segmentStarts, (seq, start, end) -> {
+            long hash = 1125899906842597L;
+            for (int k = start; k < end; ++k) {
+                final int base = k < read1Compared ? seq.read1.codeAt(MIN_IDENTICAL_BASES + k) : seq.read2.codeAt(MIN_IDENTICAL_BASES + k - read1Compared);
+                hash = 31 * hash + base;
+            }
+            return hash;
+        });
+    }
+
     /**
      * Checks to see if two reads pairs have sequence that are the same, give or take a few
      * errors/diffs as dictated by the maxDiffRate.
      */
     private boolean matches(final PairedReadSequence lhs, final PairedReadSequence rhs, final double maxDiffRate, final boolean useBarcodes) {
         final int maxReadLength = (MAX_READ_LENGTH <= 0) ? Integer.MAX_VALUE : MAX_READ_LENGTH;
-        final int read1Length = Math.min(Math.min(lhs.read1.length, rhs.read1.length), maxReadLength);
-        final int read2Length = Math.min(Math.min(lhs.read2.length, rhs.read2.length), maxReadLength);
+        final int read1Length = Math.min(Math.min(lhs.read1.length(), rhs.read1.length()), maxReadLength);
+        final int read2Length = Math.min(Math.min(lhs.read2.length(), rhs.read2.length()), maxReadLength);
         final int maxErrors = (int) Math.floor((read1Length + read2Length) * maxDiffRate);
         int errors = 0;
 
@@ -622,19 +806,11 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
 
         // The loop can start from MIN_IDENTICAL_BASES because we've already confirmed that
         // at least those first few bases are identical when sorting.
-        for (int i = MIN_IDENTICAL_BASES; i < read1Length; ++i) {
-            if (lhs.read1[i] != rhs.read1[i] && ++errors > maxErrors) {
-                return false;
-            }
-        }
+        errors += lhs.read1.countMismatches(rhs.read1, MIN_IDENTICAL_BASES, read1Length, maxErrors);
+        if (errors > maxErrors) return false;
 
-        for (int i = MIN_IDENTICAL_BASES; i < read2Length; ++i) {
-            if (lhs.read2[i] != rhs.read2[i] && ++errors > maxErrors) {
-                return false;
-            }
-        }
-
-        return true;
+        errors += lhs.read2.countMismatches(rhs.read2, MIN_IDENTICAL_BASES, read2Length, maxErrors - errors);
+        return errors <= maxErrors;
     }
 
     /**
@@ -646,15 +822,14 @@ public class EstimateLibraryComplexity extends AbstractOpticalDuplicateFinderCom
         final PairedReadSequence first = iterator.next();
         group.add(first);
 
-        outer:
         while (iterator.hasNext()) {
             final PairedReadSequence next = iterator.peek();
-            for (int i = 0; i < MIN_IDENTICAL_BASES; ++i) {
-                if (first.read1[i] != next.read1[i] || first.read2[i] != next.read2[i]) break outer;
+            if (first.read1.comparePrefix(next.read1, MIN_IDENTICAL_BASES) != 0 ||
+                    first.read2.comparePrefix(next.read2, MIN_IDENTICAL_BASES) != 0) {
+                break;
             }
 
             group.add(iterator.next());
-
         }
 
         return group;
@@ -564,7 +564,7 @@ public class MarkDuplicates extends AbstractMarkDuplicatesCommandLineProgram {
         ends.libraryId = libraryIdGenerator.getLibraryId(rec);
 
         // Fill in the location information for optical duplicates
-        if (this.opticalDuplicateFinder.addLocationInformation(rec.getReadName(), ends)) {
+        if (this.opticalDuplicateFinder.addLocationInformation(rec, ends)) {
             // calculate the RG number (nth in list)
             ends.readGroup = 0;
             final String rg = (String) rec.getAttribute("RG");
@@ -27,6 +27,9 @@ package picard.sam.markduplicates.util;
 import picard.cmdline.*;
 import htsjdk.samtools.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Abstract class that holds parameters and methods common to classes that optical duplicate detection.  We put them here so that
  * the explanation about how read names are parsed is in once place
@@ -55,16 +58,34 @@ public abstract class AbstractOpticalDuplicateFinderCommandLineProgram extends C
             "appropriate. For other platforms and models, users should experiment to find what works best.")
     public int OPTICAL_DUPLICATE_PIXEL_DISTANCE = OpticalDuplicateFinder.DEFAULT_OPTICAL_DUPLICATE_DISTANCE;
 
+    @Option(doc = "Three integer tags from which to take the tile, x coordinate and y coordinate of each read, in that order, " +
+            "rather than parsing them from the read name with READ_NAME_REGEX, for inputs where they were stored when the reads " +
+            "were converted to SAM.  Reads that do not have all three tags still have their read names parsed.  Ignored if " +
+            "READ_NAME_REGEX is null.", optional = true)
+    public List<String> PHYSICAL_LOCATION_TAGS = new ArrayList<String>();
+
     // The tool with which to find optical duplicates
     protected OpticalDuplicateFinder opticalDuplicateFinder = null;
 
     // Needed for testing
     public void setupOpticalDuplicateFinder() {
         this.opticalDuplicateFinder = new OpticalDuplicateFinder(READ_NAME_REGEX, OPTICAL_DUPLICATE_PIXEL_DISTANCE, LOG);
+        if (PHYSICAL_LOCATION_TAGS.size() == 3) {
+            this.opticalDuplicateFinder.setLocationTags(PHYSICAL_LOCATION_TAGS.get(0), PHYSICAL_LOCATION_TAGS.get(1), PHYSICAL_LOCATION_TAGS.get(2));
+        }
     }
 
     @Override
     protected String[] customCommandLineValidation() {
+        if (!PHYSICAL_LOCATION_TAGS.isEmpty()) {
+            if (PHYSICAL_LOCATION_TAGS.size() != 3) {
+                return new String[]{"PHYSICAL_LOCATION_TAGS must be given exactly three tags, for the tile, x and y, but was given " +
+                        PHYSICAL_LOCATION_TAGS.size()};
+            }
+            for (final String tag : PHYSICAL_LOCATION_TAGS) {
+                if (tag.length() != 2) return new String[]{"PHYSICAL_LOCATION_TAGS must be two characters long, but found: " + tag};
+            }
+        }
         setupOpticalDuplicateFinder();
         return super.customCommandLineValidation();
     }
@@ -35,8 +35,6 @@ import htsjdk.samtools.DuplicateScoringStrategy.ScoringStrategy;
 
 import java.util.Comparator;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 /**
  * This is the mark queue.
@@ -48,18 +46,147 @@ import java.util.TreeSet;
 public class MarkQueue {
 
     /**
-     * Comparator to order the mark queue nonDuplicateReadEndsSet.  The nonDuplicateReadEndsSet of all the read ends that are compared to be the same should
-     * be used for duplicate marking.
+     * The read ends in the mark queue, kept sorted in an array with slack at both ends.  Read ends are ordered by library, then
+     * 5' position of the first end, then orientation (pairs first), then 5' position of the second end, so that the read ends that
+     * compare the same are exactly those to use for duplicate marking.  The sort key of each read end is packed into three longs
+     * held in parallel primitive arrays, so lookups are binary searches over those rather than a walk of tree nodes.  Read ends
+     * arrive in roughly coordinate order and leave from the front, so most inserts are at or near the end and most removals at the
+     * start, and an end that replaces a comparable one takes its slot without moving anything.
      */
-    private class MarkQueueComparator implements Comparator<ReadEndsForMateCigar> {
-        public int compare(final ReadEndsForMateCigar lhs, final ReadEndsForMateCigar rhs) {
-            int retval = lhs.libraryId - rhs.libraryId;
-            if (retval == 0) retval = lhs.read1ReferenceIndex - rhs.read1ReferenceIndex;
-            if (retval == 0) retval = lhs.read1Coordinate - rhs.read1Coordinate;
-            if (retval == 0) retval = rhs.orientation - lhs.orientation; // to get pairs first, based on the order defined in ReadEnds
-            if (retval == 0) retval = lhs.read2ReferenceIndex - rhs.read2ReferenceIndex;
-            if (retval == 0) retval = lhs.read2Coordinate - rhs.read2Coordinate;
-            return retval;
+    static class SortedReadEnds {
+        private ReadEndsForMateCigar[] ends = new ReadEndsForMateCigar[64];
+        private long[] keys1 = new long[64];
+        private long[] keys2 = new long[64];
+        private long[] keys3 = new long[64];
+        private int head = 0;
+        private int tail = 0;
+
+        /** Library and reference of the first end, with the reference flipped to sort as unsigned below the library. */
+        private static long key1(final ReadEnds end) {
+            return ((long) end.libraryId << 32) | ((end.read1ReferenceIndex ^ 0x80000000L) & 0xFFFFFFFFL);
+        }
+
+        /** Coordinate of the first end, then orientation in reverse so that pairs come first. */
+        private static long key2(final ReadEnds end) {
+            return ((long) end.read1Coordinate << 32) | (0xFFL - (end.orientation & 0xFFL));
+        }
+
+        /** Reference and coordinate of the second end. */
+        private static long key3(final ReadEnds end) {
+            return ((long) end.read2ReferenceIndex << 32) | ((end.read2Coordinate ^ 0x80000000L) & 0xFFFFFFFFL);
+        }
+
+        /** Compares the packed sort keys of the given read ends, which is how the read ends in the arrays are ordered. */
+        static int compareKeys(final ReadEnds lhs, final ReadEnds rhs) {
+            int cmp = Long.compare(key1(lhs), key1(rhs));
+            if (cmp == 0) cmp = Long.compare(key2(lhs), key2(rhs));
+            if (cmp == 0) cmp = Long.compare(key3(lhs), key3(rhs));
+            return cmp;
+        }
+
+        int size() { return tail - head; }
+
+        boolean isEmpty() { return tail == head; }
+
+        ReadEndsForMateCigar first() { return ends[head]; }
+
+        ReadEndsForMateCigar pollFirst() {
+            final ReadEndsForMateCigar first = ends[head];
+            ends[head++] = null;
+            if (head == tail) head = tail = 0;
+            return first;
+        }
+
+        /** Returns the read end comparable to the given one, or null if there is none. */
+        ReadEndsForMateCigar get(final ReadEnds end) {
+            final int index = indexOf(end);
+            return index < 0 ? null : ends[index];
+        }
+
+        /** Removes the read end comparable to the given one, if any. */
+        void remove(final ReadEnds end) {
+            final int index = indexOf(end);
+            if (index < 0) return;
+            if (index == head) {
+                pollFirst();
+            } else {
+                System.arraycopy(ends, index + 1, ends, index, tail - index - 1);
+                System.arraycopy(keys1, index + 1, keys1, index, tail - index - 1);
+                System.arraycopy(keys2, index + 1, keys2, index, tail - index - 1);
+                System.arraycopy(keys3, index + 1, keys3, index, tail - index - 1);
+                ends[--tail] = null;
+            }
+        }
+
+        /** Adds the read end, replacing the read end comparable to it if there is one. */
+        void put(final ReadEndsForMateCigar end) {
+            final int index = indexOf(end);
+            if (0 <= index) ends[index] = end;
+            else insert(end);
+        }
+
+        /** Adds the read end unless there is already a read end comparable to it, as TreeSet.add() would. */
+        void add(final ReadEndsForMateCigar end) {
+            if (indexOf(end) < 0) insert(end);
+        }
+
+        private void insert(final ReadEndsForMateCigar end) {
+            if (tail == ends.length) makeRoom();
+            final int insertion = -(indexOf(end) + 1);
+            System.arraycopy(ends, insertion, ends, insertion + 1, tail - insertion);
+            System.arraycopy(keys1, insertion, keys1, insertion + 1, tail - insertion);
+            System.arraycopy(keys2, insertion, keys2, insertion + 1, tail - insertion);
+            System.arraycopy(keys3, insertion, keys3, insertion + 1, tail - insertion);
+            ends[insertion] = end;
+            keys1[insertion] = key1(end);
+            keys2[insertion] = key2(end);
+            keys3[insertion] = key3(end);
+            ++tail;
+        }
+
+        /** Moves the read ends back to the start of the arrays, growing them if they are more than half full. */
+        private void makeRoom() {
+            final int size = size();
+            final int capacity = size * 2 > ends.length ? ends.length * 2 : ends.length;
+            final ReadEndsForMateCigar[] newEnds = new ReadEndsForMateCigar[capacity];
+            System.arraycopy(ends, head, newEnds, 0, size);
+            ends = newEnds;
+            keys1 = moveToStart(keys1, capacity);
+            keys2 = moveToStart(keys2, capacity);
+            keys3 = moveToStart(keys3, capacity);
+            head = 0;
+            tail = size;
+        }
+
+        private long[] moveToStart(final long[] keys, final int capacity) {
+            final long[] newKeys = new long[capacity];
+            System.arraycopy(keys, head, newKeys, 0, size());
+            return newKeys;
+        }
+
+        /** Returns the index of the read end comparable to the given one, or -(insertion point)-1 if there is none. */
+        private int indexOf(final ReadEnds end) {
+            final long key1 = key1(end), key2 = key2(end), key3 = key3(end);
+            // Check the last read end first, since most read ends go after it
+            if (head == tail || compare(tail - 1, key1, key2, key3) < 0) return -(tail + 1);
+
+            int low = head;
+            int high = tail - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compare(mid, key1, key2, key3);
+                if (cmp < 0) low = mid + 1;
+                else if (cmp > 0) high = mid - 1;
+                else return mid;
+            }
+            return -(low + 1);
+        }
+
+        private int compare(final int index, final long key1, final long key2, final long key3) {
+            int cmp = Long.compare(keys1[index], key1);
+            if (cmp == 0) cmp = Long.compare(keys2[index], key2);
+            if (cmp == 0) cmp = Long.compare(keys3[index], key3);
+            return cmp;
         }
     }
 
@@ -107,14 +234,14 @@ public class MarkQueue {
     private int numDuplicates = 0;
 
     /** The nonDuplicateReadEndsSet of all read ends sorted by 5' start unclipped position.  Some read ends in this nonDuplicateReadEndsSet may eventually be duplicates. */
-    private final TreeSet<ReadEndsForMateCigar> nonDuplicateReadEndsSet = new TreeSet<ReadEndsForMateCigar>(new MarkQueueComparator());
+    private final SortedReadEnds nonDuplicateReadEndsSet = new SortedReadEnds();
 
     /**
      * Reads in the main nonDuplicateReadEndsSet may occasionally have mates with the same chromosome, coordinate, and orientation, causing collisions
      * We store the 'best' end of the mate pair in the main nonDuplicateReadEndsSet, and the other end in this nonDuplicateReadEndsSet.  We only remove from this.otherEndOfNonDuplicateReadEndsSet when
      * we remove something from this.nonDuplicateReadEndsSet.
      */
-    private final TreeSet<ReadEndsForMateCigar> otherEndOfNonDuplicateReadEndsSet = new TreeSet<ReadEndsForMateCigar>(new MarkQueueComparator());
+    private final SortedReadEnds otherEndOfNonDuplicateReadEndsSet = new SortedReadEnds();
 
     /**
      * If we have two items that are the same with respect to being in the "nonDuplicateReadEndsSet", then we must choose one.  The "one" will
@@ -200,8 +327,8 @@ public class MarkQueue {
         if (current.isPaired()) {
 
             // Remove this record's comparable pair, if present.
-            if (this.otherEndOfNonDuplicateReadEndsSet.contains(current)) { // the pair of this end is not a duplicate, if found
-                final ReadEndsForMateCigar pair = this.otherEndOfNonDuplicateReadEndsSet.subSet(current, true, current, true).first();
+            final ReadEndsForMateCigar pair = this.otherEndOfNonDuplicateReadEndsSet.get(current);
+            if (null != pair) { // the pair of this end is not a duplicate, if found
                 outputBuffer.setResultState(pair.getSamRecordIndex(), false); // you are not a duplicate!
                 this.otherEndOfNonDuplicateReadEndsSet.remove(current);
                 // NB: do not need to update metrics since this record is not a duplicate
@@ -226,12 +353,8 @@ public class MarkQueue {
 
             // remove from the nonDuplicateReadEndsSet fragments and unpaired, which only have two possible orientations
             //this.tmpReadEnds.orientation = orientation;
-            if (this.nonDuplicateReadEndsSet.contains(this.tmpReadEnds)) { // found in the nonDuplicateReadEndsSet
-                // get the duplicate read end
-                final SortedSet<ReadEndsForMateCigar> sortedSet = this.nonDuplicateReadEndsSet.subSet(this.tmpReadEnds, true, this.tmpReadEnds, true);
-                if (1 != sortedSet.size()) throw new PicardException("SortedSet should have size one (has size " + sortedSet.size() + " )");
-                final ReadEndsForMateCigar duplicate = sortedSet.first();
-
+            final ReadEndsForMateCigar duplicate = this.nonDuplicateReadEndsSet.get(this.tmpReadEnds);
+            if (null != duplicate) { // found in the nonDuplicateReadEndsSet
                 /** mark as duplicate and nonDuplicateReadEndsSet that it has been through duplicate marking
                  * duplicate.getRecord().setDuplicateReadFlag(true); HANDLED BY THE METHOD CALL BELOW*/
                 outputBuffer.setResultState(duplicate.getSamRecordIndex(), true);
@@ -269,16 +392,12 @@ public class MarkQueue {
         /**
          * Check if we have a comparable record in our nonDuplicateReadEndsSet.
          */
-        if (this.nonDuplicateReadEndsSet.contains(other)) { // a comparable record to "other" record already in the nonDuplicateReadEndsSet
+        final ReadEndsForMateCigar current = this.nonDuplicateReadEndsSet.get(other);
+        if (null != current) { // a comparable record to "other" record already in the nonDuplicateReadEndsSet
             /**
-             * Get the subset of records that are comparable, which should be of size one
-             *
              * Sometimes, the ends that are comparable are in fact from the same pair.  In this case, we need to choose the best end
              * from the pair, and track the sub-optimal end.
              */
-            final SortedSet<ReadEndsForMateCigar> sortedSet = this.nonDuplicateReadEndsSet.subSet(other, true, other, true);
-            if (1 != sortedSet.size()) throw new PicardException("SortedSet should have size one (has size " + sortedSet.size() + " )");
-            final ReadEndsForMateCigar current = sortedSet.first();
             final String otherName = SAMUtils.getCanonicalRecordName(other.getRecord());
             final String currentName = SAMUtils.getCanonicalRecordName(current.getRecord());
 
@@ -292,8 +411,7 @@ public class MarkQueue {
                  * */
                 if (0 < comparison) { // "other" is the best end. Swap for "current".
                     // Swap them in the nonDuplicateReadEndsSet
-                    this.nonDuplicateReadEndsSet.remove(current);
-                    this.nonDuplicateReadEndsSet.add(other);
+                    this.nonDuplicateReadEndsSet.put(other);
                     this.otherEndOfNonDuplicateReadEndsSet.add(current); // add "current" to the pairset
                     // Swap "current" and "other" in the locations
                     if (shouldBeInLocations(other)) {
@@ -321,13 +439,12 @@ public class MarkQueue {
                         locationSet = new PhysicalLocationForMateCigarSet();
                     }
                     other.setLocationSet(locationSet); // update locations to use "other" as the identifier for the location nonDuplicateReadEndsSet
-                    // remove current and add the other
-                    this.nonDuplicateReadEndsSet.remove(current);
-                    this.nonDuplicateReadEndsSet.add(other);
+                    // replace current with the other
+                    this.nonDuplicateReadEndsSet.put(other);
 
                     // update the pair nonDuplicateReadEndsSet in case current's pair is in that nonDuplicateReadEndsSet
-                    if (this.otherEndOfNonDuplicateReadEndsSet.contains(current)) {
-                        final ReadEndsForMateCigar pair = this.otherEndOfNonDuplicateReadEndsSet.subSet(current, true, current, true).first();
+                    final ReadEndsForMateCigar pair = this.otherEndOfNonDuplicateReadEndsSet.get(current);
+                    if (null != pair) {
                         this.otherEndOfNonDuplicateReadEndsSet.remove(current);
                         outputBuffer.setResultState(pair.getSamRecordIndex(), true); // track that this samRecordWithOrdinal has been through duplicate marking
                         updateDuplicationMetrics(pair, metrics);
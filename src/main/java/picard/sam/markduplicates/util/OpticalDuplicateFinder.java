@@ -44,6 +44,9 @@ public class OpticalDuplicateFinder extends ReadNameParser {
     public static final int DEFAULT_OPTICAL_DUPLICATE_DISTANCE = 100;
     public static final int DEFAULT_BIG_DUPLICATE_SET_SIZE = 1000;
 
+    /** Sets at least this big are compared using a grid over each tile rather than by comparing every pair of reads. */
+    static final int MIN_SET_SIZE_FOR_GRID = 64;
+
     /**
      * Sets the size of a set that is big enough to log progress about.
      * Defaults to {@value OpticalDuplicateFinder#DEFAULT_BIG_DUPLICATE_SET_SIZE}
@@ -135,6 +138,11 @@ public class OpticalDuplicateFinder extends ReadNameParser {
         if (logProgress) log.debug("Done with comparing to keeper, now the rest.");
 
         // Now go through and do each pairwise comparison not involving the actualKeeper
+        if (length >= MIN_SET_SIZE_FOR_GRID && distance >= 0) {
+            compareWithinGrid(list, actualKeeper, opticalDuplicateFlags, distance, logProgress ? progressLoggerForRest : null);
+            return opticalDuplicateFlags;
+        }
+
         for (int i = 0; i < length; ++i) {
             final PhysicalLocation lhs = list.get(i);
             if (lhs == actualKeeper) continue; // no comparisons to actualKeeper since those are all handled above
@@ -145,21 +153,98 @@ public class OpticalDuplicateFinder extends ReadNameParser {
             for (int j = i + 1; j < length; ++j) {
                 final PhysicalLocation rhs = list.get(j);
                 if (rhs == actualKeeper) continue; // no comparisons to actualKeeper since those are all handled above
-                if (opticalDuplicateFlags[i] && opticalDuplicateFlags[j]) continue; // both already marked, no need to check
-
-                if (closeEnough(lhs, rhs, distance)) {
-                    // At this point we want to mark either lhs or rhs as duplicate. Either could have been marked
-                    // as a duplicate of the keeper (but not both - that's checked above), so be careful about which
-                    // one to now mark as a duplicate.
-                    final int index = opticalDuplicateFlags[j] ? i : j;
-                    opticalDuplicateFlags[index] = true;
-                }
+                markIfCloseEnough(list, opticalDuplicateFlags, i, j, distance);
             }
         }
 
         return opticalDuplicateFlags;
     }
 
+    /**
+     * Does the pairwise comparisons not involving the keeper for a large set, comparing each read only to those in the same or
+     * a neighbouring cell of a grid over each tile whose cells are the optical duplicate distance across.  Reads further apart
+     * can never be close enough.  The reads are still taken in list order, and for a given read every later read close to it
+     * ends up flagged, and the read itself flagged if any of them already was, whatever order they are compared in; so the
+     * same reads are flagged as by comparing every pair.
+     */
+    private void compareWithinGrid(final List<? extends PhysicalLocation> list, final PhysicalLocation actualKeeper,
+                                   final boolean[] opticalDuplicateFlags, final int distance, final ProgressLogger progressLogger) {
+        final int length = list.size();
+        final int cellSize = Math.max(distance, 1);
+
+        // Bucket the reads by a hash of their cell, in list order within each bucket.  Different cells may share a bucket,
+        // which only costs extra comparisons.
+        final int numBuckets = Integer.highestOneBit(length) * 2;
+        final int[] bucketOfRead = new int[length];
+        final int[] bucketStarts = new int[numBuckets + 1];
+        for (int i = 0; i < length; ++i) {
+            final PhysicalLocation loc = list.get(i);
+            if (loc == actualKeeper || !loc.hasLocation()) {
+                bucketOfRead[i] = -1;
+            } else {
+                bucketOfRead[i] = bucket(loc, Math.floorDiv(loc.getX(), cellSize), Math.floorDiv(loc.getY(), cellSize), numBuckets);
+                ++bucketStarts[bucketOfRead[i] + 1];
+            }
+        }
+        for (int b = 0; b < numBuckets; ++b) bucketStarts[b + 1] += bucketStarts[b];
+        final int[] readsByBucket = new int[bucketStarts[numBuckets]];
+        final int[] filled = new int[numBuckets];
+        for (int i = 0; i < length; ++i) {
+            final int b = bucketOfRead[i];
+            if (b >= 0) readsByBucket[bucketStarts[b] + filled[b]++] = i;
+        }
+
+        final int[] neighbourBuckets = new int[9];
+        for (int i = 0; i < length; ++i) {
+            if (bucketOfRead[i] < 0) continue;
+            final PhysicalLocation lhs = list.get(i);
+
+            // logging here for same reason as in findOpticalDuplicates
+            if (progressLogger != null) progressLogger.record(String.format("%d", lhs.getReadGroup()), lhs.getX());
+
+            final int cellX = Math.floorDiv(lhs.getX(), cellSize);
+            final int cellY = Math.floorDiv(lhs.getY(), cellSize);
+            int numNeighbourBuckets = 0;
+            for (int dx = -1; dx <= 1; ++dx) {
+                for (int dy = -1; dy <= 1; ++dy) {
+                    final int b = bucket(lhs, cellX + dx, cellY + dy, numBuckets);
+                    boolean seen = false;
+                    for (int k = 0; k < numNeighbourBuckets; ++k) seen |= neighbourBuckets[k] == b;
+                    if (seen) continue;
+                    neighbourBuckets[numNeighbourBuckets++] = b;
+
+                    for (int k = bucketStarts[b]; k < bucketStarts[b + 1]; ++k) {
+                        final int j = readsByBucket[k];
+                        if (j > i) markIfCloseEnough(list, opticalDuplicateFlags, i, j, distance);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int bucket(final PhysicalLocation loc, final int cellX, final int cellY, final int numBuckets) {
+        long hash = loc.getReadGroup();
+        hash = 31 * hash + loc.getTile();
+        hash = 31 * hash + cellX;
+        hash = 31 * hash + cellY;
+        hash *= 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (numBuckets - 1);
+    }
+
+    /** Compares the reads at i and j, where i < j, and flags one of them if they are close enough and not both flagged already. */
+    private void markIfCloseEnough(final List<? extends PhysicalLocation> list, final boolean[] opticalDuplicateFlags,
+                                   final int i, final int j, final int distance) {
+        if (opticalDuplicateFlags[i] && opticalDuplicateFlags[j]) return; // both already marked, no need to check
+
+        if (closeEnough(list.get(i), list.get(j), distance)) {
+            // At this point we want to mark either lhs or rhs as duplicate. Either could have been marked
+            // as a duplicate of the keeper (but not both - that's checked above), so be careful about which
+            // one to now mark as a duplicate.
+            final int index = opticalDuplicateFlags[j] ? i : j;
+            opticalDuplicateFlags[index] = true;
+        }
+    }
+
     /** Returns the keeper if it is contained within the list and has location information, otherwise null. */
     private PhysicalLocation keeperOrNull(final List<? extends PhysicalLocation> list, final PhysicalLocation keeper) {
         if (keeper != null && keeper.hasLocation()) {
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.sam.markduplicates.util;
+
+import htsjdk.samtools.util.StringUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A read sequence packed two bits per base into longs, 32 bases to a word with the first base in the most significant
+ * bits, so that comparing words compares bases in order.  Any base other than A, C, G or T is a no-call; no-calls are
+ * packed as A and flagged in a parallel array of the same layout, which is only present if the sequence has no-calls.
+ *
+ * Mismatches are counted a word at a time: two bases differ if either their codes or their no-call flags differ, so an
+ * N matches another N but nothing else.  Sequences are equal exactly when their bases are: a sequence with any base other
+ * than A, C, G, T or N (such as an IUPAC code or a lower case base) also keeps its bases as given, and is compared base by
+ * base wherever the packed words cannot tell it apart from another.
+ */
+public final class PackedSequence {
+    private static final int BASES_PER_WORD = 32;
+    private static final long LOW_BITS = 0x5555555555555555L;
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+    private static final int[] CODES = new int[256];
+
+    static {
+        Arrays.fill(CODES, -1);
+        for (int i = 0; i < BASES.length; ++i) CODES[BASES[i]] = i;
+    }
+
+    private final int length;
+    private final long[] bases;
+    /** Both bits of a base are set if it is a no-call; null if there are none. */
+    private final long[] noCalls;
+    /** The bases as given if any is other than A, C, G, T or N; null otherwise. */
+    private final byte[] readBases;
+
+    private PackedSequence(final int length, final long[] bases, final long[] noCalls, final byte[] readBases) {
+        this.length = length;
+        this.bases = bases;
+        this.noCalls = noCalls;
+        this.readBases = readBases;
+    }
+
+    /** Packs the given bases. */
+    public static PackedSequence pack(final byte[] readBases) {
+        final long[] bases = new long[numWords(readBases.length)];
+        long[] noCalls = null;
+        boolean packsDistinctly = true;
+        for (int i = 0; i < readBases.length; ++i) {
+            final int code = CODES[readBases[i] & 0xFF];
+            if (code < 0) {
+                if (noCalls == null) noCalls = new long[bases.length];
+                noCalls[i / BASES_PER_WORD] |= 3L << shift(i);
+                packsDistinctly &= readBases[i] == 'N';
+            } else {
+                bases[i / BASES_PER_WORD] |= ((long) code) << shift(i);
+            }
+        }
+        return new PackedSequence(readBases.length, bases, noCalls, packsDistinctly ? null : readBases.clone());
+    }
+
+    private static int numWords(final int length) { return (length + BASES_PER_WORD - 1) / BASES_PER_WORD; }
+
+    private static int shift(final int i) { return 62 - 2 * (i % BASES_PER_WORD); }
+
+    public int length() { return length; }
+
+    /** Returns the code of the base at the given position: 0-3 for A, C, G and T or 4 for a no-call. */
+    public int codeAt(final int i) {
+        if (noCalls != null && (noCalls[i / BASES_PER_WORD] >>> shift(i) & 3L) != 0) return 4;
+        return (int) (bases[i / BASES_PER_WORD] >>> shift(i) & 3L);
+    }
+
+    /** Returns the bases from start (inclusive) to end (exclusive) as a String. */
+    public String toString(final int start, final int end) {
+        if (readBases != null) return StringUtil.bytesToString(readBases, start, end - start);
+        final StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; ++i) {
+            final int code = codeAt(i);
+            builder.append(code == 4 ? 'N' : (char) BASES[code]);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() { return toString(0, length); }
+
+    /**
+     * Compares the first n bases of this sequence and another, which must both be at least n long.  Sequences that
+     * differ only in where their no-calls are order by the no-calls, and then by the bases that were packed as no-calls,
+     * so equal prefixes are always adjacent when sorted.
+     */
+    public int comparePrefix(final PackedSequence other, final int n) {
+        int cmp = comparePrefix(bases, other.bases, n);
+        if (cmp == 0 && (noCalls != null || other.noCalls != null)) cmp = comparePrefix(noCallWords(), other.noCallWords(), n);
+        if (cmp != 0 || (readBases == null && other.readBases == null)) return cmp;
+
+        final byte[] lhs = unpacked();
+        final byte[] rhs = other.unpacked();
+        for (int i = 0; i < n; ++i) {
+            if (lhs[i] != rhs[i]) return lhs[i] - rhs[i];
+        }
+        return 0;
+    }
+
+    private long[] noCallWords() { return noCalls != null ? noCalls : new long[bases.length]; }
+
+    private byte[] unpacked() { return readBases != null ? readBases : StringUtil.stringToBytes(toString()); }
+
+    private static int comparePrefix(final long[] lhs, final long[] rhs, final int n) {
+        final int fullWords = n / BASES_PER_WORD;
+        for (int w = 0; w < fullWords; ++w) {
+            final int cmp = Long.compareUnsigned(lhs[w], rhs[w]);
+            if (cmp != 0) return cmp;
+        }
+        final int remainder = n % BASES_PER_WORD;
+        if (remainder == 0) return 0;
+        final long mask = -1L << (64 - 2 * remainder);
+        return Long.compareUnsigned(lhs[fullWords] & mask, rhs[fullWords] & mask);
+    }
+
+    /**
+     * Counts the positions from start (inclusive) to end (exclusive) at which this sequence and another differ,
+     * stopping early once more than maxMismatches have been found.  Both sequences must be at least end long.
+     */
+    public int countMismatches(final PackedSequence other, final int start, final int end, final int maxMismatches) {
+        int mismatches = 0;
+        if (start >= end) return 0;
+        if (readBases != null || other.readBases != null) {
+            final byte[] lhs = unpacked();
+            final byte[] rhs = other.unpacked();
+            for (int i = start; i < end; ++i) {
+                if (lhs[i] != rhs[i] && ++mismatches > maxMismatches) return mismatches;
+            }
+            return mismatches;
+        }
+        final int lastWord = (end - 1) / BASES_PER_WORD;
+        for (int w = start / BASES_PER_WORD; w <= lastWord; ++w) {
+            long diff = bases[w] ^ other.bases[w];
+            if (noCalls != null || other.noCalls != null) {
+                diff |= (noCalls == null ? 0 : noCalls[w]) ^ (other.noCalls == null ? 0 : other.noCalls[w]);
+            }
+            if (diff == 0) continue;
+
+            // one bit per differing base, masked to the positions of interest within this word
+            final int firstPosition = Math.max(start - w * BASES_PER_WORD, 0);
+            final int lastPosition = Math.min(end - 1 - w * BASES_PER_WORD, BASES_PER_WORD - 1);
+            final long mask = (-1L >>> (2 * firstPosition)) & (-1L << (62 - 2 * lastPosition));
+            mismatches += Long.bitCount((diff | (diff >>> 1)) & LOW_BITS & mask);
+            if (mismatches > maxMismatches) return mismatches;
+        }
+        return mismatches;
+    }
+
+    /** Writes this sequence in the form read by {@link #read(DataInputStream)}. */
+    public void write(final DataOutputStream out) throws IOException {
+        out.writeInt(length);
+        out.writeBoolean(noCalls != null);
+        out.writeBoolean(readBases != null);
+        for (final long word : bases) out.writeLong(word);
+        if (noCalls != null) {
+            for (final long word : noCalls) out.writeLong(word);
+        }
+        if (readBases != null) out.write(readBases);
+    }
+
+    public static PackedSequence read(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        final boolean hasNoCalls = in.readBoolean();
+        final boolean hasReadBases = in.readBoolean();
+        final long[] bases = new long[numWords(length)];
+        for (int w = 0; w < bases.length; ++w) bases[w] = in.readLong();
+        long[] noCalls = null;
+        if (hasNoCalls) {
+            noCalls = new long[bases.length];
+            for (int w = 0; w < noCalls.length; ++w) noCalls[w] = in.readLong();
+        }
+        byte[] readBases = null;
+        if (hasReadBases) {
+            readBases = new byte[length];
+            in.readFully(readBases);
+        }
+        return new PackedSequence(length, bases, noCalls, readBases);
+    }
+}
@@ -31,7 +31,12 @@ package picard.sam.markduplicates.util;
 import picard.sam.util.PhysicalLocation;
 import picard.sam.util.PhysicalLocationShort;
 
-/** Stores the minimal information needed for optical duplicate detection. */
+/**
+ * Stores the minimal information needed for optical duplicate detection.
+ *
+ * @deprecated no longer used by MarkDuplicatesWithMateCigar, whose PhysicalLocationForMateCigarSet packs its locations into arrays.
+ */
+@Deprecated
 public class PhysicalLocationForMateCigar extends PhysicalLocationShort {
 
     // Information used to detect optical dupes
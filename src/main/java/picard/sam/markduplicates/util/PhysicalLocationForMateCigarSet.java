@@ -26,7 +26,10 @@ package picard.sam.markduplicates.util;
 
 import picard.PicardException;
 
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -34,44 +37,121 @@ import java.util.Set;
  */
 public class PhysicalLocationForMateCigarSet {
     /**
-     * We want to return a set of ReadEnds but want to compare based on physical location, hence we store two sets.
+     * We want to return a set of ReadEnds but want to compare based on physical location, hence we store the read ends along with
+     * their physical locations, packed into longs, in insertion order.  Once there are more than a few, the locations are also
+     * indexed by an open-addressing hash table of positions in those arrays so that adding to a large set is not linear.
      */
-    private final Set<ReadEnds> readEnds = new HashSet<ReadEnds>();
-    private final Set<PhysicalLocationForMateCigar> physicalLocations = new HashSet<PhysicalLocationForMateCigar>();
+    private static final int MIN_SIZE_TO_INDEX = 16;
+
+    private ReadEnds[] readEnds = new ReadEnds[4];
+    private long[] locations = new long[4];
+    private short[] libraryIds = new short[4];
+    private int size = 0;
+
+    /** Positions in the arrays above plus one, or zero for an empty slot; null until the set grows large enough. */
+    private int[] index = null;
+
+    private final Set<ReadEnds> readEndsView = new AbstractSet<ReadEnds>() {
+        @Override
+        public Iterator<ReadEnds> iterator() {
+            return new Iterator<ReadEnds>() {
+                private int next = 0;
+
+                public boolean hasNext() { return next < size; }
+
+                public ReadEnds next() {
+                    if (next >= size) throw new NoSuchElementException();
+                    return readEnds[next++];
+                }
+            };
+        }
+
+        @Override
+        public int size() { return size; }
+    };
 
     public PhysicalLocationForMateCigarSet() {}
 
+    /** The physical location of the end, with the x and y positions truncated as in PhysicalLocationShort. */
+    private static long location(final ReadEndsForMateCigar end) {
+        return ((long) (end.getReadGroup() & 0xFFFF) << 48) | ((long) (end.getTile() & 0xFFFF) << 32)
+                | ((long) (end.getY() & 0xFFFF) << 16) | (end.getX() & 0xFFFF);
+    }
+
     /** Adds the end to this set, if not already added based on physical location */
     public void add(final ReadEndsForMateCigar end) {
-        final PhysicalLocationForMateCigar location = new PhysicalLocationForMateCigar(end);
-        if (!physicalLocations.contains(location)) {
-            readEnds.add(end);
-            physicalLocations.add(new PhysicalLocationForMateCigar(location));
+        final long location = location(end);
+        if (indexOf(location, end.getLibraryId()) < 0) {
+            if (size == readEnds.length) {
+                readEnds = Arrays.copyOf(readEnds, size * 2);
+                locations = Arrays.copyOf(locations, size * 2);
+                libraryIds = Arrays.copyOf(libraryIds, size * 2);
+            }
+            readEnds[size] = end;
+            locations[size] = location;
+            libraryIds[size] = end.getLibraryId();
+            ++size;
+            if (null != index && index.length < size * 2) rebuildIndex();
+            else if (null != index) addToIndex(size - 1);
+            else if (size >= MIN_SIZE_TO_INDEX) rebuildIndex();
         }
     }
 
     /** The number of records in this set */
-    public int size() { return physicalLocations.size(); }
+    public int size() { return size; }
 
     /** Removes the end from this set, if present */
     public void remove(final ReadEndsForMateCigar end) {
-        final PhysicalLocationForMateCigar location = new PhysicalLocationForMateCigar(end);
-        if (physicalLocations.contains(location)) {
-            readEnds.remove(end);
-            physicalLocations.remove(location);
+        final int i = indexOf(location(end), end.getLibraryId());
+        if (0 <= i) {
+            System.arraycopy(readEnds, i + 1, readEnds, i, size - i - 1);
+            System.arraycopy(locations, i + 1, locations, i, size - i - 1);
+            System.arraycopy(libraryIds, i + 1, libraryIds, i, size - i - 1);
+            readEnds[--size] = null;
+            if (null != index) rebuildIndex();
         }
     }
 
     /** Gets the set of read ends */
-    public Set<ReadEnds> getReadEnds() { return this.readEnds; }
+    public Set<ReadEnds> getReadEnds() { return this.readEndsView; }
 
     /** Replaces a given end with the other end.  This ensures that that current is in this set */
     public void replace(final ReadEndsForMateCigar current, final ReadEndsForMateCigar other) {
-        final PhysicalLocationForMateCigar location = new PhysicalLocationForMateCigar(current);
-        if (!physicalLocations.contains(location)) {
+        if (indexOf(location(current), current.getLibraryId()) < 0) {
             throw new PicardException("Trying to replace something not in the set");
         }
         this.remove(current);
         this.add(other);
     }
+
+    /** Returns the position of the end with the given location, or -1 if there is none. */
+    private int indexOf(final long location, final short libraryId) {
+        if (null == index) {
+            for (int i = 0; i < size; ++i) {
+                if (locations[i] == location && libraryIds[i] == libraryId) return i;
+            }
+            return -1;
+        }
+        for (int slot = slot(location); ; slot = (slot + 1) & (index.length - 1)) {
+            final int i = index[slot] - 1;
+            if (i < 0) return -1;
+            if (locations[i] == location && libraryIds[i] == libraryId) return i;
+        }
+    }
+
+    private int slot(final long location) {
+        final long hash = location * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (index.length - 1);
+    }
+
+    private void addToIndex(final int i) {
+        int slot = slot(locations[i]);
+        while (index[slot] != 0) slot = (slot + 1) & (index.length - 1);
+        index[slot] = i + 1;
+    }
+
+    private void rebuildIndex() {
+        index = new int[Integer.highestOneBit(Math.max(size, MIN_SIZE_TO_INDEX) * 2) * 2];
+        for (int i = 0; i < size; ++i) addToIndex(i);
+    }
 }
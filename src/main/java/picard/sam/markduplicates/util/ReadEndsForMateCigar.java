@@ -101,7 +101,7 @@ public class ReadEndsForMateCigar extends ReadEnds {
         }
 
         // Fill in the location information for optical duplicates
-        if (opticalDuplicateFinder.addLocationInformation(record.getReadName(), this)) {
+        if (opticalDuplicateFinder.addLocationInformation(record, this)) {
             // calculate the RG number (nth in list)
             // NB: could this be faster if we used a hash?
             this.readGroup = 0;
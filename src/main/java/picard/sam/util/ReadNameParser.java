@@ -1,5 +1,7 @@
 package picard.sam.util;
 
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTagUtil;
 import htsjdk.samtools.util.Log;
 
 import java.util.regex.Matcher;
@@ -36,6 +38,13 @@ public class ReadNameParser {
 
     private final Log log;
 
+    /** The binary tags of the integer attributes holding the tile, x and y of a read, or null to always parse the read name. */
+    private short[] locationTags = null;
+
+    /** The last read name whose location was parsed, and that location, since records with the same name often come together. */
+    private String lastReadName = null;
+    private final int[] lastLocationFields = new int[3];
+
     /**
      * Creates are read name parser using the default read name regex and optical duplicate distance.   See {@link #DEFAULT_READ_NAME_REGEX}
      * for an explanation on how the read name is parsed.
@@ -64,6 +73,47 @@ public class ReadNameParser {
         this.log = log;
     }
 
+    /**
+     * Sets the integer tags from which to take the tile, x and y of a read, in preference to parsing its read name, for example
+     * where they have been parsed out of the read names once and stored when the reads were converted to SAM.  Reads that do not
+     * have all three tags still have their read names parsed.  Tags are not used if the read name regex is null.
+     *
+     * @param tileTag the tag holding the tile, or null to always parse the read name
+     * @param xTag the tag holding the x coordinate
+     * @param yTag the tag holding the y coordinate
+     */
+    public void setLocationTags(final String tileTag, final String xTag, final String yTag) {
+        if (tileTag == null) {
+            this.locationTags = null;
+        } else {
+            final SAMTagUtil tagUtil = SAMTagUtil.getSingleton();
+            this.locationTags = new short[]{tagUtil.makeBinaryTag(tileTag), tagUtil.makeBinaryTag(xTag), tagUtil.makeBinaryTag(yTag)};
+        }
+    }
+
+    /**
+     * Method used to extract tile/x/y from the record, either from its location tags if they have been set and are all present
+     * or else from its read name, and add it to the PhysicalLocation so that it can be used later to determine optical duplication
+     *
+     * @param record the record of the read/cluster
+     * @param loc the object to add tile/x/y to
+     * @return true if the record contained the information in parsable form, false otherwise
+     */
+    public boolean addLocationInformation(final SAMRecord record, final PhysicalLocation loc) {
+        if (this.locationTags != null && this.readNameRegex != null) {
+            final Object tile = record.getAttribute(this.locationTags[0]);
+            final Object x = record.getAttribute(this.locationTags[1]);
+            final Object y = record.getAttribute(this.locationTags[2]);
+            if (tile instanceof Number && x instanceof Number && y instanceof Number) {
+                loc.setTile(((Number) tile).shortValue());
+                loc.setX(((Number) x).intValue());
+                loc.setY(((Number) y).intValue());
+                return true;
+            }
+        }
+        return addLocationInformation(record.getReadName(), loc);
+    }
+
     /**
      * Method used to extract tile/x/y from the read name and add it to the PhysicalLocationShort so that it
      * can be used later to determine optical duplication
@@ -73,10 +123,43 @@ public class ReadNameParser {
      * @return true if the read name contained the information in parsable form, false otherwise
      */
     public boolean addLocationInformation(final String readName, final PhysicalLocation loc) {
+        if (this.readNameRegex != null && sameReadName(readName, this.lastReadName)) {
+            setLocation(loc, this.lastLocationFields);
+            return true;
+        }
+        if (!parseLocation(readName, this.tmpLocationFields)) return false;
+
+        setLocation(loc, this.tmpLocationFields);
+        this.lastReadName = readName;
+        System.arraycopy(this.tmpLocationFields, 0, this.lastLocationFields, 0, 3);
+        return true;
+    }
+
+    private static void setLocation(final PhysicalLocation loc, final int[] locationFields) {
+        loc.setTile((short) locationFields[0]);
+        loc.setX(locationFields[1]);
+        loc.setY(locationFields[2]);
+    }
+
+    /**
+     * Compares two read names from the end, where the x and y coordinates are, so that names that differ are usually told apart
+     * after a character or two.
+     */
+    private static boolean sameReadName(final String readName, final String other) {
+        if (readName == other) return true;
+        if (other == null || readName.length() != other.length()) return false;
+        for (int i = readName.length() - 1; 0 <= i; --i) {
+            if (readName.charAt(i) != other.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Parses the tile, x and y out of the read name into locationFields, returning false if they could not be parsed. */
+    private boolean parseLocation(final String readName, final int[] locationFields) {
         try {
             // Optimized version if using the default read name regex (== used on purpose):
             if (this.readNameRegex == ReadNameParser.DEFAULT_READ_NAME_REGEX) {
-                final int fields = getLastThreeFields(readName, ':', tmpLocationFields);
+                final int fields = getLastThreeFields(readName, ':', locationFields);
                 if (!(fields == 5 || fields == 7)) {
                     if (null != log && !this.warnedAboutRegexNotMatching) {
                         this.log.warn(String.format("Default READ_NAME_REGEX '%s' did not match read name '%s'.  " +
@@ -87,9 +170,6 @@ public class ReadNameParser {
                     }
                     return false;
                 }
-                loc.setTile((short) tmpLocationFields[0]);
-                loc.setX(tmpLocationFields[1]);
-                loc.setY(tmpLocationFields[2]);
                 return true;
             } else if (this.readNameRegex == null) {
                 return false;
@@ -99,9 +179,9 @@ public class ReadNameParser {
 
                 final Matcher m = this.readNamePattern.matcher(readName);
                 if (m.matches()) {
-                    loc.setTile((short) Integer.parseInt(m.group(1)));
-                    loc.setX(Integer.parseInt(m.group(2)));
-                    loc.setY(Integer.parseInt(m.group(3)));
+                    locationFields[0] = Integer.parseInt(m.group(1));
+                    locationFields[1] = Integer.parseInt(m.group(2));
+                    locationFields[2] = Integer.parseInt(m.group(3));
                     return true;
                 } else {
                     if (null != log && !this.warnedAboutRegexNotMatching) {
@@ -139,7 +219,7 @@ public class ReadNameParser {
         for (i = readName.length() - 1; 0 <= i && 0 <= tokensIdx; i--) {
             if (readName.charAt(i) == delim || 0 == i) {
                 numFields++;
-                tokens[tokensIdx] = rapidParseInt(readName.substring((0 == i) ? 0 : (i+1), endIdx));
+                tokens[tokensIdx] = rapidParseInt(readName, (0 == i) ? 0 : (i+1), endIdx);
                 tokensIdx--;
                 endIdx = i;
             }
@@ -165,18 +245,25 @@ public class ReadNameParser {
      * @throws NumberFormatException if the String does not start with an optional - followed by at least on digit
      */
     public static int rapidParseInt(final String input) throws NumberFormatException {
-        final int len = input.length();
+        return rapidParseInt(input, 0, input.length());
+    }
+
+    /**
+     * As {@link #rapidParseInt(String)}, but parses the characters of the input from start (inclusive) to end (exclusive) in place
+     * rather than needing them to be copied out into their own String.
+     */
+    private static int rapidParseInt(final String input, final int start, final int end) throws NumberFormatException {
         int val = 0;
-        int i = 0;
+        int i = start;
         boolean isNegative = false;
 
-        if (0 < len && '-' == input.charAt(0)) {
-            i = 1;
+        if (start < end && '-' == input.charAt(start)) {
+            i = start + 1;
             isNegative = true;
         }
 
         boolean hasDigits = false;
-        for (; i < len; ++i) {
+        for (; i < end; ++i) {
             final char ch = input.charAt(i);
             if (Character.isDigit(ch)) {
                 val = (val * 10) + (ch - 48);
@@ -186,7 +273,7 @@ public class ReadNameParser {
             }
         }
 
-        if (!hasDigits) throw new NumberFormatException("String '" + input + "' did not start with a parsable number.");
+        if (!hasDigits) throw new NumberFormatException("String '" + input.substring(start, end) + "' did not start with a parsable number.");
         if (isNegative) val = -val;
         return val;
     }
@@ -99,12 +99,13 @@ public class AsyncIterator<T> implements CloseableIterator<T> {
 
     /**
      * Stops the thread and then calls synchronouslyClose() to allow implementation to do any one time clean up.
+     * Closing an iterator that is already closed does nothing, so that a consumer that closes the iterators it has
+     * exhausted and the owner of the iterators may both close them.
      */
     public void close() {
         checkAndRethrow();
 
-        assertOpen();
-        this.isClosed.set(true);
+        if (!this.isClosed.compareAndSet(false, true)) return;
 
         try { this.reader.join(); }
         catch (InterruptedException ie) { throw new RuntimeException("Interrupted waiting on reader thread.", ie); }
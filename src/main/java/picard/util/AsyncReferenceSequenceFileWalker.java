@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.CloserUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Wrapper around a ReferenceSequenceFileWalker that, whenever a sequence is requested, starts loading the next sequence
+ * in a separate thread, so that a caller walking through the reference in order does not wait at each change of contig.
+ * As with ReferenceSequenceFileWalker, sequences must be requested in non-decreasing order of index.
+ *
+ * This costs memory: up to two whole sequences are held at a time, the one last requested and the one after it, which is
+ * a sequence more than ReferenceSequenceFileWalker holds.  When a caller skips past the sequence being loaded, that
+ * sequence is abandoned, and is dropped as soon as any load of it already under way finishes.
+ */
+public class AsyncReferenceSequenceFileWalker implements Closeable {
+    private static volatile int threadsCreated = 0; // Just used for thread naming.
+
+    private final ReferenceSequenceFileWalker walker;
+    private final SAMSequenceDictionary dictionary;
+    private final ExecutorService loader;
+
+    private ReferenceSequence current = null;
+    private int nextIndex = -1;
+    private Future<ReferenceSequence> next = null;
+
+    public AsyncReferenceSequenceFileWalker(final File file) {
+        this.walker = new ReferenceSequenceFileWalker(file);
+        this.dictionary = walker.getSequenceDictionary();
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "AsyncReferenceSequenceFileWalker" + threadsCreated++);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public SAMSequenceDictionary getSequenceDictionary() { return dictionary; }
+
+    /** Returns the sequence with the given index, which must be no less than that of the sequence last returned. */
+    public ReferenceSequence get(final int sequenceIndex) {
+        if (current != null) {
+            if (current.getContigIndex() == sequenceIndex) return current;
+            if (current.getContigIndex() > sequenceIndex) {
+                throw new SAMException("Requesting earlier reference sequence: " + sequenceIndex + " < " + current.getContigIndex());
+            }
+        }
+
+        final Future<ReferenceSequence> sequence;
+        if (next != null && nextIndex == sequenceIndex) {
+            sequence = next;
+        } else {
+            // The sequence being loaded is not wanted; it is not loaded if not yet started, and not kept if it is
+            if (next != null) next.cancel(false);
+            sequence = load(sequenceIndex);
+        }
+        current = null;
+        next = null;
+        current = await(sequence);
+
+        if (dictionary == null || sequenceIndex + 1 < dictionary.size()) {
+            nextIndex = sequenceIndex + 1;
+            next = load(nextIndex);
+        }
+        return current;
+    }
+
+    /** Queues the loading of the given sequence behind any already queued; the walker is only ever used by the loading thread. */
+    private Future<ReferenceSequence> load(final int sequenceIndex) {
+        return loader.submit(() -> walker.get(sequenceIndex));
+    }
+
+    /** Waits for the given sequence to be loaded, rethrowing as an Error or RuntimeException anything thrown while loading it. */
+    private static ReferenceSequence await(final Future<ReferenceSequence> sequence) {
+        try {
+            return sequence.get();
+        } catch (final InterruptedException ie) {
+            throw new RuntimeException("Interrupted waiting for reference sequence.", ie);
+        } catch (final ExecutionException ee) {
+            final Throwable t = ee.getCause();
+            if (t instanceof Error) throw (Error) t;
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Abandons any sequence not yet requested and closes the underlying file once any load under way has finished,
+     * without waiting for it to finish.
+     */
+    public void close() throws IOException {
+        if (next != null) next.cancel(false);
+        next = null;
+        current = null;
+        loader.execute(() -> CloserUtil.close(walker));
+        loader.shutdown();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable set of non-negative positions, stored in the manner of a roaring bitmap: the positions are divided into
+ * containers of 65536 by their upper 16 bits, and each container that holds any positions is kept either as a sorted
+ * array of the lower 16 bits of its positions, when it has few, or as a bitmap of 8kb, when it has many.  Sparse sets
+ * thus take two bytes a position, and dense ones an eighth of a byte, rather than the eighth of a byte for every
+ * position up to the largest that a BitSet takes.
+ *
+ * The containers are held in a ByteBuffer that is only ever read with absolute gets, so one CompactBitSet may be
+ * shared by any number of threads, and a set written to a file may be memory mapped back rather than read.
+ */
+final class CompactBitSet {
+    /** The most positions a container holds as an array; beyond this a bitmap is smaller. */
+    static final int MAX_ARRAY_CARDINALITY = 4096;
+    private static final int CONTAINER_BITS = 16;
+    private static final int BITMAP_BYTES = (1 << CONTAINER_BITS) / 8;
+
+    /** The upper 16 bits of the positions in each container, in ascending order. */
+    private final int[] keys;
+    /** The number of positions in each container. */
+    private final int[] cardinalities;
+    /** The offset of each container in data. */
+    private final int[] offsets;
+    private final ByteBuffer data;
+
+    private CompactBitSet(final int[] keys, final int[] cardinalities, final int[] offsets, final ByteBuffer data) {
+        this.keys = keys;
+        this.cardinalities = cardinalities;
+        this.offsets = offsets;
+        this.data = data;
+    }
+
+    /** Makes a CompactBitSet holding the positions set in the given BitSet. */
+    static CompactBitSet fromBitSet(final BitSet bits) {
+        final Builder builder = new Builder();
+        for (int position = bits.nextSetBit(0); position >= 0; position = bits.nextSetBit(position + 1)) {
+            builder.add(position);
+            if (position == Integer.MAX_VALUE) break;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects positions, in any order, straight into the containers of a CompactBitSet, so that building a set never
+     * takes the eighth of a byte for every position up to the largest that a BitSet would.  Each container collects the
+     * lower 16 bits of its positions in an array, which is sorted and rid of repeats whenever it fills, until it holds
+     * more positions than an array container may, and in a bitmap from then on.
+     */
+    static final class Builder {
+        private final Map<Integer, ContainerBuilder> containers = new HashMap<>();
+
+        /** Adds the given non-negative position to the set. */
+        void add(final int position) {
+            if (position < 0) throw new IllegalArgumentException("Negative position " + position);
+            final int key = position >>> CONTAINER_BITS;
+            ContainerBuilder container = containers.get(key);
+            if (container == null) {
+                container = new ContainerBuilder();
+                containers.put(key, container);
+            }
+            container.add((char) (position & ((1 << CONTAINER_BITS) - 1)));
+        }
+
+        /** Adds every position from start to end, inclusive, to the set. */
+        void add(final int start, final int end) {
+            for (int position = start; position <= end; position++) add(position);
+        }
+
+        /** Makes a CompactBitSet holding the positions added so far. */
+        CompactBitSet build() {
+            final int[] keys = new int[containers.size()];
+            int used = 0;
+            for (final int key : containers.keySet()) keys[used++] = key;
+            Arrays.sort(keys);
+
+            final int[] cardinalities = new int[keys.length];
+            final int[] offsets = new int[keys.length];
+            int size = 0;
+            for (int i = 0; i < keys.length; i++) {
+                cardinalities[i] = containers.get(keys[i]).cardinality();
+                offsets[i] = size;
+                size += containerBytes(cardinalities[i]);
+            }
+
+            final ByteBuffer data = ByteBuffer.allocate(size);
+            for (int i = 0; i < keys.length; i++) {
+                containers.get(keys[i]).write(data, offsets[i], cardinalities[i]);
+            }
+            return new CompactBitSet(keys, cardinalities, offsets, data);
+        }
+    }
+
+    /** The positions of one container while a set is being built, as described for Builder. */
+    private static final class ContainerBuilder {
+        private char[] lows = new char[16];
+        private int size = 0;
+        private long[] bitmap = null;
+
+        void add(final char low) {
+            if (bitmap != null) {
+                bitmap[low >>> 6] |= 1L << low;
+                return;
+            }
+            if (size > 0 && lows[size - 1] == low) return;
+            if (size == lows.length) {
+                sortAndRemoveRepeats();
+                if (size == MAX_ARRAY_CARDINALITY) {
+                    bitmap = new long[BITMAP_BYTES / 8];
+                    for (int i = 0; i < size; i++) bitmap[lows[i] >>> 6] |= 1L << lows[i];
+                    lows = null;
+                    bitmap[low >>> 6] |= 1L << low;
+                    return;
+                }
+                if (size == lows.length) lows = Arrays.copyOf(lows, Math.min(2 * lows.length, MAX_ARRAY_CARDINALITY));
+            }
+            lows[size++] = low;
+        }
+
+        private void sortAndRemoveRepeats() {
+            Arrays.sort(lows, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || lows[i] != lows[distinct - 1]) lows[distinct++] = lows[i];
+            }
+            size = distinct;
+        }
+
+        int cardinality() {
+            if (bitmap == null) {
+                sortAndRemoveRepeats();
+                return size;
+            }
+            int cardinality = 0;
+            for (final long word : bitmap) cardinality += Long.bitCount(word);
+            return cardinality;
+        }
+
+        /** Writes the container at the given offset of data, as an array or a bitmap as its cardinality calls for. */
+        void write(final ByteBuffer data, final int offset, final int cardinality) {
+            if (cardinality > MAX_ARRAY_CARDINALITY) {
+                for (int word = 0; word < bitmap.length; word++) data.putLong(offset + 8 * word, bitmap[word]);
+            } else if (bitmap == null) {
+                for (int i = 0; i < size; i++) data.putChar(offset + 2 * i, lows[i]);
+            } else {
+                // A bitmap made when the array was full may have taken only a repeat
+                int at = offset;
+                for (int word = 0; word < bitmap.length; word++) {
+                    for (long bits = bitmap[word]; bits != 0; bits &= bits - 1) {
+                        data.putChar(at, (char) (64 * word + Long.numberOfTrailingZeros(bits)));
+                        at += 2;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int containerBytes(final int cardinality) {
+        return cardinality <= MAX_ARRAY_CARDINALITY ? 2 * cardinality : BITMAP_BYTES;
+    }
+
+    /** Returns true if the given position is in the set. */
+    boolean get(final int position) {
+        if (position < 0) return false;
+        final int container = Arrays.binarySearch(keys, position >>> CONTAINER_BITS);
+        if (container < 0) return false;
+
+        final int low = position & ((1 << CONTAINER_BITS) - 1);
+        final int offset = offsets[container];
+        final int cardinality = cardinalities[container];
+        if (cardinality > MAX_ARRAY_CARDINALITY) {
+            return (data.getLong(offset + 8 * (low >>> 6)) & (1L << low)) != 0;
+        }
+        int lowIndex = 0, highIndex = cardinality - 1;
+        while (lowIndex <= highIndex) {
+            final int mid = (lowIndex + highIndex) >>> 1;
+            final char value = data.getChar(offset + 2 * mid);
+            if (value < low) lowIndex = mid + 1;
+            else if (value > low) highIndex = mid - 1;
+            else return true;
+        }
+        return false;
+    }
+
+    /** Writes the set, to be read back by read(). */
+    void write(final DataOutput out) throws IOException {
+        out.writeInt(keys.length);
+        out.writeInt(data.capacity());
+        final ByteBuffer directory = ByteBuffer.allocate(12 * keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            directory.putInt(keys[i]).putInt(cardinalities[i]).putInt(offsets[i]);
+        }
+        out.write(directory.array());
+        final byte[] bytes = new byte[data.capacity()];
+        ((ByteBuffer) data.duplicate().clear()).get(bytes);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a set written by write() from the current position of the given file, leaving the file positioned after
+     * it.  The containers are memory mapped, not read.
+     */
+    static CompactBitSet read(final RandomAccessFile file) throws IOException {
+        final int containerCount = file.readInt();
+        final int dataBytes = file.readInt();
+        if (containerCount < 0 || dataBytes < 0) throw new IOException("Invalid bit set at byte " + (file.getFilePointer() - 8) + ".");
+
+        final byte[] directoryBytes = new byte[12 * containerCount];
+        file.readFully(directoryBytes);
+        final ByteBuffer directory = ByteBuffer.wrap(directoryBytes);
+        final int[] keys = new int[containerCount];
+        final int[] cardinalities = new int[containerCount];
+        final int[] offsets = new int[containerCount];
+        for (int i = 0; i < containerCount; i++) {
+            keys[i] = directory.getInt();
+            cardinalities[i] = directory.getInt();
+            offsets[i] = directory.getInt();
+        }
+
+        final long dataStart = file.getFilePointer();
+        final ByteBuffer data = file.getChannel().map(FileChannel.MapMode.READ_ONLY, dataStart, dataBytes);
+        file.seek(dataStart + dataBytes);
+        return new CompactBitSet(keys, cardinalities, offsets, data);
+    }
+}
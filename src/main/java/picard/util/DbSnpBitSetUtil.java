@@ -26,26 +26,49 @@ package picard.util;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IntervalList;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
+import picard.PicardException;
 import picard.vcf.ByIntervalListVariantContextIterator;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.util.BitSet;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * Utility class to use with DbSnp files to determine is a locus is
  * a dbSnp site.
+ *
+ * The sites of each sequence are held in a CompactBitSet, which takes much less memory than a BitSet for the sparse
+ * sites of dbSNP, and are collected straight into one as the dbSNP file is read.  If given a cache directory, the bit
+ * sets are written there the first time a dbSNP file is loaded, in a file named for the dbSNP file, the sequence
+ * dictionary and the variant types loaded, and later loads of the same dbSNP file, by this or any other process,
+ * memory map that file rather than reading the dbSNP file again.
  */
 public class DbSnpBitSetUtil {
+    private static final Log log = Log.getInstance(DbSnpBitSetUtil.class);
+
+    /** The extension of the files in which bit sets are cached. */
+    public static final String CACHE_EXTENSION = ".dbsnp_bitsets";
+    private static final int CACHE_MAGIC_NUMBER = 0x44425342; // "DBSB"
+    private static final int CACHE_FORMAT_VERSION = 1;
 
-    private final Map<String, BitSet> sequenceToBitSet = new HashMap<>();
+    private final Map<String, CompactBitSet> sequenceToBitSet = new HashMap<>();
 
     /** Little tuple class to contain one bitset for SNPs and another for Indels. */
     public static class DbSnpBitSets {
@@ -78,7 +101,6 @@ public class DbSnpBitSetUtil {
      *
      * @param dbSnpFile in VCF format.
      * @param sequenceDictionary Optionally, a sequence dictionary corresponding to the dbSnp file, else null.
-     * If present, BitSets will be allocated more efficiently because the maximum size will be known.
      * @param variantsToMatch what types of variants to load.
      * @param intervals an interval list specifying the regions to load, or null, if we are return all dbSNP sites.
      */
@@ -86,11 +108,25 @@ public class DbSnpBitSetUtil {
                            final SAMSequenceDictionary sequenceDictionary,
                            final Collection<VariantType> variantsToMatch,
                            final IntervalList intervals) {
+        this(dbSnpFile, sequenceDictionary, variantsToMatch, intervals, null);
+    }
+
+    /**
+     * Constructor that loads the bit set from, or saves it to, the given cache directory.
+     *
+     * @param cacheDirectory a directory in which to cache the bit set, or null to always read the dbSNP file.  When
+     * the bit set is cached, all the sites of the given types are loaded, whatever the intervals.
+     */
+    public DbSnpBitSetUtil(final File dbSnpFile,
+                           final SAMSequenceDictionary sequenceDictionary,
+                           final Collection<VariantType> variantsToMatch,
+                           final IntervalList intervals,
+                           final File cacheDirectory) {
 
         if (dbSnpFile == null) throw new IllegalArgumentException("null dbSnpFile");
-        final Map<DbSnpBitSetUtil, Set<VariantType>> tmp = new HashMap<>();
+        final Map<DbSnpBitSetUtil, Set<VariantType>> tmp = new LinkedHashMap<>();
         tmp.put(this, EnumSet.copyOf(variantsToMatch));
-        loadVcf(dbSnpFile, sequenceDictionary, tmp, intervals);
+        load(dbSnpFile, sequenceDictionary, tmp, intervals, cacheDirectory);
     }
 
     /** Factory method to create both a SNP bitmask and an indel bitmask in a single pass of the VCF. */
@@ -104,18 +140,122 @@ public class DbSnpBitSetUtil {
     public static DbSnpBitSets createSnpAndIndelBitSets(final File dbSnpFile,
                                                         final SAMSequenceDictionary sequenceDictionary,
                                                         final IntervalList intervals) {
+        return createSnpAndIndelBitSets(dbSnpFile, sequenceDictionary, intervals, null);
+    }
+
+    /** Factory method to create both a SNP bitmask and an indel bitmask in a single pass of the VCF, or to load them
+     * from the given cache directory if they have been cached there.  When the bit sets are cached, all sites are
+     * loaded, whatever the intervals. */
+    public static DbSnpBitSets createSnpAndIndelBitSets(final File dbSnpFile,
+                                                        final SAMSequenceDictionary sequenceDictionary,
+                                                        final IntervalList intervals,
+                                                        final File cacheDirectory) {
 
         final DbSnpBitSets sets = new DbSnpBitSets();
         sets.snps   = new DbSnpBitSetUtil();
         sets.indels = new DbSnpBitSetUtil();
 
-        final Map<DbSnpBitSetUtil, Set<VariantType>> map = new HashMap<>();
+        final Map<DbSnpBitSetUtil, Set<VariantType>> map = new LinkedHashMap<>();
         map.put(sets.snps,   EnumSet.of(VariantType.SNP));
         map.put(sets.indels, EnumSet.of(VariantType.insertion, VariantType.deletion));
-        loadVcf(dbSnpFile, sequenceDictionary, map, intervals);
+        load(dbSnpFile, sequenceDictionary, map, intervals, cacheDirectory);
         return sets;
     }
 
+    /** Private helper method to load one or more bit sets from the cache if they are there, and else from the VCF. */
+    private static void load(final File dbSnpFile,
+                             final SAMSequenceDictionary sequenceDictionary,
+                             final Map<DbSnpBitSetUtil, Set<VariantType>> bitSetsToVariantTypes,
+                             final IntervalList intervals,
+                             final File cacheDirectory) {
+        if (cacheDirectory == null) {
+            loadVcf(dbSnpFile, sequenceDictionary, bitSetsToVariantTypes, intervals);
+            return;
+        }
+
+        final String key = cacheKey(dbSnpFile, sequenceDictionary, bitSetsToVariantTypes.values());
+        final File cacheFile = new File(cacheDirectory, dbSnpFile.getName() + "." + key + CACHE_EXTENSION);
+        if (cacheFile.exists()) {
+            log.info("Loading dbSNP sites from " + cacheFile);
+            readCache(cacheFile, key, bitSetsToVariantTypes.keySet());
+        } else {
+            loadVcf(dbSnpFile, sequenceDictionary, bitSetsToVariantTypes, null);
+            writeCache(cacheFile, key, bitSetsToVariantTypes.keySet());
+        }
+    }
+
+    /**
+     * Returns the MD5 of the dbSNP file's path, size and modification time, of the sequence dictionary and of the
+     * variant types of each bit set, so that a cached file is used only for the same dbSNP file loaded the same way.
+     */
+    private static String cacheKey(final File dbSnpFile,
+                                   final SAMSequenceDictionary sequenceDictionary,
+                                   final Collection<Set<VariantType>> variantTypes) {
+        final String description = dbSnpFile.getAbsolutePath() + "\t" + dbSnpFile.length() + "\t" + dbSnpFile.lastModified() + "\t" +
+                (sequenceDictionary == null ? "no dictionary" : sequenceDictionary.md5()) + "\t" + variantTypes;
+        try {
+            return SequenceUtil.calculateMD5String(description.getBytes());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new PicardException("MD5 algorithm not found", e);
+        }
+    }
+
+    /**
+     * Writes the bit sets to the cache file, by way of a temporary file in the same directory so that no other process
+     * ever reads a partly written one.  Failing to write the cache is not an error, since the bit sets are loaded.
+     */
+    private static void writeCache(final File cacheFile, final String key, final Collection<DbSnpBitSetUtil> bitSets) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(cacheFile.getName() + ".", ".tmp", cacheFile.getParentFile());
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(CACHE_MAGIC_NUMBER);
+                out.writeInt(CACHE_FORMAT_VERSION);
+                out.writeUTF(key);
+                out.writeInt(bitSets.size());
+                for (final DbSnpBitSetUtil bitSet : bitSets) {
+                    out.writeInt(bitSet.sequenceToBitSet.size());
+                    for (final Map.Entry<String, CompactBitSet> entry : bitSet.sequenceToBitSet.entrySet()) {
+                        out.writeUTF(entry.getKey());
+                        entry.getValue().write(out);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            log.info("Cached dbSNP sites in " + cacheFile);
+        } catch (final IOException e) {
+            log.warn(e, "Could not cache dbSNP sites in " + cacheFile);
+        } finally {
+            if (tmp != null && tmp.exists() && !tmp.delete()) log.warn("Could not delete " + tmp);
+        }
+    }
+
+    /** Reads bit sets written by writeCache into the given, empty, bit sets. */
+    private static void readCache(final File cacheFile, final String key, final Collection<DbSnpBitSetUtil> bitSets) {
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(cacheFile, "r");
+            if (in.readInt() != CACHE_MAGIC_NUMBER || in.readInt() != CACHE_FORMAT_VERSION ||
+                    !in.readUTF().equals(key) || in.readInt() != bitSets.size()) {
+                throw new PicardException("Cached dbSNP sites in " + cacheFile + " are not those expected; delete the file to have it rebuilt.");
+            }
+            for (final DbSnpBitSetUtil bitSet : bitSets) {
+                final int sequences = in.readInt();
+                for (int i = 0; i < sequences; i++) {
+                    final String sequenceName = in.readUTF();
+                    bitSet.sequenceToBitSet.put(sequenceName, CompactBitSet.read(in));
+                }
+            }
+        } catch (final IOException e) {
+            throw new PicardException("Could not read cached dbSNP sites from " + cacheFile + "; delete the file to have it rebuilt.", e);
+        } finally {
+            CloserUtil.close(in);
+        }
+    }
+
     /** Private helper method to read through the VCF and create one or more bit sets. */
     private static void loadVcf(final File dbSnpFile,
                                 final SAMSequenceDictionary sequenceDictionary,
@@ -131,32 +271,39 @@ public class DbSnpBitSetUtil {
             variantIterator = variantReader.iterator();
         }
 
+        // The sites are collected straight into the containers of CompactBitSets, never into a BitSet of each whole sequence
+        final Map<DbSnpBitSetUtil, Map<String, CompactBitSet.Builder>> loading = new HashMap<>();
+        for (final DbSnpBitSetUtil bitset : bitSetsToVariantTypes.keySet()) loading.put(bitset, new HashMap<>());
+
         while (variantIterator.hasNext()) {
             final VariantContext kv = variantIterator.next();
 
             for (final Map.Entry<DbSnpBitSetUtil, Set<VariantType>> tuple : bitSetsToVariantTypes.entrySet()) {
-                final DbSnpBitSetUtil bitset            = tuple.getKey();
+                final Map<String, CompactBitSet.Builder> sequenceToBits = loading.get(tuple.getKey());
                 final Set<VariantType> variantsToMatch  = tuple.getValue();
 
-                BitSet bits = bitset.sequenceToBitSet.get(kv.getContig());
+                CompactBitSet.Builder bits = sequenceToBits.get(kv.getContig());
                 if (bits == null) {
-                    final int nBits;
-                    if (sequenceDictionary == null) nBits = kv.getEnd() + 1;
-                    else nBits = sequenceDictionary.getSequence(kv.getContig()).getSequenceLength() + 1;
-                    bits = new BitSet(nBits);
-                    bitset.sequenceToBitSet.put(kv.getContig(), bits);
+                    bits = new CompactBitSet.Builder();
+                    sequenceToBits.put(kv.getContig(), bits);
                 }
                 if (variantsToMatch.isEmpty() ||
                         (kv.isSNP() && variantsToMatch.contains(VariantType.SNP)) ||
                         (kv.isIndel() && variantsToMatch.contains(VariantType.insertion)) ||
                         (kv.isIndel() && variantsToMatch.contains(VariantType.deletion))) {
 
-                    for (int i = kv.getStart(); i <= kv.getEnd(); i++)  bits.set(i, true);
+                    bits.add(kv.getStart(), kv.getEnd());
                 }
             }
         }
 
         CloserUtil.close(variantReader);
+
+        for (final Map.Entry<DbSnpBitSetUtil, Map<String, CompactBitSet.Builder>> entry : loading.entrySet()) {
+            for (final Map.Entry<String, CompactBitSet.Builder> sequence : entry.getValue().entrySet()) {
+                entry.getKey().sequenceToBitSet.put(sequence.getKey(), sequence.getValue().build());
+            }
+        }
     }
 
     /**
@@ -164,8 +311,7 @@ public class DbSnpBitSetUtil {
      */
     public boolean isDbSnpSite(final String sequenceName, final int pos) {
         // When we have a dbSnpFile with no sequence dictionary, this line will be necessary
-        return sequenceToBitSet.get(sequenceName) != null &&
-                pos <= sequenceToBitSet.get(sequenceName).length() &&
-                sequenceToBitSet.get(sequenceName).get(pos);
+        final CompactBitSet bits = sequenceToBitSet.get(sequenceName);
+        return bits != null && bits.get(pos);
     }
 }
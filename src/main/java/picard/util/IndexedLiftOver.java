@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.util;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.BufferedLineReader;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.OverlapDetector;
+import picard.PicardException;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+/**
+ * Lifts intervals over between genome builds as htsjdk's LiftOver does, from the same UCSC chain file, and with the same
+ * results, but finding the blocks of a chain that an interval overlaps by binary search rather than by scanning every
+ * block of the chain.  The chains of a whole chromosome have tens of thousands of blocks, and so lifting over one
+ * interval is much quicker.
+ *
+ * The chains are held in arrays that are not changed once loaded, so one IndexedLiftOver may be shared by any number of
+ * threads.
+ *
+ * See https://genome.ucsc.edu/goldenPath/help/chain.html for a description of chain files.
+ */
+public class IndexedLiftOver {
+    private static final Log log = Log.getInstance(IndexedLiftOver.class);
+    private static final Pattern SPLITTER = Pattern.compile("\\s");
+
+    /** The chains, by the interval of the source genome each covers. */
+    private final OverlapDetector<Chain> chains = new OverlapDetector<Chain>(0, 0);
+
+    /** One chain of a chain file, with the 0-based start of each block in either genome and its length in parallel arrays. */
+    private static final class Chain {
+        final int id;
+        final String toSequenceName;
+        final int toSequenceSize;
+        final boolean toOppositeStrand;
+        final int[] fromStarts;
+        final int[] toStarts;
+        final int[] lengths;
+
+        Chain(final int id, final String toSequenceName, final int toSequenceSize, final boolean toOppositeStrand,
+              final int[] fromStarts, final int[] toStarts, final int[] lengths) {
+            this.id = id;
+            this.toSequenceName = toSequenceName;
+            this.toSequenceSize = toSequenceSize;
+            this.toOppositeStrand = toOppositeStrand;
+            this.fromStarts = fromStarts;
+            this.toStarts = toStarts;
+            this.lengths = lengths;
+        }
+
+        int fromEnd(final int block) { return fromStarts[block] + lengths[block]; }
+
+        /** Returns the index of the first block that ends after the given 0-based position, or the number of blocks if none does. */
+        int firstBlockEndingAfter(final int position) {
+            int low = 0, high = fromStarts.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (fromEnd(mid) <= position) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+    }
+
+    /** Loads the chains of the given chain file, which may be gzipped. */
+    public IndexedLiftOver(final File chainFile) {
+        IOUtil.assertFileIsReadable(chainFile);
+        final BufferedLineReader reader = new BufferedLineReader(IOUtil.openFileForReading(chainFile));
+        try {
+            final IntArray fromStarts = new IntArray(), toStarts = new IntArray(), lengths = new IntArray();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) continue;
+                final String[] fields = SPLITTER.split(line);
+                if (fields.length != 13 || !fields[0].equals("chain")) {
+                    throw new PicardException("Invalid chain line at line " + reader.getLineNumber() + " of " + chainFile + ": " + line);
+                }
+                final String fromSequenceName = fields[2];
+                final String toSequenceName = fields[7];
+                final boolean toOppositeStrand = fields[9].equals("-");
+                final int fromChainStart, fromChainEnd, toSequenceSize, id;
+                int fromStart, toStart;
+                try {
+                    fromChainStart = Integer.parseInt(fields[5]);
+                    fromChainEnd = Integer.parseInt(fields[6]);
+                    toSequenceSize = Integer.parseInt(fields[8]);
+                    id = Integer.parseInt(fields[12]);
+                    fromStart = fromChainStart;
+                    toStart = Integer.parseInt(fields[10]);
+                } catch (final NumberFormatException e) {
+                    throw new PicardException("Invalid field at line " + reader.getLineNumber() + " of " + chainFile + ": " + line, e);
+                }
+
+                fromStarts.clear();
+                toStarts.clear();
+                lengths.clear();
+                boolean sawTerminalBlock = false;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    if (sawTerminalBlock) {
+                        throw new PicardException("Terminal block seen before end of chain at line " + reader.getLineNumber() + " of " + chainFile);
+                    }
+                    final String[] blockFields = SPLITTER.split(line);
+                    if (blockFields.length != 1 && blockFields.length != 3) {
+                        throw new PicardException("Block line has unexpected number of fields at line " + reader.getLineNumber() + " of " + chainFile);
+                    }
+                    sawTerminalBlock = blockFields.length == 1;
+                    final int length = Integer.parseInt(blockFields[0]);
+                    fromStarts.add(fromStart);
+                    toStarts.add(toStart);
+                    lengths.add(length);
+                    if (!sawTerminalBlock) {
+                        fromStart += length + Integer.parseInt(blockFields[1]);
+                        toStart += length + Integer.parseInt(blockFields[2]);
+                    }
+                }
+                if (!sawTerminalBlock) {
+                    throw new PicardException("Reached end of chain without seeing terminal block at line " + reader.getLineNumber() + " of " + chainFile);
+                }
+
+                final Chain chain = new Chain(id, toSequenceName, toSequenceSize, toOppositeStrand, fromStarts.toArray(), toStarts.toArray(), lengths.toArray());
+                chains.addLhs(chain, new Interval(fromSequenceName, fromChainStart + 1, fromChainEnd));
+            }
+        } finally {
+            CloserUtil.close(reader);
+        }
+    }
+
+    /** Throws if any chain lifts over to a sequence that is not in the given sequence dictionary. */
+    public void validateToSequences(final SAMSequenceDictionary sequenceDictionary) {
+        for (final Chain chain : chains.getAll()) {
+            if (sequenceDictionary.getSequence(chain.toSequenceName) == null) {
+                throw new SAMException("Sequence " + chain.toSequenceName + " from chain file is not found in sequence dictionary.");
+            }
+        }
+    }
+
+    /**
+     * Lifts the given interval over, as LiftOver.liftOver(Interval, double) does.
+     *
+     * @param interval the interval to lift over, in the source genome
+     * @param liftOverMinMatch the least fraction of the interval's bases that must lift over, between 0 and 1
+     * @return the interval in the target genome, or null if the interval lifts over by no chain or by more than one
+     */
+    public Interval liftOver(final Interval interval, final double liftOverMinMatch) {
+        if (interval.length() == 0) {
+            throw new IllegalArgumentException("Zero-length interval cannot be lifted over.  Interval: " + interval.getName());
+        }
+        // 0-based, half-open
+        final int start = interval.getStart() - 1;
+        final int end = interval.getEnd();
+        final double minMatchSize = liftOverMinMatch * interval.length();
+
+        Chain match = null;
+        int matchFirstBlock = -1, matchLastBlock = -1;
+        for (final Chain chain : chains.getOverlaps(interval)) {
+            int intersectionLength = 0;
+            final int firstBlock = chain.firstBlockEndingAfter(start);
+            int lastBlock = firstBlock;
+            for (int block = firstBlock; block < chain.fromStarts.length && chain.fromStarts[block] < end; ++block) {
+                intersectionLength += Math.min(end, chain.fromEnd(block)) - Math.max(start, chain.fromStarts[block]);
+                lastBlock = block;
+            }
+            if (intersectionLength == 0) continue;
+            if (intersectionLength >= minMatchSize) {
+                if (match != null) return null;
+                match = chain;
+                matchFirstBlock = firstBlock;
+                matchLastBlock = lastBlock;
+            } else {
+                log.info("Interval " + interval.getName() + " failed to match chain " + chain.id +
+                        " because intersection length " + intersectionLength + " < minMatchSize " + minMatchSize +
+                        " (" + (intersectionLength / (float) interval.length()) + " < " + liftOverMinMatch + ")");
+            }
+        }
+        if (match == null) return null;
+
+        int toStart = match.toStarts[matchFirstBlock] + Math.max(0, start - match.fromStarts[matchFirstBlock]);
+        int toEnd = match.toStarts[matchLastBlock] + match.lengths[matchLastBlock] - Math.max(0, match.fromEnd(matchLastBlock) - end);
+        if (toEnd <= toStart || toStart < 0) {
+            throw new SAMException("Something strange lifting over interval " + interval.getName());
+        }
+        if (match.toOppositeStrand) {
+            final int negativeStart = match.toSequenceSize - toEnd;
+            toEnd = match.toSequenceSize - toStart;
+            toStart = negativeStart;
+        }
+        final boolean negativeStrand = match.toOppositeStrand != interval.isNegativeStrand();
+        return new Interval(match.toSequenceName, toStart + 1, toEnd, negativeStrand, interval.getName());
+    }
+
+    /** A growable array of ints, for reading the blocks of a chain. */
+    private static final class IntArray {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(final int value) {
+            if (size == values.length) {
+                final int[] grown = new int[values.length * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        void clear() { size = 0; }
+
+        int[] toArray() {
+            final int[] array = new int[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
+        }
+    }
+}
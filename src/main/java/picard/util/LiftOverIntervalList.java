@@ -98,8 +98,9 @@ public class LiftOverIntervalList extends CommandLineProgram {
         IOUtil.assertFileIsReadable(CHAIN);
         IOUtil.assertFileIsWritable(OUTPUT);
 
-        final LiftOver liftOver = new LiftOver(CHAIN);
-        liftOver.setLiftOverMinMatch(MIN_LIFTOVER_PCT);
+        final IndexedLiftOver liftOver = new IndexedLiftOver(CHAIN);
+        // Only loaded if an interval fails to lift over, to say why
+        LiftOver diagnosticLiftOver = null;
 
         final IntervalList fromIntervals = IntervalList.fromFile(INPUT);
         final SAMFileHeader toHeader = SamReaderFactory.makeDefault().getFileHeader(SEQUENCE_DICTIONARY);
@@ -107,13 +108,14 @@ public class LiftOverIntervalList extends CommandLineProgram {
         final IntervalList toIntervals = new IntervalList(toHeader);
         boolean anyFailed = false;
         for (final Interval fromInterval : fromIntervals) {
-            final Interval toInterval = liftOver.liftOver(fromInterval);
+            final Interval toInterval = liftOver.liftOver(fromInterval, MIN_LIFTOVER_PCT);
             if (toInterval != null) {
                 toIntervals.add(toInterval);
             } else {
                 anyFailed = true;
                 LOG.warn("Liftover failed for ", fromInterval, "(len ", fromInterval.length(), ")");
-                final List<LiftOver.PartialLiftover> partials = liftOver.diagnosticLiftover(fromInterval);
+                if (diagnosticLiftOver == null) diagnosticLiftOver = new LiftOver(CHAIN);
+                final List<LiftOver.PartialLiftover> partials = diagnosticLiftOver.diagnosticLiftover(fromInterval);
                 for (final LiftOver.PartialLiftover partial : partials) {
                     LOG.info(partial);
                 }
@@ -64,6 +64,11 @@ public class CollectVariantCallingMetrics extends CommandLineProgram {
     @Option(doc = "Reference dbSNP file in dbSNP or VCF format.")
     public File DBSNP;
 
+    @Option(doc = "A directory in which to cache the dbSNP sites in a compact form the first time a dbSNP file is read, " +
+            "so that later runs, with the same DBSNP and sequence dictionary, load them in moments. Sites across the whole genome are cached, " +
+            "even if analysis is restricted to intervals.", optional = true)
+    public File DBSNP_CACHE_DIR;
+
     @Option(shortName = "TI", doc = "Target intervals to restrict analysis to.", optional = true)
     public File TARGET_INTERVALS;
 
@@ -89,6 +94,7 @@ public class CollectVariantCallingMetrics extends CommandLineProgram {
         IOUtil.assertFileIsReadable(DBSNP);
         if (TARGET_INTERVALS != null) IOUtil.assertFileIsReadable(TARGET_INTERVALS);
         if (SEQUENCE_DICTIONARY != null) IOUtil.assertFileIsReadable(SEQUENCE_DICTIONARY);
+        if (DBSNP_CACHE_DIR != null) IOUtil.assertDirectoryIsWritable(DBSNP_CACHE_DIR);
 
         final boolean requiresIndex = this.TARGET_INTERVALS != null || this.THREAD_COUNT > 1;
         final VCFFileReader variantReader = new VCFFileReader(INPUT, requiresIndex);
@@ -101,7 +107,7 @@ public class CollectVariantCallingMetrics extends CommandLineProgram {
         final IntervalList targetIntervals = (TARGET_INTERVALS == null) ? null : IntervalList.fromFile(TARGET_INTERVALS).uniqued();
 
         log.info("Loading dbSNP file ...");
-        final DbSnpBitSetUtil.DbSnpBitSets dbsnp = DbSnpBitSetUtil.createSnpAndIndelBitSets(DBSNP, sequenceDictionary, targetIntervals);
+        final DbSnpBitSetUtil.DbSnpBitSets dbsnp = DbSnpBitSetUtil.createSnpAndIndelBitSets(DBSNP, sequenceDictionary, targetIntervals, DBSNP_CACHE_DIR);
 
         log.info("Starting iteration of variants.");
 
@@ -18,15 +18,17 @@ import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import picard.cmdline.programgroups.VcfOrBcf;
+import picard.util.AsyncIterator;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.IllegalArgumentException;import java.lang.IllegalStateException;import java.lang.Override;import java.lang.String;import java.util.EnumSet;
+import java.lang.IllegalArgumentException;import java.lang.IllegalStateException;import java.lang.Override;import java.lang.String;import java.util.ArrayList;import java.util.EnumSet;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.LongUnaryOperator;
 
 /**
  * Simple little class that combines multiple VCFs that have exactly the same set of samples
@@ -48,8 +50,15 @@ public class GatherVcfs extends CommandLineProgram {
     @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Output VCF file.")
 	public File OUTPUT;
 
+    @Option(doc = "Option to read and decode each input file on a background thread, and to encode and write the output " +
+            "on another, when the inputs cannot be gathered by copying gzip blocks. Uses a buffer of up to " +
+            AsyncIterator.DEFAULT_QUEUE_SIZE + " records.")
+    public boolean USE_THREADING = false;
+
     private static final Log log = Log.getInstance(GatherVcfs.class);
 
+    private static final int BLOCK_SIZE = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+
     public static void main(final String[] args) {
         new GatherVcfs().instanceMainWithExit(args);
     }
@@ -76,12 +85,12 @@ public class GatherVcfs extends CommandLineProgram {
 
         if (areAllBlockCompressed(INPUT) && areAllBlockCompressed(CollectionUtil.makeList(OUTPUT))) {
             log.info("Gathering by copying gzip blocks. Will not be able to validate position non-overlap of files.");
-            if (CREATE_INDEX) log.warn("Index creation not currently supported when gathering block compressed VCFs.");
-            gatherWithBlockCopying(INPUT, OUTPUT);
+            final TabixIndexMerger indexMerger = CREATE_INDEX ? makeIndexMerger(INPUT) : null;
+            gatherWithBlockCopying(INPUT, OUTPUT, indexMerger);
         }
         else {
             log.info("Gathering by conventional means.");
-            gatherConventionally(sequenceDictionary, CREATE_INDEX, INPUT, OUTPUT);
+            gatherConventionally(sequenceDictionary, CREATE_INDEX, USE_THREADING, INPUT, OUTPUT);
         }
 
         return 0;
@@ -96,6 +105,22 @@ public class GatherVcfs extends CommandLineProgram {
         return true;
     }
 
+    /**
+     * Returns a TabixIndexMerger with which to index the output of gathering by copying blocks if every input has an up to
+     * date tabix index, or null if any does not, in which case the output cannot be indexed.
+     */
+    private static TabixIndexMerger makeIndexMerger(final List<File> input) {
+        for (final File f : input) {
+            final File index = TabixIndexMerger.getIndexFile(f);
+            if (!index.canRead() || index.lastModified() < f.lastModified()) {
+                log.warn("Cannot create an index when gathering block compressed VCFs unless every input has an up to date tabix " +
+                        "index, and " + f.getAbsolutePath() + " does not.");
+                return null;
+            }
+        }
+        return new TabixIndexMerger();
+    }
+
     /** Validates that all headers contain the same set of genotyped samples and that files are in order by position of first record. */
     private static void assertSameSamplesAndValidOrdering(final List<File> inputFiles) {
         final VCFHeader header = new VCFFileReader(inputFiles.get(0), false).getFileHeader();
@@ -137,13 +162,18 @@ public class GatherVcfs extends CommandLineProgram {
         }
     }
 
-    /** Code for gathering multiple VCFs that works regardless of input format and output format, but can be slow. */
+    /**
+     * Code for gathering multiple VCFs that works regardless of input format and output format, but can be slow. With
+     * threading, each input is read on a background thread and the output is written on another.
+     */
     private static void gatherConventionally(final SAMSequenceDictionary sequenceDictionary,
                                       final boolean createIndex,
+                                      final boolean useThreading,
                                       final List<File> inputFiles,
                                       final File outputFile) {
         final EnumSet<Options> options = EnumSet.copyOf(VariantContextWriterFactory.DEFAULT_OPTIONS);
         if (createIndex) options.add(Options.INDEX_ON_THE_FLY); else options.remove(Options.INDEX_ON_THE_FLY);
+        if (useThreading) options.add(Options.USE_ASYNC_IO);
         final VariantContextWriter out = VariantContextWriterFactory.create(outputFile, sequenceDictionary, options);
 
         final ProgressLogger progress = new ProgressLogger(log, 10000);
@@ -155,7 +185,8 @@ public class GatherVcfs extends CommandLineProgram {
         for (final File f : inputFiles) {
             log.debug("Gathering from file: ", f.getAbsolutePath());
             final VCFFileReader variantReader = new VCFFileReader(f, false);
-            final PeekableIterator<VariantContext> variantIterator = new PeekableIterator<VariantContext>(variantReader.iterator());
+            final PeekableIterator<VariantContext> variantIterator = new PeekableIterator<VariantContext>(useThreading ?
+                    VariantReaderThreading.readInBackground(variantReader, f, outputFile) : variantReader.iterator());
             final VCFHeader header = variantReader.getFileHeader();
 
             if (firstHeader == null) {
@@ -192,8 +223,11 @@ public class GatherVcfs extends CommandLineProgram {
      * most of the gzip blocks. Will decompress and parse blocks up to the one containing the end of the header in each file
      * (often the first block) and re-compress any data remaining in that block into a new block in the output file. Subsequent
      * blocks (excluding a terminator block if present) are copied directly from input to output.
+     *
+     * If an index merger is given, the tabix index of each input is added to it with its offsets moved to where the input's
+     * records were copied to, and the merged index is written alongside the output.
      */
-    private static void gatherWithBlockCopying(final List<File> vcfs, final File output) {
+    static void gatherWithBlockCopying(final List<File> vcfs, final File output, final TabixIndexMerger indexMerger) {
         try {
             final FileOutputStream out = new FileOutputStream(output);
             boolean isFirstFile = true;
@@ -201,6 +235,9 @@ public class GatherVcfs extends CommandLineProgram {
             for (final File f : vcfs) {
                 log.info("Gathering " + f.getAbsolutePath());
                 final FileInputStream in = new FileInputStream(f);
+                // Where the blocks holding the data after the header in the block the header ends in were written
+                final List<Long> rewrittenBlockStarts = new ArrayList<Long>();
+                int headerEnd = 0;
 
                 // a) It's good to check that the end of the file is valid and b) we need to know if there's a terminator block and not copy it
                 final BlockCompressedInputStream.FileTermination term = BlockCompressedInputStream.checkTermination(f);
@@ -237,9 +274,14 @@ public class GatherVcfs extends CommandLineProgram {
                         // new gzip block and then break out of the while loop
                         if (firstNonHeaderByteIndex >= 0) {
                             final BlockCompressedOutputStream blockOut = new BlockCompressedOutputStream(out, null);
-                            blockOut.write(blockContents, firstNonHeaderByteIndex, blockContents.length - firstNonHeaderByteIndex);
-                            blockOut.flush();
+                            // Write a block at a time so that where each block starts is known
+                            for (int start = firstNonHeaderByteIndex; start < blockContents.length; start += BLOCK_SIZE) {
+                                rewrittenBlockStarts.add(out.getChannel().position());
+                                blockOut.write(blockContents, start, Math.min(BLOCK_SIZE, blockContents.length - start));
+                                blockOut.flush();
+                            }
                             // Don't close blockOut because closing underlying stream would break everything
+                            headerEnd = firstNonHeaderByteIndex;
                             break;
                         }
                     }
@@ -252,6 +294,11 @@ public class GatherVcfs extends CommandLineProgram {
                         BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length : 0;
                 final long bytesToWrite = length - skipLast - currentPos;
 
+                if (indexMerger != null) {
+                    indexMerger.addIndex(TabixIndexMerger.getIndexFile(f),
+                            offsetShift(currentPos, out.getChannel().position(), headerEnd, rewrittenBlockStarts));
+                }
+
                 IOUtil.transferByStream(in, out, bytesToWrite);
                 in.close();
                 isFirstFile = false;
@@ -260,9 +307,34 @@ public class GatherVcfs extends CommandLineProgram {
             // And lastly add the Terminator block and close up
             out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
             out.close();
+
+            if (indexMerger != null) {
+                log.info("Writing index for " + output.getAbsolutePath());
+                indexMerger.writeIndex(TabixIndexMerger.getIndexFile(output));
+            }
         }
         catch (final IOException ioe) {
             throw new RuntimeIOException(ioe);
         }
     }
+
+    /**
+     * Returns the function moving a virtual file offset in an input to where the same record is in the output of
+     * gatherWithBlockCopying().  Blocks from copyStart on were copied unchanged to outputCopyStart; records before that
+     * can only be in the block the header ends in, the data after headerEnd in which was rewritten as the given blocks.
+     */
+    private static LongUnaryOperator offsetShift(final long copyStart, final long outputCopyStart, final int headerEnd,
+                                                 final List<Long> rewrittenBlockStarts) {
+        return virtualOffset -> {
+            final long blockAddress = virtualOffset >>> 16;
+            final int offsetInBlock = (int) (virtualOffset & 0xFFFF);
+            if (blockAddress >= copyStart || rewrittenBlockStarts.isEmpty()) {
+                return ((blockAddress - copyStart + outputCopyStart) << 16) | offsetInBlock;
+            }
+
+            final int offsetInRewritten = Math.max(0, offsetInBlock - headerEnd);
+            final int block = Math.min(offsetInRewritten / BLOCK_SIZE, rewrittenBlockStarts.size() - 1);
+            return (rewrittenBlockStarts.get(block) << 16) | (offsetInRewritten - block * BLOCK_SIZE);
+        };
+    }
 }
@@ -3,8 +3,8 @@ package picard.vcf;
 import htsjdk.samtools.Defaults;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.ValidationStringency;
-import htsjdk.samtools.liftover.LiftOver;
 import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.CollectionUtil;
 import htsjdk.samtools.util.IOUtil;
@@ -18,6 +18,7 @@ import htsjdk.variant.variantcontext.*;
 import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFFilterHeaderLine;
 import htsjdk.variant.vcf.VCFHeader;
@@ -29,6 +30,7 @@ import picard.cmdline.CommandLineProgramProperties;
 import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.VcfOrBcf;
+import picard.util.IndexedLiftOver;
 
 import java.io.File;
 import java.text.DecimalFormat;
@@ -101,6 +103,10 @@ public class LiftoverVcf extends CommandLineProgram {
     @Option(doc = "Allow INFO and FORMAT in the records that are not found in the header", optional = true)
     public boolean ALLOW_MISSING_FIELDS_IN_HEADER = false;
 
+    @Option(doc = "The number of threads to decode and lift over records on.  Only a VCF, not a BCF, can be lifted over on " +
+            "more than one thread.", optional = true)
+    public int THREAD_COUNT = 1;
+
     // When a contig used in the chain is not in the reference, exit with this value instead of 0.
     protected static int EXIT_CODE_WHEN_CONTIG_NOT_IN_REFERENCE = 1;
 
@@ -149,7 +155,7 @@ public class LiftoverVcf extends CommandLineProgram {
         ////////////////////////////////////////////////////////////////////////
         // Setup the inputs
         ////////////////////////////////////////////////////////////////////////
-        final LiftOver liftOver = new LiftOver(CHAIN);
+        final IndexedLiftOver liftOver = new IndexedLiftOver(CHAIN);
         final VCFFileReader in = new VCFFileReader(INPUT, false);
 
         log.info("Loading up the target reference genome.");
@@ -200,90 +206,61 @@ public class LiftoverVcf extends CommandLineProgram {
                 TMP_DIR);
 
         ProgressLogger progress = new ProgressLogger(log, 1000000, "read");
-        // a mapping from original allele to reverse complemented allele
-        final Map<Allele, Allele> reverseComplementAlleleMap = new HashMap<Allele, Allele>(10);
 
-        for (final VariantContext ctx : in) {
-            ++total;
-            final Interval source = new Interval(ctx.getContig(), ctx.getStart(), ctx.getEnd(), false, ctx.getContig() + ":" + ctx.getStart() + "-" + ctx.getEnd());
-            final Interval target = liftOver.liftOver(source, LIFTOVER_MIN_MATCH);
-
-            // if the target is null OR (the target is reverse complemented AND the variant is an indel or mixed), then we cannot lift it over
-            if (target == null || (target.isNegativeStrand() && (ctx.isMixed() || ctx.isIndel()))) {
-                final String reason = (target == null) ? FILTER_NO_TARGET : FILTER_CANNOT_LIFTOVER_INDEL;
-                rejects.add(new VariantContextBuilder(ctx).filter(reason).make());
-                failedLiftover++;
-            } else if (!refSeqs.containsKey(target.getContig())) {
-                rejects.add(new VariantContextBuilder(ctx).filter(FILTER_NO_TARGET).make());
-                failedLiftover++;
-
-                String missingContigMessage = "Encountered a contig, " + target.getContig() + " that is not part of the target reference.";
-                if(WARN_ON_MISSING_CONTIG) {
-                    log.warn(missingContigMessage);
-                } else {
-                    log.error(missingContigMessage);
-                    return EXIT_CODE_WHEN_CONTIG_NOT_IN_REFERENCE;
-                }
-            } else {
-                // Fix the alleles if we went from positive to negative strand
-                reverseComplementAlleleMap.clear();
-                final List<Allele> alleles = new ArrayList<Allele>();
-
-                for (final Allele oldAllele : ctx.getAlleles()) {
-                    if (target.isPositiveStrand() || oldAllele.isSymbolic()) {
-                        alleles.add(oldAllele);
-                    }
-                    else {
-                        final Allele fixedAllele = Allele.create(SequenceUtil.reverseComplement(oldAllele.getBaseString()), oldAllele.isReference());
-                        alleles.add(fixedAllele);
-                        reverseComplementAlleleMap.put(oldAllele, fixedAllele);
+        final CloseableIterator<LiftedVariant> lifted;
+        if (THREAD_COUNT > 1 && !VariantContextWriterFactory.isBCFOutput(INPUT)) {
+            // Records that are rejected keep the genotypes they were read with, undecoded, so decode them here if they
+            // are to be written as BCF, rather than on this thread with a codec that a worker thread may be using
+            final boolean decodeRejected = VariantContextWriterFactory.isBCFOutput(REJECT);
+            lifted = new ParallelVariantProcessingIterator<LiftedVariant>(INPUT, () -> batch -> {
+                final List<LiftedVariant> liftedBatch = new ArrayList<LiftedVariant>(batch.size());
+                for (final VariantContext ctx : batch) {
+                    final LiftedVariant liftedVariant = liftVariant(ctx, liftOver, refSeqs);
+                    if (decodeRejected && liftedVariant.rejected != null) {
+                        final GenotypesContext genotypes = liftedVariant.rejected.getGenotypes();
+                        if (genotypes instanceof LazyGenotypesContext) ((LazyGenotypesContext) genotypes).decode();
                     }
+                    liftedBatch.add(liftedVariant);
                 }
+                return liftedBatch;
+            }, THREAD_COUNT, ParallelVariantProcessingIterator.DEFAULT_BATCH_CHARACTERS, "LiftoverVcfWorker");
+        } else {
+            if (THREAD_COUNT > 1) log.warn("Lifting over a BCF on a single thread; only VCFs can be lifted over on several threads.");
+            final CloseableIterator<VariantContext> iterator = in.iterator();
+            lifted = new CloseableIterator<LiftedVariant>() {
+                @Override public boolean hasNext() { return iterator.hasNext(); }
+                @Override public LiftedVariant next() { return liftVariant(iterator.next(), liftOver, refSeqs); }
+                @Override public void remove() { throw new UnsupportedOperationException(); }
+                @Override public void close() { iterator.close(); }
+            };
+        }
 
-                // Build the new variant context
-                final VariantContextBuilder builder = new VariantContextBuilder(
-                        ctx.getSource(),
-                        target.getContig(),
-                        target.getStart(),
-                        target.getEnd(),
-                        alleles);
-
-                builder.id(ctx.getID());
-                builder.attributes(ctx.getAttributes());
-
-                if (WRITE_ORIGINAL_POSITION) {
-                    builder.attribute(ORIGINAL_CONTIG, source.getContig());
-                    builder.attribute(ORIGINAL_START, source.getStart());
-                }
-                builder.genotypes(fixGenotypes(ctx.getGenotypes(), reverseComplementAlleleMap));
-                builder.filters(ctx.getFilters());
-                builder.log10PError(ctx.getLog10PError());
-
-                // Check that the reference allele still agrees with the reference sequence
-                boolean mismatchesReference = false;
-                for (final Allele allele : builder.getAlleles()) {
-                    if (allele.isReference()) {
-                        final byte[] ref = refSeqs.get(target.getContig());
-                        final String refString = StringUtil.bytesToString(ref, target.getStart()-1, target.length());
-
-                        if (!refString.equalsIgnoreCase(allele.getBaseString())) {
-                            mismatchesReference = true;
+        try {
+            while (lifted.hasNext()) {
+                final LiftedVariant liftedVariant = lifted.next();
+                ++total;
+                if (liftedVariant.lifted != null) {
+                    sorter.add(liftedVariant.lifted);
+                } else {
+                    rejects.add(liftedVariant.rejected);
+                    if (liftedVariant.rejectedBy.equals(FILTER_MISMATCHING_REF_ALLELE)) failedAlleleCheck++;
+                    else failedLiftover++;
+
+                    if (liftedVariant.missingContig != null) {
+                        String missingContigMessage = "Encountered a contig, " + liftedVariant.missingContig + " that is not part of the target reference.";
+                        if(WARN_ON_MISSING_CONTIG) {
+                            log.warn(missingContigMessage);
+                        } else {
+                            log.error(missingContigMessage);
+                            return EXIT_CODE_WHEN_CONTIG_NOT_IN_REFERENCE;
                         }
-
-                        break;
                     }
                 }
 
-                if (mismatchesReference) {
-                    rejects.add(new VariantContextBuilder(ctx).filter(FILTER_MISMATCHING_REF_ALLELE).make());
-                    failedAlleleCheck++;
-                }
-                else {
-                    sorter.add(builder.make());
-                }
+                progress.record(liftedVariant.source.getContig(), liftedVariant.source.getStart());
             }
-
-            progress.record(ctx.getContig(), ctx.getStart());
+        } finally {
+            lifted.close();
         }
 
         final NumberFormat pfmt = new DecimalFormat("0.0000%");
@@ -313,6 +290,104 @@ public class LiftoverVcf extends CommandLineProgram {
         return 0;
     }
 
+    /** The outcome of lifting over one record: the lifted record, or the record in source coordinates with a filter saying why it was rejected. */
+    private static final class LiftedVariant {
+        final VariantContext source;
+        final VariantContext lifted;
+        final VariantContext rejected;
+        /** The filter the record was rejected with. */
+        final String rejectedBy;
+        /** The contig the record lifted over to, if it is not in the target reference. */
+        final String missingContig;
+
+        private LiftedVariant(final VariantContext source, final VariantContext lifted, final String rejectedBy, final String missingContig) {
+            this.source = source;
+            this.lifted = lifted;
+            this.rejected = rejectedBy == null ? null : new VariantContextBuilder(source).filter(rejectedBy).make();
+            this.rejectedBy = rejectedBy;
+            this.missingContig = missingContig;
+        }
+
+        static LiftedVariant lifted(final VariantContext source, final VariantContext lifted) {
+            return new LiftedVariant(source, lifted, null, null);
+        }
+
+        static LiftedVariant rejected(final VariantContext source, final String filter) {
+            return new LiftedVariant(source, null, filter, null);
+        }
+
+        static LiftedVariant missingContig(final VariantContext source, final String contig) {
+            return new LiftedVariant(source, null, FILTER_NO_TARGET, contig);
+        }
+    }
+
+    /**
+     * Lifts one record over, checking its reference allele against the target reference.  Uses nothing but the given
+     * arguments and the program's options, so records may be lifted over on several threads at once.
+     */
+    private LiftedVariant liftVariant(final VariantContext ctx, final IndexedLiftOver liftOver, final Map<String, byte[]> refSeqs) {
+        final Interval source = new Interval(ctx.getContig(), ctx.getStart(), ctx.getEnd(), false, ctx.getContig() + ":" + ctx.getStart() + "-" + ctx.getEnd());
+        final Interval target = liftOver.liftOver(source, LIFTOVER_MIN_MATCH);
+
+        // if the target is null OR (the target is reverse complemented AND the variant is an indel or mixed), then we cannot lift it over
+        if (target == null || (target.isNegativeStrand() && (ctx.isMixed() || ctx.isIndel()))) {
+            return LiftedVariant.rejected(ctx, (target == null) ? FILTER_NO_TARGET : FILTER_CANNOT_LIFTOVER_INDEL);
+        } else if (!refSeqs.containsKey(target.getContig())) {
+            return LiftedVariant.missingContig(ctx, target.getContig());
+        }
+
+        // Fix the alleles if we went from positive to negative strand
+        // a mapping from original allele to reverse complemented allele
+        final Map<Allele, Allele> reverseComplementAlleleMap = new HashMap<Allele, Allele>(10);
+        final List<Allele> alleles = new ArrayList<Allele>();
+
+        for (final Allele oldAllele : ctx.getAlleles()) {
+            if (target.isPositiveStrand() || oldAllele.isSymbolic()) {
+                alleles.add(oldAllele);
+            }
+            else {
+                final Allele fixedAllele = Allele.create(SequenceUtil.reverseComplement(oldAllele.getBaseString()), oldAllele.isReference());
+                alleles.add(fixedAllele);
+                reverseComplementAlleleMap.put(oldAllele, fixedAllele);
+            }
+        }
+
+        // Build the new variant context
+        final VariantContextBuilder builder = new VariantContextBuilder(
+                ctx.getSource(),
+                target.getContig(),
+                target.getStart(),
+                target.getEnd(),
+                alleles);
+
+        builder.id(ctx.getID());
+        builder.attributes(ctx.getAttributes());
+
+        if (WRITE_ORIGINAL_POSITION) {
+            builder.attribute(ORIGINAL_CONTIG, source.getContig());
+            builder.attribute(ORIGINAL_START, source.getStart());
+        }
+        builder.genotypes(fixGenotypes(ctx.getGenotypes(), reverseComplementAlleleMap));
+        builder.filters(ctx.getFilters());
+        builder.log10PError(ctx.getLog10PError());
+
+        // Check that the reference allele still agrees with the reference sequence
+        for (final Allele allele : builder.getAlleles()) {
+            if (allele.isReference()) {
+                final byte[] ref = refSeqs.get(target.getContig());
+                final String refString = StringUtil.bytesToString(ref, target.getStart()-1, target.length());
+
+                if (!refString.equalsIgnoreCase(allele.getBaseString())) {
+                    return LiftedVariant.rejected(ctx, FILTER_MISMATCHING_REF_ALLELE);
+                }
+
+                break;
+            }
+        }
+
+        return LiftedVariant.lifted(ctx, builder.make());
+    }
+
     protected static GenotypesContext fixGenotypes(final GenotypesContext originals, final Map<Allele, Allele> reverseComplementAlleleMap) {
         // optimization: if nothing needs to be fixed then don't bother
         if ( reverseComplementAlleleMap.isEmpty() ) {
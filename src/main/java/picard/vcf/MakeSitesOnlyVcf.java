@@ -22,6 +22,7 @@ import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.VcfOrBcf;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -48,6 +49,11 @@ public class MakeSitesOnlyVcf extends CommandLineProgram {
     @Option(shortName="S", doc="Optionally one or more samples to retain when building the 'sites-only' VCF.", optional=true)
     public Set<String> SAMPLE = new TreeSet<String>();
 
+    @Option(doc = "The number of threads to process the input on.  More than one thread is used only when the input is indexed " +
+            "and the output is a block compressed VCF (.vcf.gz), in which case segments of the input are processed at once and " +
+            "the output gathered from them.")
+    public int THREAD_COUNT = 1;
+
     // Stock main method
     public static void main(final String[] args) {
         new MakeSitesOnlyVcf().instanceMainWithExit(args);
@@ -72,6 +78,25 @@ public class MakeSitesOnlyVcf extends CommandLineProgram {
 
         final ProgressLogger progress = new ProgressLogger(Log.getInstance(MakeSitesOnlyVcf.class), 10000);
 
+        final VCFHeader header = new VCFHeader(inputVcfHeader.getMetaDataInInputOrder(), SAMPLE);
+
+        if (THREAD_COUNT > 1 && SegmentedVcfProcessor.canProcessInSegments(INPUT, Collections.singletonList(OUTPUT), sequenceDictionary)) {
+            CloserUtil.close(reader);
+            new SegmentedVcfProcessor(INPUT, Collections.singletonList(OUTPUT), Collections.singletonList(header),
+                    sequenceDictionary, sequenceDictionary, CREATE_INDEX,
+                    TMP_DIR.isEmpty() ? IOUtil.getDefaultTmpDir() : TMP_DIR.get(0))
+                    .process(THREAD_COUNT, (variants, writers) -> {
+                        while (variants.hasNext()) {
+                            final VariantContext site = subsetToSamplesWithOriginalAnnotations(variants.next(), SAMPLE);
+                            writers.get(0).add(site);
+                            synchronized (progress) {
+                                progress.record(site.getContig(), site.getStart());
+                            }
+                        }
+                    });
+            return 0;
+        }
+
         // Setup the site-only file writer
         final VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
                 .setOutputFile(OUTPUT)
@@ -82,7 +107,6 @@ public class MakeSitesOnlyVcf extends CommandLineProgram {
             builder.unsetOption(Options.INDEX_ON_THE_FLY);
         final VariantContextWriter writer = builder.build();
 
-        final VCFHeader header = new VCFHeader(inputVcfHeader.getMetaDataInInputOrder(), SAMPLE);
         writer.writeHeader(header);
 
         // Go through the input, strip the records and write them to the output
@@ -45,6 +45,7 @@ import picard.cmdline.CommandLineProgramProperties;
 import picard.cmdline.Option;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.VcfOrBcf;
+import picard.util.AsyncIterator;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -80,6 +81,11 @@ public class MergeVcfs extends CommandLineProgram {
     @Option(shortName = "D", doc = "The index sequence dictionary to use instead of the sequence dictionary in the input file", optional = true)
     public File SEQUENCE_DICTIONARY;
 
+    @Option(doc = "Option to read and decode each input file on its own background thread, and to encode and write the output " +
+            "on another, leaving only the merging of records on the main thread. Uses a buffer of up to " +
+            AsyncIterator.DEFAULT_QUEUE_SIZE + " records per input.")
+    public boolean USE_THREADING = false;
+
     private final Log log = Log.getInstance(MergeVcfs.class);
 
     public static void main(final String[] argv) {
@@ -129,7 +135,7 @@ public class MergeVcfs extends CommandLineProgram {
             }
 
             headers.add(fileHeader);
-            iteratorCollection.add(fileReader.iterator());
+            iteratorCollection.add(USE_THREADING ? VariantReaderThreading.readInBackground(fileReader, file, OUTPUT) : fileReader.iterator());
         }
 
         if (CREATE_INDEX && sequenceDictionary == null) {
@@ -142,6 +148,9 @@ public class MergeVcfs extends CommandLineProgram {
         if (CREATE_INDEX) {
             builder.setOption(Options.INDEX_ON_THE_FLY);
         }
+        if (USE_THREADING) {
+            builder.setOption(Options.USE_ASYNC_IO);
+        }
         final VariantContextWriter writer = builder.build();
 
         writer.writeHeader(new VCFHeader(VCFUtils.smartMergeHeaders(headers, false), sampleList));
@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.vcf;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Iterator over the results of processing the records of a VCF, in which the records are decoded and processed by several
+ * threads at once.  The lines of the VCF are read in batches, each of which is decoded and processed on a worker thread,
+ * and the results are returned in the order the records were read.
+ *
+ * The VCF codec, which decodes genotypes lazily, is not thread safe, so each worker thread has its own codec, and its own
+ * processor, made by the given supplier, so that processors need not be thread safe either.  A processor that returns
+ * records with genotypes it has not decoded must leave them to be written only as VCF text, which copies the undecoded
+ * genotypes; anything else would decode them with a codec another thread may be using.
+ *
+ * At most two batches per thread are read ahead, and batches are ended at a number of characters, so that how many
+ * records are held at once falls as the number of samples grows.
+ */
+public class ParallelVariantProcessingIterator<T> implements CloseableIterator<T> {
+    /** The most characters of VCF text to decode and process in one batch, unless one line is longer. */
+    public static final int DEFAULT_BATCH_CHARACTERS = 4 * 1024 * 1024;
+    /** The most lines to decode and process in one batch. */
+    private static final int MAX_BATCH_LINES = 1000;
+
+    private static volatile int threadsCreated = 0; // Just used for thread naming.
+
+    private final File vcf;
+    private final AsciiLineReaderIterator lines;
+    private final Supplier<Function<List<VariantContext>, List<T>>> processors;
+    private final int batchCharacters;
+    private final int maxBatchesPending;
+    private final ExecutorService executor;
+    private final Deque<Future<List<T>>> pending = new ArrayDeque<Future<List<T>>>();
+    private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() { return new Worker(); }
+    };
+
+    private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+    /** The codec and processor of one worker thread. */
+    private class Worker {
+        final VCFCodec codec = new VCFCodec();
+        final Function<List<VariantContext>, List<T>> processor = processors.get();
+
+        Worker() {
+            final AsciiLineReaderIterator header = openLines(vcf);
+            try {
+                codec.readActualHeader(header);
+            } finally {
+                CloserUtil.close(header);
+            }
+        }
+
+        List<T> process(final List<String> batch) {
+            final List<VariantContext> decoded = new ArrayList<VariantContext>(batch.size());
+            for (final String line : batch) {
+                final VariantContext ctx = codec.decode(line);
+                if (ctx != null) decoded.add(ctx);
+            }
+            return processor.apply(decoded);
+        }
+    }
+
+    /**
+     * @param vcf the VCF (not BCF) to read, which may be gzipped
+     * @param processors makes the processor of one thread, which is given the records of each batch in order
+     * @param threads the number of threads to decode and process on
+     * @param batchCharacters the most characters of VCF text to hand to a thread at once
+     * @param threadName the name of the worker threads, to which a number is appended
+     */
+    public ParallelVariantProcessingIterator(final File vcf,
+                                             final Supplier<Function<List<VariantContext>, List<T>>> processors,
+                                             final int threads,
+                                             final int batchCharacters,
+                                             final String threadName) {
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be at least 1.");
+        this.vcf = vcf;
+        this.processors = processors;
+        this.batchCharacters = batchCharacters;
+        this.maxBatchesPending = 2 * threads;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, threadName + threadsCreated++);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.lines = openLines(vcf);
+        while (lines.hasNext() && lines.peek().startsWith(VCFHeader.HEADER_INDICATOR)) lines.next();
+        readAhead();
+    }
+
+    private static AsciiLineReaderIterator openLines(final File vcf) {
+        return new AsciiLineReaderIterator(new AsciiLineReader(IOUtil.openFileForReading(vcf)));
+    }
+
+    /** Reads batches and hands them to the worker threads until enough are pending or the VCF is exhausted. */
+    private void readAhead() {
+        while (pending.size() < maxBatchesPending && lines.hasNext()) {
+            final List<String> batch = new ArrayList<String>();
+            long characters = 0;
+            while (lines.hasNext() && batch.size() < MAX_BATCH_LINES && (batch.isEmpty() || characters < batchCharacters)) {
+                final String line = lines.next();
+                batch.add(line);
+                characters += line.length();
+            }
+            pending.add(executor.submit(() -> workers.get().process(batch)));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (pending.isEmpty()) return false;
+            current = await(pending.poll()).iterator();
+            readAhead();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return current.next();
+    }
+
+    /** Waits for the given batch to be processed, rethrowing as an Error or RuntimeException anything thrown while processing it. */
+    private static <T> List<T> await(final Future<List<T>> batch) {
+        try {
+            return batch.get();
+        } catch (final InterruptedException ie) {
+            throw new RuntimeException("Interrupted waiting for variants to be processed.", ie);
+        } catch (final ExecutionException ee) {
+            final Throwable t = ee.getCause();
+            if (t instanceof Error) throw (Error) t;
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /** Abandons any batches pending, stops the worker threads and closes the VCF. */
+    @Override
+    public void close() {
+        for (final Future<List<T>> batch : pending) batch.cancel(true);
+        pending.clear();
+        executor.shutdownNow();
+        CloserUtil.close(lines);
+    }
+
+    @Override
+    public void remove() { throw new UnsupportedOperationException("remove() not supported by " + getClass().getSimpleName() + "."); }
+}
@@ -0,0 +1,300 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.vcf;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.Log;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import picard.PicardException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a program that reads the variants of one VCF and writes each of them to one or more block compressed VCFs over
+ * segments of the input on several threads at once.  The variants of each segment are queried from the input's index
+ * by a reader of the thread's own and written to block compressed VCFs of the segment's own, one per output.  Once all
+ * segments are done, the parts of each output are gathered, in order, by copying their gzip blocks as GatherVcfs does,
+ * and the output's index is merged from the parts' indexes.
+ *
+ * The segments cover the sequences of the index in the order they appear in the input, so the outputs are written in
+ * the same order they would be by reading the input from start to end.  Each variant is processed with the segment its
+ * start falls in.  The input must be indexed and its sequence dictionary must include every sequence in the index; see
+ * canProcessInSegments().
+ */
+class SegmentedVcfProcessor {
+    /** The width of the segments to process on one thread at a time; smaller segments make for more queries of the index. */
+    static final int SEGMENT_WIDTH = 10000000;
+
+    private static final Log log = Log.getInstance(SegmentedVcfProcessor.class);
+    private static volatile int threadsCreated = 0; // Just used for thread naming.
+
+    /** Processes the variants of one segment. */
+    interface SegmentProcessor {
+        /** Writes the given variants of one segment to the writers of the segment's parts of the outputs, in the order of the outputs. */
+        void process(CloseableIterator<VariantContext> variants, List<VariantContextWriter> writers);
+    }
+
+    private final File input;
+    private final List<File> outputs;
+    private final List<VCFHeader> headers;
+    private final SAMSequenceDictionary sequenceDictionary;
+    private final SAMSequenceDictionary outputSequenceDictionary;
+    private final boolean createIndex;
+    private final File tmpDir;
+
+    private final Collection<VCFFileReader> readers = Collections.synchronizedCollection(new ArrayList<VCFFileReader>());
+    private final ThreadLocal<VCFFileReader> localReaders = new ThreadLocal<VCFFileReader>() {
+        @Override
+        protected VCFFileReader initialValue() {
+            final VCFFileReader reader = new VCFFileReader(input, true);
+            readers.add(reader);
+            return reader;
+        }
+    };
+
+    /**
+     * @param input the VCF to read
+     * @param outputs the block compressed VCFs to write
+     * @param headers the header of each output
+     * @param sequenceDictionary the sequence dictionary of the input
+     * @param outputSequenceDictionary the sequence dictionary to write and index the outputs with
+     * @param createIndex whether to index the outputs
+     * @param tmpDir where to write the parts of the outputs
+     */
+    SegmentedVcfProcessor(final File input, final List<File> outputs, final List<VCFHeader> headers,
+                          final SAMSequenceDictionary sequenceDictionary, final SAMSequenceDictionary outputSequenceDictionary,
+                          final boolean createIndex, final File tmpDir) {
+        this.input = input;
+        this.outputs = outputs;
+        this.headers = headers;
+        this.sequenceDictionary = sequenceDictionary;
+        this.outputSequenceDictionary = outputSequenceDictionary;
+        this.createIndex = createIndex;
+        this.tmpDir = tmpDir;
+    }
+
+    /**
+     * Returns whether the given input can be processed in segments into the given outputs, logging why not if it cannot:
+     * the outputs must be block compressed VCFs, and the input must have an index all of whose sequences are in the given
+     * sequence dictionary.
+     */
+    static boolean canProcessInSegments(final File input, final List<File> outputs, final SAMSequenceDictionary sequenceDictionary) {
+        for (final File output : outputs) {
+            if (VariantContextWriterFactory.isBCFOutput(output) || !VariantContextWriterFactory.isCompressedVcf(output)) {
+                log.warn("Processing on one thread since " + output.getAbsolutePath() + " is not a block compressed VCF.");
+                return false;
+            }
+        }
+        final File index = getIndexFile(input);
+        if (!index.canRead() || index.lastModified() < input.lastModified()) {
+            log.warn("Processing on one thread since " + input.getAbsolutePath() + " does not have an up to date index.");
+            return false;
+        }
+        if (sequenceDictionary == null) {
+            log.warn("Processing on one thread since " + input.getAbsolutePath() + " does not have a sequence dictionary.");
+            return false;
+        }
+        for (final String sequence : IndexFactory.loadIndex(index.getAbsolutePath()).getSequenceNames()) {
+            if (sequenceDictionary.getSequence(sequence) == null) {
+                log.warn("Processing on one thread since sequence " + sequence + " of " + input.getAbsolutePath() + " is not in its sequence dictionary.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static File getIndexFile(final File vcf) {
+        return VariantContextWriterFactory.isCompressedVcf(vcf) ? Tribble.tabixIndexFile(vcf) : Tribble.indexFile(vcf);
+    }
+
+    /**
+     * Divides the sequences of the input's index into segments of at most SEGMENT_WIDTH, the last of each sequence
+     * running on past the sequence's end so as to take any variants beyond it.
+     */
+    private List<Interval> makeSegments() {
+        final List<Interval> segments = new ArrayList<Interval>();
+        for (final String sequence : IndexFactory.loadIndex(getIndexFile(input).getAbsolutePath()).getSequenceNames()) {
+            final int length = sequenceDictionary.getSequence(sequence).getSequenceLength();
+            for (int start = 1; ; start += SEGMENT_WIDTH) {
+                if (length - start < SEGMENT_WIDTH) {
+                    segments.add(new Interval(sequence, start, Integer.MAX_VALUE));
+                    break;
+                }
+                segments.add(new Interval(sequence, start, start + SEGMENT_WIDTH - 1));
+            }
+        }
+        return segments;
+    }
+
+    /** Processes every segment of the input on the given number of threads, then gathers the parts of each output. */
+    void process(final int threads, final SegmentProcessor processor) {
+        final List<Interval> segments = makeSegments();
+        log.info("Processing " + segments.size() + " segments of " + input.getAbsolutePath() + " on " + threads + " threads.");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "SegmentedVcfProcessor" + threadsCreated++);
+            thread.setDaemon(true);
+            return thread;
+        });
+        final List<Future<List<File>>> parts = new ArrayList<Future<List<File>>>(segments.size());
+        final List<List<File>> partsByOutput = new ArrayList<List<File>>();
+        for (int i = 0; i < outputs.size(); ++i) partsByOutput.add(new ArrayList<File>());
+        try {
+            for (final Interval segment : segments) {
+                parts.add(executor.submit(() -> processSegment(segment, processor)));
+            }
+            for (final Future<List<File>> segmentParts : parts) {
+                final List<File> files = await(segmentParts);
+                for (int i = 0; i < outputs.size(); ++i) partsByOutput.get(i).add(files.get(i));
+            }
+            executor.shutdown();
+
+            for (int i = 0; i < outputs.size(); ++i) {
+                GatherVcfs.gatherWithBlockCopying(partsByOutput.get(i), outputs.get(i), createIndex ? new TabixIndexMerger() : null);
+            }
+        } finally {
+            executor.shutdownNow();
+            for (final Future<List<File>> segmentParts : parts) segmentParts.cancel(true);
+            for (final VCFFileReader reader : readers) CloserUtil.close(reader);
+            for (final Future<List<File>> segmentParts : parts) {
+                if (!segmentParts.isDone() || segmentParts.isCancelled()) continue;
+                try {
+                    for (final File part : segmentParts.get()) deletePart(part);
+                } catch (final Exception e) {
+                    // the segment failed, and deleted its own parts
+                }
+            }
+        }
+    }
+
+    /** Processes one segment into parts of its own, returning the part of each output. */
+    private List<File> processSegment(final Interval segment, final SegmentProcessor processor) throws IOException {
+        final List<File> parts = new ArrayList<File>(outputs.size());
+        final List<VariantContextWriter> writers = new ArrayList<VariantContextWriter>(outputs.size());
+        CloseableIterator<VariantContext> variants = null;
+        boolean succeeded = false;
+        try {
+            for (int i = 0; i < outputs.size(); ++i) {
+                final File part = File.createTempFile(outputs.get(i).getName() + ".", ".part.vcf.gz", tmpDir);
+                parts.add(part);
+                final VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
+                        .setOutputFile(part)
+                        .setReferenceDictionary(outputSequenceDictionary)
+                        .clearOptions();
+                if (createIndex) builder.setOption(Options.INDEX_ON_THE_FLY);
+                final VariantContextWriter writer = builder.build();
+                writers.add(writer);
+                // The writer may hold on to its header, so give each its own
+                writer.writeHeader(new VCFHeader(headers.get(i)));
+            }
+
+            variants = new StartingInSegmentIterator(localReaders.get().query(segment.getContig(), segment.getStart(), segment.getEnd()), segment.getStart());
+            processor.process(variants, writers);
+            succeeded = true;
+        } finally {
+            CloserUtil.close(variants);
+            for (final VariantContextWriter writer : writers) writer.close();
+            if (!succeeded) for (final File part : parts) deletePart(part);
+        }
+        return parts;
+    }
+
+    private static void deletePart(final File part) {
+        part.delete();
+        TabixIndexMerger.getIndexFile(part).delete();
+    }
+
+    /** Waits for the given segment to be processed, rethrowing as an Error or RuntimeException anything thrown while processing it. */
+    private static List<File> await(final Future<List<File>> segmentParts) {
+        try {
+            return segmentParts.get();
+        } catch (final InterruptedException ie) {
+            throw new PicardException("Interrupted waiting for a segment to be processed.", ie);
+        } catch (final ExecutionException ee) {
+            final Throwable t = ee.getCause();
+            if (t instanceof Error) throw (Error) t;
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            throw new PicardException("Error processing a segment of a VCF", t);
+        }
+    }
+
+    /** Skips the variants of a query that start before the segment queried, which belong to an earlier segment. */
+    private static class StartingInSegmentIterator implements CloseableIterator<VariantContext> {
+        private final CloseableIterator<VariantContext> iterator;
+        private final int start;
+        private VariantContext next = null;
+
+        StartingInSegmentIterator(final CloseableIterator<VariantContext> iterator, final int start) {
+            this.iterator = iterator;
+            this.start = start;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && iterator.hasNext()) {
+                final VariantContext vc = iterator.next();
+                if (vc.getStart() >= start) next = vc;
+            }
+        }
+
+        @Override
+        public boolean hasNext() { return next != null; }
+
+        @Override
+        public VariantContext next() {
+            if (next == null) throw new NoSuchElementException();
+            final VariantContext vc = next;
+            advance();
+            return vc;
+        }
+
+        @Override
+        public void remove() { throw new UnsupportedOperationException(); }
+
+        @Override
+        public void close() { iterator.close(); }
+    }
+}
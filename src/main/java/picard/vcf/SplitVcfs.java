@@ -21,6 +21,8 @@ import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.VcfOrBcf;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Splits the input VCF file into two, one for indels and one for SNPs. The headers of the two output
@@ -64,6 +66,11 @@ public class SplitVcfs extends CommandLineProgram {
     @Option(doc = "If true an exception will be thrown if an event type other than SNP or indel is encountered")
     public Boolean STRICT = true;
 
+    @Option(doc = "The number of threads to split the input on.  More than one thread is used only when the input is indexed " +
+            "and both outputs are block compressed VCFs (.vcf.gz), in which case segments of the input are split at once and " +
+            "the outputs gathered from them.")
+    public int THREAD_COUNT = 1;
+
     private final Log log = Log.getInstance(SplitVcfs.class);
 
     public static void main(final String[] argv) {
@@ -90,6 +97,12 @@ public class SplitVcfs extends CommandLineProgram {
             throw new PicardException("A sequence dictionary must be available (either through the input file or by setting it explicitly) when creating indexed output.");
         }
 
+        if (THREAD_COUNT > 1 && SegmentedVcfProcessor.canProcessInSegments(INPUT, Arrays.asList(SNP_OUTPUT, INDEL_OUTPUT), fileHeader.getSequenceDictionary())) {
+            CloserUtil.close(fileReader);
+            splitInSegments(fileHeader, sequenceDictionary, progress);
+            return 0;
+        }
+
         final VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
                 .setReferenceDictionary(sequenceDictionary)
                 .clearOptions();
@@ -106,19 +119,12 @@ public class SplitVcfs extends CommandLineProgram {
         final CloseableIterator<VariantContext> iterator = fileReader.iterator();
         while (iterator.hasNext()) {
             final VariantContext context = iterator.next();
-            if (context.isIndel()) indelWriter.add(context);
-            else if (context.isSNP()) snpWriter.add(context);
-            else {
-                if (STRICT) throw new IllegalStateException("Found a record with type " + context.getType().name());
-                else incorrectVariantCount++;
-            }
+            if (!split(context, snpWriter, indelWriter)) incorrectVariantCount++;
 
             progress.record(context.getContig(), context.getStart());
         }
 
-        if (incorrectVariantCount > 0) {
-            log.debug("Found " + incorrectVariantCount + " records that didn't match SNP or INDEL");
-        }
+        logIncorrectVariants(incorrectVariantCount);
 
         CloserUtil.close(iterator);
         CloserUtil.close(fileReader);
@@ -127,4 +133,43 @@ public class SplitVcfs extends CommandLineProgram {
 
         return 0;
     }
+
+    /** Splits segments of the input on THREAD_COUNT threads, and gathers the outputs from them. */
+    private void splitInSegments(final VCFHeader fileHeader, final SAMSequenceDictionary sequenceDictionary, final ProgressLogger progress) {
+        final AtomicInteger incorrectVariantCount = new AtomicInteger();
+        new SegmentedVcfProcessor(INPUT, Arrays.asList(SNP_OUTPUT, INDEL_OUTPUT), Arrays.asList(fileHeader, fileHeader),
+                fileHeader.getSequenceDictionary(), sequenceDictionary, CREATE_INDEX,
+                TMP_DIR.isEmpty() ? IOUtil.getDefaultTmpDir() : TMP_DIR.get(0))
+                .process(THREAD_COUNT, (variants, writers) -> {
+                    while (variants.hasNext()) {
+                        final VariantContext context = variants.next();
+                        if (!split(context, writers.get(0), writers.get(1))) incorrectVariantCount.incrementAndGet();
+
+                        synchronized (progress) {
+                            progress.record(context.getContig(), context.getStart());
+                        }
+                    }
+                });
+        logIncorrectVariants(incorrectVariantCount.get());
+    }
+
+    /**
+     * Writes the given record to the SNP or indel writer, returning false if it is neither, or throwing if it is neither
+     * and STRICT is set.
+     */
+    private boolean split(final VariantContext context, final VariantContextWriter snpWriter, final VariantContextWriter indelWriter) {
+        if (context.isIndel()) indelWriter.add(context);
+        else if (context.isSNP()) snpWriter.add(context);
+        else {
+            if (STRICT) throw new IllegalStateException("Found a record with type " + context.getType().name());
+            else return false;
+        }
+        return true;
+    }
+
+    private void logIncorrectVariants(final int incorrectVariantCount) {
+        if (incorrectVariantCount > 0) {
+            log.debug("Found " + incorrectVariantCount + " records that didn't match SNP or INDEL");
+        }
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.vcf;
+
+import htsjdk.samtools.Bin;
+import htsjdk.samtools.BinningIndexContent;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.LinearIndex;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.util.LittleEndianInputStream;
+import htsjdk.tribble.util.TabixUtils;
+import picard.PicardException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Builds the tabix index of a block compressed file made by concatenating the blocks of other block compressed files,
+ * as GatherVcfs does, from the tabix indexes of those files.  Each input index is read in the order its file was copied
+ * into the output, and every virtual file offset in it is moved to where the record it points at landed in the output.
+ * Bins of the same sequence are merged by concatenating their chunks, and linear indexes by taking the least offset of
+ * each window.
+ */
+class TabixIndexMerger {
+    /** The pseudo-bin in which tabix keeps statistics about a sequence; these no longer hold once offsets move. */
+    private static final int METADATA_BIN = 37450;
+
+    private TabixFormat format = null;
+    private final Map<String, SequenceIndex> sequences = new LinkedHashMap<String, SequenceIndex>();
+
+    /** The bins and linear index of one sequence, gathered from all the inputs having records on it. */
+    private static class SequenceIndex {
+        final TreeMap<Integer, List<Chunk>> bins = new TreeMap<Integer, List<Chunk>>();
+        long[] linearIndex = new long[0];
+    }
+
+    /** Returns where the tabix index of the given block compressed file is, whether or not it exists. */
+    static File getIndexFile(final File file) {
+        return new File(file.getPath() + TabixUtils.STANDARD_INDEX_EXTENSION);
+    }
+
+    /**
+     * Adds the index of a file whose blocks were copied into the output.
+     *
+     * @param index the tabix index of the copied file
+     * @param shift maps a virtual file offset in the copied file to that of the same record in the output
+     */
+    void addIndex(final File index, final LongUnaryOperator shift) {
+        LittleEndianInputStream in = null;
+        try {
+            in = new LittleEndianInputStream(new BlockCompressedInputStream(index));
+            if (in.readInt() != TabixIndex.MAGIC_NUMBER) throw new PicardException(index.getAbsolutePath() + " is not a tabix index.");
+            final int numSequences = in.readInt();
+            final TabixFormat format = new TabixFormat(in.readInt(), in.readInt(), in.readInt(), in.readInt(), (char) in.readInt(), in.readInt());
+            if (this.format == null) this.format = format;
+            else if (!this.format.equals(format)) throw new PicardException(index.getAbsolutePath() + " is not of the same format as the other indexes.");
+
+            final byte[] names = new byte[in.readInt()];
+            readFully(in, names);
+            final List<String> sequenceNames = new ArrayList<String>(numSequences);
+            for (int start = 0, i = 0; i < names.length; ++i) {
+                if (names[i] == 0) {
+                    sequenceNames.add(new String(names, start, i - start));
+                    start = i + 1;
+                }
+            }
+            if (sequenceNames.size() != numSequences) throw new PicardException("Malformed sequence names in " + index.getAbsolutePath());
+
+            for (final String name : sequenceNames) {
+                SequenceIndex sequence = sequences.get(name);
+                if (sequence == null) {
+                    sequence = new SequenceIndex();
+                    sequences.put(name, sequence);
+                }
+                addSequence(in, sequence, shift);
+            }
+        } catch (final IOException ioe) {
+            throw new PicardException("Error reading tabix index " + index.getAbsolutePath(), ioe);
+        } finally {
+            CloserUtil.close(in);
+        }
+    }
+
+    private static void addSequence(final LittleEndianInputStream in, final SequenceIndex sequence, final LongUnaryOperator shift) throws IOException {
+        final int numBins = in.readInt();
+        for (int i = 0; i < numBins; ++i) {
+            final int binNumber = in.readInt();
+            final int numChunks = in.readInt();
+            final List<Chunk> chunks = new ArrayList<Chunk>(numChunks);
+            for (int j = 0; j < numChunks; ++j) {
+                final long start = in.readLong();
+                final long end = in.readLong();
+                chunks.add(new Chunk(shift.applyAsLong(start), shift.applyAsLong(end)));
+            }
+            if (binNumber == METADATA_BIN) continue;
+
+            List<Chunk> binChunks = sequence.bins.get(binNumber);
+            if (binChunks == null) {
+                binChunks = new ArrayList<Chunk>();
+                sequence.bins.put(binNumber, binChunks);
+            }
+            binChunks.addAll(chunks);
+        }
+
+        // htsjdk writes a sequence with no records as just the number of bins, without a linear index
+        if (numBins == 0) return;
+        final int numWindows = in.readInt();
+        if (numWindows > sequence.linearIndex.length) sequence.linearIndex = Arrays.copyOf(sequence.linearIndex, numWindows);
+        for (int i = 0; i < numWindows; ++i) {
+            final long offset = in.readLong();
+            if (offset == 0) continue;
+            final long shifted = shift.applyAsLong(offset);
+            if (sequence.linearIndex[i] == 0 || shifted < sequence.linearIndex[i]) sequence.linearIndex[i] = shifted;
+        }
+    }
+
+    private static void readFully(final LittleEndianInputStream in, final byte[] bytes) throws IOException {
+        for (int read = 0; read < bytes.length; ) {
+            final int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0) throw new IOException("Unexpected end of file");
+            read += n;
+        }
+    }
+
+    /** Writes the merged index to the given file. */
+    void writeIndex(final File output) {
+        if (format == null) throw new IllegalStateException("No indexes have been added.");
+        final List<String> names = new ArrayList<String>(sequences.keySet());
+        final BinningIndexContent[] contents = new BinningIndexContent[names.size()];
+        for (int ref = 0; ref < contents.length; ++ref) {
+            final SequenceIndex sequence = sequences.get(names.get(ref));
+            if (sequence.bins.isEmpty()) continue;
+
+            final Bin[] bins = new Bin[sequence.bins.lastKey() + 1];
+            for (final Map.Entry<Integer, List<Chunk>> entry : sequence.bins.entrySet()) {
+                final Bin bin = new Bin(ref, entry.getKey());
+                bin.setChunkList(entry.getValue());
+                bins[entry.getKey()] = bin;
+            }
+
+            // Windows no input had a record starting in take the offset of the window before, as tabix does
+            final long[] linearIndex = sequence.linearIndex;
+            for (int i = 1; i < linearIndex.length; ++i) {
+                if (linearIndex[i] == 0) linearIndex[i] = linearIndex[i - 1];
+            }
+
+            contents[ref] = new BinningIndexContent(ref, new BinningIndexContent.BinList(bins, sequence.bins.size()),
+                    new LinearIndex(ref, 0, linearIndex));
+        }
+        new TabixIndex(format, names, contents).write(output);
+    }
+}
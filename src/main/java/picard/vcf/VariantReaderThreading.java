@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.vcf;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
+import htsjdk.variant.vcf.VCFFileReader;
+import picard.util.AsyncIterator;
+
+import java.io.File;
+
+/**
+ * Support for programs that stream the variants of one or more VCFs or BCFs into a single output, reading each input
+ * on a background thread while another thread (see Options.USE_ASYNC_IO) encodes and writes the output.
+ *
+ * Genotypes are decoded lazily by the codec that read them, which is not thread safe, so they must not be decoded by
+ * the writing thread while the reading thread goes on with the codec.  A VCF written as VCF never needs them decoded,
+ * since the writer copies the undecoded genotype text, and so they are left undecoded; otherwise they are decoded on
+ * the reading thread.
+ */
+class VariantReaderThreading {
+    /** Returns an iterator over the variants of the given input that reads them on a background thread. */
+    static CloseableIterator<VariantContext> readInBackground(final VCFFileReader reader, final File input, final File output) {
+        final boolean decodeGenotypes = VariantContextWriterFactory.isBCFOutput(input) || VariantContextWriterFactory.isBCFOutput(output);
+        final CloseableIterator<VariantContext> iterator = reader.iterator();
+        final CloseableIterator<VariantContext> decoding = !decodeGenotypes ? iterator : new CloseableIterator<VariantContext>() {
+            @Override
+            public boolean hasNext() { return iterator.hasNext(); }
+
+            @Override
+            public VariantContext next() {
+                final VariantContext vc = iterator.next();
+                final GenotypesContext genotypes = vc.getGenotypes();
+                if (genotypes instanceof LazyGenotypesContext) ((LazyGenotypesContext) genotypes).decode();
+                return vc;
+            }
+
+            @Override
+            public void remove() { throw new UnsupportedOperationException(); }
+
+            @Override
+            public void close() { iterator.close(); }
+        };
+        return new AsyncIterator<VariantContext>(decoding, AsyncIterator.DEFAULT_QUEUE_SIZE, "VariantReader");
+    }
+}
@@ -25,13 +25,17 @@
 package picard.vcf.filter;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.CollectionUtil;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.filter.JavascriptVariantFilter;
+import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFFilterHeaderLine;
 import htsjdk.variant.vcf.VCFFormatHeaderLine;
@@ -48,6 +52,7 @@ import picard.cmdline.programgroups.VcfOrBcf;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -93,6 +98,13 @@ public class FilterVcf extends CommandLineProgram {
 	        optional = true)
 	public File JAVASCRIPT_FILE = null;
 
+    @Option(doc = "The number of threads on which to decode and filter variants. With more than one, the variants of a VCF (but " +
+            "not a BCF) are read in batches, each of which is decoded and filtered on one of the threads, and the output is " +
+            "written on another.")
+    public int THREAD_COUNT = 1;
+
+    private final Log log = Log.getInstance(FilterVcf.class);
+
 
     /** Constructor to default to having index creation on. */
     public FilterVcf() { this.CREATE_INDEX = true; }
@@ -109,24 +121,12 @@ public class FilterVcf extends CommandLineProgram {
 
         VCFFileReader in = null;
         VariantContextWriter out = null;
+        CloseableIterator<VariantContext> iterator = null;
         try {// try/finally used to close 'in' and 'out'
 	        in = new VCFFileReader(INPUT, false);
-	        final List<VariantFilter>  variantFilters = new ArrayList<VariantFilter>(4);
-	        variantFilters.add(new AlleleBalanceFilter(MIN_AB));
-	        variantFilters.add(new FisherStrandFilter(MAX_FS));
-	        variantFilters.add(new QdFilter(MIN_QD));
-	        if( JAVASCRIPT_FILE != null) {
-	            try {
-	                variantFilters.add(new VariantContextJavascriptFilter(JAVASCRIPT_FILE, in.getFileHeader()));
-	            } catch(final IOException error) {
-	                throw new PicardException("javascript-related error", error);
-	            }
-	        }
-	        final List<GenotypeFilter> genotypeFilters = CollectionUtil.makeList(new GenotypeQualityFilter(MIN_GQ), new DepthFilter(MIN_DP));
-	        @SuppressWarnings("resource")
-			final FilterApplyingVariantIterator iterator = new FilterApplyingVariantIterator(in.iterator(), variantFilters, genotypeFilters);
-	
 	        final VCFHeader header = in.getFileHeader();
+	        final Collection<VariantFilter> variantFilters = makeVariantFilters(header);
+
 	        // If the user is writing to a .bcf or .vcf, VariantContextBuilderWriter requires a Sequence Dictionary.  Make sure that the
 	        // Input VCF has one.
 	        final VariantContextWriterBuilder variantContextWriterBuilder = new VariantContextWriterBuilder();
@@ -137,6 +137,7 @@ public class FilterVcf extends CommandLineProgram {
 	            }
 	            variantContextWriterBuilder.setReferenceDictionary(sequenceDictionary);
 	        }
+	        if (THREAD_COUNT > 1) variantContextWriterBuilder.setOption(Options.USE_ASYNC_IO);
 	        out = variantContextWriterBuilder.setOutputFile(OUTPUT).build();
 	        header.addMetaDataLine(new VCFFilterHeaderLine("AllGtsFiltered", "Site filtered out because all genotypes are filtered out."));
 	        header.addMetaDataLine(new VCFFormatHeaderLine("FT", VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String, "Genotype filters."));
@@ -148,16 +149,48 @@ public class FilterVcf extends CommandLineProgram {
 	
 	        out.writeHeader(in.getFileHeader());
 	
+	        if (THREAD_COUNT > 1 && !VariantContextWriterFactory.isBCFOutput(INPUT)) {
+	            // Each thread needs filters of its own, since the javascript filter is not thread safe. Start them only
+	            // once the header has been written, since the javascript filter shares it.
+	            iterator = new ParallelFilterApplyingVariantIterator(INPUT, () -> makeVariantFilters(header), this::makeGenotypeFilters,
+	                    THREAD_COUNT, ParallelFilterApplyingVariantIterator.DEFAULT_BATCH_CHARACTERS);
+	        } else {
+	            if (THREAD_COUNT > 1) log.warn("Filtering a BCF on a single thread; only VCFs can be filtered on several threads.");
+	            iterator = new FilterApplyingVariantIterator(in.iterator(), variantFilters, makeGenotypeFilters());
+	        }
+
 	        while (iterator.hasNext()) {
 	            out.add(iterator.next());
 	        }
 	        return 0;
         } finally {
+        	CloserUtil.close(iterator);
         	CloserUtil.close(out);
         	CloserUtil.close(in);
         }
     }
 
+    /** Makes the variant filters asked for, which filter against the given header. */
+    private Collection<VariantFilter> makeVariantFilters(final VCFHeader header) {
+        final List<VariantFilter> variantFilters = new ArrayList<VariantFilter>(4);
+        variantFilters.add(new AlleleBalanceFilter(MIN_AB));
+        variantFilters.add(new FisherStrandFilter(MAX_FS));
+        variantFilters.add(new QdFilter(MIN_QD));
+        if (JAVASCRIPT_FILE != null) {
+            try {
+                variantFilters.add(new VariantContextJavascriptFilter(JAVASCRIPT_FILE, header));
+            } catch (final IOException error) {
+                throw new PicardException("javascript-related error", error);
+            }
+        }
+        return variantFilters;
+    }
+
+    /** Makes the genotype filters asked for. */
+    private Collection<GenotypeFilter> makeGenotypeFilters() {
+        return CollectionUtil.makeList(new GenotypeQualityFilter(MIN_GQ), new DepthFilter(MIN_DP));
+    }
+
     private boolean isVcfOrBcf(final File file) {
         final String fileName = file.getName();
         return fileName.endsWith(".vcf") || fileName.endsWith(".bcf");
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.vcf.filter;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import picard.vcf.ParallelVariantProcessingIterator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Iterator over the records of a VCF with the filters of a FilterApplyingVariantIterator applied to them, in which the
+ * records are decoded and filtered by several threads at once; see ParallelVariantProcessingIterator.
+ *
+ * The javascript filter is not thread safe, so each worker thread has its own filters, made by the given suppliers.
+ * Genotypes are always decoded by the worker, since filtering reads them.
+ */
+class ParallelFilterApplyingVariantIterator extends ParallelVariantProcessingIterator<VariantContext> {
+    /** The most characters of VCF text to decode and filter in one batch, unless one line is longer. */
+    static final int DEFAULT_BATCH_CHARACTERS = ParallelVariantProcessingIterator.DEFAULT_BATCH_CHARACTERS;
+
+    /**
+     * @param vcf the VCF (not BCF) to read, which may be gzipped
+     * @param variantFilters makes the variant filters of one thread
+     * @param genotypeFilters makes the genotype filters of one thread
+     * @param threads the number of threads to decode and filter on
+     * @param batchCharacters the most characters of VCF text to hand to a thread at once
+     */
+    ParallelFilterApplyingVariantIterator(final File vcf,
+                                          final Supplier<Collection<VariantFilter>> variantFilters,
+                                          final Supplier<Collection<GenotypeFilter>> genotypeFilters,
+                                          final int threads,
+                                          final int batchCharacters) {
+        super(vcf, () -> {
+            final Collection<VariantFilter> localVariantFilters = variantFilters.get();
+            final Collection<GenotypeFilter> localGenotypeFilters = genotypeFilters.get();
+            return (final List<VariantContext> batch) -> {
+                final FilterApplyingVariantIterator iterator = new FilterApplyingVariantIterator(batch.iterator(), localVariantFilters, localGenotypeFilters);
+                final List<VariantContext> filtered = new ArrayList<VariantContext>(batch.size());
+                while (iterator.hasNext()) filtered.add(iterator.next());
+                return filtered;
+            };
+        }, threads, batchCharacters, "FilterVcfWorker");
+    }
+}
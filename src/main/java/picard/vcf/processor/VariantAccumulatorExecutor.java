@@ -75,6 +75,9 @@ public interface VariantAccumulatorExecutor<ACCUMULATOR extends VariantProcessor
 
         private final List<Throwable> childrenErrors = Collections.synchronizedList(new ArrayList<Throwable>());
 
+        /** The nanoseconds each worker spent processing chunks, for reporting how evenly the work was spread. */
+        private final List<Long> busyNanos = Collections.synchronizedList(new ArrayList<Long>());
+
         final VariantProcessor.AccumulatorGenerator<A, R> accumulatorGenerator;
 
         public MultiThreadedChunkBased(
@@ -104,6 +107,13 @@ public interface VariantAccumulatorExecutor<ACCUMULATOR extends VariantProcessor
             return Collections.unmodifiableCollection(accumulators);
         }
 
+        /** Returns the nanoseconds each thread that has finished spent processing chunks. */
+        public List<Long> busyNanosPerThread() {
+            synchronized (busyNanos) {
+                return new ArrayList<Long>(busyNanos);
+            }
+        }
+
         @Override
         public void awaitCompletion() throws InterruptedException {
             if (!started) {
@@ -113,6 +123,13 @@ public interface VariantAccumulatorExecutor<ACCUMULATOR extends VariantProcessor
                 if (!childrenErrors.isEmpty()) {
                     throw new MultiException(childrenErrors);
                 }
+                final List<Long> busy = busyNanosPerThread();
+                if (!busy.isEmpty()) {
+                    long total = 0;
+                    for (final long nanos : busy) total += nanos;
+                    LOG.info(String.format("Threads were busy for %.1fs on average and %.1fs at most.",
+                            total / (double) busy.size() / 1e9, Collections.max(busy) / 1e9));
+                }
             }
         }
 
@@ -145,12 +162,19 @@ public interface VariantAccumulatorExecutor<ACCUMULATOR extends VariantProcessor
 
             @Override
             public void run() {
+                long busy = 0, chunks = 0, variants = 0;
                 try {
                     Optional<CloseableIterator<VariantContext>> readerMaybe;
                     while ((readerMaybe = vcIterators.next()).isPresent()) {
+                        final long chunkStart = System.nanoTime();
                         final CloseableIterator<VariantContext> reader = readerMaybe.get();
-                        while (reader.hasNext()) processor.accumulate(reader.next());
+                        while (reader.hasNext()) {
+                            processor.accumulate(reader.next());
+                            variants++;
+                        }
                         reader.close();
+                        busy += System.nanoTime() - chunkStart;
+                        chunks++;
 
                         if (!childrenErrors.isEmpty()) {
                             LOG.error(Thread.currentThread() + " aborting: observed error in another child thread.");
@@ -161,7 +185,9 @@ public interface VariantAccumulatorExecutor<ACCUMULATOR extends VariantProcessor
                     childrenErrors.add(e);
                     LOG.error(e, "Unexpected exception encountered in child thread.");
                 } finally {
-                    LOG.debug(String.format("Thread %s is finishing.", Thread.currentThread()));
+                    busyNanos.add(busy);
+                    LOG.debug(String.format("Thread %s is finishing, having processed %d variants in %d chunks in %.1fs.",
+                            Thread.currentThread(), variants, chunks, busy / 1e9));
                 }
             }
         }
@@ -55,6 +55,7 @@ import java.util.Map;
  */
 public abstract class VariantIteratorProducer {
     final static int ONE_HUNDRED_MILLION = (int) 100e6;
+    final static int ONE_MILLION = (int) 1e6;
     /** 
      * Renders the embodied regions of the VCF files in the form of {@link htsjdk.samtools.util.CloseableIterator}s over
      * {@link VariantContext}s.  The iterator may perform on-the-fly filtering of these elements.
@@ -77,6 +78,15 @@ public abstract class VariantIteratorProducer {
         return new Threadsafe(VcfFileSegmentGenerator.byWholeContigSubdividingWithWidth(ONE_HUNDRED_MILLION), vcfs, null);
     }
 
+    /**
+     * Produces a chunking with about the given number of segments per VCF, each spanning about the same number of bytes of its VCF as
+     * estimated from the VCF's index, and none narrower than a megabase unless it ends a contig.  If an interval list is provided, the
+     * chunking also performs on-the-fly filtering of {@link VariantContext} by it.
+     */
+    public static VariantIteratorProducer byEstimatedSizeChunks(final List<File> vcfs, final IntervalList intervalList, final int segmentsPerVcf) {
+        return new Threadsafe(VcfFileSegmentGenerator.byEstimatedSizeFromIndex(segmentsPerVcf, ONE_MILLION), vcfs, intervalList);
+    }
+
     /**
      * A {@link VariantIteratorProducer} that is based on a given {@link VcfFileSegmentGenerator} and a list of VCFs.  The chunks are ordered by VCF, and
      * then by whatever ordering of segments are produced by {@link VcfFileSegmentGenerator#forVcf(java.io.File)} for each of those VCFs.
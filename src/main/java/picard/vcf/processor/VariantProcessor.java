@@ -111,6 +111,9 @@ public class VariantProcessor<RESULT, ACCUMULATOR extends VariantProcessor.Accum
         final List<File> inputs = new ArrayList<File>();
         int threadCount = 1;
 
+        /** The number of chunks per thread to divide each VCF into when multithreading. */
+        static final int CHUNKS_PER_THREAD = 8;
+
         Builder(final AccumulatorGenerator<A, R> accumulatorGenerator) {
             this.accumulatorGenerator = accumulatorGenerator;
         }
@@ -160,7 +163,13 @@ public class VariantProcessor<RESULT, ACCUMULATOR extends VariantProcessor.Accum
              * per tiny chunk, which is very non-performant due to some implementations of that method.
              */
             final VariantIteratorProducer ret;
-            if (intervals == null) {
+            if (threadCount > 1) {
+                /**
+                 * Variant density is very uneven, so fixed-width chunks leave a few threads with most of the work; instead, size the
+                 * chunks by how much of each VCF they span, several per thread so that threads that finish early take up the rest.
+                 */
+                ret = VariantIteratorProducer.byEstimatedSizeChunks(inputs, intervals, threadCount * CHUNKS_PER_THREAD);
+            } else if (intervals == null) {
                 ret = VariantIteratorProducer.byHundredMegabaseChunks(inputs);
             } else {
                 ret = VariantIteratorProducer.byHundredMegabaseChunksWithOnTheFlyFilteringByInterval(inputs, intervals);
@@ -35,7 +35,14 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -53,6 +60,15 @@ public abstract class VcfFileSegmentGenerator {
         return WidthLimitingDecorator.wrapping(ByWholeContig.getInstance(), segmentWidth);
     }
 
+    /**
+     * Returns a {@link VcfFileSegmentGenerator} that breaks each vcf into about the given number of segments spanning about the same number
+     * of bytes of the vcf, as estimated from its index, so that segments are narrow where variants are dense and wide where they are
+     * sparse.  No segment spans more than one contig, and no segment is narrower than the given width unless it ends a contig.
+     */
+    public static VcfFileSegmentGenerator byEstimatedSizeFromIndex(final int segmentCount, final int minimumWidth) {
+        return new ByEstimatedSize(segmentCount, minimumWidth);
+    }
+
     /**
      * Returns a decorated {@link VcfFileSegmentGenerator} that filters out {@link VcfFileSegment}s that have no overlap with the provided
      * {@link OverlapDetector}.
@@ -104,7 +120,7 @@ public abstract class VcfFileSegmentGenerator {
             });
         }
 
-        private static List<SAMSequenceRecord> readSequences(final File vcf) {
+        static List<SAMSequenceRecord> readSequences(final File vcf) {
             final VCFFileReader reader = new VCFFileReader(vcf);
             final VCFHeader header = reader.getFileHeader();
             final SAMSequenceDictionary dict = header.getSequenceDictionary();
@@ -200,4 +216,139 @@ public abstract class VcfFileSegmentGenerator {
         }
     }
 
+    /**
+     * Breaks up the provided vcfs into segments spanning about equal numbers of bytes, as estimated from their indexes.
+     * <p/>
+     * Each contig is divided into windows of the minimum width, and the bytes of each window are estimated as the distance between the
+     * file positions the index gives for the first records at the starts of it and the next window, which holds for both tribble and
+     * tabix indexes (for which the distance is between virtual file offsets, and so mostly in compressed bytes).  Consecutive windows are
+     * then gathered into segments until each reaches its share of the bytes of the whole vcf.
+     */
+    static final class ByEstimatedSize extends VcfFileSegmentGenerator {
+        final int segmentCount;
+        final int windowWidth;
+
+        ByEstimatedSize(final int segmentCount, final int windowWidth) {
+            if (segmentCount < 1) throw new IllegalArgumentException("Segment count must be at least 1.");
+            if (windowWidth < 1) throw new IllegalArgumentException("Minimum width must be at least 1.");
+            this.segmentCount = segmentCount;
+            this.windowWidth = windowWidth;
+        }
+
+        @Override
+        public Iterable<VcfFileSegment> forVcf(final File vcf) {
+            final Index index = IndexFactory.loadIndex(indexFileFor(vcf).getAbsolutePath());
+            final List<SAMSequenceRecord> sequences = ByWholeContig.readSequences(vcf);
+
+            final List<long[]> windowSizes = new ArrayList<long[]>(sequences.size());
+            long totalSize = 0;
+            for (final SAMSequenceRecord sequence : sequences) {
+                final long[] sizes = estimateWindowSizes(index, sequence);
+                for (final long size : sizes) totalSize += size;
+                windowSizes.add(sizes);
+            }
+            final long targetSize = Math.max(1, totalSize / segmentCount);
+
+            final List<VcfFileSegment> segments = new ArrayList<VcfFileSegment>();
+            for (int i = 0; i < sequences.size(); i++) {
+                final SAMSequenceRecord sequence = sequences.get(i);
+                final long[] sizes = windowSizes.get(i);
+                int segmentStart = 1;
+                long segmentSize = 0;
+                for (int window = 0; window < sizes.length; window++) {
+                    segmentSize += sizes[window];
+                    final int windowStop = (int) Math.min((long) (window + 1) * windowWidth, sequence.getSequenceLength());
+                    if (segmentSize >= targetSize || windowStop == sequence.getSequenceLength()) {
+                        segments.add(new ContigRange(vcf, sequence.getSequenceName(), segmentStart, windowStop));
+                        segmentStart = windowStop + 1;
+                        segmentSize = 0;
+                    }
+                }
+            }
+            LOG.debug(String.format("Divided %s into %d segments of about %d index bytes each.", vcf.getName(), segments.size(), targetSize));
+            return segments;
+        }
+
+        /**
+         * Estimates the bytes of the vcf in each window of the given sequence from the positions the index gives for the window starts.
+         * A window for which the index gives no position, as a tabix index does for a window in a gap between records, is estimated to
+         * have no bytes, and the bytes up to the next window with a position are counted in the last window before it that had one.
+         */
+        private long[] estimateWindowSizes(final Index index, final SAMSequenceRecord sequence) {
+            final int length = sequence.getSequenceLength();
+            final int windows = Math.max(1, (int) ((length + (long) windowWidth - 1) / windowWidth));
+            final long[] sizes = new long[windows];
+            if (!index.containsChromosome(sequence.getSequenceName())) return sizes;
+
+            final long end = endPosition(index.getBlocks(sequence.getSequenceName(), 1, Math.max(1, length)));
+            int previousWindow = -1;
+            long previous = -1;
+            for (int window = 0; window <= windows; window++) {
+                final long position;
+                if (window == windows) {
+                    position = end;
+                } else {
+                    final int windowStart = window * windowWidth + 1;
+                    final List<Block> blocks = index.getBlocks(sequence.getSequenceName(), windowStart, windowStart);
+                    if (blocks.isEmpty()) continue;
+                    position = Math.min(end, startPosition(blocks, end));
+                }
+                if (previousWindow >= 0) sizes[previousWindow] = Math.max(0, position - previous);
+                previousWindow = window;
+                previous = Math.max(previous, position);
+            }
+            return sizes;
+        }
+
+        private static long startPosition(final List<Block> blocks, final long ifNone) {
+            long start = ifNone;
+            for (final Block block : blocks) start = Math.min(start, block.getStartPosition());
+            return start;
+        }
+
+        private static long endPosition(final List<Block> blocks) {
+            long end = 0;
+            for (final Block block : blocks) end = Math.max(end, block.getEndPosition());
+            return end;
+        }
+
+        private static File indexFileFor(final File vcf) {
+            return AbstractFeatureReader.hasBlockCompressedExtension(vcf) ? Tribble.tabixIndexFile(vcf) : Tribble.indexFile(vcf);
+        }
+    }
+
+    /** A segment of a vcf spanning the given 1-based, inclusive range of one contig. */
+    static final class ContigRange extends VcfFileSegment {
+        final File vcf;
+        final String contig;
+        final int start;
+        final int stop;
+
+        ContigRange(final File vcf, final String contig, final int start, final int stop) {
+            this.vcf = vcf;
+            this.contig = contig;
+            this.start = start;
+            this.stop = stop;
+        }
+
+        @Override
+        public int start() {
+            return start;
+        }
+
+        @Override
+        public int stop() {
+            return stop;
+        }
+
+        @Override
+        public String contig() {
+            return contig;
+        }
+
+        @Override
+        public File vcf() {
+            return vcf;
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package picard.analysis;
+
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+/**
+ * Tests for AdapterUtility, checking its lookup of candidate adapters against comparing the read to every adapter kmer.
+ */
+public class AdapterUtilityTest {
+    private static final byte[] BASES = StringUtil.stringToBytes("ACGTN");
+
+    private static boolean matchesAnyKmer(final AdapterUtility adapterUtility, final byte[] read) {
+        if (read.length < 16) return false;
+        for (final byte[] kmer : adapterUtility.adapterKmers) {
+            int errors = 0;
+            for (int i = 0; i < kmer.length; ++i) {
+                if (read[i] != kmer[i]) ++errors;
+            }
+            if (errors <= 1) return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testMatchesSameReadsAsComparingEveryKmer() {
+        final AdapterUtility adapterUtility = new AdapterUtility(AdapterUtility.DEFAULT_ADAPTER_SEQUENCE);
+        final Random random = new Random(7);
+        int matches = 0;
+        for (int i = 0; i < 20000; ++i) {
+            final byte[] read = new byte[10 + random.nextInt(30)];
+            if (read.length >= 16 && random.nextBoolean()) {
+                // start from an adapter kmer and introduce up to three errors
+                final byte[] kmer = adapterUtility.adapterKmers[random.nextInt(adapterUtility.adapterKmers.length)];
+                for (int j = 0; j < read.length; ++j) read[j] = j < kmer.length ? kmer[j] : BASES[random.nextInt(4)];
+                for (int k = random.nextInt(4); k > 0; --k) read[random.nextInt(16)] = BASES[random.nextInt(BASES.length)];
+            } else {
+                for (int j = 0; j < read.length; ++j) read[j] = BASES[random.nextInt(4)];
+            }
+
+            final boolean expected = matchesAnyKmer(adapterUtility, read);
+            Assert.assertEquals(adapterUtility.isAdapterSequence(read), expected, StringUtil.bytesToString(read));
+            if (expected) ++matches;
+        }
+        Assert.assertTrue(matches > 1000);
+    }
+}
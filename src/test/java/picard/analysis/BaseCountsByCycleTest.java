@@ -0,0 +1,97 @@
+package picard.analysis;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMUtils;
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.EnumSet;
+
+/**
+ * Tests for BaseCountsByCycle.
+ */
+public class BaseCountsByCycleTest {
+    private static SAMRecord makeRecord(final String bases, final String quals, final boolean secondOfPair, final boolean negativeStrand) {
+        final SAMRecord rec = new SAMRecord(new SAMFileHeader());
+        rec.setReadName("read");
+        rec.setReadBases(StringUtil.stringToBytes(bases));
+        rec.setBaseQualities(SAMUtils.fastqToPhred(quals));
+        rec.setReadPairedFlag(true);
+        rec.setFirstOfPairFlag(!secondOfPair);
+        rec.setSecondOfPairFlag(secondOfPair);
+        rec.setReadNegativeStrandFlag(negativeStrand);
+        return rec;
+    }
+
+    @Test
+    public void testCountsByCycle() {
+        final BaseCountsByCycle counts = new BaseCountsByCycle(false, false, EnumSet.allOf(BaseCountsByCycle.Table.class));
+        Assert.assertEquals(counts.getNumBaseCycles(), 0);
+        Assert.assertEquals(counts.getNumQualityCycles(), 0);
+
+        counts.addRecord(makeRecord("ACGN", "+5?I", false, false));
+        counts.addRecord(makeRecord("AACR", "+++5", false, true)); // sequenced as RCAA
+        counts.addRecord(makeRecord("GT", "II", true, false));
+
+        Assert.assertEquals(counts.getNumBaseCycles(), 5);
+        Assert.assertEquals(counts.getNumQualityCycles(), 5);
+        Assert.assertEquals(counts.getBaseCount(0, 1, 0), 1);
+        // anything other than A, C, G or T is counted as an N
+        Assert.assertEquals(counts.getBaseCount(0, 1, 4), 1);
+        Assert.assertEquals(counts.getBaseCount(0, 4, 0), 1);
+        Assert.assertEquals(counts.getBaseCount(0, 4, 4), 1);
+        Assert.assertEquals(counts.getBaseCount(1, 1, 2), 1);
+        Assert.assertEquals(counts.getBaseCount(1, 2, 3), 1);
+        Assert.assertEquals(counts.getBaseCount(1, 3, 3), 0);
+
+        // cycle 1 of the first end has qualities 10 and 20
+        final long[] totals = counts.getQualityTotals(false, 0, 1);
+        Assert.assertEquals(totals[0], 2);
+        Assert.assertEquals(totals[1], 30);
+
+        final long[] withNoCalls = counts.getQualityDistribution(false, true);
+        final long[] withoutNoCalls = counts.getQualityDistribution(false, false);
+        Assert.assertEquals(withNoCalls[40], 3);
+        Assert.assertEquals(withoutNoCalls[40], 2);
+        Assert.assertEquals(withoutNoCalls[10], 4);
+        Assert.assertFalse(counts.hasOriginalQualities());
+    }
+
+    @Test
+    public void testQualitiesOfReadsWithoutBasesAreCounted() {
+        final BaseCountsByCycle counts = new BaseCountsByCycle(false, false, EnumSet.allOf(BaseCountsByCycle.Table.class));
+        final SAMRecord rec = makeRecord("ACG", "5?I", false, false);
+        rec.setReadBases(null);
+        counts.addRecord(rec);
+
+        Assert.assertEquals(counts.getNumBaseCycles(), 0);
+        Assert.assertEquals(counts.getNumQualityCycles(), 4);
+        Assert.assertEquals(counts.getQualityTotals(false, 0, 3)[1], 40);
+        Assert.assertEquals(counts.getQualityDistribution(false, false)[30], 1);
+    }
+
+    @Test
+    public void testSharedCountsCountEachRecordOnce() {
+        final BaseCountsByCycle counts = new BaseCountsByCycle(true, false, EnumSet.allOf(BaseCountsByCycle.Table.class));
+        final SAMRecord withoutOq = makeRecord("ACGT", "IIII", false, false);
+        counts.addRecord(withoutOq);
+        Assert.assertFalse(counts.hasOriginalQualities());
+
+        final SAMRecord rec = makeRecord("ACGT", "IIII", false, false);
+        rec.setOriginalBaseQualities(SAMUtils.fastqToPhred("++++"));
+        counts.addRecord(rec);
+        counts.addRecord(rec);
+
+        final SAMRecord failsQc = makeRecord("ACGT", "IIII", false, false);
+        failsQc.setReadFailsVendorQualityCheckFlag(true);
+        counts.addRecord(failsQc);
+
+        Assert.assertEquals(counts.getQualityDistribution(false, false)[40], 8);
+        Assert.assertTrue(counts.hasOriginalQualities());
+        Assert.assertEquals(counts.getQualityDistribution(true, false)[10], 4);
+        Assert.assertEquals(counts.getQualityTotals(true, 0, 1)[0], 1);
+        Assert.assertEquals(counts.getQualityTotals(true, 0, 1)[1], 10);
+    }
+}
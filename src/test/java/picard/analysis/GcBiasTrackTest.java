@@ -0,0 +1,113 @@
+package picard.analysis;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import picard.PicardException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Tests for GcBiasTrack, checking it against the GCs calculated by GcBiasUtils.
+ */
+public class GcBiasTrackTest {
+    private static final File REFERENCE = new File("testdata/picard/metrics/chrMNO.reference.fasta");
+    private static final int WINDOW_SIZE = 100;
+    private static final int BINS = 101;
+
+    private File tempDir;
+
+    @BeforeClass
+    public void setUp() {
+        tempDir = IOUtil.createTempDir("GcBiasTrackTest", null);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(tempDir);
+    }
+
+    @Test
+    public void testTrackMatchesCalculatedGcs() throws IOException {
+        final File track = new File(tempDir, "chrMNO.gc");
+        final GcBiasTrack gcBiasTrack = GcBiasTrack.openOrCreate(track, REFERENCE, WINDOW_SIZE, BINS);
+        Assert.assertEquals(gcBiasTrack.getWindowSize(), WINDOW_SIZE);
+        Assert.assertEquals(gcBiasTrack.getWindowsByGc(), GcBiasUtils.calculateRefWindowsByGc(BINS, REFERENCE, WINDOW_SIZE));
+
+        final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE);
+        ReferenceSequence ref;
+        while ((ref = refFile.nextSequence()) != null) {
+            final byte[] refBases = ref.getBases();
+            StringUtil.toUpperCase(refBases);
+            final byte[] expected = GcBiasUtils.calculateAllGcs(refBases, refBases.length - WINDOW_SIZE, WINDOW_SIZE);
+            final ByteBuffer actual = gcBiasTrack.getGcs(ref.getContigIndex());
+            Assert.assertEquals(actual.remaining(), expected.length);
+            for (int i = 0; i < expected.length; ++i) Assert.assertEquals(actual.get(i), expected[i]);
+        }
+        refFile.close();
+
+        // a second run uses the track as it is
+        final long lastModified = track.lastModified();
+        Assert.assertEquals(GcBiasTrack.openOrCreate(track, REFERENCE, WINDOW_SIZE, BINS).getWindowsByGc(), gcBiasTrack.getWindowsByGc());
+        Assert.assertEquals(track.lastModified(), lastModified);
+
+        // and no temporary files are left behind
+        for (final File file : tempDir.listFiles()) {
+            Assert.assertFalse(file.getName().startsWith(track.getName()) && !file.equals(track), file.getName());
+        }
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testTrackWithOtherWindowSizeIsRejected() {
+        final File track = new File(tempDir, "chrMNO.50.gc");
+        GcBiasTrack.openOrCreate(track, REFERENCE, 50, BINS).assertMatches(WINDOW_SIZE, BINS, null, null);
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testTrackWithOtherBinsIsRejected() {
+        // GCs are percentages, so there can be more bins than the 101 needed but not fewer
+        final File track = new File(tempDir, "chrMNO.bins.gc");
+        GcBiasTrack.openOrCreate(track, REFERENCE, WINDOW_SIZE, 2 * BINS).assertMatches(WINDOW_SIZE, BINS, null, null);
+    }
+
+    @Test
+    public void testTrackIsCheckedAgainstMd5s() throws NoSuchAlgorithmException {
+        final File track = new File(tempDir, "chrMNO.md5.gc");
+        final GcBiasTrack gcBiasTrack = GcBiasTrack.openOrCreate(track, REFERENCE, WINDOW_SIZE, BINS);
+
+        final SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+        final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE);
+        ReferenceSequence ref;
+        while ((ref = refFile.nextSequence()) != null) {
+            final byte[] refBases = ref.getBases();
+            StringUtil.toUpperCase(refBases);
+            final SAMSequenceRecord sequence = new SAMSequenceRecord(ref.getName(), refBases.length);
+            sequence.setAttribute(SAMSequenceRecord.MD5_TAG, SequenceUtil.calculateMD5String(refBases));
+            dictionary.addSequence(sequence);
+        }
+        CloserUtil.close(refFile);
+        gcBiasTrack.assertMatches(WINDOW_SIZE, BINS, REFERENCE, dictionary);
+
+        // the same names and lengths, but other bases
+        dictionary.getSequence(0).setAttribute(SAMSequenceRecord.MD5_TAG, SequenceUtil.calculateMD5String(new byte[0]));
+        try {
+            gcBiasTrack.assertMatches(WINDOW_SIZE, BINS, REFERENCE, dictionary);
+            Assert.fail("A track for other bases should be rejected.");
+        } catch (final PicardException e) {
+            // expected
+        }
+    }
+}
@@ -11,11 +11,13 @@ import htsjdk.samtools.util.CloserUtil;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
+import picard.metrics.MergeablePerUnitMetricCollector;
 import picard.metrics.MultiLevelCollector;
 import picard.metrics.MultilevelMetrics;
 import picard.metrics.PerUnitMetricCollector;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -126,6 +128,65 @@ public class MultiLevelCollectorTest {
         }
     }
 
+    /** Counts records as RecordCountMultiLevelCollector does, but accepts each record once and merges by read group */
+    class MergingRecordCountMultiLevelCollector extends MultiLevelCollector<TotalNumberMetric, Integer, TestArg> {
+        private int numProcessed = 0;
+
+        public MergingRecordCountMultiLevelCollector(final Set<MetricAccumulationLevel> accumulationLevels, final List<SAMReadGroupRecord> samRgRecords) {
+            setup(accumulationLevels, samRgRecords);
+        }
+
+        public int getNumProcessed() {
+            return numProcessed;
+        }
+
+        @Override
+        protected boolean mergesChildCollectors() {
+            return true;
+        }
+
+        @Override
+        protected TestArg makeArg(final SAMRecord samRec, final ReferenceSequence refSeq) {
+            return new TestArg(samRec, refSeq);
+        }
+
+        @Override
+        protected PerUnitMetricCollector<TotalNumberMetric, Integer, TestArg> makeChildCollector(final String sample, final String library, final String readGroup) {
+            return new MergingRecordCountPerUnitCollector(sample, library, readGroup);
+        }
+
+        private class MergingRecordCountPerUnitCollector implements MergeablePerUnitMetricCollector<TotalNumberMetric, Integer, TestArg> {
+            private final TotalNumberMetric metric = new TotalNumberMetric();
+
+            public MergingRecordCountPerUnitCollector(final String sample, final String library, final String readGroup) {
+                metric.SAMPLE     = sample;
+                metric.LIBRARY    = library;
+                metric.READ_GROUP = readGroup;
+            }
+
+            @Override
+            public void acceptRecord(final TestArg args) {
+                numProcessed += 1;
+                metric.TALLY += 1;
+            }
+
+            @Override
+            public void merge(final PerUnitMetricCollector<TotalNumberMetric, Integer, TestArg> other) {
+                metric.TALLY += ((MergingRecordCountPerUnitCollector) other).metric.TALLY;
+            }
+
+            @Override
+            public void finish() {
+                metric.FINISHED = true;
+            }
+
+            @Override
+            public void addMetricsToFile(final MetricsFile<TotalNumberMetric, Integer> totalNumberMetricIntegerMetricsFile) {
+                totalNumberMetricIntegerMetricsFile.addMetric(metric);
+            }
+        }
+    }
+
     public static final Map<MetricAccumulationLevel, Map<String, Integer>> accumulationLevelToPerUnitReads = new HashMap<MetricAccumulationLevel, Map<String, Integer>>();
     static {
         HashMap<String, Integer> curMap = new HashMap<String, Integer>();
@@ -192,4 +253,38 @@ public class MultiLevelCollectorTest {
         Assert.assertEquals(totalProcessed, collector.getNumProcessed());
         CloserUtil.close(in);
     }
+
+    private List<String> describe(final List<TotalNumberMetric> metrics) {
+        final List<String> descriptions = new ArrayList<String>();
+        for (final TotalNumberMetric metric : metrics) {
+            descriptions.add(metric.SAMPLE + "_" + metric.LIBRARY + "_" + metric.READ_GROUP + ":" + metric.TALLY + ":" + metric.FINISHED);
+        }
+        return descriptions;
+    }
+
+    @Test(dataProvider = "variedAccumulationLevels")
+    public void testMergingMatchesAcceptingAtEveryLevel(final Set<MetricAccumulationLevel> accumulationLevels) {
+        final SamReader in = SamReaderFactory.makeDefault().open(TESTFILE);
+        final RecordCountMultiLevelCollector collector = new RecordCountMultiLevelCollector(accumulationLevels, in.getFileHeader().getReadGroups());
+        final MergingRecordCountMultiLevelCollector mergingCollector = new MergingRecordCountMultiLevelCollector(accumulationLevels, in.getFileHeader().getReadGroups());
+
+        int numRecords = 0;
+        for (final SAMRecord rec : in) {
+            collector.acceptRecord(rec, null);
+            mergingCollector.acceptRecord(rec, null);
+            ++numRecords;
+        }
+        collector.finish();
+        mergingCollector.finish();
+
+        final MetricsFile<TotalNumberMetric, Integer> expected = new MetricsFile<TotalNumberMetric, Integer>();
+        final MetricsFile<TotalNumberMetric, Integer> actual = new MetricsFile<TotalNumberMetric, Integer>();
+        collector.addAllLevelsToFile(expected);
+        mergingCollector.addAllLevelsToFile(actual);
+        Assert.assertEquals(describe(actual.getMetrics()), describe(expected.getMetrics()));
+
+        // with more than one level each record is only accepted once
+        if (accumulationLevels.size() > 1) Assert.assertEquals(mergingCollector.getNumProcessed(), numRecords);
+        CloserUtil.close(in);
+    }
 }
@@ -10,6 +10,7 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.List;
 
 public class CollectIlluminaBasecallingMetricsTest {
     private static final File TEST_DATA_DIR = new File("testdata/picard/illumina/CollectIlluminaBasecallingMetrics");
@@ -144,7 +145,23 @@ public class CollectIlluminaBasecallingMetricsTest {
         Assert.assertEquals(metricsFile.getMetrics().size(),1);
     }
 
+    @Test
+    public void testTilesInParallelMatchSequential() throws Exception {
+        for (final boolean isIndexed : new boolean[]{true, false}) {
+            final String readStructure = isIndexed ? "25T8B25T" : "125T125T";
+            final String basecallsDirName = readStructure + "/Data/Intensities/BaseCalls";
+            final List<IlluminaBasecallingMetrics> sequential = runIt(1, readStructure, basecallsDirName, isIndexed, 1).getMetrics();
+            final List<IlluminaBasecallingMetrics> parallel = runIt(1, readStructure, basecallsDirName, isIndexed, 4).getMetrics();
+            Assert.assertEquals(parallel, sequential);
+        }
+    }
+
     private MetricsFile<IlluminaBasecallingMetrics, Integer> runIt(final int lane, final String readStructure, final String basecallsDirName, final boolean isIndexed) throws Exception {
+        return runIt(lane, readStructure, basecallsDirName, isIndexed, 1);
+    }
+
+    private MetricsFile<IlluminaBasecallingMetrics, Integer> runIt(final int lane, final String readStructure, final String basecallsDirName,
+                                                                   final boolean isIndexed, final int numProcessors) throws Exception {
         final File metricsFile = File.createTempFile("cibm.", ".metrics");
         metricsFile.deleteOnExit();
 
@@ -154,6 +171,7 @@ public class CollectIlluminaBasecallingMetricsTest {
         argsList.add("BASECALLS_DIR=" + basecallsDir.getPath());
         argsList.add("LANE=" + lane);
         argsList.add("OUTPUT=" + metricsFile.getPath());
+        argsList.add("NUM_PROCESSORS=" + numProcessors);
 
         if (readStructure != null) argsList.add("READ_STRUCTURE=" + readStructure);
         if (isIndexed) argsList.add("INPUT=" + new File(basecallsDir.getPath(),"barcodeData." + lane).getPath());
@@ -23,11 +23,14 @@
  */
 package picard.illumina;
 
+import htsjdk.samtools.fastq.FastqReader;
+import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.util.BufferedLineReader;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.LineReader;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.samtools.util.TestUtil;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 import picard.cmdline.CommandLineProgramTest;
 import picard.illumina.parser.ReadStructure;
@@ -37,6 +40,7 @@ import java.io.FileInputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class IlluminaBasecallsToFastqTest extends CommandLineProgramTest {
@@ -76,6 +80,67 @@ public class IlluminaBasecallsToFastqTest extends CommandLineProgramTest {
         IOUtil.assertFilesEqual(outputFastq2, new File(TEST_DATA_DIR, "nonBarcoded.2.fastq"));
     }
 
+    @Test
+    public void testNonBarcodedWithoutSortingWithinTiles() throws Exception {
+        final String suffix = ".1.fastq.gz";
+        final File outputFastq1 = File.createTempFile("nonBarcodedUnsorted.", suffix);
+        outputFastq1.deleteOnExit();
+        final String outputPrefix = outputFastq1.getAbsolutePath().substring(0, outputFastq1.getAbsolutePath().length() - suffix.length());
+        final File outputFastq2 = new File(outputPrefix + ".2.fastq.gz");
+        outputFastq2.deleteOnExit();
+        runPicardCommandLine(new String[]{
+                "BASECALLS_DIR=" + BASECALLS_DIR,
+                "LANE=1",
+                "READ_STRUCTURE=25T8B25T",
+                "OUTPUT_PREFIX=" + outputPrefix,
+                "RUN_BARCODE=HiMom",
+                "MACHINE_NAME=machine1",
+                "FLOWCELL_BARCODE=abcdeACXX",
+                "COMPRESS_OUTPUTS=true",
+                "SORT_WITHIN_TILES=false",
+                "NUM_PROCESSORS=4",
+                "MAX_READS_IN_RAM_PER_TILE=100" //force later tiles to wait for earlier ones
+        });
+        assertSameRecordsInTileOrder(outputFastq1, new File(TEST_DATA_DIR, "nonBarcoded.1.fastq"));
+        assertSameRecordsInTileOrder(outputFastq2, new File(TEST_DATA_DIR, "nonBarcoded.2.fastq"));
+    }
+
+    /**
+     * Asserts that the FASTQs have the same records with the same tiles in the same order, though the records within
+     * each tile may be in a different order.
+     */
+    private void assertSameRecordsInTileOrder(final File actual, final File expected) {
+        final List<FastqRecord> actualRecords = readFastq(actual);
+        final List<FastqRecord> expectedRecords = readFastq(expected);
+        Assert.assertEquals(tileOrder(actualRecords), tileOrder(expectedRecords));
+        Assert.assertEquals(sortedRecords(actualRecords), sortedRecords(expectedRecords));
+    }
+
+    private List<FastqRecord> readFastq(final File fastq) {
+        final FastqReader reader = new FastqReader(fastq);
+        final List<FastqRecord> records = new ArrayList<FastqRecord>();
+        for (final FastqRecord record : reader) records.add(record);
+        reader.close();
+        return records;
+    }
+
+    /** Returns the tiles of the records, in the order in which they first appear. */
+    private List<String> tileOrder(final List<FastqRecord> records) {
+        final List<String> tiles = new ArrayList<String>();
+        for (final FastqRecord record : records) {
+            final String tile = record.getReadHeader().split(":")[4];
+            if (tiles.isEmpty() || !tiles.get(tiles.size() - 1).equals(tile)) tiles.add(tile);
+        }
+        return tiles;
+    }
+
+    private List<String> sortedRecords(final List<FastqRecord> records) {
+        final List<String> strings = new ArrayList<String>();
+        for (final FastqRecord record : records) strings.add(record.getReadHeader() + "\n" + record.getReadString() + "\n" + record.getBaseQualityString());
+        Collections.sort(strings);
+        return strings;
+    }
+
     @Test
     public void testMultiplexWithIlluminaReadNameHeaders() throws Exception {
         final File outputDir = File.createTempFile("testMultiplexRH.", ".dir");
@@ -117,6 +182,11 @@ public class IlluminaBasecallsToFastqTest extends CommandLineProgramTest {
         runStandardTest(1, "multiplexedBarcode.", "mp_barcode.params", 1, "25T8B25T", BASECALLS_DIR, TEST_DATA_DIR);
     }
 
+    @Test
+    public void testDeMultiplexedWithoutSortingWithinTiles() throws Exception {
+        runStandardTest(1, "multiplexedBarcodeUnsorted.", "mp_barcode.params", 1, "25T8B25T", BASECALLS_DIR, TEST_DATA_DIR, false);
+    }
+
     @Test
     public void testDeMultiplexedWithIndex() throws Exception {
         runStandardTest(1, "multiplexedBarcodeWithIndex.", "mp_barcode.params", 1, "25T8B4M21T", BASECALLS_DIR, TEST_DATA_DIR_WITH_4M);
@@ -150,6 +220,16 @@ public class IlluminaBasecallsToFastqTest extends CommandLineProgramTest {
     private void runStandardTest(final int lane, final String jobName, final String libraryParamsFile,
                                  final int concatNColumnFields, final String readStructureString, final File baseCallsDir,
                                  final File testDataDir) throws Exception {
+        runStandardTest(lane, jobName, libraryParamsFile, concatNColumnFields, readStructureString, baseCallsDir, testDataDir, true);
+    }
+
+    /**
+     * As runStandardTest above, but if sortWithinTiles is false, with SORT_WITHIN_TILES=false, and comparing only the
+     * records of each tile and the order of the tiles.
+     */
+    private void runStandardTest(final int lane, final String jobName, final String libraryParamsFile,
+                                 final int concatNColumnFields, final String readStructureString, final File baseCallsDir,
+                                 final File testDataDir, final boolean sortWithinTiles) throws Exception {
         final File outputDir = File.createTempFile(jobName, ".dir");
         try {
             outputDir.delete();
@@ -185,6 +265,7 @@ public class IlluminaBasecallsToFastqTest extends CommandLineProgramTest {
                     "MULTIPLEX_PARAMS=" + libraryParams,
                     "MACHINE_NAME=machine1",
                     "FLOWCELL_BARCODE=abcdeACXX",
+                    "SORT_WITHIN_TILES=" + sortWithinTiles,
                     "MAX_READS_IN_RAM_PER_TILE=100" //force spill to disk to test encode/decode
             });
 
@@ -192,19 +273,24 @@ public class IlluminaBasecallsToFastqTest extends CommandLineProgramTest {
             for (final File outputSam : outputPrefixes) {
                 for (int i = 1; i <= readStructure.templates.length(); ++i) {
                     final String filename = outputSam.getName() + "." + i + ".fastq";
-                    IOUtil.assertFilesEqual(new File(outputSam.getParentFile(), filename), new File(testDataDir, filename));
+                    assertFilesMatch(new File(outputSam.getParentFile(), filename), new File(testDataDir, filename), sortWithinTiles);
                 }
                 for (int i = 1; i <= readStructure.sampleBarcodes.length(); ++i) {
                     final String filename = outputSam.getName() + ".barcode_" + i + ".fastq";
-                    IOUtil.assertFilesEqual(new File(outputSam.getParentFile(), filename), new File(testDataDir, filename));
+                    assertFilesMatch(new File(outputSam.getParentFile(), filename), new File(testDataDir, filename), sortWithinTiles);
                 }
                 for (int i = 1; i <= readStructure.molecularBarcode.length(); ++i) {
                     final String filename = outputSam.getName() + ".index_" + i + ".fastq";
-                    IOUtil.assertFilesEqual(new File(outputSam.getParentFile(), filename), new File(testDataDir, filename));
+                    assertFilesMatch(new File(outputSam.getParentFile(), filename), new File(testDataDir, filename), sortWithinTiles);
                 }
             }
         } finally {
             TestUtil.recursiveDelete(outputDir);
         }
     }
+
+    private void assertFilesMatch(final File actual, final File expected, final boolean sortWithinTiles) {
+        if (sortWithinTiles) IOUtil.assertFilesEqual(actual, expected);
+        else assertSameRecordsInTileOrder(actual, expected);
+    }
 }
@@ -36,14 +36,30 @@ public class CompareSAMsTest extends CommandLineProgramTest {
         return CompareSAMs.class.getSimpleName();
     }
 
+    private String[] makeArgs(final String f1, final String f2, final String... options) {
+        final String[] args = new String[2 + options.length];
+        args[0] = new File(TEST_FILES_DIR, f1).getAbsolutePath();
+        args[1] = new File(TEST_FILES_DIR, f2).getAbsolutePath();
+        System.arraycopy(options, 0, args, 2, options.length);
+        return args;
+    }
+
     private void testHelper(final String f1, final String f2, final int expectedMatch, final int expectedDiffer,
                             final int expectedUnmappedBoth,
                             final int expectedUnmappedLeft, final int expectedUnmappedRight, final int expectedMissingLeft,
                             final int expectedMissingRight, final boolean areEqual) {
-        final String[] samFiles = {
-                new File(TEST_FILES_DIR, f1).getAbsolutePath(),
-                new File(TEST_FILES_DIR, f2).getAbsolutePath()
-        };
+        runComparison(f1, f2, expectedMatch, expectedDiffer, expectedUnmappedBoth, expectedUnmappedLeft, expectedUnmappedRight,
+                expectedMissingLeft, expectedMissingRight, areEqual);
+        // Spill every unmatched read to disk and compare the partitions in parallel
+        runComparison(f1, f2, expectedMatch, expectedDiffer, expectedUnmappedBoth, expectedUnmappedLeft, expectedUnmappedRight,
+                expectedMissingLeft, expectedMissingRight, areEqual, "MAX_RECORDS_IN_RAM=1", "NUM_THREADS=4");
+    }
+
+    private void runComparison(final String f1, final String f2, final int expectedMatch, final int expectedDiffer,
+                               final int expectedUnmappedBoth,
+                               final int expectedUnmappedLeft, final int expectedUnmappedRight, final int expectedMissingLeft,
+                               final int expectedMissingRight, final boolean areEqual, final String... options) {
+        final String[] samFiles = makeArgs(f1, f2, options);
 
         // TODO - Should switch over to using invocation via new PicardCommandLine() - BUT the test here is accessing class members directly.
         CompareSAMs compareSAMs = new CompareSAMs();
@@ -57,10 +73,7 @@ public class CompareSAMsTest extends CommandLineProgramTest {
         Assert.assertEquals(expectedMissingLeft, compareSAMs.getMissingLeft());
         Assert.assertEquals(expectedMissingRight, compareSAMs.getMissingRight());
 
-        final String[] samFilesReversed = {
-                new File(TEST_FILES_DIR, f2).getAbsolutePath(),
-                new File(TEST_FILES_DIR, f1).getAbsolutePath()
-        };
+        final String[] samFilesReversed = makeArgs(f2, f1, options);
         compareSAMs = new CompareSAMs();
         compareSAMs.instanceMain(samFilesReversed);
         Assert.assertEquals(areEqual, compareSAMs.areEqual());
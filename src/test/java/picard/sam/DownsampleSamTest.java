@@ -0,0 +1,106 @@
+package picard.sam;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import picard.cmdline.CommandLineProgramTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DownsampleSamTest extends CommandLineProgramTest {
+    private File tempDir;
+    private File input;
+
+    @Override
+    public String getCommandLineProgramName() {
+        return DownsampleSam.class.getSimpleName();
+    }
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        tempDir = IOUtil.createTempDir("DownsampleSamTest", null);
+        input = new File(tempDir, "input.bam");
+
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        final Random random = new Random(13);
+        for (int i = 0; i < 2000; ++i) {
+            builder.addPair("pair" + i, random.nextInt(3), 1 + random.nextInt(10000), 1 + random.nextInt(10000));
+        }
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(builder.getHeader(), false, input);
+        for (final SAMRecord record : builder) writer.addAlignment(record);
+        writer.close();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(tempDir);
+    }
+
+    private List<String> readNames(final File file) {
+        final List<String> names = new ArrayList<String>();
+        final SamReader reader = SamReaderFactory.makeDefault().open(file);
+        for (final SAMRecord record : reader) names.add(record.getReadName() + (record.getFirstOfPairFlag() ? "/1" : "/2"));
+        CloserUtil.close(reader);
+        return names;
+    }
+
+    @Test
+    public void testAdditionalProbabilitiesMatchSeparateRunsAndAreNested() {
+        final double[] probabilities = {0.5, 0.2, 0.8};
+        final File[] separateOutputs = new File[probabilities.length];
+        for (int i = 0; i < probabilities.length; ++i) {
+            separateOutputs[i] = new File(tempDir, "separate" + i + ".bam");
+            Assert.assertEquals(runPicardCommandLine(new String[]{
+                    "INPUT=" + input.getAbsolutePath(),
+                    "OUTPUT=" + separateOutputs[i].getAbsolutePath(),
+                    "PROBABILITY=" + probabilities[i]
+            }), 0);
+        }
+
+        final File[] outputs = new File[probabilities.length];
+        for (int i = 0; i < probabilities.length; ++i) outputs[i] = new File(tempDir, "combined" + i + ".bam");
+        Assert.assertEquals(runPicardCommandLine(new String[]{
+                "INPUT=" + input.getAbsolutePath(),
+                "OUTPUT=" + outputs[0].getAbsolutePath(),
+                "PROBABILITY=" + probabilities[0],
+                "ADDITIONAL_PROBABILITY=" + probabilities[1],
+                "ADDITIONAL_OUTPUT=" + outputs[1].getAbsolutePath(),
+                "ADDITIONAL_PROBABILITY=" + probabilities[2],
+                "ADDITIONAL_OUTPUT=" + outputs[2].getAbsolutePath()
+        }), 0);
+
+        for (int i = 0; i < probabilities.length; ++i) {
+            Assert.assertEquals(readNames(outputs[i]), readNames(separateOutputs[i]));
+        }
+        Assert.assertTrue(readNames(outputs[0]).containsAll(readNames(outputs[1])));
+        Assert.assertTrue(readNames(outputs[2]).containsAll(readNames(outputs[0])));
+        Assert.assertTrue(readNames(outputs[1]).size() < readNames(outputs[0]).size());
+        Assert.assertTrue(readNames(outputs[0]).size() < readNames(outputs[2]).size());
+    }
+
+    @Test
+    public void testAdditionalProbabilitiesRequireConstantMemoryStrategy() {
+        Assert.assertEquals(runPicardCommandLine(new String[]{
+                "INPUT=" + input.getAbsolutePath(),
+                "OUTPUT=" + new File(tempDir, "highAccuracy.bam").getAbsolutePath(),
+                "PROBABILITY=0.5",
+                "STRATEGY=HighAccuracy",
+                "ADDITIONAL_PROBABILITY=0.2",
+                "ADDITIONAL_OUTPUT=" + new File(tempDir, "highAccuracy2.bam").getAbsolutePath()
+        }), 1);
+    }
+}
@@ -1,14 +1,35 @@
 package picard.sam;
 
+import htsjdk.samtools.BAMIndex;
 import htsjdk.samtools.BamFileIoUtils;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 import picard.cmdline.CommandLineProgramTest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 public class GatherBamFilesTest extends CommandLineProgramTest {
     private static final File TEST_DATA_DIR = new File("testdata/picard/sam/GatherBamFiles");
@@ -64,4 +85,180 @@ public class GatherBamFilesTest extends CommandLineProgramTest {
         compareSAMs.doWork();
         Assert.assertFalse(compareSAMs.areEqual());
     }
+
+    @Test
+    public void testStreamingBlockCopyGathering() throws Exception {
+        final File outputFile = File.createTempFile("gatherBamFilesTest.samFile.", BamFileIoUtils.BAM_FILE_EXTENSION);
+        outputFile.deleteOnExit();
+        final File indexFile = new File(outputFile.getParentFile(), IOUtil.basename(outputFile) + BAMIndex.BAMIndexSuffix);
+        indexFile.deleteOnExit();
+        final List<String> args = new ArrayList<String>();
+        for (final File splitBam : SPLIT_BAMS) {
+            args.add("INPUT=" + splitBam.getAbsolutePath());
+        }
+        args.add("OUTPUT=" + outputFile);
+        args.add("STREAMING_BLOCK_COPY=true");
+        args.add("NUM_THREADS=4");
+        args.add("CREATE_INDEX=true");
+        Assert.assertEquals(runPicardCommandLine(args), 0);
+
+        final CompareSAMs compareSAMs = new CompareSAMs();
+        compareSAMs.samFiles = Arrays.asList(ORIG_BAM, outputFile);
+        compareSAMs.doWork();
+        Assert.assertTrue(compareSAMs.areEqual());
+
+        // Every mapped record must be reachable through the index built during copying
+        Assert.assertTrue(indexFile.exists());
+        final SamReader reader = SamReaderFactory.makeDefault().open(outputFile);
+        Assert.assertTrue(reader.hasIndex());
+        final int[] expectedCounts = new int[reader.getFileHeader().getSequenceDictionary().size()];
+        final SAMRecordIterator all = reader.iterator();
+        while (all.hasNext()) {
+            final SAMRecord rec = all.next();
+            if (!rec.getReadUnmappedFlag()) ++expectedCounts[rec.getReferenceIndex()];
+        }
+        all.close();
+
+        for (final SAMSequenceRecord sequence : reader.getFileHeader().getSequenceDictionary().getSequences()) {
+            int queried = 0;
+            final SAMRecordIterator iterator = reader.queryOverlapping(sequence.getSequenceName(), 0, 0);
+            while (iterator.hasNext()) {
+                if (!iterator.next().getReadUnmappedFlag()) ++queried;
+            }
+            iterator.close();
+            Assert.assertEquals(queried, expectedCounts[sequence.getSequenceIndex()], sequence.getSequenceName());
+        }
+        CloserUtil.close(reader);
+    }
+
+    @Test
+    public void testStreamingBlockCopyIndexesHeaderRemainderSpanningBlocks() throws Exception {
+        // A BGZF writer may fill blocks with more uncompressed bytes than htsjdk does, so the records following the header
+        // in the first block of an input can be more than fit in one block of the output
+        final SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("1", 100000000));
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        final File first = File.createTempFile("gatherBamFilesTest.first.", BamFileIoUtils.BAM_FILE_EXTENSION);
+        first.deleteOnExit();
+        writeBam(first, header, 0, 10);
+
+        final File records = File.createTempFile("gatherBamFilesTest.records.", BamFileIoUtils.BAM_FILE_EXTENSION);
+        records.deleteOnExit();
+        writeBam(records, header, 10, 1000);
+        final byte[] recordBytes = recordBytes(records);
+
+        // The shortest possible header, with no text and the single sequence, then records up to a full block
+        final ByteBuffer rawHeader = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        rawHeader.put(new byte[]{'B', 'A', 'M', 1}).putInt(0).putInt(1).putInt(2).put(new byte[]{'1', 0}).putInt(100000000);
+        final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        uncompressed.write(rawHeader.array());
+        uncompressed.write(recordBytes);
+        final byte[] bytes = uncompressed.toByteArray();
+
+        final int blockSize = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+        final int remainder = blockSize - rawHeader.capacity();
+        boolean recordStartsInSecondOutputBlock = false;
+        for (int position = 0; position < remainder; position += 4 + ByteBuffer.wrap(recordBytes, position, 4).order(ByteOrder.LITTLE_ENDIAN).getInt()) {
+            recordStartsInSecondOutputBlock |= position >= BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+        }
+        Assert.assertTrue(recordStartsInSecondOutputBlock, "No record starts past the first output block of the header remainder.");
+
+        final File second = File.createTempFile("gatherBamFilesTest.second.", BamFileIoUtils.BAM_FILE_EXTENSION);
+        second.deleteOnExit();
+        try (final OutputStream out = new FileOutputStream(second)) {
+            for (int from = 0; from < bytes.length; from += blockSize) {
+                writeBgzfBlock(out, bytes, from, Math.min(bytes.length, from + blockSize));
+            }
+            out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+        }
+
+        final File outputFile = File.createTempFile("gatherBamFilesTest.samFile.", BamFileIoUtils.BAM_FILE_EXTENSION);
+        outputFile.deleteOnExit();
+        final File indexFile = new File(outputFile.getParentFile(), IOUtil.basename(outputFile) + BAMIndex.BAMIndexSuffix);
+        indexFile.deleteOnExit();
+        final List<String> args = new ArrayList<String>();
+        args.add("INPUT=" + first.getAbsolutePath());
+        args.add("INPUT=" + second.getAbsolutePath());
+        args.add("OUTPUT=" + outputFile);
+        args.add("STREAMING_BLOCK_COPY=true");
+        args.add("CREATE_INDEX=true");
+        Assert.assertEquals(runPicardCommandLine(args), 0);
+
+        // Each record lies alone in its own stretch of the sequence, so querying its start reads from its own offset
+        final SamReader reader = SamReaderFactory.makeDefault().open(outputFile);
+        Assert.assertTrue(reader.hasIndex());
+        int count = 0;
+        for (final SAMRecord rec : reader) {
+            final SamReader queryReader = SamReaderFactory.makeDefault().open(outputFile);
+            final SAMRecordIterator iterator = queryReader.queryOverlapping(rec.getReferenceName(), rec.getAlignmentStart(), rec.getAlignmentStart());
+            Assert.assertTrue(iterator.hasNext(), rec.getReadName());
+            Assert.assertEquals(iterator.next().getReadName(), rec.getReadName());
+            iterator.close();
+            CloserUtil.close(queryReader);
+            ++count;
+        }
+        Assert.assertEquals(count, 1010);
+        CloserUtil.close(reader);
+    }
+
+    /** Writes the given number of records, numbered from the given one, each alone in its own 20kb of the sequence. */
+    private static void writeBam(final File file, final SAMFileHeader header, final int from, final int count) {
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, file);
+        final byte[] bases = new byte[36];
+        final byte[] qualities = new byte[36];
+        for (int i = from; i < from + count; ++i) {
+            for (int j = 0; j < bases.length; ++j) {
+                bases[j] = (byte) "ACGT".charAt((i + j * j) % 4);
+                qualities[j] = (byte) (10 + (i + j) % 30);
+            }
+            final SAMRecord rec = new SAMRecord(header);
+            rec.setReadName(String.format("r%04d", i));
+            rec.setReferenceIndex(0);
+            rec.setAlignmentStart(1 + 20000 * i);
+            rec.setCigarString("36M");
+            rec.setMappingQuality(60);
+            rec.setReadBases(bases.clone());
+            rec.setBaseQualities(qualities.clone());
+            writer.addAlignment(rec);
+        }
+        writer.close();
+    }
+
+    /** Returns the uncompressed bytes of the records of the given BAM file, that is everything after its header. */
+    private static byte[] recordBytes(final File bam) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final BlockCompressedInputStream in = new BlockCompressedInputStream(bam)) {
+            IOUtil.copyStream(in, bytes);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        int position = 4; // magic
+        position += 4 + buffer.getInt(position); // text
+        final int numSequences = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < numSequences; ++i) position += 4 + buffer.getInt(position) + 4; // name and length
+        return Arrays.copyOfRange(buffer.array(), position, buffer.limit());
+    }
+
+    /** Writes the given uncompressed bytes as a single BGZF block, however many there are up to the maximum of 64kb. */
+    private static void writeBgzfBlock(final OutputStream out, final byte[] bytes, final int from, final int to) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final byte[] compressed = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+        deflater.setInput(bytes, from, to - from);
+        deflater.finish();
+        final int compressedLength = deflater.deflate(compressed);
+        Assert.assertTrue(deflater.finished());
+        deflater.end();
+
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, from, to - from);
+        final ByteBuffer block = ByteBuffer.allocate(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + compressedLength + 8)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        block.put(new byte[]{31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C', 2, 0});
+        block.putShort((short) (block.capacity() - 1));
+        block.put(compressed, 0, compressedLength);
+        block.putInt((int) crc.getValue());
+        block.putInt(to - from);
+        out.write(block.array());
+    }
 }
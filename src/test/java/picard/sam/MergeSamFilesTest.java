@@ -34,6 +34,9 @@ import picard.cmdline.CommandLineProgramTest;
 import picard.sam.testers.ValidateSamTester;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class MergeSamFilesTest extends CommandLineProgramTest {
     private static final File TEST_DATA_DIR = new File("testdata/picard/sam/MergeSamFiles");
@@ -63,4 +66,30 @@ public class MergeSamFilesTest extends CommandLineProgramTest {
         new ValidateSamTester().assertSamValid(mergedOutput);
         CloserUtil.close(reader);
     }
+
+    /**
+     * Confirm that reading coordinate sorted inputs on background threads gives the same result as reading them on the main thread.
+     */
+    @Test
+    public void readThreadingTest() throws Exception {
+        final File inputDir = new File("testdata/picard/sam/GatherBamFiles");
+        final File[] mergedOutputs = new File[2];
+        for (int i = 0; i < mergedOutputs.length; ++i) {
+            mergedOutputs[i] = File.createTempFile("readThreadingTest.", BamFileIoUtils.BAM_FILE_EXTENSION);
+            mergedOutputs[i].deleteOnExit();
+            final List<String> args = new ArrayList<String>();
+            for (final String chrom : new String[]{"chr1", "chr2", "chr3", "chr4", "chr5", "chr6", "chr7", "chr8", "UnknownChrom"}) {
+                args.add("I=" + new File(inputDir, "ind" + chrom + ".bam").getAbsolutePath());
+            }
+            args.add("O=" + mergedOutputs[i].getAbsolutePath());
+            args.add("SO=coordinate");
+            args.add("USE_READ_THREADING=" + (i == 1));
+            Assert.assertEquals(runPicardCommandLine(args), 0);
+        }
+
+        final CompareSAMs compareSAMs = new CompareSAMs();
+        compareSAMs.samFiles = Arrays.asList(mergedOutputs);
+        compareSAMs.doWork();
+        Assert.assertTrue(compareSAMs.areEqual());
+    }
 }
@@ -0,0 +1,239 @@
+package picard.sam;
+
+import htsjdk.samtools.BamIndexValidator.IndexValidationStringency;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.metrics.MetricBase;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.Histogram;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import picard.cmdline.CommandLineProgramTest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ValidateSamFileTest extends CommandLineProgramTest {
+    private static final int CHROMOSOME_LENGTH = 200000;
+
+    private File tempDir;
+    private File validBam;
+    private File invalidBam;
+    private File reference;
+
+    @Override
+    public String getCommandLineProgramName() {
+        return ValidateSamFile.class.getSimpleName();
+    }
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        tempDir = IOUtil.createTempDir("ValidateSamFileTest", null);
+        validBam = writeBam(makeRecords(false), "valid");
+        invalidBam = writeBam(makeRecords(true), "invalid");
+        reference = writeReference(makeRecords(false).getHeader().getSequenceDictionary());
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(tempDir);
+    }
+
+    /** Pairs on the same and on different reference sequences, plus unmapped pairs, optionally with some mate information broken. */
+    private SAMRecordSetBuilder makeRecords(final boolean corrupt) {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate, true, CHROMOSOME_LENGTH);
+        builder.setUseNmFlag(true);
+        final Random random = new Random(42);
+        final List<SAMRecord> sameContigPairs = new ArrayList<SAMRecord>();
+        final List<SAMRecord> crossContigPairs = new ArrayList<SAMRecord>();
+        for (int i = 0; i < 500; ++i) {
+            final int contig = random.nextInt(4);
+            final int start = 1 + random.nextInt(100000);
+            if (i % 5 == 0) {
+                crossContigPairs.addAll(builder.addPair("cross" + i, contig, contig + 1, start, 1 + random.nextInt(100000),
+                        false, false, "36M", "36M", false, true, false, false, 30));
+            } else {
+                sameContigPairs.addAll(builder.addPair("same" + i, contig, contig, start, start + random.nextInt(500),
+                        false, false, "36M", "36M", false, true, false, false, 30));
+            }
+        }
+        for (int i = 0; i < 20; ++i) builder.addUnmappedPair("unmapped" + i);
+
+        if (corrupt) {
+            sameContigPairs.get(6).setMateAlignmentStart(sameContigPairs.get(6).getMateAlignmentStart() + 1);
+            crossContigPairs.get(8).setMateAlignmentStart(crossContigPairs.get(8).getMateAlignmentStart() + 1);
+            crossContigPairs.get(15).setMateNegativeStrandFlag(!crossContigPairs.get(15).getMateNegativeStrandFlag());
+            builder.getRecords().remove(crossContigPairs.get(20));
+            builder.getRecords().remove(sameContigPairs.get(40));
+        }
+        return builder;
+    }
+
+    private File writeBam(final SAMRecordSetBuilder builder, final String name) {
+        final File bam = new File(tempDir, name + ".bam");
+        final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(builder.getHeader(), false, bam);
+        for (final SAMRecord record : builder) writer.addAlignment(record);
+        writer.close();
+        return bam;
+    }
+
+    /** Writes random bases for each sequence of the dictionary, with the index and dictionary needed to validate against them. */
+    private File writeReference(final SAMSequenceDictionary dictionary) throws IOException {
+        final File fasta = new File(tempDir, "reference.fasta");
+        final PrintWriter fastaOut = new PrintWriter(fasta);
+        final PrintWriter indexOut = new PrintWriter(new File(tempDir, "reference.fasta.fai"));
+        final Random random = new Random(7);
+        final char[] bases = {'A', 'C', 'G', 'T'};
+        long offset = 0;
+        for (final SAMSequenceRecord sequence : dictionary.getSequences()) {
+            final String name = ">" + sequence.getSequenceName() + "\n";
+            fastaOut.print(name);
+            offset += name.length();
+            indexOut.println(sequence.getSequenceName() + "\t" + sequence.getSequenceLength() + "\t" + offset + "\t100\t101");
+            for (int start = 0; start < sequence.getSequenceLength(); start += 100) {
+                final int lineLength = Math.min(100, sequence.getSequenceLength() - start);
+                for (int i = 0; i < lineLength; ++i) fastaOut.print(bases[random.nextInt(bases.length)]);
+                fastaOut.print('\n');
+                offset += lineLength + 1;
+            }
+        }
+        fastaOut.close();
+        indexOut.close();
+
+        final SAMFileHeader dictionaryHeader = new SAMFileHeader();
+        dictionaryHeader.setSequenceDictionary(dictionary);
+        final PrintWriter dictionaryOut = new PrintWriter(new File(tempDir, "reference.dict"));
+        new SAMTextHeaderCodec().encode(dictionaryOut, dictionaryHeader);
+        dictionaryOut.close();
+        return fasta;
+    }
+
+    private int runValidation(final File input, final int numThreads, final File output) {
+        return runValidation(input, numThreads, output, ValidateSamFile.Mode.SUMMARY);
+    }
+
+    private int runValidation(final File input, final int numThreads, final File output, final ValidateSamFile.Mode mode) {
+        return runPicardCommandLine(new String[]{
+                "INPUT=" + input.getAbsolutePath(),
+                "OUTPUT=" + output.getAbsolutePath(),
+                "MODE=" + mode,
+                "NUM_THREADS=" + numThreads
+        });
+    }
+
+    /** Validates on 8 threads in windows of an eighth of each reference sequence, so that many pairs span shards. */
+    private boolean validateInWindows(final File input, final File reference, final File output, final boolean verbose)
+            throws IOException {
+        final PrintWriter out = new PrintWriter(output);
+        final ShardedSamFileValidator validator = new ShardedSamFileValidator(input, reference, out, 8, tempDir, 8000);
+        validator.setMinWindowWidth(CHROMOSOME_LENGTH / 8);
+        validator.setVerbose(verbose, 100);
+        validator.setIndexValidationStringency(IndexValidationStringency.EXHAUSTIVE);
+        final boolean result = validator.validate();
+        out.close();
+        return result;
+    }
+
+    /** Reads the lines of verbose output, without record numbers (which count from the start of each shard when sharded). */
+    private List<String> readErrorLines(final File verboseOutput) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        for (final String line : IOUtil.readFully(new FileInputStream(verboseOutput)).split("\\r?\\n")) {
+            if (!line.trim().isEmpty()) lines.add(line.replaceFirst("Record \\d+, ", ""));
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private Map<String, Double> readErrorCounts(final File summary) throws IOException {
+        final Map<String, Double> counts = new HashMap<String, Double>();
+        final MetricsFile<MetricBase, String> metrics = new MetricsFile<MetricBase, String>();
+        final FileReader reader = new FileReader(summary);
+        metrics.read(reader);
+        reader.close();
+        final Histogram<String> histogram = metrics.getHistogram();
+        if (histogram != null) {
+            for (final String key : histogram.keySet()) counts.put(key, histogram.get(key).getValue());
+        }
+        return counts;
+    }
+
+    @Test
+    public void testShardedValidationOfValidFile() throws IOException {
+        final File serial = new File(tempDir, "valid.serial.txt");
+        final File sharded = new File(tempDir, "valid.sharded.txt");
+        Assert.assertEquals(runValidation(validBam, 1, serial), 0);
+        Assert.assertEquals(runValidation(validBam, 4, sharded), 0);
+        Assert.assertEquals(IOUtil.readFully(new FileInputStream(sharded)).trim(), "No errors found");
+    }
+
+    @Test
+    public void testShardedValidationMatchesSerial() throws IOException {
+        final File serial = new File(tempDir, "invalid.serial.txt");
+        final File sharded = new File(tempDir, "invalid.sharded.txt");
+        Assert.assertEquals(runValidation(invalidBam, 1, serial), 1);
+        Assert.assertEquals(runValidation(invalidBam, 4, sharded), 1);
+
+        final Map<String, Double> serialCounts = readErrorCounts(serial);
+        Assert.assertFalse(serialCounts.isEmpty());
+        Assert.assertEquals(readErrorCounts(sharded), serialCounts);
+    }
+
+    @Test
+    public void testShardedVerboseValidationMatchesSerial() throws IOException {
+        final File serial = new File(tempDir, "invalid.serial.verbose.txt");
+        final File sharded = new File(tempDir, "invalid.sharded.verbose.txt");
+        Assert.assertEquals(runValidation(invalidBam, 1, serial, ValidateSamFile.Mode.VERBOSE), 1);
+        Assert.assertEquals(runValidation(invalidBam, 4, sharded, ValidateSamFile.Mode.VERBOSE), 1);
+
+        final List<String> serialLines = readErrorLines(serial);
+        Assert.assertFalse(serialLines.isEmpty());
+        Assert.assertEquals(readErrorLines(sharded), serialLines);
+    }
+
+    @Test
+    public void testValidationInWindowsMatchesSerial() throws IOException {
+        final File serial = new File(tempDir, "invalid.serial.windows.txt");
+        final File sharded = new File(tempDir, "invalid.sharded.windows.txt");
+        Assert.assertEquals(runValidation(invalidBam, 1, serial, ValidateSamFile.Mode.VERBOSE), 1);
+        Assert.assertFalse(validateInWindows(invalidBam, null, sharded, true));
+        Assert.assertEquals(readErrorLines(sharded), readErrorLines(serial));
+
+        Assert.assertTrue(validateInWindows(validBam, null, sharded, true));
+        Assert.assertEquals(IOUtil.readFully(new FileInputStream(sharded)).trim(), "No errors found");
+    }
+
+    @Test
+    public void testValidationInWindowsWithReferenceMatchesSerial() throws IOException {
+        final File serial = new File(tempDir, "valid.serial.reference.txt");
+        final File sharded = new File(tempDir, "valid.sharded.reference.txt");
+        Assert.assertEquals(runPicardCommandLine(new String[]{
+                "INPUT=" + validBam.getAbsolutePath(),
+                "OUTPUT=" + serial.getAbsolutePath(),
+                "MODE=" + ValidateSamFile.Mode.SUMMARY,
+                "REFERENCE_SEQUENCE=" + reference.getAbsolutePath()
+        }), 1);
+        Assert.assertFalse(validateInWindows(validBam, reference, sharded, false));
+
+        final Map<String, Double> serialCounts = readErrorCounts(serial);
+        Assert.assertFalse(serialCounts.isEmpty());
+        Assert.assertEquals(readErrorCounts(sharded), serialCounts);
+    }
+}
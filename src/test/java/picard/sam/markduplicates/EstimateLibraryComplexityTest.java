@@ -24,8 +24,14 @@
 
 package picard.sam.markduplicates;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
 import htsjdk.samtools.metrics.MetricsFile;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import picard.cmdline.CommandLineProgramTest;
 import picard.sam.DuplicationMetrics;
@@ -34,6 +40,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public class EstimateLibraryComplexityTest extends CommandLineProgramTest {
 
@@ -134,4 +141,68 @@ public class EstimateLibraryComplexityTest extends CommandLineProgramTest {
         Assert.assertEquals(runPicardCommandLine(args), 0);
         examineMetricsFile(output, 0, 0); // no read pairs examined!!!
     }
+
+    /**
+     * Finds all the duplicates in a large group of read pairs sharing the same prefixes: 20 templates, each present
+     * 10 times with up to one error in each read, so that any two copies of a template are within the maximum difference rate.
+     */
+    @Test(dataProvider = "numThreads")
+    public void testLargeGroupOfDuplicates(final int numThreads) throws IOException {
+        final int readLength = 100;
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.queryname);
+        builder.setReadLength(readLength);
+        final Random random = new Random(7);
+        for (int template = 0; template < 20; ++template) {
+            final byte[] read1 = randomBasesWithPrefix(random, readLength);
+            final byte[] read2 = randomBasesWithPrefix(random, readLength);
+            for (int copy = 0; copy < 10; ++copy) {
+                final List<SAMRecord> pair = builder.addPair("template" + template + "_copy" + copy, 0, 1, 1, false, false,
+                        readLength + "M", readLength + "M", false, false, false, false, 30);
+                pair.get(0).setReadBases(withErrors(random, read1, copy == 0 ? 0 : random.nextInt(2)));
+                pair.get(1).setReadBases(withErrors(random, read2, copy == 0 ? 0 : random.nextInt(2)));
+            }
+        }
+
+        final File input = File.createTempFile("estimateLibraryComplexity", ".sam");
+        input.deleteOnExit();
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(builder.getHeader(), false, input);
+        for (final SAMRecord record : builder) writer.addAlignment(record);
+        writer.close();
+
+        final File output = File.createTempFile("estimateLibraryComplexity",".els_metrics");
+        output.deleteOnExit();
+
+        final List<String> args = new ArrayList<>();
+        args.add("INPUT=" + input.getAbsolutePath());
+        args.add("OUTPUT=" + output.getAbsolutePath());
+        args.add("MIN_GROUP_COUNT=1");
+        args.add("NUM_THREADS=" + numThreads);
+
+        Assert.assertEquals(runPicardCommandLine(args), 0);
+        examineMetricsFile(output, 20 * 9 * 2, 200);
+    }
+
+    @DataProvider(name = "numThreads")
+    public Object[][] numThreads() {
+        return new Object[][]{{1}, {4}};
+    }
+
+    private static byte[] randomBasesWithPrefix(final Random random, final int length) {
+        final byte[] bases = new byte[length];
+        final byte[] prefix = "ACGTA".getBytes();
+        for (int i = 0; i < length; ++i) {
+            bases[i] = i < prefix.length ? prefix[i] : "ACGT".getBytes()[random.nextInt(4)];
+        }
+        return bases;
+    }
+
+    /** Returns a copy of the given bases with errors at up to the given number of positions after the prefix. */
+    private static byte[] withErrors(final Random random, final byte[] bases, final int numErrors) {
+        final byte[] copy = bases.clone();
+        for (int i = 0; i < numErrors; ++i) {
+            final int position = 5 + random.nextInt(bases.length - 5);
+            copy[position] = copy[position] == 'A' ? (byte) 'C' : (byte) 'A';
+        }
+        return copy;
+    }
 }
@@ -0,0 +1,74 @@
+package picard.sam.markduplicates.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tests for the packed sort keys of the MarkQueue, checking them against the comparator that ordered the queue's TreeSets.
+ */
+public class MarkQueueTest {
+
+    /** The comparator that ordered the mark queue before its sort keys were packed. */
+    private static final Comparator<ReadEnds> TREE_SET_COMPARATOR = new Comparator<ReadEnds>() {
+        public int compare(final ReadEnds lhs, final ReadEnds rhs) {
+            int retval = lhs.libraryId - rhs.libraryId;
+            if (retval == 0) retval = lhs.read1ReferenceIndex - rhs.read1ReferenceIndex;
+            if (retval == 0) retval = lhs.read1Coordinate - rhs.read1Coordinate;
+            if (retval == 0) retval = rhs.orientation - lhs.orientation;
+            if (retval == 0) retval = lhs.read2ReferenceIndex - rhs.read2ReferenceIndex;
+            if (retval == 0) retval = lhs.read2Coordinate - rhs.read2Coordinate;
+            return retval;
+        }
+    };
+
+    private static ReadEnds readEnds(final int libraryId, final int read1ReferenceIndex, final int read1Coordinate,
+                                     final byte orientation, final int read2ReferenceIndex, final int read2Coordinate) {
+        final ReadEnds end = new ReadEndsForMarkDuplicates();
+        end.libraryId = (short) libraryId;
+        end.read1ReferenceIndex = read1ReferenceIndex;
+        end.read1Coordinate = read1Coordinate;
+        end.orientation = orientation;
+        end.read2ReferenceIndex = read2ReferenceIndex;
+        end.read2Coordinate = read2Coordinate;
+        return end;
+    }
+
+    @Test
+    public void testPackedKeysOrderAsTreeSetComparator() {
+        // Every combination of a few values for each field, so that read ends tie on each prefix of the fields in turn
+        final int[] libraryIds = {0, 1, 2};
+        final int[] referenceIndices = {-1, 0, 25};
+        final int[] coordinates = {-1, 0, 1, 100000000};
+        final byte[] orientations = {ReadEnds.F, ReadEnds.R, ReadEnds.FF, ReadEnds.FR, ReadEnds.RR, ReadEnds.RF};
+        final List<ReadEnds> ends = new ArrayList<ReadEnds>();
+        for (final int libraryId : libraryIds) {
+            for (final int read1ReferenceIndex : referenceIndices) {
+                for (final int read1Coordinate : coordinates) {
+                    for (final byte orientation : orientations) {
+                        if (orientation == ReadEnds.F || orientation == ReadEnds.R) {
+                            ends.add(readEnds(libraryId, read1ReferenceIndex, read1Coordinate, orientation, -1, -1));
+                            continue;
+                        }
+                        for (final int read2ReferenceIndex : referenceIndices) {
+                            for (final int read2Coordinate : coordinates) {
+                                ends.add(readEnds(libraryId, read1ReferenceIndex, read1Coordinate, orientation,
+                                        read2ReferenceIndex, read2Coordinate));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        for (final ReadEnds lhs : ends) {
+            for (final ReadEnds rhs : ends) {
+                Assert.assertEquals(Integer.signum(MarkQueue.SortedReadEnds.compareKeys(lhs, rhs)),
+                        Integer.signum(TREE_SET_COMPARATOR.compare(lhs, rhs)));
+            }
+        }
+    }
+}
@@ -125,6 +125,48 @@ public class OpticalDuplicateFinderTest {
         assertEquals(finder.findOpticalDuplicates(locs, locs.get(2)), new boolean[] {true, true, false});
     }
 
+    @Test
+    public void testLargeSetsFlagSameReadsAsComparingEveryPair() {
+        final Log log = Log.getInstance(OpticalDuplicateFinderTest.class);
+        for (final int distance : new int[]{0, 1, 100, 2500}) {
+            final OpticalDuplicateFinder finder = new OpticalDuplicateFinder(OpticalDuplicateFinder.DEFAULT_READ_NAME_REGEX, distance, log);
+            for (int i = 0; i < 20; ++i) {
+                final Random random = new Random(i);
+                final List<PhysicalLocation> locs = new ArrayList<>();
+                final int size = OpticalDuplicateFinder.MIN_SET_SIZE_FOR_GRID + random.nextInt(2000);
+                for (int j = 0; j < size; ++j) {
+                    // clusters of nearby reads, some on the edges of the tiles, with the odd repeat of the same read
+                    if (j > 0 && random.nextInt(50) == 0) locs.add(locs.get(random.nextInt(j)));
+                    else locs.add(loc(1 + random.nextInt(3), random.nextInt(2) * 2000 + random.nextInt(500), random.nextInt(3000) - 100));
+                }
+                final PhysicalLocation keeper = random.nextBoolean() ? locs.get(random.nextInt(size)) : null;
+
+                assertEquals(finder.findOpticalDuplicates(locs, keeper), compareEveryPair(locs, keeper, distance));
+            }
+        }
+    }
+
+    /** The flags found by comparing every pair of reads, as for small sets. */
+    private boolean[] compareEveryPair(final List<PhysicalLocation> locs, final PhysicalLocation keeper, final int distance) {
+        final boolean[] flags = new boolean[locs.size()];
+        if (keeper != null) {
+            for (int i = 0; i < locs.size(); ++i) flags[i] = closeEnough(keeper, locs.get(i), distance);
+        }
+        for (int i = 0; i < locs.size(); ++i) {
+            if (locs.get(i) == keeper) continue;
+            for (int j = i + 1; j < locs.size(); ++j) {
+                if (locs.get(j) == keeper || (flags[i] && flags[j])) continue;
+                if (closeEnough(locs.get(i), locs.get(j), distance)) flags[flags[j] ? i : j] = true;
+            }
+        }
+        return flags;
+    }
+
+    private boolean closeEnough(final PhysicalLocation lhs, final PhysicalLocation rhs, final int distance) {
+        return lhs != rhs && lhs.getTile() == rhs.getTile() &&
+                Math.abs(lhs.getX() - rhs.getX()) <= distance && Math.abs(lhs.getY() - rhs.getY()) <= distance;
+    }
+
     /** Helper method to create a physical location. */
     private PhysicalLocation loc(final int tile, final int x, final int y) {
         final PhysicalLocation l = new PhysicalLocationInt() {
@@ -0,0 +1,140 @@
+package picard.sam.markduplicates.util;
+
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for PackedSequence, checking it against straightforward comparisons of the unpacked bases.
+ */
+public class PackedSequenceTest {
+    /** A, C, G and T pack distinctly and N as a no-call; the rest are kept as given. */
+    private static final byte[] BASES = StringUtil.stringToBytes("ACGTNRYa");
+
+    private static byte[] randomBases(final Random random, final int length, final int numBases) {
+        final byte[] bases = new byte[length];
+        for (int i = 0; i < length; ++i) bases[i] = BASES[random.nextInt(numBases)];
+        return bases;
+    }
+
+    private static int compare(final byte[] lhs, final byte[] rhs, final int n) {
+        for (int i = 0; i < n; ++i) {
+            if (lhs[i] != rhs[i]) return lhs[i] - rhs[i];
+        }
+        return 0;
+    }
+
+    private static int countMismatches(final byte[] lhs, final byte[] rhs, final int start, final int end) {
+        int mismatches = 0;
+        for (int i = start; i < end; ++i) {
+            if (lhs[i] != rhs[i]) ++mismatches;
+        }
+        return mismatches;
+    }
+
+    @DataProvider(name = "lengths")
+    public Object[][] lengths() {
+        return new Object[][]{{1}, {5}, {31}, {32}, {33}, {76}, {101}, {151}};
+    }
+
+    @Test(dataProvider = "lengths")
+    public void testRoundTrip(final int length) throws IOException {
+        final Random random = new Random(length);
+        for (int i = 0; i < 100; ++i) {
+            final byte[] bases = randomBases(random, length, i % 3 == 0 ? 4 : i % 3 == 1 ? 5 : BASES.length);
+            final PackedSequence packed = PackedSequence.pack(bases);
+            Assert.assertEquals(packed.length(), length);
+            Assert.assertEquals(packed.toString(), StringUtil.bytesToString(bases));
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            packed.write(new DataOutputStream(bytes));
+            final PackedSequence read = PackedSequence.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            Assert.assertEquals(read.toString(), packed.toString());
+        }
+    }
+
+    @Test(dataProvider = "lengths")
+    public void testComparisonsMatchUnpackedBases(final int length) {
+        final Random random = new Random(length);
+        for (int i = 0; i < 1000; ++i) {
+            // few distinct bases so that long prefixes are often equal
+            final byte[] lhs = randomBases(random, length, 2);
+            final byte[] rhs = lhs.clone();
+            for (int k = random.nextInt(4); k > 0; --k) rhs[random.nextInt(length)] = BASES[random.nextInt(BASES.length)];
+            final PackedSequence packedLhs = PackedSequence.pack(lhs);
+            final PackedSequence packedRhs = PackedSequence.pack(rhs);
+
+            final int n = 1 + random.nextInt(length);
+            Assert.assertEquals(packedLhs.comparePrefix(packedRhs, n) == 0, compare(lhs, rhs, n) == 0);
+
+            final int start = random.nextInt(length);
+            final int end = start + random.nextInt(length - start + 1);
+            Assert.assertEquals(packedLhs.countMismatches(packedRhs, start, end, length), countMismatches(lhs, rhs, start, end));
+        }
+    }
+
+    @Test
+    public void testEqualPrefixesAreAdjacentWhenSorted() {
+        final Random random = new Random(42);
+        final List<byte[]> sequences = new ArrayList<byte[]>();
+        for (int i = 0; i < 2000; ++i) sequences.add(randomBases(random, 6, i % 2 == 0 ? 5 : BASES.length));
+        final List<PackedSequence> packed = new ArrayList<PackedSequence>();
+        for (final byte[] bases : sequences) packed.add(PackedSequence.pack(bases));
+        Collections.sort(packed, new Comparator<PackedSequence>() {
+            public int compare(final PackedSequence lhs, final PackedSequence rhs) { return lhs.comparePrefix(rhs, 6); }
+        });
+
+        final Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < packed.size(); ++i) {
+            final String bases = packed.get(i).toString();
+            if (i > 0 && bases.equals(packed.get(i - 1).toString())) continue;
+            Assert.assertTrue(seen.add(bases), bases + " is not adjacent to its equals");
+        }
+    }
+
+    @Test
+    public void testOtherBasesMatchOnlyThemselves() {
+        final PackedSequence r = PackedSequence.pack(StringUtil.stringToBytes("ACRT"));
+        Assert.assertEquals(r.comparePrefix(PackedSequence.pack(StringUtil.stringToBytes("ACRT")), 4), 0);
+        for (final String other : new String[]{"ACYT", "ACNT", "ACAT", "ACrT"}) {
+            final PackedSequence packed = PackedSequence.pack(StringUtil.stringToBytes(other));
+            Assert.assertNotEquals(r.comparePrefix(packed, 4), 0, other);
+            Assert.assertEquals(Integer.signum(packed.comparePrefix(r, 4)), -Integer.signum(r.comparePrefix(packed, 4)), other);
+            Assert.assertEquals(r.countMismatches(packed, 0, 4, 4), 1, other);
+        }
+        Assert.assertEquals(r.comparePrefix(PackedSequence.pack(StringUtil.stringToBytes("ACYT")), 2), 0);
+    }
+
+    @Test
+    public void testOrderingWithoutNoCallsIsLexicographic() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            final byte[] lhs = randomBases(random, 40, 4);
+            final byte[] rhs = randomBases(random, 40, 4);
+            Assert.assertEquals(Integer.signum(PackedSequence.pack(lhs).comparePrefix(PackedSequence.pack(rhs), 40)),
+                    Integer.signum(compare(lhs, rhs, 40)));
+        }
+    }
+
+    @Test
+    public void testCountMismatchesStopsEarly() {
+        final PackedSequence lhs = PackedSequence.pack(StringUtil.stringToBytes("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        final PackedSequence rhs = PackedSequence.pack(StringUtil.stringToBytes("CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC"));
+        Assert.assertTrue(lhs.countMismatches(rhs, 0, 52, 3) > 3);
+        Assert.assertTrue(lhs.countMismatches(rhs, 0, 52, 3) <= 32);
+    }
+}
@@ -1,5 +1,7 @@
 package picard.sam.util;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.CollectionUtil;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -139,4 +141,50 @@ public class ReadNameParserTests {
         }
     }
 
+    /** Tests that the location of a repeated read name is reused, and that names differing anywhere are parsed again. */
+    @Test
+    public void testRepeatedReadNames() {
+        final ReadNameParser parser = new ReadNameParser();
+        final String[] readNames = {"RUNID:7:1203:2886:82292", "RUNID:7:1203:2886:82292", "RUNID:7:1203:2886:82293",
+                "RUNID:7:1204:2886:82293", "RUNID:7:1204:2886:82293", "RUNID:7:1203:2886:82292"};
+        for (final String readName : readNames) {
+            final PhysicalLocationInt loc = new PhysicalLocationInt();
+            final int[] tokens = new int[3];
+            ReadNameParser.getLastThreeFields(readName, ':', tokens);
+            Assert.assertTrue(parser.addLocationInformation(new String(readName), loc));
+            Assert.assertEquals(loc.getTile(), tokens[0]);
+            Assert.assertEquals(loc.getX(), tokens[1]);
+            Assert.assertEquals(loc.getY(), tokens[2]);
+        }
+        Assert.assertFalse(parser.addLocationInformation("RUNID:7:1203", new PhysicalLocationInt()));
+    }
+
+    /** Tests that locations are taken from the location tags where all three are present, and from the read name otherwise. */
+    @Test
+    public void testLocationTags() {
+        final ReadNameParser parser = new ReadNameParser();
+        parser.setLocationTags("XT", "XX", "XY");
+        final SAMRecord record = new SAMRecord(new SAMFileHeader());
+        record.setReadName("RUNID:7:1203:2886:82292");
+
+        PhysicalLocationInt loc = new PhysicalLocationInt();
+        Assert.assertTrue(parser.addLocationInformation(record, loc));
+        Assert.assertEquals(loc.getTile(), 1203);
+        Assert.assertEquals(loc.getX(), 2886);
+        Assert.assertEquals(loc.getY(), 82292);
+
+        record.setAttribute("XT", 1101);
+        record.setAttribute("XX", 17);
+        record.setAttribute("XY", 123456);
+        loc = new PhysicalLocationInt();
+        Assert.assertTrue(parser.addLocationInformation(record, loc));
+        Assert.assertEquals(loc.getTile(), 1101);
+        Assert.assertEquals(loc.getX(), 17);
+        Assert.assertEquals(loc.getY(), 123456);
+
+        record.setReadName("no location");
+        Assert.assertTrue(parser.addLocationInformation(record, new PhysicalLocationInt()));
+        record.setAttribute("XY", null);
+        Assert.assertFalse(parser.addLocationInformation(record, new PhysicalLocationInt()));
+    }
 }
@@ -0,0 +1,62 @@
+package picard.util;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests for AsyncReferenceSequenceFileWalker, checking it against ReferenceSequenceFileWalker.
+ */
+public class AsyncReferenceSequenceFileWalkerTest {
+    @DataProvider(name = "references")
+    public Object[][] references() {
+        return new Object[][]{
+                {new File("testdata/picard/reference/test.fasta")},                 // indexed, with a dictionary
+                {new File("testdata/picard/sam/summary_alignment_stats_test.fasta")} // neither
+        };
+    }
+
+    @Test(dataProvider = "references")
+    public void testMatchesReferenceSequenceFileWalker(final File fasta) throws IOException {
+        final int[] indices = {0, 0, 1, 3, 4, 4, 7};
+        final ReferenceSequenceFileWalker expected = new ReferenceSequenceFileWalker(fasta);
+        final AsyncReferenceSequenceFileWalker actual = new AsyncReferenceSequenceFileWalker(fasta);
+        for (final int index : indices) {
+            final ReferenceSequence expectedSequence = expected.get(index);
+            final ReferenceSequence actualSequence = actual.get(index);
+            Assert.assertEquals(actualSequence.getContigIndex(), index);
+            Assert.assertEquals(actualSequence.getName(), expectedSequence.getName());
+            Assert.assertEquals(StringUtil.bytesToString(actualSequence.getBases()), StringUtil.bytesToString(expectedSequence.getBases()));
+        }
+        expected.close();
+        actual.close();
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testEarlierSequenceIsRejected() throws IOException {
+        final AsyncReferenceSequenceFileWalker walker = new AsyncReferenceSequenceFileWalker(new File("testdata/picard/reference/test.fasta"));
+        try {
+            walker.get(2);
+            walker.get(1);
+        } finally {
+            walker.close();
+        }
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testMissingSequenceIsReported() throws IOException {
+        final AsyncReferenceSequenceFileWalker walker = new AsyncReferenceSequenceFileWalker(new File("testdata/picard/sam/summary_alignment_stats_test.fasta"));
+        try {
+            walker.get(8);
+        } finally {
+            walker.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package picard.util;
+
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tests that DbSnpBitSetUtil finds the same sites whether it reads the dbSNP file or a cached copy of its bit sets.
+ */
+public class DbSnpBitSetUtilTest {
+    private static final File DB_SNP = new File("testdata/picard/vcf/mini.dbsnp.vcf");
+
+    @Test
+    public void testCompactBitSetMatchesBitSet() throws IOException {
+        final Random random = new Random(42);
+        final BitSet bits = new BitSet();
+        // A sparse container, a dense container, a container with exactly as many positions as may be held in an array,
+        // and some containers far along with only a position or two
+        for (int i = 0; i < 100; i++) bits.set(random.nextInt(1 << 16));
+        for (int i = 0; i < 30000; i++) bits.set((3 << 16) + random.nextInt(1 << 16));
+        for (int i = 0; i < CompactBitSet.MAX_ARRAY_CARDINALITY; i++) bits.set((5 << 16) + 2 * i);
+        bits.set(200000000);
+        bits.set(200000001);
+        bits.set(250000000);
+
+        final CompactBitSet compact = CompactBitSet.fromBitSet(bits);
+        final File file = File.createTempFile("DbSnpBitSetUtilTest.", ".bits");
+        file.deleteOnExit();
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        compact.write(out);
+        out.close();
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        final CompactBitSet mapped = CompactBitSet.read(in);
+        Assert.assertEquals(in.getFilePointer(), file.length());
+        in.close();
+
+        for (int position = 0; position < 7 << 16; position++) {
+            Assert.assertEquals(compact.get(position), bits.get(position), "position " + position);
+            Assert.assertEquals(mapped.get(position), bits.get(position), "position " + position);
+        }
+        Assert.assertFalse(compact.get(-1));
+        Assert.assertFalse(mapped.get(-1));
+        for (final int position : new int[]{199999999, 200000000, 200000001, 200000002, 250000000, Integer.MAX_VALUE}) {
+            Assert.assertEquals(compact.get(position), bits.get(position), "position " + position);
+            Assert.assertEquals(mapped.get(position), bits.get(position), "position " + position);
+        }
+    }
+
+    @Test
+    public void testBuilderMatchesBitSet() {
+        final Random random = new Random(42);
+        final BitSet bits = new BitSet();
+        final CompactBitSet.Builder builder = new CompactBitSet.Builder();
+        // Positions out of order and repeated, in a sparse container, a container that becomes dense, a container with
+        // exactly as many positions as may be held in an array, and a range spanning two containers
+        for (int i = 0; i < 20000; i++) {
+            final int sparse = random.nextInt(1 << 16) / 100;
+            final int dense = (3 << 16) + random.nextInt(1 << 16);
+            final int full = (5 << 16) + 2 * random.nextInt(CompactBitSet.MAX_ARRAY_CARDINALITY);
+            for (final int position : new int[]{sparse, dense, full}) {
+                bits.set(position);
+                builder.add(position);
+            }
+        }
+        for (int i = 0; i < CompactBitSet.MAX_ARRAY_CARDINALITY; i++) {
+            bits.set((5 << 16) + 2 * i);
+            builder.add((5 << 16) + 2 * i);
+        }
+        bits.set((8 << 16) - 10, (8 << 16) + 10);
+        builder.add((8 << 16) - 10, (8 << 16) + 9);
+
+        final CompactBitSet compact = builder.build();
+        for (int position = 0; position < 10 << 16; position++) {
+            Assert.assertEquals(compact.get(position), bits.get(position), "position " + position);
+        }
+    }
+
+    @Test
+    public void testCachedBitSetsMatchVcf() throws IOException {
+        final Set<Integer> snps = new HashSet<Integer>(), indels = new HashSet<Integer>();
+        final Set<Integer> positionsToCheck = new TreeSet<Integer>();
+        final VCFFileReader reader = new VCFFileReader(DB_SNP, false);
+        for (final VariantContext ctx : reader) {
+            Assert.assertEquals(ctx.getContig(), "1");
+            for (int position = ctx.getStart(); position <= ctx.getEnd(); position++) {
+                if (ctx.isSNP()) snps.add(position);
+                if (ctx.isIndel()) indels.add(position);
+            }
+            for (int position = ctx.getStart() - 3; position <= ctx.getEnd() + 3; position++) positionsToCheck.add(position);
+        }
+        reader.close();
+        final Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) positionsToCheck.add(random.nextInt(250000000));
+        Assert.assertFalse(indels.isEmpty());
+
+        final File cacheDirectory = Files.createTempDirectory("DbSnpBitSetUtilTest.").toFile();
+        try {
+            final DbSnpBitSetUtil.DbSnpBitSets uncached = DbSnpBitSetUtil.createSnpAndIndelBitSets(DB_SNP, null);
+            final DbSnpBitSetUtil.DbSnpBitSets written = DbSnpBitSetUtil.createSnpAndIndelBitSets(DB_SNP, null, null, cacheDirectory);
+            final File[] cacheFiles = cacheDirectory.listFiles();
+            Assert.assertEquals(cacheFiles.length, 1);
+            Assert.assertTrue(cacheFiles[0].getName().endsWith(DbSnpBitSetUtil.CACHE_EXTENSION));
+            final DbSnpBitSetUtil.DbSnpBitSets read = DbSnpBitSetUtil.createSnpAndIndelBitSets(DB_SNP, null, null, cacheDirectory);
+
+            // Loading all variant types is cached separately
+            final DbSnpBitSetUtil allUncached = new DbSnpBitSetUtil(DB_SNP, null);
+            final DbSnpBitSetUtil allCached = new DbSnpBitSetUtil(DB_SNP, null, EnumSet.noneOf(VariantType.class), null, cacheDirectory);
+            Assert.assertEquals(cacheDirectory.listFiles().length, 2);
+
+            for (final int position : positionsToCheck) {
+                final String locus = "1:" + position;
+                for (final DbSnpBitSetUtil.DbSnpBitSets sets : new DbSnpBitSetUtil.DbSnpBitSets[]{uncached, written, read}) {
+                    Assert.assertEquals(sets.snps.isDbSnpSite("1", position), snps.contains(position), locus);
+                    Assert.assertEquals(sets.indels.isDbSnpSite("1", position), indels.contains(position), locus);
+                }
+                Assert.assertEquals(allCached.isDbSnpSite("1", position), allUncached.isDbSnpSite("1", position), locus);
+                Assert.assertEquals(allCached.isDbSnpSite("1", position), snps.contains(position) || indels.contains(position), locus);
+            }
+            Assert.assertFalse(read.snps.isDbSnpSite("2", 877831));
+        } finally {
+            IOUtil.deleteDirectoryTree(cacheDirectory);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package picard.util;
+
+import htsjdk.samtools.liftover.LiftOver;
+import htsjdk.samtools.util.Interval;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Tests that IndexedLiftOver lifts intervals over exactly as htsjdk's LiftOver does.
+ */
+public class IndexedLiftOverTest {
+    private static final int SOURCE_LENGTH = 200000;
+    private static final int TARGET_LENGTH = 400000;
+
+    /**
+     * Writes chains on two source contigs, some lifting to the opposite strand and some overlapping one another in the
+     * source, with blocks separated by gaps in either genome.
+     */
+    private File writeRandomChains(final Random random) throws IOException {
+        final File chainFile = File.createTempFile("IndexedLiftOverTest.", ".chain");
+        chainFile.deleteOnExit();
+        final PrintWriter writer = new PrintWriter(chainFile);
+        writer.println("# random chains");
+        int id = 1;
+        for (final String contig : new String[]{"chr1", "chr2"}) {
+            for (int chain = 0; chain < 6; ++chain) {
+                final int fromStart = random.nextInt(SOURCE_LENGTH / 2);
+                final int toStart = random.nextInt(TARGET_LENGTH / 4);
+                final StringBuilder blocks = new StringBuilder();
+                int fromEnd = fromStart, toEnd = toStart;
+                final int blockCount = 1 + random.nextInt(300);
+                for (int block = 0; block < blockCount; ++block) {
+                    final int size = 1 + random.nextInt(200);
+                    fromEnd += size;
+                    toEnd += size;
+                    if (block == blockCount - 1 || fromEnd > SOURCE_LENGTH - 500) {
+                        blocks.append(size).append('\n');
+                        break;
+                    }
+                    final int fromGap = random.nextInt(4) == 0 ? 0 : random.nextInt(100);
+                    final int toGap = fromGap == 0 ? 1 + random.nextInt(100) : random.nextInt(100);
+                    blocks.append(size).append('\t').append(fromGap).append('\t').append(toGap).append('\n');
+                    fromEnd += fromGap;
+                    toEnd += toGap;
+                }
+                final String toStrand = random.nextBoolean() ? "+" : "-";
+                writer.println("chain 1000 " + contig + " " + SOURCE_LENGTH + " + " + fromStart + " " + fromEnd + " " +
+                        "target" + random.nextInt(2) + " " + TARGET_LENGTH + " " + toStrand + " " + toStart + " " + toEnd + " " + id++);
+                writer.println(blocks);
+            }
+        }
+        writer.close();
+        return chainFile;
+    }
+
+    @DataProvider(name = "minMatches")
+    public Object[][] minMatches() {
+        return new Object[][]{{1.0}, {0.95}, {0.5}, {0.01}};
+    }
+
+    @Test(dataProvider = "minMatches")
+    public void testMatchesLiftOver(final double minMatch) throws IOException {
+        final Random random = new Random(7);
+        final File chainFile = writeRandomChains(random);
+        final LiftOver expected = new LiftOver(chainFile);
+        final IndexedLiftOver actual = new IndexedLiftOver(chainFile);
+
+        int lifted = 0;
+        for (int i = 0; i < 20000; ++i) {
+            final String contig = random.nextBoolean() ? "chr1" : "chr2";
+            final int start = 1 + random.nextInt(SOURCE_LENGTH);
+            final int length = i % 3 == 0 ? 1 : 1 + random.nextInt(i % 3 == 1 ? 20 : 2000);
+            final Interval interval = new Interval(contig, start, Math.min(SOURCE_LENGTH, start + length - 1), random.nextBoolean(), "interval" + i);
+
+            // Interval.equals compares strand and name too
+            final Interval expectedInterval = expected.liftOver(interval, minMatch);
+            Assert.assertEquals(actual.liftOver(interval, minMatch), expectedInterval, interval.toString());
+            if (expectedInterval != null) ++lifted;
+        }
+        Assert.assertTrue(lifted > 1000, "Too few intervals lifted over to test much: " + lifted);
+    }
+
+    @Test
+    public void testReverseComplementedChain() {
+        final IndexedLiftOver liftOver = new IndexedLiftOver(new File("testdata/picard/vcf/test.over.chain"));
+        Assert.assertEquals(liftOver.liftOver(new Interval("chr1", 10, 12), 1.0), new Interval("chr1", 529, 531, true, null));
+        Assert.assertNull(liftOver.liftOver(new Interval("chr2", 10, 12), 1.0));
+    }
+}
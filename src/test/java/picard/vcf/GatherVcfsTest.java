@@ -0,0 +1,155 @@
+package picard.vcf;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for GatherVcfs gathering block compressed VCFs by copying blocks, checking that the index it makes from the
+ * inputs' indexes finds the same records as scanning the gathered VCF does, and gathering conventionally.
+ */
+public class GatherVcfsTest {
+    private static final int CONTIG_LENGTH = 10000000;
+    private static final int SPACING = 997;
+
+    private final SAMSequenceDictionary dictionary = new SAMSequenceDictionary(Arrays.asList(
+            new SAMSequenceRecord("chr1", CONTIG_LENGTH), new SAMSequenceRecord("chr2", CONTIG_LENGTH), new SAMSequenceRecord("chr3", CONTIG_LENGTH)));
+    private final List<VariantContext> variants = new ArrayList<VariantContext>();
+    private File tempDir;
+
+    @BeforeClass
+    public void setUp() {
+        tempDir = IOUtil.createTempDir("GatherVcfsTest", null);
+        final List<Allele> alleles = Arrays.asList(Allele.create("A", true), Allele.create("C"));
+        for (final SAMSequenceRecord contig : dictionary.getSequences()) {
+            for (int pos = 1; pos <= CONTIG_LENGTH; pos += SPACING) {
+                variants.add(new VariantContextBuilder("test", contig.getSequenceName(), pos, pos, alleles).id("rs" + variants.size()).make());
+            }
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        IOUtil.deleteDirectoryTree(tempDir);
+    }
+
+    /** Writes the given variants as a block compressed VCF, with a tabix index if asked. */
+    private File writeVcf(final String name, final List<VariantContext> contexts, final boolean index) {
+        final File vcf = new File(tempDir, name + ".vcf.gz");
+        final EnumSet<Options> options = index ? EnumSet.of(Options.INDEX_ON_THE_FLY) : EnumSet.noneOf(Options.class);
+        final VariantContextWriter writer = VariantContextWriterFactory.create(vcf, dictionary, options);
+        final VCFHeader header = new VCFHeader(Collections.<VCFHeaderLine>emptySet(), Collections.<String>emptyList());
+        header.setSequenceDictionary(dictionary);
+        writer.writeHeader(header);
+        for (final VariantContext vc : contexts) writer.add(vc);
+        writer.close();
+        return vcf;
+    }
+
+    /** Splits the variants into VCFs ending mid-way through the first and second contigs, and gathers them. */
+    private File scatterAndGather(final String name, final boolean indexInputs) {
+        return scatterAndGather(name, indexInputs, ".vcf.gz", false);
+    }
+
+    private File scatterAndGather(final String name, final boolean indexInputs, final String outputExtension, final boolean useThreading) {
+        final int[] ends = {variants.size() / 5, variants.size() / 2, variants.size()};
+        final List<String> args = new ArrayList<String>();
+        for (int i = 0, start = 0; i < ends.length; start = ends[i++]) {
+            args.add("INPUT=" + writeVcf(name + ".scatter" + i, variants.subList(start, ends[i]), indexInputs));
+        }
+        final File output = new File(tempDir, name + outputExtension);
+        args.add("OUTPUT=" + output);
+        args.add("USE_THREADING=" + useThreading);
+        Assert.assertEquals(new GatherVcfs().instanceMain(args.toArray(new String[args.size()])), 0);
+        return output;
+    }
+
+    @Test
+    public void testGatheredIndexFindsSameVariantsAsScanning() {
+        final File output = scatterAndGather("indexed", true);
+        Assert.assertTrue(TabixIndexMerger.getIndexFile(output).exists());
+
+        final VCFFileReader reader = new VCFFileReader(output, true);
+        final List<String> all = new ArrayList<String>();
+        for (final VariantContext vc : reader) all.add(vc.getID());
+        Assert.assertEquals(all.size(), variants.size());
+
+        final Random random = new Random(42);
+        for (int i = 0; i < 200; ++i) {
+            final String contig = dictionary.getSequence(random.nextInt(dictionary.size())).getSequenceName();
+            final int start = 1 + random.nextInt(CONTIG_LENGTH);
+            final int end = Math.min(CONTIG_LENGTH, start + random.nextInt(i % 2 == 0 ? 5000 : 3000000));
+            assertQueryMatches(reader, contig, start, end);
+        }
+        for (final SAMSequenceRecord contig : dictionary.getSequences()) {
+            assertQueryMatches(reader, contig.getSequenceName(), 1, CONTIG_LENGTH);
+        }
+        // around where the inputs join
+        for (final int join : new int[]{variants.size() / 5, variants.size() / 2}) {
+            final VariantContext vc = variants.get(join);
+            assertQueryMatches(reader, vc.getContig(), Math.max(1, vc.getStart() - 20000), vc.getStart() + 20000);
+        }
+        reader.close();
+    }
+
+    private void assertQueryMatches(final VCFFileReader reader, final String contig, final int start, final int end) {
+        final List<String> expected = new ArrayList<String>();
+        for (final VariantContext vc : variants) {
+            if (vc.getContig().equals(contig) && vc.getStart() <= end && vc.getEnd() >= start) expected.add(vc.getID());
+        }
+        final List<String> actual = new ArrayList<String>();
+        final CloseableIterator<VariantContext> iterator = reader.query(contig, start, end);
+        while (iterator.hasNext()) actual.add(iterator.next().getID());
+        iterator.close();
+        Assert.assertEquals(actual, expected, contig + ":" + start + "-" + end);
+    }
+
+    @DataProvider(name = "conventionalOutputExtensions")
+    public Object[][] conventionalOutputExtensions() {
+        return new Object[][]{{".vcf"}, {".bcf"}};
+    }
+
+    @Test(dataProvider = "conventionalOutputExtensions")
+    public void testThreadedConventionalGatherMatchesUnthreaded(final String extension) throws IOException {
+        final File unthreaded = scatterAndGather("unthreaded", true, extension, false);
+        final File threaded = scatterAndGather("threaded", true, extension, true);
+        Assert.assertEquals(Files.readAllBytes(threaded.toPath()), Files.readAllBytes(unthreaded.toPath()));
+    }
+
+    @Test
+    public void testNoIndexWithoutInputIndexes() {
+        final File output = scatterAndGather("unindexed", false);
+        Assert.assertFalse(TabixIndexMerger.getIndexFile(output).exists());
+
+        final VCFFileReader reader = new VCFFileReader(output, false);
+        int count = 0;
+        for (final VariantContext vc : reader) Assert.assertEquals(vc.getID(), variants.get(count++).getID());
+        Assert.assertEquals(count, variants.size());
+        reader.close();
+    }
+}
@@ -10,6 +10,8 @@ import org.testng.annotations.Test;
 import picard.cmdline.CommandLineProgramTest;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 
 /**
@@ -167,4 +169,35 @@ public class LiftoverVcfTest extends CommandLineProgramTest {
             }
         }
     }
+
+    @DataProvider(name = "dataTestThreadedLiftoverMatchesUnthreaded")
+    public Object[][] dataTestThreadedLiftoverMatchesUnthreaded() {
+        return new Object[][]{
+                {"testLiftover.vcf", CHAIN_FILE},
+                {"testLiftoverUsingMissingContig.vcf", CHAIN_FILE_WITH_BAD_CONTIG}
+        };
+    }
+
+    @Test(dataProvider = "dataTestThreadedLiftoverMatchesUnthreaded")
+    public void testThreadedLiftoverMatchesUnthreaded(final String inputName, final File chainFile) throws IOException {
+        final File input = new File(TEST_DATA_PATH, inputName);
+        final File[] outputs = new File[4];
+        for (int threads = 1; threads <= 2; ++threads) {
+            final File liftOutputFile = outputs[2 * threads - 2] = new File(OUTPUT_DATA_PATH, "lift-threads" + threads + "-delete-me.vcf");
+            final File rejectOutputFile = outputs[2 * threads - 1] = new File(OUTPUT_DATA_PATH, "reject-threads" + threads + "-delete-me.vcf");
+            final String[] args = new String[]{
+                    "INPUT=" + input.getAbsolutePath(),
+                    "OUTPUT=" + liftOutputFile.getAbsolutePath(),
+                    "REJECT=" + rejectOutputFile.getAbsolutePath(),
+                    "CHAIN=" + chainFile,
+                    "REFERENCE_SEQUENCE=" + REFERENCE_FILE,
+                    "CREATE_INDEX=false",
+                    "WMC=true",
+                    "THREAD_COUNT=" + threads
+            };
+            Assert.assertEquals(runPicardCommandLine(args), 0);
+        }
+        Assert.assertEquals(Files.readAllLines(outputs[2].toPath()), Files.readAllLines(outputs[0].toPath()));
+        Assert.assertEquals(Files.readAllLines(outputs[3].toPath()), Files.readAllLines(outputs[1].toPath()));
+    }
 }
@@ -0,0 +1,55 @@
+package picard.vcf;
+
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import picard.cmdline.CommandLineProgramTest;
+
+import java.io.File;
+import java.io.IOException;
+
+public class MakeSitesOnlyVcfTest extends CommandLineProgramTest {
+
+    private static final File OUTPUT_DATA_PATH = IOUtil.createTempDir("MakeSitesOnlyVcfTest", null);
+
+    public String getCommandLineProgramName() {
+        return MakeSitesOnlyVcf.class.getSimpleName();
+    }
+
+    @AfterClass
+    public void teardown() {
+        IOUtil.deleteDirectoryTree(OUTPUT_DATA_PATH);
+    }
+
+    @DataProvider(name = "samples")
+    public Object[][] samples() {
+        return new Object[][]{{null}, {"NA12878"}};
+    }
+
+    @Test(dataProvider = "samples")
+    public void testInSegmentsMatchesSequential(final String sample) throws IOException {
+        final File directory = new File(OUTPUT_DATA_PATH, String.valueOf(sample));
+        Assert.assertTrue(directory.mkdir());
+        final File input = SplitVcfsTest.copyIndexedInput(directory);
+        final File sequential = new File(directory, "sequential.vcf.gz");
+        final File segmented = new File(directory, "segmented.vcf.gz");
+
+        Assert.assertEquals(runPicardCommandLine(new String[]{
+                "INPUT=" + input.getAbsolutePath(),
+                "OUTPUT=" + sequential.getAbsolutePath(),
+                sample == null ? "SAMPLE=null" : "SAMPLE=" + sample
+        }), 0);
+        Assert.assertEquals(runPicardCommandLine(new String[]{
+                "INPUT=" + input.getAbsolutePath(),
+                "OUTPUT=" + segmented.getAbsolutePath(),
+                sample == null ? "SAMPLE=null" : "SAMPLE=" + sample,
+                "THREAD_COUNT=4",
+                "TMP_DIR=" + directory.getAbsolutePath()
+        }), 0);
+
+        Assert.assertEquals(SplitVcfsTest.readLines(segmented), SplitVcfsTest.readLines(sequential));
+        SplitVcfsTest.assertQueriesMatch(segmented, sequential);
+    }
+}
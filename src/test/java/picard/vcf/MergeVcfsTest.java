@@ -1,7 +1,17 @@
 package picard.vcf;
 
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
 import picard.cmdline.CommandLineProgram;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Created by bradt on 9/3/14.
  */
@@ -11,4 +21,24 @@ public class MergeVcfsTest extends AbstractVcfMergingClpTester {
     protected CommandLineProgram getProgram() {
         return new MergeVcfs();
     }
+
+    @DataProvider(name = "outputExtensions")
+    public Object[][] outputExtensions() {
+        return new Object[][]{{".vcf"}, {".vcf.gz"}, {".bcf"}};
+    }
+
+    @Test(dataProvider = "outputExtensions")
+    public void testThreadedMergeMatchesUnthreaded(final String extension) throws IOException {
+        final List<File> inputs = new ArrayList<File>();
+        for (int i = 0; i < 6; ++i) inputs.add(new File(TEST_DATA_PATH, "CEUTrio-random-scatter-" + i + ".vcf"));
+
+        final File unthreaded = File.createTempFile("merge-unthreaded.", extension);
+        final File threaded = File.createTempFile("merge-threaded.", extension);
+        unthreaded.deleteOnExit();
+        threaded.deleteOnExit();
+
+        runClp(inputs, unthreaded, Arrays.asList("CREATE_INDEX=false"), 0);
+        runClp(inputs, threaded, Arrays.asList("CREATE_INDEX=false", "USE_THREADING=true"), 0);
+        Assert.assertEquals(Files.readAllBytes(threaded.toPath()), Files.readAllBytes(unthreaded.toPath()));
+    }
 }
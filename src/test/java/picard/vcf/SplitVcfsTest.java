@@ -1,5 +1,6 @@
 package picard.vcf;
 
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
@@ -9,6 +10,11 @@ import org.testng.annotations.Test;
 import picard.cmdline.CommandLineProgramTest;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Queue;
 
 public class SplitVcfsTest extends CommandLineProgramTest {
@@ -56,4 +62,58 @@ public class SplitVcfsTest extends CommandLineProgramTest {
 		Assert.assertEquals(indelContigPositions.size(), 0);
 		Assert.assertEquals(snpContigPositions.size(), 0);
 	}
+
+	/** Copies the test VCF and then its index, so that the index is newer than the VCF. */
+	static File copyIndexedInput(final File directory) throws IOException {
+		final File input = new File(TEST_DATA_PATH, "CEUTrio-merged-indels-snps.vcf");
+		final File copy = new File(directory, input.getName());
+		Files.copy(input.toPath(), copy.toPath());
+		Files.copy(new File(TEST_DATA_PATH, input.getName() + ".idx").toPath(), new File(directory, input.getName() + ".idx").toPath());
+		return copy;
+	}
+
+	@Test
+	public void testSplitInSegmentsMatchesSequential() throws IOException {
+		final File input = copyIndexedInput(OUTPUT_DATA_PATH);
+		final File[] sequential = {new File(OUTPUT_DATA_PATH, "sequential-snps.vcf.gz"), new File(OUTPUT_DATA_PATH, "sequential-indels.vcf.gz")};
+		final File[] segmented = {new File(OUTPUT_DATA_PATH, "segmented-snps.vcf.gz"), new File(OUTPUT_DATA_PATH, "segmented-indels.vcf.gz")};
+		Assert.assertTrue(SegmentedVcfProcessor.canProcessInSegments(input, Arrays.asList(segmented), new VCFFileReader(input).getFileHeader().getSequenceDictionary()));
+
+		Assert.assertEquals(runPicardCommandLine(new String[]{
+				"INPUT=" + input.getAbsolutePath(),
+				"SNP_OUTPUT=" + sequential[0].getAbsolutePath(),
+				"INDEL_OUTPUT=" + sequential[1].getAbsolutePath()
+		}), 0);
+		Assert.assertEquals(runPicardCommandLine(new String[]{
+				"INPUT=" + input.getAbsolutePath(),
+				"SNP_OUTPUT=" + segmented[0].getAbsolutePath(),
+				"INDEL_OUTPUT=" + segmented[1].getAbsolutePath(),
+				"THREAD_COUNT=4",
+				"TMP_DIR=" + OUTPUT_DATA_PATH.getAbsolutePath()
+		}), 0);
+
+		for (int i = 0; i < sequential.length; ++i) {
+			Assert.assertEquals(readLines(segmented[i]), readLines(sequential[i]));
+			assertQueriesMatch(segmented[i], sequential[i]);
+		}
+	}
+
+	static List<String> readLines(final File vcf) throws IOException {
+		return IOUtil.slurpLines(IOUtil.openFileForReading(vcf));
+	}
+
+	/** Checks that querying each contig of the given VCFs by their indexes finds the same records. */
+	static void assertQueriesMatch(final File actual, final File expected) {
+		final VCFFileReader actualReader = new VCFFileReader(actual, true);
+		final VCFFileReader expectedReader = new VCFFileReader(expected, true);
+		for (final SAMSequenceRecord contig : expectedReader.getFileHeader().getSequenceDictionary().getSequences()) {
+			final List<String> actualPositions = new ArrayList<String>();
+			final List<String> expectedPositions = new ArrayList<String>();
+			actualReader.query(contig.getSequenceName(), 1, contig.getSequenceLength()).forEachRemaining(vc -> actualPositions.add(AbstractVcfMergingClpTester.getContigPosition(vc)));
+			expectedReader.query(contig.getSequenceName(), 1, contig.getSequenceLength()).forEachRemaining(vc -> expectedPositions.add(AbstractVcfMergingClpTester.getContigPosition(vc)));
+			Assert.assertEquals(actualPositions, expectedPositions, contig.getSequenceName());
+		}
+		actualReader.close();
+		expectedReader.close();
+	}
 }
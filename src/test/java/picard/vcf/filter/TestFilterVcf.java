@@ -35,6 +35,10 @@ import picard.vcf.filter.FilterVcf;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -83,6 +87,64 @@ public class TestFilterVcf {
 		Assert.assertEquals(count, expectedNumber);
 	}
     
+    /** Tests that filtering on several threads gives just what filtering on one does, from VCFs plain and gzipped. */
+    @Test public void testParallelFilteringMatchesSequential() throws Exception {
+        final File javascript = quickJavascriptFilter("variant.getStart()%5 != 0");
+        final File gzipped = filterWithThreads(INPUT, null, 1, ".vcf.gz");
+        for (final File input : new File[]{INPUT, gzipped}) {
+            final File sequential = filterWithThreads(input, javascript, 1, ".vcf");
+            final File parallel = filterWithThreads(input, javascript, 4, ".vcf");
+            Assert.assertEquals(Files.readAllBytes(parallel.toPath()), Files.readAllBytes(sequential.toPath()));
+        }
+    }
+
+    /** Tests that the parallel filtering iterator returns the same records in the same order whatever the size of its batches. */
+    @Test public void testParallelIteratorMatchesSequentialInAnyBatchSize() {
+        final VCFFileReader reader = new VCFFileReader(INPUT, false);
+        final List<String> expected = new ArrayList<String>();
+        final FilterApplyingVariantIterator sequential = new FilterApplyingVariantIterator(reader.iterator(),
+                makeVariantFilters(), makeGenotypeFilters());
+        while (sequential.hasNext()) expected.add(sequential.next().toStringDecodeGenotypes());
+        sequential.close();
+        reader.close();
+
+        for (final int batchCharacters : new int[]{1, 1000, 100000}) {
+            final ParallelFilterApplyingVariantIterator parallel = new ParallelFilterApplyingVariantIterator(INPUT,
+                    this::makeVariantFilters, this::makeGenotypeFilters, 3, batchCharacters);
+            final List<String> actual = new ArrayList<String>();
+            while (parallel.hasNext()) actual.add(parallel.next().toStringDecodeGenotypes());
+            parallel.close();
+            Assert.assertEquals(actual, expected);
+        }
+    }
+
+    private Collection<VariantFilter> makeVariantFilters() {
+        return CollectionUtil.<VariantFilter>makeList(new AlleleBalanceFilter(0.4), new FisherStrandFilter(5.0d), new QdFilter(0));
+    }
+
+    private Collection<GenotypeFilter> makeGenotypeFilters() {
+        return CollectionUtil.makeList(new GenotypeQualityFilter(22), new DepthFilter(18));
+    }
+
+    /** Filters the given VCF with the filters of testCombinedFiltering and the given javascript, on the given number of threads. */
+    private File filterWithThreads(final File vcf, final File javascript, final int threads, final String outputExtension) throws Exception {
+        final File out = File.createTempFile("filterVcfTest.", outputExtension);
+        out.deleteOnExit();
+        new File(out.getPath() + (outputExtension.endsWith(".gz") ? ".tbi" : ".idx")).deleteOnExit();
+
+        final FilterVcf filterer = new FilterVcf();
+        filterer.INPUT = vcf;
+        filterer.OUTPUT = out;
+        filterer.MIN_AB = 0.4;
+        filterer.MIN_DP = 18;
+        filterer.MIN_GQ = 22;
+        filterer.MAX_FS = 5.0d;
+        filterer.JAVASCRIPT_FILE = javascript;
+        filterer.THREAD_COUNT = threads;
+        Assert.assertEquals(filterer.doWork(), 0);
+        return out;
+    }
+
     /** Returns a sorted copy of the supplied set, for safer comparison. */
     <T extends Comparable> SortedSet<T> sorted(Set<T> in) { return new TreeSet<T>(in); }
 
@@ -26,6 +26,7 @@ package picard.vcf.processor;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.File;
@@ -45,8 +46,13 @@ public class AccumulatorExecutorTest {
             new File("testdata/picard/vcf/CEUTrio-merged-indels-snps.vcf")
     );
 
-    @Test
-    public void test() throws Exception {
+    @DataProvider(name = "chunkings")
+    public Object[][] chunkings() {
+        return new Object[][]{{false}, {true}};
+    }
+
+    @Test(dataProvider = "chunkings")
+    public void test(final boolean byEstimatedSize) throws Exception {
         // Fist, read variants via a known, functional mechanism
         final Set<String> actualVariantContextStrings = Collections.synchronizedSet(new HashSet<String>());
         for (final File testVcf : TEST_VCFS) {
@@ -60,7 +66,9 @@ public class AccumulatorExecutorTest {
             final Set<String> observedVariantContextStrings = Collections.synchronizedSet(new HashSet<String>());
             final VariantAccumulatorExecutor executor = new VariantAccumulatorExecutor.MultiThreadedChunkBased(
                     i,
-                    VariantIteratorProducer.byHundredMegabaseChunks(TEST_VCFS),
+                    byEstimatedSize
+                            ? VariantIteratorProducer.byEstimatedSizeChunks(TEST_VCFS, null, 8 * i)
+                            : VariantIteratorProducer.byHundredMegabaseChunks(TEST_VCFS),
                     new VariantProcessor.AccumulatorGenerator() {
                         @Override
                         public VariantProcessor.Accumulator build() {
@@ -80,6 +88,7 @@ public class AccumulatorExecutorTest {
             );
             executor.start();
             executor.awaitCompletion();
+            Assert.assertEquals(((VariantAccumulatorExecutor.MultiThreadedChunkBased) executor).busyNanosPerThread().size(), i);
             Assert.assertTrue(actualVariantContextStrings.equals(observedVariantContextStrings));
         }
     }
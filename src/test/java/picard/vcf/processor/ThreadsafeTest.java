@@ -28,6 +28,7 @@ import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.File;
@@ -42,11 +43,19 @@ public class ThreadsafeTest {
     static final int TEN_MILLION = (int) 10e6;
     static final File VCF_WITH_MULTI_ALLELIC_VARIANT_AT_POSITION_10MILLION = new File("testdata/picard/vcf/chunking/multi_allelic_at_10M.vcf");
 
-    @Test
-    public void ensureUniqueVariantObservationsEspeciallyMultiAllelicOnesThatAppearAtChunkingBoundaries() {
+    @DataProvider(name = "segmenters")
+    public Object[][] segmenters() {
+        return new Object[][]{
+                {VcfFileSegmentGenerator.byWholeContigSubdividingWithWidth(TEN_MILLION)},
+                {VcfFileSegmentGenerator.byEstimatedSizeFromIndex(100, TEN_MILLION / 10)}
+        };
+    }
+
+    @Test(dataProvider = "segmenters")
+    public void ensureUniqueVariantObservationsEspeciallyMultiAllelicOnesThatAppearAtChunkingBoundaries(final VcfFileSegmentGenerator segmenter) {
         final VariantIteratorProducer.Threadsafe iteratorFactory =
                 new VariantIteratorProducer.Threadsafe(
-                        VcfFileSegmentGenerator.byWholeContigSubdividingWithWidth(TEN_MILLION),
+                        segmenter,
                         Arrays.asList(VCF_WITH_MULTI_ALLELIC_VARIANT_AT_POSITION_10MILLION)
                 );
         final Set<String> observed = new HashSet<String>();
@@ -70,11 +79,11 @@ public class ThreadsafeTest {
         r.close();
     }
     
-    @Test
-    public void ensureSameVariantsReadAsSimpleVcfFileIterator() {
+    @Test(dataProvider = "segmenters")
+    public void ensureSameVariantsReadAsSimpleVcfFileIterator(final VcfFileSegmentGenerator segmenter) {
         final VariantIteratorProducer.Threadsafe iteratorFactory =
                 new VariantIteratorProducer.Threadsafe(
-                        VcfFileSegmentGenerator.byWholeContigSubdividingWithWidth(TEN_MILLION),
+                        segmenter,
                         Arrays.asList(VCF_WITH_MULTI_ALLELIC_VARIANT_AT_POSITION_10MILLION)
                 );
         final Set<String> observedVcs = new HashSet<String>();
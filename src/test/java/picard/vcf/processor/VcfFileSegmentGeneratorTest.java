@@ -24,13 +24,34 @@
 package picard.vcf.processor;
 
 import com.google.common.collect.Iterables;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.OverlapDetector;
+import htsjdk.tribble.Tribble;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterFactory;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author mccowan
@@ -52,4 +73,87 @@ public class VcfFileSegmentGeneratorTest {
         final VcfFileSegmentGenerator allFiltered = VcfFileSegmentGenerator.excludingNonOverlaps(noFilter, oneTinyIntervalDetector);
         Assert.assertEquals(Iterables.size(allFiltered.forVcf(VCF_WITH_LOGS_OF_GAPS)), 1);
     }
+
+    @Test
+    public void estimatedSizeSegmentsTileEachContigTest() {
+        final int segmentCount = 40;
+        final int minimumWidth = (int) 1e6;
+        final List<VcfFileSegment> segments = new ArrayList<VcfFileSegment>();
+        Iterables.addAll(segments, VcfFileSegmentGenerator.byEstimatedSizeFromIndex(segmentCount, minimumWidth).forVcf(VCF_WITH_LOGS_OF_GAPS));
+
+        // Every contig is covered from its start to its end by consecutive segments
+        final Map<String, Integer> nextStarts = new LinkedHashMap<String, Integer>();
+        for (final SAMSequenceRecord sequence : VcfFileSegmentGenerator.ByWholeContig.readSequences(VCF_WITH_LOGS_OF_GAPS)) {
+            nextStarts.put(sequence.getSequenceName(), 1);
+        }
+        for (final VcfFileSegment segment : segments) {
+            Assert.assertEquals(segment.start(), (int) nextStarts.get(segment.contig()), segment.toString());
+            Assert.assertTrue(segment.stop() >= segment.start(), segment.toString());
+            nextStarts.put(segment.contig(), segment.stop() + 1);
+        }
+        for (final SAMSequenceRecord sequence : VcfFileSegmentGenerator.ByWholeContig.readSequences(VCF_WITH_LOGS_OF_GAPS)) {
+            Assert.assertEquals((int) nextStarts.get(sequence.getSequenceName()), sequence.getSequenceLength() + 1);
+        }
+
+        // Contigs without variants take one segment each, and the rest are divided into no more than about the number asked for
+        int contigsWithoutVariants = 0;
+        final VCFFileReader reader = new VCFFileReader(VCF_WITH_LOGS_OF_GAPS);
+        for (final SAMSequenceRecord sequence : reader.getFileHeader().getSequenceDictionary().getSequences()) {
+            if (!reader.query(sequence.getSequenceName(), 1, sequence.getSequenceLength()).hasNext()) contigsWithoutVariants++;
+        }
+        reader.close();
+        Assert.assertTrue(segments.size() - contigsWithoutVariants <= 2 * segmentCount, "Too many segments: " + segments.size());
+
+        // Asking for one segment leaves each contig whole
+        final List<VcfFileSegment> wholeContigs = new ArrayList<VcfFileSegment>();
+        Iterables.addAll(wholeContigs, VcfFileSegmentGenerator.byEstimatedSizeFromIndex(1, minimumWidth).forVcf(VCF_WITH_LOGS_OF_GAPS));
+        Assert.assertEquals(wholeContigs.size(), nextStarts.size());
+    }
+
+    @Test
+    public void estimatedSizeSegmentsBalanceAcrossGapsTest() {
+        // A tabix-indexed vcf with two dense clusters of variants separated by a gap, in which windows have no index blocks
+        final int contigLength = TEN_MILLION;
+        final SAMSequenceDictionary dictionary = new SAMSequenceDictionary(Collections.singletonList(new SAMSequenceRecord("chr1", contigLength)));
+        final File tempDir = IOUtil.createTempDir("VcfFileSegmentGeneratorTest", null);
+        try {
+            final File vcf = new File(tempDir, "gaps.vcf.gz");
+            final VariantContextWriter writer = VariantContextWriterFactory.create(vcf, dictionary, EnumSet.of(Options.INDEX_ON_THE_FLY));
+            final VCFHeader header = new VCFHeader(Collections.<VCFHeaderLine>emptySet(), Collections.<String>emptyList());
+            header.setSequenceDictionary(dictionary);
+            writer.writeHeader(header);
+            final List<Allele> alleles = Arrays.asList(Allele.create("A", true), Allele.create("C"));
+            int variantCount = 0;
+            for (int pos = 1; pos <= contigLength; pos += 20) {
+                if (pos > contigLength / 10 && pos <= contigLength - contigLength / 10) continue;
+                writer.add(new VariantContextBuilder("test", "chr1", pos, pos, alleles).id("rs" + variantCount++).make());
+            }
+            writer.close();
+            Assert.assertTrue(Tribble.tabixIndexFile(vcf).exists());
+
+            final int segmentCount = 4;
+            final List<VcfFileSegment> segments = new ArrayList<VcfFileSegment>();
+            Iterables.addAll(segments, VcfFileSegmentGenerator.byEstimatedSizeFromIndex(segmentCount, 100000).forVcf(vcf));
+
+            // No segment holds much more than its share of the variants, which it would if a gap put the rest of the contig in one
+            final VCFFileReader reader = new VCFFileReader(vcf, true);
+            int counted = 0;
+            for (final VcfFileSegment segment : segments) {
+                int segmentVariants = 0;
+                final CloseableIterator<VariantContext> iterator = reader.query(segment.contig(), segment.start(), segment.stop());
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    segmentVariants++;
+                }
+                iterator.close();
+                Assert.assertTrue(segmentVariants <= 1.5 * variantCount / segmentCount,
+                        segment + " holds " + segmentVariants + " of " + variantCount + " variants.");
+                counted += segmentVariants;
+            }
+            reader.close();
+            Assert.assertEquals(counted, variantCount);
+        } finally {
+            IOUtil.deleteDirectoryTree(tempDir);
+        }
+    }
 }